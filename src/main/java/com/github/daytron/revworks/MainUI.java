@@ -18,14 +18,28 @@ package com.github.daytron.revworks;
 import com.github.daytron.revworks.authentication.AccessControl;
 import com.github.daytron.revworks.authentication.UserAccessControl;
 import com.github.daytron.revworks.authentication.UserAuthentication;
+import com.github.daytron.revworks.data.FilePath;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.model.User;
+import com.github.daytron.revworks.service.ChangeHub;
+import com.github.daytron.revworks.service.ClusterBroadcast;
+import com.github.daytron.revworks.service.ClusterEvent;
+import com.github.daytron.revworks.service.CourseworkBlobCleanup;
+import com.github.daytron.revworks.service.CourseworkStorage;
 import com.github.daytron.revworks.service.CurrentUserSession;
+import com.github.daytron.revworks.service.InProcessClusterBroadcast;
 import com.github.daytron.revworks.service.LecturerDataProviderImpl;
+import com.github.daytron.revworks.service.PageImageCache;
+import com.github.daytron.revworks.service.PdfRenderingEngine;
+import com.github.daytron.revworks.service.ReferenceDataCache;
+import com.github.daytron.revworks.service.NotificationDispatcher;
 import com.github.daytron.revworks.service.NotificationProvider;
+import com.github.daytron.revworks.service.OutboxClusterBroadcast;
 import com.github.daytron.revworks.service.SQLConnectionManager;
 import com.github.daytron.revworks.service.StudentDataProviderImpl;
+import com.github.daytron.revworks.service.ThumbnailService;
+import com.github.daytron.revworks.service.UploadSpool;
 import com.github.daytron.revworks.service.admin.AdminDataInserter;
 import com.github.daytron.revworks.view.LoginScreen;
 import com.github.daytron.revworks.view.admin.Dashboard;
@@ -33,6 +47,7 @@ import com.github.daytron.revworks.view.main.CommentComponent;
 import com.github.daytron.revworks.view.main.CourseworkView;
 import com.github.daytron.revworks.view.main.HeaderComponent;
 import com.github.daytron.revworks.view.main.MainView;
+import com.github.daytron.revworks.util.PageImageEncoder;
 import com.google.common.eventbus.Subscribe;
 import com.vaadin.annotations.Push;
 import javax.servlet.annotation.WebServlet;
@@ -40,7 +55,6 @@ import javax.servlet.annotation.WebServlet;
 import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.VaadinServletConfiguration;
 import com.vaadin.annotations.Widgetset;
-import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.event.LayoutEvents;
 import com.vaadin.server.Responsive;
 import com.vaadin.server.SessionDestroyEvent;
@@ -49,13 +63,20 @@ import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinService;
 import com.vaadin.server.VaadinServlet;
 import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.JavaScriptFunction;
 import com.vaadin.ui.UI;
 import com.vaadin.ui.Window;
+import elemental.json.JsonArray;
 import java.io.File;
+import java.io.IOException;
 import java.security.Principal;
+import java.sql.SQLException;
 import java.util.Map;
+import java.util.MissingResourceException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.ServletException;
 
 /**
@@ -67,12 +88,12 @@ import javax.servlet.ServletException;
 @Widgetset("com.github.daytron.revworks.MyAppWidgetset")
 public class MainUI extends UI {
 
+    private static final String VISIBILITY_CALLBACK = "revworksVisibility";
+
     private final AccessControl accessControl
             = new UserAccessControl();
     private final AppEventBus appEventBus
             = new AppEventBus();
-    private final SQLConnectionManager connectionManager
-            = new SQLConnectionManager();
     private final LecturerDataProviderImpl lecturerDataProvider
             = new LecturerDataProviderImpl();
     private final StudentDataProviderImpl studentDataProvider
@@ -96,6 +117,7 @@ public class MainUI extends UI {
         setLocale(vaadinRequest.getLocale());
 
         registerEventHandlers();
+        registerVisibilityCallback();
 
         getPage().setTitle("RevWorks");
 
@@ -131,10 +153,11 @@ public class MainUI extends UI {
      * {@link SQLConnectionManager} is responsible for connecting to 
      * MySQL database server.
      * 
-     * @return SQLConnectionManager is only instantiated once. 
+     * @return SQLConnectionManager is only instantiated once by the servlet 
+     * and shared by all UIs. 
      */
     public SQLConnectionManager getConnectionManager() {
-        return connectionManager;
+        return MainUIServlet.getConnectionManager();
     }
 
     /**
@@ -229,6 +252,30 @@ public class MainUI extends UI {
         AppEventBus.register(this);
     }
 
+    /**
+     * Makes the browser report when the tab of this UI is hidden or shown. 
+     * The background refreshes of a hidden tab slow down, and its data is 
+     * refreshed as soon as it is shown again.
+     */
+    private void registerVisibilityCallback() {
+        getPage().getJavaScript().addFunction(VISIBILITY_CALLBACK,
+                new JavaScriptFunction() {
+
+                    @Override
+                    public void call(JsonArray arguments) {
+                        ChangeHub changeHub = MainUIServlet.getChangeHub();
+                        if (changeHub != null && arguments.length() > 0) {
+                            changeHub.setClientHidden(MainUI.this,
+                                    arguments.getBoolean(0));
+                        }
+                    }
+                });
+
+        getPage().getJavaScript().execute(
+                "document.addEventListener('visibilitychange', function() {"
+                + VISIBILITY_CALLBACK + "(document.hidden); });");
+    }
+
     /**
      * This is an external window used for displaying user notifications. Acts 
      * as a popup window.
@@ -263,6 +310,11 @@ public class MainUI extends UI {
 
             // Unpause the auto retrieve notification after closing window
             notificationsProvider.setPause(false);
+            HeaderComponent dashboardHeader
+                    = CurrentUserSession.getDashboardHeader();
+            if (dashboardHeader != null) {
+                dashboardHeader.refreshNotifications();
+            }
         }
     }
 
@@ -286,11 +338,50 @@ public class MainUI extends UI {
         private static final ConcurrentHashMap<String, VaadinSession> 
                 listOfUserSessions = new ConcurrentHashMap<>();
 
+        private static volatile SQLConnectionManager connectionManager = null;
+        private static volatile CourseworkStorage courseworkStorage = null;
+        private static volatile UploadSpool uploadSpool = null;
+        private static volatile PageImageCache pageImageCache = null;
+        private static volatile PdfRenderingEngine renderingEngine = null;
+        private static volatile ThumbnailService thumbnailService = null;
+        private static volatile ChangeHub changeHub = null;
+        private static volatile NotificationDispatcher notificationDispatcher
+                = null;
+        private static volatile ClusterBroadcast clusterBroadcast = null;
+        private static volatile ReferenceDataCache referenceDataCache = null;
+        private static volatile CourseworkBlobCleanup courseworkBlobCleanup
+                = null;
+
+        // Size bounds of the rendered page cache
+        private static final long PAGE_CACHE_MEMORY_BYTES = 64L * 1024 * 1024;
+        private static final long PAGE_CACHE_DISK_BYTES = 1024L * 1024 * 1024;
+        // Text pages stay lossless, scanned pages are written as JPEG
+        private static final PageImageEncoder.Mode PAGE_ENCODING
+                = PageImageEncoder.Mode.AUTO;
+        private static final float PAGE_JPEG_QUALITY = 0.85f;
+        // Threads refreshing UIs after a change, shared by every session
+        private static final int CHANGE_HUB_THREADS = 4;
+        // Optional property choosing how events reach the other nodes, 
+        // either "outbox" (default) or "local" for a single server
+        private static final String CLUSTER_BROADCAST_KEY = "cluster.broadcast";
+        // Required property locating the coursework store, a directory 
+        // outside the webapp on storage shared by every node
+        private static final String COURSEWORK_STORE_KEY
+                = "storage.courseworkStore";
+        // Required property locating the upload spool, a directory outside 
+        // the webapp owned by this node, best on the file system of the store
+        private static final String UPLOAD_SPOOL_KEY = "storage.uploadSpool";
+        // Optional property clearing the BLOBs of migrated courseworks once 
+        // their stored copy is verified
+        private static final String CLEAR_MIGRATED_BLOBS_KEY
+                = "storage.clearMigratedBlobs";
+
         /**
          * Saves the new session to the collection member,
          * ConcurrentHashmap. If the user is previously login in other session,
          * it automatically closes the previous session to prevent multi-login
-         * sessions for a single user.
+         * sessions for a single user. The other nodes of the cluster are told 
+         * as well, so they close theirs.
          *
          * @param userID The id of the user
          * @param currentSession The session that is about to be recorded.
@@ -314,6 +405,53 @@ public class MainUI extends UI {
             System.out.println("### Added new session: user: " + userID
                     + " - After new session is invoke.");
             printSessions("after a user: " + userID + " login");
+
+            if (clusterBroadcast != null) {
+                clusterBroadcast.publish(ClusterEvent.Type.USER_SIGNED_IN,
+                        null, Integer.parseInt(userID));
+            }
+        }
+
+        /**
+         * Handles an event sent by another node. Changed data is published 
+         * to the local change hub, a sign in closes the local session of the 
+         * same user.
+         *
+         * @param event the ClusterEvent object received
+         */
+        private static void handleClusterEvent(ClusterEvent event) {
+            switch (event.getType()) {
+                case DATA_CHANGED:
+                    final ChangeHub currentChangeHub = changeHub;
+                    if (currentChangeHub != null) {
+                        currentChangeHub.publish(event.getTopic(),
+                                event.getKey());
+                    }
+                    break;
+                case USER_SIGNED_IN:
+                    final String userID = Integer.toString(event.getKey());
+                    final VaadinSession previousSession
+                            = listOfUserSessions.get(userID);
+
+                    if (previousSession != null) {
+                        previousSession.access(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                previousSession.close();
+                                previousSession.getSession().invalidate();
+                            }
+                        });
+
+                        Logger.getLogger(MainUIServlet.class.getName())
+                                .log(Level.INFO, "Closing session of user: "
+                                        + userID
+                                        + " signed in on another node.");
+                    }
+                    break;
+                default:
+                    break;
+            }
         }
 
         /**
@@ -326,6 +464,116 @@ public class MainUI extends UI {
             return listOfUserSessions;
         }
 
+        /**
+         * Access the connection manager shared by every session of this 
+         * servlet.
+         *
+         * @return {@link SQLConnectionManager} object or null if the servlet 
+         * is not yet initialised
+         */
+        public static SQLConnectionManager getConnectionManager() {
+            return connectionManager;
+        }
+
+        /**
+         * Access the coursework store shared by every session of this 
+         * servlet.
+         *
+         * @return {@link CourseworkStorage} object or null if the servlet is 
+         * not yet initialised
+         */
+        public static CourseworkStorage getCourseworkStorage() {
+            return courseworkStorage;
+        }
+
+        /**
+         * Access the spool directory every upload of this servlet is 
+         * streamed to.
+         *
+         * @return {@link UploadSpool} object or null if the servlet is not 
+         * yet initialised
+         */
+        public static UploadSpool getUploadSpool() {
+            return uploadSpool;
+        }
+
+        /**
+         * Access the cache of rendered coursework pages shared by every 
+         * session of this servlet.
+         *
+         * @return {@link PageImageCache} object or null if the servlet is 
+         * not yet initialised
+         */
+        public static PageImageCache getPageImageCache() {
+            return pageImageCache;
+        }
+
+        /**
+         * Access the engine rendering coursework pages for every session of 
+         * this servlet.
+         *
+         * @return {@link PdfRenderingEngine} object or null if the servlet 
+         * is not yet initialised
+         */
+        public static PdfRenderingEngine getRenderingEngine() {
+            return renderingEngine;
+        }
+
+        /**
+         * Access the service producing page thumbnails for every session of 
+         * this servlet.
+         *
+         * @return {@link ThumbnailService} object or null if the servlet is 
+         * not yet initialised
+         */
+        public static ThumbnailService getThumbnailService() {
+            return thumbnailService;
+        }
+
+        /**
+         * Access the hub that tells the UIs of every session of this servlet 
+         * about changed notes, comments and notifications.
+         *
+         * @return {@link ChangeHub} object or null if the servlet is not yet 
+         * initialised
+         */
+        public static ChangeHub getChangeHub() {
+            return changeHub;
+        }
+
+        /**
+         * Access the dispatcher handing new notifications to the live 
+         * sessions of their recipients.
+         *
+         * @return {@link NotificationDispatcher} object or null if the 
+         * servlet is not yet initialised
+         */
+        public static NotificationDispatcher getNotificationDispatcher() {
+            return notificationDispatcher;
+        }
+
+        /**
+         * Access the broadcast sending changes and sign ins to the other 
+         * nodes of the cluster.
+         *
+         * @return {@link ClusterBroadcast} object or null if the servlet is 
+         * not yet initialised
+         */
+        public static ClusterBroadcast getClusterBroadcast() {
+            return clusterBroadcast;
+        }
+
+        /**
+         * Access the cache of the current semester, its classes, modules and 
+         * lecturers shared by every session of this servlet.
+         *
+         * @return {@link ReferenceDataCache} object or null if the servlet 
+         * is not yet initialised
+         */
+        public static ReferenceDataCache getReferenceDataCache() {
+            return referenceDataCache;
+        }
+
         /**
          * Simply prints the sessions for logging purposes.
          *
@@ -350,7 +598,13 @@ public class MainUI extends UI {
         /**
          * Overrides servletInitialized method from {@link VaadinServlet} to
          * attached a custom {@link SessionDestroyListener}, which is the same
-         * object of this class.
+         * object of this class. It also creates the one and only JDBC 
+         * connection pool, the coursework store, the upload spool, the 
+         * rendered page cache, the rendering engine, the change hub, the 
+         * notification dispatcher, the cluster broadcast and the reference 
+         * data cache used by every session of this servlet. Startup fails if 
+         * the coursework store or the upload spool is not configured or 
+         * cannot be written to.
          *
          * @throws ServletException for failing to initialise the servlet
          */
@@ -358,6 +612,176 @@ public class MainUI extends UI {
         protected void servletInitialized() throws ServletException {
             super.servletInitialized();
             VaadinService.getCurrent().addSessionDestroyListener(this);
+
+            SQLConnectionManager newConnectionManager = new SQLConnectionManager();
+            try {
+                newConnectionManager.connect();
+            } catch (SQLException | MissingResourceException ex) {
+                // Keep the manager so the pool can still be created on the 
+                // first query once the database becomes reachable
+                Logger.getLogger(MainUIServlet.class.getName())
+                        .log(Level.SEVERE, null, ex);
+            }
+            connectionManager = newConnectionManager;
+            referenceDataCache = new ReferenceDataCache();
+
+            try {
+                courseworkStorage = new CourseworkStorage(getStorageDirectory(
+                        newConnectionManager, COURSEWORK_STORE_KEY));
+                uploadSpool = new UploadSpool(getStorageDirectory(
+                        newConnectionManager, UPLOAD_SPOOL_KEY));
+            } catch (IOException ex) {
+                throw new ServletException(ex);
+            }
+
+            if (Boolean.parseBoolean(newConnectionManager.getProperty(
+                    CLEAR_MIGRATED_BLOBS_KEY, "false"))) {
+                final CourseworkBlobCleanup newBlobCleanup
+                        = new CourseworkBlobCleanup(courseworkStorage);
+                final Thread cleanupThread = new Thread(newBlobCleanup,
+                        "revworks-blob-cleanup");
+                cleanupThread.setDaemon(true);
+                cleanupThread.start();
+                courseworkBlobCleanup = newBlobCleanup;
+            }
+
+            pageImageCache = new PageImageCache(new File(
+                    VaadinService.getCurrent().getBaseDirectory(),
+                    FilePath.PAGE_IMAGE_CACHE.getPath()),
+                    PAGE_CACHE_MEMORY_BYTES, PAGE_CACHE_DISK_BYTES);
+            renderingEngine = new PdfRenderingEngine(pageImageCache,
+                    new PageImageEncoder(PAGE_ENCODING, PAGE_JPEG_QUALITY));
+            thumbnailService = new ThumbnailService(pageImageCache,
+                    renderingEngine);
+            changeHub = new ChangeHub(CHANGE_HUB_THREADS);
+            notificationDispatcher = new NotificationDispatcher(
+                    listOfUserSessions);
+
+            final ClusterBroadcast newClusterBroadcast;
+            if ("local".equalsIgnoreCase(newConnectionManager.getProperty(
+                    CLUSTER_BROADCAST_KEY, "outbox"))) {
+                newClusterBroadcast = new InProcessClusterBroadcast();
+            } else {
+                newClusterBroadcast = new OutboxClusterBroadcast();
+            }
+            newClusterBroadcast.addListener(new ClusterBroadcast.Listener() {
+
+                @Override
+                public void onEvent(ClusterEvent event) {
+                    handleClusterEvent(event);
+                }
+            });
+            clusterBroadcast = newClusterBroadcast;
+        }
+
+        /**
+         * Reads a required storage directory from the properties file. The 
+         * directory must lie outside the webapp, which is wiped on every 
+         * redeploy and is not shared with the other nodes.
+         *
+         * @param sqlConnectionManager the manager reading the properties file
+         * @param key the property key
+         * @return the File object of the directory
+         * @throws ServletException if the property is missing or points into 
+         * the webapp
+         */
+        private static File getStorageDirectory(
+                SQLConnectionManager sqlConnectionManager, String key)
+                throws ServletException {
+            final String path = sqlConnectionManager.getProperty(key, "");
+            if (path.isEmpty()) {
+                throw new ServletException("Missing required property: "
+                        + key);
+            }
+
+            final File directory = new File(path);
+            try {
+                final String webappPath = VaadinService.getCurrent()
+                        .getBaseDirectory().getCanonicalPath()
+                        + File.separator;
+                if ((directory.getCanonicalPath() + File.separator)
+                        .startsWith(webappPath)) {
+                    throw new ServletException("Property " + key
+                            + " must point outside the webapp: " + path);
+                }
+            } catch (IOException ex) {
+                throw new ServletException(ex);
+            }
+
+            return directory;
+        }
+
+        /**
+         * Overrides destroy method to close all pooled database connections 
+         * when the application is undeployed and to stop the change hub and 
+         * rendering threads. The cluster broadcast, change hub, notification 
+         * delivery, reference data, upload spool, page cache, page encoding 
+         * and rendering usage is logged as well.
+         */
+        @Override
+        public void destroy() {
+            if (courseworkBlobCleanup != null) {
+                courseworkBlobCleanup.stop();
+                courseworkBlobCleanup = null;
+            }
+
+            if (referenceDataCache != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Reference data cache usage: {0}",
+                        referenceDataCache.getStatistics());
+                referenceDataCache = null;
+            }
+
+            if (clusterBroadcast != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Cluster broadcast: {0}",
+                        clusterBroadcast.getStatistics());
+                clusterBroadcast.shutdown();
+                clusterBroadcast = null;
+            }
+
+            if (notificationDispatcher != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Notification delivery: {0}",
+                        notificationDispatcher.getStatistics());
+                notificationDispatcher = null;
+            }
+
+            if (changeHub != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Change hub usage: {0}", changeHub.getStatistics());
+                changeHub.shutdown();
+                changeHub = null;
+            }
+
+            if (uploadSpool != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Upload spool usage: {0}", uploadSpool.getStatistics());
+            }
+
+            if (renderingEngine != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Page encoding: {0}",
+                        renderingEngine.getPageImageEncoder().getStatistics());
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Page rendering: {0}", renderingEngine.getStatistics());
+                renderingEngine.shutdown();
+                renderingEngine = null;
+                thumbnailService = null;
+            }
+
+            if (pageImageCache != null) {
+                Logger.getLogger(MainUIServlet.class.getName()).log(Level.INFO,
+                        "Page image cache usage: {0}",
+                        pageImageCache.getStatistics());
+            }
+
+            if (connectionManager != null) {
+                connectionManager.shutdown();
+                connectionManager = null;
+            }
+
+            super.destroy();
         }
 
         /**
@@ -411,15 +835,6 @@ public class MainUI extends UI {
                         }
                     }
 
-                    // Explicitly cleanup all available or reserve connections 
-                    // in the connection pool to free up MYSQL connection load
-                    JDBCConnectionPool jdbccp = ((JDBCConnectionPool) event.getSession()
-                            .getAttribute(CurrentUserSession.JDBC_CONNECTION_POOL_KEY));
-
-                    if (jdbccp != null) {
-                        jdbccp.destroy();
-                    }
-
                     System.out.println("Closing session for user: " + user.getName());
 
                     // Remove the closed session from list
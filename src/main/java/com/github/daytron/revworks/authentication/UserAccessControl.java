@@ -33,7 +33,7 @@ import com.github.daytron.revworks.event.AppEvent.*;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
 import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPoolException;
-import com.github.daytron.revworks.model.ClassTable;
+import com.github.daytron.revworks.service.ClassTableIndex;
 import com.github.daytron.revworks.service.LecturerDataInserterImpl;
 import com.github.daytron.revworks.service.NotificationInserter;
 import com.github.daytron.revworks.service.StudentDataInserterImpl;
@@ -41,7 +41,6 @@ import com.github.daytron.revworks.view.AdminLoginPopup;
 import com.github.daytron.revworks.util.NotificationUtil;
 import com.google.common.eventbus.Subscribe;
 import com.vaadin.data.Validator;
-import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.server.Page;
 import com.vaadin.server.VaadinServlet;
 import com.vaadin.server.VaadinSession;
@@ -49,7 +48,6 @@ import com.vaadin.ui.Notification;
 import com.vaadin.ui.TextField;
 import com.vaadin.ui.UI;
 import java.security.Principal;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -111,19 +109,17 @@ public class UserAccessControl implements AccessControl {
 
             user = userAuthentication.authenticate(userType, userName, password);
 
-            CopyOnWriteArrayList<ClassTable> listOfClassTable
+            ClassTableIndex listOfClassTable
                     = userAuthentication.extractClassTables(userType, user,
                             semesterID);
 
-            JDBCConnectionPool connectionPool = userAuthentication.getConnectionPool();
-            
+
             // Saves data to the current session
             // if sign-in on a date 
             // that there is no ongoing semester the semesterID 
             // variable is empty String.
             // if no class found, listOfClassTable is empty too
-            CurrentUserSession.set(user, semesterID, listOfClassTable,
-                    connectionPool);
+            CurrentUserSession.set(user, semesterID, listOfClassTable);
             
             // Verifies if this is the only login session for the current user
             // If this is second login session made by the user,
@@ -210,8 +206,7 @@ public class UserAccessControl implements AccessControl {
             // variable is empty String.
             // Default list of classes is empty as well
             CurrentUserSession.set(adminUser, semesterID,
-                    new CopyOnWriteArrayList<>(), 
-                    userAuthentication.getConnectionPool());
+                    ClassTableIndex.EMPTY);
 
             // Verifies if this is the only login session for the current user
             // If this is second login session made by the user,
@@ -15,6 +15,7 @@
  */
 package com.github.daytron.revworks.authentication;
 
+import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.exception.AuthenticationException;
 import com.github.daytron.revworks.model.LecturerUser;
 import com.github.daytron.revworks.model.StudentUser;
@@ -24,14 +25,15 @@ import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.data.UserType;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
 import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPoolException;
-import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.User;
+import com.github.daytron.revworks.service.ClassTableIndex;
 import com.github.daytron.revworks.service.QueryManagerAbstract;
+import com.github.daytron.revworks.service.ReferenceDataCache;
+import com.github.daytron.revworks.service.mapper.RowMapper;
 import java.security.Principal;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,7 +59,7 @@ public class UserAuthentication extends QueryManagerAbstract {
      * @return The Principal object (the user) if the connection and query are
      * successful, otherwise returns null.
      */
-    Principal authenticate(UserType userType, String userfield,
+    Principal authenticate(final UserType userType, final String userfield,
             String password) throws AuthenticationException, SQLErrorRetrievingConnectionAndPoolException {
 
         if (reserveConnectionPool()) {
@@ -66,62 +68,57 @@ public class UserAuthentication extends QueryManagerAbstract {
                 PreparedStatement preparedStatementUser;
 
                 if (userType == UserType.STUDENT) {
-                    preparedStatementUser = getConnection().prepareStatement(
-                            PreparedQueryStatement.LOGIN_USER_STUDENT.getQuery());
+                    preparedStatementUser = prepareStatement(
+                            PreparedQueryStatement.LOGIN_USER_STUDENT);
                 } else if (userType == UserType.LECTURER) {
-                    preparedStatementUser = getConnection().prepareStatement(
-                            PreparedQueryStatement.LOGIN_USER_LECTURER.getQuery());
+                    preparedStatementUser = prepareStatement(
+                            PreparedQueryStatement.LOGIN_USER_LECTURER);
                 } else {
-                    preparedStatementUser = getConnection().prepareStatement(
-                            PreparedQueryStatement.LOGIN_USER_ADMIN.getQuery());
+                    preparedStatementUser = prepareStatement(
+                            PreparedQueryStatement.LOGIN_USER_ADMIN);
                 }
 
                 // Apply username and password to the query statement
                 preparedStatementUser.setString(1, userfield);
                 preparedStatementUser.setString(2, password);
 
-                // Execute statement and save it to ResultSet object
-                ResultSet resultSetUser = preparedStatementUser.executeQuery();
+                // Execute statement and create the appropriate user from 
+                // the single resulting row
+                Principal user = queryForObject(preparedStatementUser,
+                        new RowMapper<Principal>() {
+
+                            @Override
+                            public Principal mapRow(ResultSet resultSet)
+                                    throws SQLException {
+                                int userID = resultSet.getInt(1);
+                                String firstName = resultSet.getString(3);
+                                String lastName = resultSet.getString(4);
+
+                                if (userType == UserType.STUDENT) {
+                                    return new StudentUser(userID, userfield,
+                                            firstName, lastName);
+                                } else if (userType == UserType.LECTURER) {
+                                    return new LecturerUser(userID, userfield,
+                                            firstName, lastName);
+                                } else {
+                                    return new AdminUser(userID, userfield,
+                                            firstName, lastName);
+                                }
+                            }
+                        });
+
+                // Close the statement after using it, to free up memory
+                preparedStatementUser.close();
+                // Then release the connection to free idle SQL connection
+                releaseConnection();
 
                 // If there is no user retrieved with the given username and password,
                 // throw new AuthenticationException
-                if (!resultSetUser.next()) {
-                    preparedStatementUser.close();
-                    resultSetUser.close();
-                    releaseConnection();
-
+                if (user == null) {
                     throw new AuthenticationException(
                             ExceptionMsg.AUTHENTICATION_EXCEPTION_NO_USER.getMsg());
                 }
 
-                // Move "cursor" to the first row of resulting query table
-                resultSetUser.first();
-
-                // Retrieve user data from the result row table
-                int userID = resultSetUser.getInt(1);
-                String firstName = resultSetUser.getString(3);
-                String lastName = resultSetUser.getString(4);
-
-                // Then select the classes associated with it
-                // Create appropriate user
-                Principal user;
-                if (userType == UserType.STUDENT) {
-                    user = new StudentUser(userID, userfield, 
-                            firstName, lastName);
-                } else if (userType == UserType.LECTURER) {
-                    user = new LecturerUser(userID, userfield,
-                            firstName, lastName);
-                } else {
-                    user = new AdminUser(userID, userfield, 
-                            firstName, lastName);
-                }
-
-                // Close the statement after using it, to free up memory
-                preparedStatementUser.close();
-                resultSetUser.close();
-                // Then release the connection to free idle SQL connection
-                releaseConnection();
-
                 return user;
             } catch (SQLException ex) {
                 Logger.getLogger(UserAuthentication.class.getName())
@@ -139,176 +136,85 @@ public class UserAuthentication extends QueryManagerAbstract {
 
     /**
      * Retrieves current school classes associated with the current user in
-     * the current semester. Returns an empty list if no class is found.
+     * the current semester. Returns an empty index if no class is found. The 
+     * classes come from the shared {@link ReferenceDataCache}.
      *
      * @param userType A UserType object
      * @param user Principal object
      * @param semesterID current semesterID
-     * @return a list of lecture classes for the authenticated user
+     * @return the lecture classes for the authenticated user
      * @throws SQLErrorRetrievingConnectionAndPoolException for invalid SQL 
      * connection
      * @throws SQLErrorQueryException for any invalid SQL queries
      */
-    CopyOnWriteArrayList<ClassTable> extractClassTables(UserType userType, Principal user, String semesterID) throws SQLErrorRetrievingConnectionAndPoolException, SQLErrorQueryException {
+    ClassTableIndex extractClassTables(UserType userType, Principal user, String semesterID) throws SQLErrorRetrievingConnectionAndPoolException, SQLErrorQueryException {
         if (userType == UserType.ADMIN) {
-            return new CopyOnWriteArrayList<>();
+            return ClassTableIndex.EMPTY;
         }
 
         if (semesterID.isEmpty()) {
-            return new CopyOnWriteArrayList<>();
+            return ClassTableIndex.EMPTY;
         }
 
-        if (reserveConnectionPool()) {
-            try {
-
-                if (userType == UserType.STUDENT) {
-                    PreparedStatement preparedStatementClass
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.STUDENT_SELECT_CLASS.getQuery());
-                    User studentUser = (User) user;
-
-                    preparedStatementClass.setInt(1, studentUser.getId());
-                    preparedStatementClass.setString(2, semesterID);
-
-                    ResultSet resultSetStudentClass = preparedStatementClass.executeQuery();
-
-                    // If no registered class give empty list of classes
-                    if (!resultSetStudentClass.next()) {
-                        preparedStatementClass.close();
-                        resultSetStudentClass.close();
-                        releaseConnection();
-
-                        return new CopyOnWriteArrayList<>();
-                    }
-
-                    CopyOnWriteArrayList<ClassTable> listOfClassTables
-                            = new CopyOnWriteArrayList<>();
-                    resultSetStudentClass.beforeFirst();
-
-                    while (resultSetStudentClass.next()) {
-                        listOfClassTables.add(
-                                new ClassTable(
-                                        resultSetStudentClass.getInt(1),
-                                        resultSetStudentClass.getString(2),
-                                        resultSetStudentClass.getString(3),
-                                        new LecturerUser(
-                                                resultSetStudentClass.getInt(4),
-                                                resultSetStudentClass.getString(5),
-                                                resultSetStudentClass.getString(6),
-                                                resultSetStudentClass.getString(7))));
-                    }
-
-                    preparedStatementClass.close();
-                    resultSetStudentClass.close();
-                    releaseConnection();
-
-                    return listOfClassTables;
-
-                    // Otherwise it's a lecturer user
-                    // Note: admin user are filtered on top
-                } else {
-                    PreparedStatement preparedStatementLecturerClass
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.LECTURER_SELECT_CLASS.getQuery());
-                    LecturerUser lecturerUser = (LecturerUser) user;
-                    User userUser = (User) user;
-                    preparedStatementLecturerClass
-                            .setInt(1, userUser.getId());
-                    preparedStatementLecturerClass.setString(2, semesterID);
-
-                    ResultSet resultSetLecturerClass
-                            = preparedStatementLecturerClass.executeQuery();
-
-                    if (!resultSetLecturerClass.next()) {
-                        preparedStatementLecturerClass.close();
-                        resultSetLecturerClass.close();
-                        releaseConnection();
-
-                        return new CopyOnWriteArrayList<>();
-                    }
-
-                    CopyOnWriteArrayList<ClassTable> listOfClassTables
-                            = new CopyOnWriteArrayList<>();
-                    resultSetLecturerClass.beforeFirst();
-
-                    while (resultSetLecturerClass.next()) {
-                        listOfClassTables.add(
-                                new ClassTable(resultSetLecturerClass.getInt(1),
-                                        resultSetLecturerClass.getString(2),
-                                        resultSetLecturerClass.getString(3),
-                                        lecturerUser));
-                    }
-
-                    preparedStatementLecturerClass.close();
-                    resultSetLecturerClass.close();
-                    releaseConnection();
-
-                    return listOfClassTables;
-
-                }
-
-            } catch (SQLException ex) {
-                Logger.getLogger(UserAuthentication.class.getName())
-                        .log(Level.SEVERE, null, ex);
-                releaseConnection();
-                throw new SQLErrorQueryException(
-                        ExceptionMsg.SQL_ERROR_QUERY.getMsg());
+        final ReferenceDataCache referenceDataCache = getReferenceDataCache();
+
+        try {
+            if (userType == UserType.STUDENT) {
+                return referenceDataCache.getStudentClasses(
+                        ((User) user).getId());
+            } else {
+                // Otherwise it's a lecturer user
+                // Note: admin user are filtered on top
+                return referenceDataCache.getLecturerClasses(
+                        ((User) user).getId());
             }
-
-        } else {
-            throw new SQLErrorRetrievingConnectionAndPoolException(
-                    ExceptionMsg.SQL_ERROR_CONNECTION.getMsg());
+        } catch (SQLException ex) {
+            Logger.getLogger(UserAuthentication.class.getName())
+                    .log(Level.SEVERE, null, ex);
+            throw new SQLErrorQueryException(
+                    ExceptionMsg.SQL_ERROR_QUERY.getMsg());
         }
     }
 
     /**
      * Retrieves the current semester id based on date it was accessed. Returns
-     * an empty String if accessed outside the semester date range.
+     * an empty String if accessed outside the semester date range. The 
+     * semester comes from the shared {@link ReferenceDataCache}.
      *
      * @return The semester id
      * @throws AuthenticationException If the connection to database fails
      */
     String verifyCurrentDateWithinASemester() throws AuthenticationException, SQLErrorRetrievingConnectionAndPoolException {
+        final ReferenceDataCache referenceDataCache = getReferenceDataCache();
+
+        try {
+            return referenceDataCache.getCurrentSemesterId();
+        } catch (SQLException ex) {
+            Logger.getLogger(UserAuthentication.class.getName())
+                    .log(Level.SEVERE, null, ex);
+            throw new AuthenticationException(
+                    ExceptionMsg.AUTHENTICATION_EXCEPTION_SYS_ERROR.getMsg());
+        }
+    }
 
-        if (reserveConnectionPool()) {
-            try {
-                // Select the current semester firsl
-                PreparedStatement preparedStatementSemester = getConnection()
-                        .prepareStatement(
-                                PreparedQueryStatement.SELECT_CURRENT_SEMESTER
-                                .getQuery());
-
-                ResultSet resultSetSemester = preparedStatementSemester.executeQuery();
-
-                if (!resultSetSemester.next()) {
-                    preparedStatementSemester.close();
-                    resultSetSemester.close();
-                    releaseConnection();
-
-                    return "";
-                } else {
-                    resultSetSemester.first();
-                    String semesterID = resultSetSemester.getString(1).toUpperCase();
-
-                    preparedStatementSemester.close();
-                    resultSetSemester.close();
-                    releaseConnection();
-
-                    return semesterID;
-                }
+    /**
+     * Access the reference data cache of the servlet.
+     *
+     * @return ReferenceDataCache object
+     * @throws SQLErrorRetrievingConnectionAndPoolException if the servlet is 
+     * not yet initialised
+     */
+    private ReferenceDataCache getReferenceDataCache() throws
+            SQLErrorRetrievingConnectionAndPoolException {
+        final ReferenceDataCache referenceDataCache
+                = MainUI.MainUIServlet.getReferenceDataCache();
 
-            } catch (SQLException ex) {
-                Logger.getLogger(UserAuthentication.class.getName())
-                        .log(Level.SEVERE, null, ex);
-                releaseConnection();
-                throw new AuthenticationException(
-                        ExceptionMsg.AUTHENTICATION_EXCEPTION_SYS_ERROR.getMsg());
-            }
-        } else {
+        if (referenceDataCache == null) {
             throw new SQLErrorRetrievingConnectionAndPoolException(
                     ExceptionMsg.SQL_ERROR_CONNECTION.getMsg());
         }
 
+        return referenceDataCache;
     }
 
 }
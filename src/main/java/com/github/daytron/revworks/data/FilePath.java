@@ -25,7 +25,8 @@ public enum FilePath {
     TEMP_FILE_HOLDER("/VAADIN/tempFileHolder/"),
     HTML_OUTPUT_NAME("convertedWork"),
     FILE_OUTPUT_NAME("pdfFile"),
-    TEMP_PICTURE_FOLDER("pictures/");
+    TEMP_PICTURE_FOLDER("pictures/"),
+    PAGE_IMAGE_CACHE("/WEB-INF/pageImageCache/");
     
     private final String path;
 
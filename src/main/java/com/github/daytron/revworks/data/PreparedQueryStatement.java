@@ -78,23 +78,18 @@ public enum PreparedQueryStatement {
             + "Class.lecturer_user_id = ? "
             + "ORDER BY date_submitted DESC "
             + "LIMIT 15;"),
-    LECTURER_SELECT_CLASS("SELECT Class.id AS id, "
-            + "Class.module_id AS moduleId, "
-            + "Module.name AS moduldeName "
-            + "FROM Class "
-            + "INNER JOIN Module ON Module.id = Class.module_id "
-            + "INNER JOIN Semester ON Semester.id = Class.semester_id "
-            + "WHERE Class.lecturer_user_id = ? AND "
-            + "Class.semester_id = ?;"),
-    STUDENT_SELECT_CLASS("SELECT Class.id, Module.id, Module.name, "
+    SELECT_SEMESTER_CLASSES("SELECT Class.id, Module.id, Module.name, "
             + "User.id, Lecturer.email, User.first_name, User.last_name "
             + "FROM Class "
-            + "INNER JOIN StudentClass ON StudentClass.class_id = Class.id "
-            + "INNER JOIN Student ON Student.user_id = StudentClass.user_id "
             + "INNER JOIN Module ON Module.id = Class.module_id "
             + "INNER JOIN Lecturer ON Lecturer.user_id = Class.lecturer_user_id "
             + "INNER JOIN User ON User.id = Lecturer.user_id "
-            + "WHERE Student.user_id = ? AND "
+            + "WHERE Class.semester_id = ? "
+            + "ORDER BY Class.id ASC;"),
+    STUDENT_SELECT_CLASS_ID("SELECT StudentClass.class_id "
+            + "FROM StudentClass "
+            + "INNER JOIN Class ON Class.id = StudentClass.class_id "
+            + "WHERE StudentClass.user_id = ? AND "
             + "Class.semester_id = ?;"),
     LECTURER_INSERT_NEW_ANNOUNCEMENT("INSERT INTO Announcement "
             + "(title,message,date_submitted,announcement_type_id) "
@@ -102,16 +97,20 @@ public enum PreparedQueryStatement {
     LECTURER_INSERT_NEW_CLASSWIDE_ANNOUNCEMENT("INSERT INTO "
             + "ClassWideAnnouncement VALUES (?,?);"),
     STUDENT_INSERT_NEW_COURSEWORK("INSERT INTO Coursework "
-            + "(title,date_submitted,file,file_extension,"
+            + "(title,date_submitted,file_hash,file_size,file_extension,"
             + "is_read_student,is_read_lecturer,student_user_id,"
-            + "class_id) VALUES (?,now(),?,?,?,?,?,?);"),
+            + "class_id) VALUES (?,now(),?,?,?,?,?,?,?);"),
     STUDENT_SELECT_COURSEWORK("SELECT Coursework.id AS coursework_id, "
             + "Coursework.title AS title, "
             + "Coursework.date_submitted AS date_submitted, "
-            + "Coursework.file AS file, "
+            + "COALESCE(Coursework.file_size, LENGTH(Coursework.file)) AS file_size, "
             + "Coursework.file_extension AS file_extension, "
             + "Coursework.is_read_student AS is_read_s, "
-            + "Coursework.is_read_lecturer AS is_read_l "
+            + "Coursework.is_read_lecturer AS is_read_l, "
+            + "Coursework.file_hash AS file_hash, "
+            + "Coursework.page_count AS page_count, "
+            + "Coursework.page_width AS page_width, "
+            + "Coursework.page_height AS page_height "
             + "FROM Coursework "
             + "INNER JOIN Class ON Class.id = Coursework.class_id "
             + "INNER JOIN Module ON Module.id = Class.module_id "
@@ -119,20 +118,44 @@ public enum PreparedQueryStatement {
             + "INNER JOIN User ON User.id = Lecturer.user_id "
             + "WHERE Coursework.class_id = ? AND "
             + "Coursework.student_user_id = ?;"),
+    SELECT_COURSEWORK_FILE("SELECT Coursework.file "
+            + "FROM Coursework "
+            + "WHERE Coursework.id = ?;"),
+    UPDATE_COURSEWORK_PAGE_INFO("UPDATE Coursework "
+            + "SET page_count = ?, page_width = ?, page_height = ? "
+            + "WHERE id = ?;"),
+    UPDATE_COURSEWORK_FILE_HASH("UPDATE Coursework "
+            + "SET file_hash = ?, file_size = ? "
+            + "WHERE id = ?;"),
+    SELECT_MIGRATED_COURSEWORK_BLOBS("SELECT Coursework.id, "
+            + "Coursework.file_hash, Coursework.file_size, "
+            + "LENGTH(Coursework.file) "
+            + "FROM Coursework "
+            + "WHERE Coursework.file IS NOT NULL "
+            + "AND Coursework.file_hash IS NOT NULL "
+            + "AND Coursework.id > ? "
+            + "ORDER BY Coursework.id LIMIT ?;"),
+    CLEAR_COURSEWORK_BLOB("UPDATE Coursework "
+            + "SET file = NULL "
+            + "WHERE id = ? AND file_hash = ? AND file_size = ?;"),
     STUDENT_UPDATE_COURSEWORK_IS_READ("UPDATE Coursework "
             + "SET is_read_student = ? "
             + "WHERE id = ?;"),
     LECTURER_SELECT_COURSEWORK("SELECT Coursework.id AS id, "
             + "Coursework.title AS title, "
             + "Coursework.date_submitted AS dateSubmitted, "
-            + "Coursework.file AS file, "
+            + "COALESCE(Coursework.file_size, LENGTH(Coursework.file)) AS file_size, "
             + "Coursework.file_extension As fileExtension, "
             + "Coursework.student_user_id AS studentUserID, "
             + "Coursework.is_read_student AS is_read_s, "
             + "Coursework.is_read_lecturer AS is_read_l, "
             + "Student.student_id AS studentID, "
             + "User.first_name AS studentFirstName, "
-            + "User.last_name AS studentLastName "
+            + "User.last_name AS studentLastName, "
+            + "Coursework.file_hash AS file_hash, "
+            + "Coursework.page_count AS page_count, "
+            + "Coursework.page_width AS page_width, "
+            + "Coursework.page_height AS page_height "
             + "FROM Coursework "
             + "INNER JOIN Student ON Student.user_id = Coursework.student_user_id "
             + "INNER JOIN User ON User.id = Coursework.student_user_id "
@@ -140,6 +163,12 @@ public enum PreparedQueryStatement {
     LECTURER_UPDATE_COURSEWORK_IS_READ("UPDATE Coursework "
             + "SET is_read_lecturer = ? "
             + "WHERE id = ?;"),
+    UPDATE_COURSEWORK_CHANGE_VERSION("UPDATE Coursework "
+            + "SET change_version = change_version + 1 "
+            + "WHERE id = ?;"),
+    SELECT_COURSEWORK_CHANGE_VERSION("SELECT change_version "
+            + "FROM Coursework "
+            + "WHERE id = ?;"),
     SELECT_NOTE("SELECT n.id, "
             + "n.page_num, "
             + "n.date_submitted, "
@@ -149,34 +178,60 @@ public enum PreparedQueryStatement {
             + "FROM Note n "
             + "WHERE n.coursework_id = ? "
             + "ORDER BY n.date_submitted ASC;"),
+    SELECT_NOTE_CHANGED("SELECT n.id, "
+            + "n.page_num, "
+            + "n.date_submitted, "
+            + "n.is_student_to_lecturer, "
+            + "n.is_read_student, "
+            + "n.is_read_lecturer "
+            + "FROM Note n "
+            + "WHERE n.coursework_id = ? AND n.version > ? "
+            + "ORDER BY n.id ASC;"),
     SELECT_COMMENT("SELECT "
             + "Comment.message AS message, "
             + "Comment.date_submitted AS dateSubmitted, "
-            + "Comment.is_student_to_lecturer AS isStudentToLecturer  "
+            + "Comment.is_student_to_lecturer AS isStudentToLecturer, "
+            + "Comment.id AS id "
             + "FROM Comment  "
-            + "WHERE Comment.note_id = ? "
-            + "ORDER BY Comment.date_submitted ASC; "),
+            + "WHERE Comment.note_id = ? AND Comment.id > ? "
+            + "ORDER BY Comment.id ASC; "),
+    SELECT_LATEST_COMMENTS("SELECT "
+            + "Comment.message AS message, "
+            + "Comment.date_submitted AS dateSubmitted, "
+            + "Comment.is_student_to_lecturer AS isStudentToLecturer, "
+            + "Comment.id AS id "
+            + "FROM Comment "
+            + "WHERE Comment.note_id = ? AND Comment.id < ? "
+            + "ORDER BY Comment.id DESC LIMIT ?;"),
     INSERT_NOTE("INSERT INTO Note(page_num,"
             + "date_submitted,"
             + "is_student_to_lecturer,"
             + "is_read_student,"
             + "is_read_lecturer,"
-            + "coursework_id) "
-            + "VALUES (?,now(),?,?,?,?);"),
+            + "coursework_id,"
+            + "version) "
+            + "VALUES (?,now(),?,?,?,?,"
+            + "(SELECT change_version FROM Coursework WHERE id = ?));"),
     UPDATE_NOTE("UPDATE Note "
             + "SET is_read_student = ?, "
-            + "is_read_lecturer = ? "
+            + "is_read_lecturer = ?, "
+            + "version = (SELECT change_version FROM Coursework WHERE id = ?) "
             + "WHERE id = ?;"),
     STUDENT_UPDATE_NOTE("UPDATE Note "
-            + "SET is_read_student = ? "
-            + "WHERE id = ?;"),
+            + "SET is_read_student = ?, "
+            + "version = (SELECT change_version FROM Coursework WHERE id = ?) "
+            + "WHERE id = ? AND is_read_student <> ?;"),
     LECTURER_UPDATE_NOTE("UPDATE Note "
-            + "SET is_read_lecturer = ? "
+            + "SET is_read_lecturer = ?, "
+            + "version = (SELECT change_version FROM Coursework WHERE id = ?) "
+            + "WHERE id = ? AND is_read_lecturer <> ?;"),
+    SELECT_NOTE_READ_STATUS("SELECT is_read_student, is_read_lecturer "
+            + "FROM Note "
             + "WHERE id = ?;"),
     INSERT_COMMENT("INSERT INTO Comment(message,date_submitted,"
             + "is_student_to_lecturer,note_id) "
             + "VALUES (?,now(),?,?);"),
-    SELECT_USER_NOTIFICATION_UNREAD("SELECT UserNotification.id, "
+    SELECT_USER_NOTIFICATION_READ("SELECT UserNotification.id, "
             + "UserNotification.title, "
             + "UserNotification.message, "
             + "UserNotification.date_submitted, "
@@ -194,8 +249,9 @@ public enum PreparedQueryStatement {
             + "LEFT JOIN Coursework "
             + "ON Coursework.id = NotificationsCoursework.coursework_id "
             + "WHERE UserNotification.to_user_id = ? AND "
-            + "UserNotification.is_read = 0;"),
-    SELECT_USER_NOTIFICATION_READ("SELECT UserNotification.id, "
+            + "UserNotification.is_read = 1 "
+            + "LIMIT 5;"),
+    SELECT_USER_NOTIFICATION_CHANGED("SELECT UserNotification.id, "
             + "UserNotification.title, "
             + "UserNotification.message, "
             + "UserNotification.date_submitted, "
@@ -213,22 +269,60 @@ public enum PreparedQueryStatement {
             + "LEFT JOIN Coursework "
             + "ON Coursework.id = NotificationsCoursework.coursework_id "
             + "WHERE UserNotification.to_user_id = ? AND "
-            + "UserNotification.is_read = 1 "
-            + "LIMIT 5;"),
-    UPDATE_NOTIFICATION_TO_READ("UPDATE UserNotification "
-            + "SET is_read = 1 "
+            + "UserNotification.version > ? "
+            + "ORDER BY UserNotification.id ASC;"),
+    UPDATE_USER_NOTIFICATION_VERSION("UPDATE User "
+            + "SET notification_version = notification_version + 1 "
             + "WHERE id = ?;"),
+    SELECT_USER_NOTIFICATION_VERSION("SELECT notification_version "
+            + "FROM User "
+            + "WHERE id = ?;"),
+    UPDATE_NOTIFICATION_TO_READ("UPDATE UserNotification "
+            + "SET is_read = 1, "
+            + "version = (SELECT notification_version FROM User WHERE id = ?) "
+            + "WHERE id = ? AND is_read = 0;"),
     INSERT_NOTIFICATION("INSERT INTO UserNotification("
             + "title,message,date_submitted,"
             + "is_read,notification_type_id,"
-            + "to_user_id,from_user_id) "
-            + "VALUES (?,?,now(),?,?,?,?);"),
+            + "to_user_id,from_user_id,version) "
+            + "VALUES (?,?,now(),?,?,?,?,"
+            + "(SELECT notification_version FROM User WHERE id = ?));"),
     INSERT_NOTIFICATIONS_COURSEWORK("INSERT INTO NotificationsCoursework("
             + "user_notification_id,coursework_id) "
             + "VALUES (?,?);"),
     ADMIN_INSERT_ANNOUNCEMENT("INSERT INTO Announcement "
             + "(title,message,date_submitted,announcement_type_id) "
-            + "VALUES (?,?,now(),1);");
+            + "VALUES (?,?,now(),1);"),
+    UPDATE_UNREAD_COUNTER("INSERT INTO UnreadCounter("
+            + "user_id,coursework_id,unread_count) "
+            + "VALUES (?,?,GREATEST(?, 0)) "
+            + "ON DUPLICATE KEY UPDATE "
+            + "unread_count = GREATEST(unread_count + ?, 0);"),
+    SELECT_UNREAD_COUNTER("SELECT unread_count "
+            + "FROM UnreadCounter "
+            + "WHERE user_id = ? AND coursework_id = ?;"),
+    INSERT_UNREAD_COUNTER("INSERT IGNORE INTO UnreadCounter("
+            + "user_id,coursework_id,unread_count) "
+            + "VALUES (?,?,0);"),
+    SELECT_COURSEWORK_UNREAD_COUNTER("SELECT IF("
+            + "UnreadCounter.unread_count = 0 "
+            + "AND Coursework.change_version = 0, -1, "
+            + "UnreadCounter.unread_count) "
+            + "FROM UnreadCounter "
+            + "INNER JOIN Coursework "
+            + "ON Coursework.id = UnreadCounter.coursework_id "
+            + "WHERE UnreadCounter.user_id = ? "
+            + "AND UnreadCounter.coursework_id = ?;"),
+    INSERT_CLUSTER_EVENT("INSERT INTO ClusterEvent("
+            + "node_id,event_type,topic,event_key,date_submitted) "
+            + "VALUES (?,?,?,?,now());"),
+    SELECT_CLUSTER_EVENT_LAST_ID("SELECT COALESCE(MAX(id), 0) "
+            + "FROM ClusterEvent;"),
+    SELECT_CLUSTER_EVENTS_AFTER("SELECT id, node_id, event_type, topic, "
+            + "event_key FROM ClusterEvent "
+            + "WHERE id > ? ORDER BY id ASC LIMIT 500;"),
+    DELETE_OLD_CLUSTER_EVENTS("DELETE FROM ClusterEvent "
+            + "WHERE date_submitted < now() - INTERVAL 10 MINUTE;");
 
     private final String query;
 
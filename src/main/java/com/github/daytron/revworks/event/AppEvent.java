@@ -19,6 +19,7 @@ import com.github.daytron.revworks.data.UserNotificationType;
 import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.Coursework;
 import com.github.daytron.revworks.model.UserNotification;
+import com.github.daytron.revworks.service.UploadSpool;
 import com.github.daytron.revworks.view.AdminLoginPopup;
 import com.github.daytron.revworks.view.main.CourseworkView;
 import com.vaadin.ui.Button;
@@ -273,21 +274,23 @@ public abstract class AppEvent {
      */
     public static final class StudentSubmitCourseworkEvent {
 
-        private final File courseworkFile;
+        private final UploadSpool.SpooledUpload spooledUpload;
         private final ClassTable classTable;
         private final String title;
 
         /**
-         * A class constructor that takes a File object, a Classtable object, 
-         * and a String object.
+         * A class constructor that takes a SpooledUpload object, a Classtable 
+         * object, and a String object.
          * 
-         * @param courseworkFile the coursework file submitted.
+         * @param spooledUpload the coursework file submitted, as received in 
+         * the upload spool
          * @param classTable the school class associated with the coursework
          * @param title the title of the coursework
          */
-        public StudentSubmitCourseworkEvent(File courseworkFile,
+        public StudentSubmitCourseworkEvent(
+                UploadSpool.SpooledUpload spooledUpload,
                 ClassTable classTable, String title) {
-            this.courseworkFile = courseworkFile;
+            this.spooledUpload = spooledUpload;
             this.classTable = classTable;
             this.title = title;
         }
@@ -298,7 +301,17 @@ public abstract class AppEvent {
          * @return File object
          */
         public File getCourseworkFile() {
-            return courseworkFile;
+            return spooledUpload.getFile();
+        }
+
+        /**
+         * Access the received upload together with the digest, size and page 
+         * count computed while it was received.
+         * 
+         * @return SpooledUpload object
+         */
+        public UploadSpool.SpooledUpload getSpooledUpload() {
+            return spooledUpload;
         }
 
         /**
@@ -541,20 +554,33 @@ public abstract class AppEvent {
      */
     public static final class UpdateNoteIsReadWhenClickEvent {
         
+        private final int courseworkId;
         private final int noteId;
         private final Button button;
 
         /**
-         * The class constructor that takes an integer and a Button.
+         * The class constructor that takes two integers and a Button.
          * 
+         * @param courseworkId The coursework id the note belongs to.
          * @param noteId The note id of the button clicked.
          * @param button The button that is clicked.
          */
-        public UpdateNoteIsReadWhenClickEvent(int noteId, Button button) {
+        public UpdateNoteIsReadWhenClickEvent(int courseworkId, int noteId,
+                Button button) {
+            this.courseworkId = courseworkId;
             this.noteId = noteId;
             this.button = button;
         }
 
+        /**
+         * Access the coursework id.
+         * 
+         * @return an integer value as the coursework id
+         */
+        public int getCourseworkId() {
+            return courseworkId;
+        }
+
         /**
          * Access the note id.
          * 
@@ -644,25 +670,28 @@ public abstract class AppEvent {
         private final UserNotificationType userNotificationType;
         private final int toUserId;
         private final int courseworkId;
+        private final String courseworkTitle;
 
         /**
          * The class constructor that takes two String objects, a 
-         * UserNotificationType object and two integers.
+         * UserNotificationType object, two integers and another String.
          * 
          * @param title The title for the user notification
          * @param message The notification message
          * @param userNotificationType The type of notification
          * @param toUserId The userId of the receiving user
          * @param courseworkId The coursework id associated to the new note
+         * @param courseworkTitle The title of the associated coursework
          */
         public InsertNotificationEvent(String title, String message,
                 UserNotificationType userNotificationType, 
-                int toUserId, int courseworkId) {
+                int toUserId, int courseworkId, String courseworkTitle) {
             this.title = title;
             this.message = message;
             this.userNotificationType = userNotificationType;
             this.toUserId = toUserId;
             this.courseworkId = courseworkId;
+            this.courseworkTitle = courseworkTitle;
         }
 
         /**
@@ -709,6 +738,15 @@ public abstract class AppEvent {
         public int getCourseworkId() {
             return courseworkId;
         }
+
+        /**
+         * Access the title of the associated coursework.
+         * 
+         * @return String value of the coursework title
+         */
+        public String getCourseworkTitle() {
+            return courseworkTitle;
+        }
         
     }
     
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.exception;
+
+import java.io.IOException;
+
+/**
+ * A custom exception when an upload grows beyond the allowed file size while 
+ * it is being received. It extends IOException so it can be thrown from the 
+ * output stream the upload is written to.
+ *
+ * @author Ryan Gilera
+ */
+public class UploadSizeLimitExceededException extends IOException {
+
+    private final long maxFileSize;
+
+    /**
+     * A class constructor that takes the allowed file size.
+     * 
+     * @param maxFileSize the allowed file size in bytes
+     */
+    public UploadSizeLimitExceededException(long maxFileSize) {
+        super("Upload exceeds the allowed file size of " + maxFileSize 
+                + " bytes.");
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Access the allowed file size.
+     * 
+     * @return the allowed file size in bytes
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+    
+}
@@ -16,12 +16,14 @@
 package com.github.daytron.revworks.model;
 
 /**
- * A model class for Class table.
+ * A model class for Class table. Immutable, so one instance is shared by 
+ * every session through the {@link 
+ * com.github.daytron.revworks.service.ReferenceDataCache}.
  *
  * @author Ryan Gilera
  */
 @SuppressWarnings("serial")
-public class ClassTable {
+public final class ClassTable {
 
     private final int id;
     private final String moduleId;
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Comment model class for Comment table.
+ *
+ * @author Ryan Gilera
+ */
+@SuppressWarnings("serial")
+public class Comment {
+
+    private final int id;
+    private final String message;
+    private final LocalDateTime dateSubmitted;
+    private final boolean studentToLecturer;
+
+    /**
+     * A class constructor that takes an integer, a String, a LocalDateTime 
+     * object and a boolean.
+     *
+     * @param id comment id
+     * @param message the comment message
+     * @param dateSubmitted submission date of the comment
+     * @param studentToLecturer true if the comment is sent by the student
+     */
+    public Comment(int id, String message, LocalDateTime dateSubmitted,
+            boolean studentToLecturer) {
+        this.id = id;
+        this.message = message;
+        this.dateSubmitted = dateSubmitted;
+        this.studentToLecturer = studentToLecturer;
+    }
+
+    /**
+     * Access the comment id.
+     *
+     * @return id as an integer
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Access the comment message.
+     *
+     * @return message as String
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Access the submission date time of the comment.
+     *
+     * @return LocalDateTime object
+     */
+    public LocalDateTime getDateSubmitted() {
+        return dateSubmitted;
+    }
+
+    /**
+     * Determines if the comment is sent by the student.
+     *
+     * @return true if sent by the student, otherwise false
+     */
+    public boolean isStudentToLecturer() {
+        return studentToLecturer;
+    }
+
+}
@@ -30,21 +30,28 @@ public class Coursework {
     private final String title;
     private final LocalDateTime dateSubmitted;
     private final String fileExtension;
-    private final File courseworkFile;
+    private final long fileSize;
+    private String fileHash;
+    private int pageCount;
+    private float pageWidth;
+    private float pageHeight;
+    private File courseworkFile;
     private final ClassTable classTable;
     private final StudentUser studentUser;
-    private final Boolean readStudent;
-    private final Boolean readLecturer;
+    private Boolean readStudent;
+    private Boolean readLecturer;
 
     /**
      * A class constructor that takes an integer, two String objects, 
-     * LocalDateTime object, a File object, a ClassTable object, a StudentUser 
-     * object and two booleans.
+     * LocalDateTime object, a long, a ClassTable object, a StudentUser 
+     * object and two booleans. The coursework file itself is not loaded until 
+     * the coursework is opened. The content hash is attached separately with 
+     * {@link #setStoredFile(java.lang.String, java.io.File)}.
      * 
      * @param id coursework id
      * @param title coursework title
      * @param dateSubmitted submission date of the coursework
-     * @param courseworkFile file of the coursework
+     * @param fileSize size of the coursework file in bytes
      * @param fileExtension file extension of the coursework file
      * @param classTable the associated class
      * @param studentUser the owner of coursework
@@ -54,13 +61,14 @@ public class Coursework {
      * comments and notes associated with the coursework.  
      */
     public Coursework(int id, String title, LocalDateTime dateSubmitted,
-            File courseworkFile, String fileExtension, ClassTable classTable, 
+            long fileSize, String fileExtension, ClassTable classTable, 
             StudentUser studentUser, boolean isReadStudent, boolean isReadLecturer) {
         this.id = id;
         this.title = title;
         this.dateSubmitted = dateSubmitted;
         this.fileExtension = fileExtension;
-        this.courseworkFile = courseworkFile;
+        this.fileSize = fileSize;
+        this.courseworkFile = null;
         this.classTable = classTable;
         this.studentUser = studentUser;
         this.readStudent = isReadStudent;
@@ -115,12 +123,94 @@ public class Coursework {
     /**
      * Access the coursework file.
      * 
-     * @return File object 
+     * @return File object or null if the file is not yet fetched
      */
     public File getCourseworkFile() {
         return courseworkFile;
     }
 
+    /**
+     * Attaches the coursework file once it is fetched from the database.
+     * 
+     * @param courseworkFile File object
+     */
+    public void setCourseworkFile(File courseworkFile) {
+        this.courseworkFile = courseworkFile;
+    }
+
+    /**
+     * Access the SHA-256 digest of the coursework file, which identifies the 
+     * file in the coursework store.
+     * 
+     * @return the digest as a hexadecimal String or null if the file is still 
+     * kept in the database
+     */
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    /**
+     * Attaches the immutable file kept in the coursework store together with 
+     * its digest.
+     * 
+     * @param fileHash the SHA-256 digest of the file
+     * @param storedFile the File object in the coursework store
+     */
+    public void setStoredFile(String fileHash, File storedFile) {
+        this.fileHash = fileHash;
+        this.courseworkFile = storedFile;
+    }
+
+    /**
+     * Attaches the page count and the size of the first page, as recorded 
+     * when the coursework was submitted.
+     * 
+     * @param pageCount the number of pages
+     * @param pageWidth the width of the first page in PDF points
+     * @param pageHeight the height of the first page in PDF points
+     */
+    public void setPageInfo(int pageCount, float pageWidth, float pageHeight) {
+        this.pageCount = pageCount;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+    }
+
+    /**
+     * Access the number of pages of the coursework file.
+     * 
+     * @return page count or 0 if it is not yet known
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Access the width of the first page.
+     * 
+     * @return width in PDF points or 0 if it is not yet known
+     */
+    public float getPageWidth() {
+        return pageWidth;
+    }
+
+    /**
+     * Access the height of the first page.
+     * 
+     * @return height in PDF points or 0 if it is not yet known
+     */
+    public float getPageHeight() {
+        return pageHeight;
+    }
+
+    /**
+     * Access the size of the coursework file.
+     * 
+     * @return file size in bytes
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
     /**
      * Access the file extension of coursework file.
      * 
@@ -147,5 +237,23 @@ public class Coursework {
     public boolean isReadStudent() {
         return readStudent;
     }
+
+    /**
+     * Updates the read status of the associated lecturer.
+     * 
+     * @param readLecturer true if the lecturer is up to date, otherwise false
+     */
+    public void setReadLecturer(boolean readLecturer) {
+        this.readLecturer = readLecturer;
+    }
+
+    /**
+     * Updates the read status of the associated student.
+     * 
+     * @param readStudent true if the student is up to date, otherwise false
+     */
+    public void setReadStudent(boolean readStudent) {
+        this.readStudent = readStudent;
+    }
     
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Note model class for Note table.
+ *
+ * @author Ryan Gilera
+ */
+@SuppressWarnings("serial")
+public class Note {
+
+    private final int id;
+    private final int pageNumber;
+    private final LocalDateTime dateSubmitted;
+    private final boolean studentToLecturer;
+    private final boolean readStudent;
+    private final boolean readLecturer;
+
+    /**
+     * A class constructor that takes two integers, a LocalDateTime object and
+     * three booleans.
+     *
+     * @param id note id
+     * @param pageNumber the coursework page the note is attached to
+     * @param dateSubmitted submission date of the note
+     * @param studentToLecturer true if the note is created by the student
+     * @param readStudent boolean value if the student has read the note
+     * @param readLecturer boolean value if the lecturer has read the note
+     */
+    public Note(int id, int pageNumber, LocalDateTime dateSubmitted,
+            boolean studentToLecturer, boolean readStudent,
+            boolean readLecturer) {
+        this.id = id;
+        this.pageNumber = pageNumber;
+        this.dateSubmitted = dateSubmitted;
+        this.studentToLecturer = studentToLecturer;
+        this.readStudent = readStudent;
+        this.readLecturer = readLecturer;
+    }
+
+    /**
+     * Access the note id.
+     *
+     * @return id as an integer
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Access the page number of the coursework the note is attached to.
+     *
+     * @return page number as an integer
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    /**
+     * Access the submission date time of the note.
+     *
+     * @return LocalDateTime object
+     */
+    public LocalDateTime getDateSubmitted() {
+        return dateSubmitted;
+    }
+
+    /**
+     * Determines if the note is created by the student.
+     *
+     * @return true if sent by the student, otherwise false
+     */
+    public boolean isStudentToLecturer() {
+        return studentToLecturer;
+    }
+
+    /**
+     * Determines if the student has read the note.
+     *
+     * @return true if the student is up to date, otherwise false
+     */
+    public boolean isReadStudent() {
+        return readStudent;
+    }
+
+    /**
+     * Determines if the lecturer has read the note.
+     *
+     * @return true if the lecturer is up to date, otherwise false
+     */
+    public boolean isReadLecturer() {
+        return readLecturer;
+    }
+
+}
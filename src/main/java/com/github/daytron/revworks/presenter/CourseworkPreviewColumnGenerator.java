@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.presenter;
+
+import com.github.daytron.revworks.MainUI;
+import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.service.ThumbnailService;
+import com.github.daytron.revworks.util.PageImageEncoder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.vaadin.data.util.BeanItem;
+import com.vaadin.server.StreamResource;
+import com.vaadin.ui.Image;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Table;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Custom column data for a preview of the first page of a coursework. The 
+ * thumbnail comes from the {@link ThumbnailService}. A cached thumbnail is 
+ * shown at once, otherwise it is pushed to the table when it is rendered. 
+ * Regenerated cells of a coursework still being rendered wait for the same 
+ * render.
+ * 
+ * @author Ryan Gilera
+ */
+public class CourseworkPreviewColumnGenerator implements Table.ColumnGenerator {
+
+    private static final String PREVIEW_HEIGHT = "48px";
+
+    /**
+     * Generates a custom cell to display the first page thumbnail of the 
+     * associated itemId.
+     * 
+     * @param source the associated table 
+     * @param itemId item id which pertains to a specific row in the table
+     * @param columnId the corresponding column
+     * @return the preview as Image object or a Label if no preview exists
+     */
+    @Override
+    public Object generateCell(Table source, Object itemId, Object columnId) {
+        // First retrieve the item which is the row item 
+        BeanItem<Coursework> cellItem = (BeanItem) source.getItem(itemId);
+        Coursework coursework = cellItem.getBean();
+
+        ThumbnailService thumbnailService
+                = MainUI.MainUIServlet.getThumbnailService();
+        if (thumbnailService == null
+                || coursework.getCourseworkFile() == null) {
+            // Courseworks not moved to the file store yet have no preview
+            return new Label("-");
+        }
+
+        final Image previewImage = new Image();
+        previewImage.setHeight(PREVIEW_HEIGHT);
+        previewImage.setWidthUndefined();
+        previewImage.setDescription(coursework.getTitle());
+
+        final int courseworkId = coursework.getId();
+        ListenableFuture<byte[]> thumbnailFuture
+                = thumbnailService.requestFirstPageThumbnail(coursework);
+
+        if (thumbnailFuture.isDone()) {
+            try {
+                setPreview(previewImage, courseworkId,
+                        Futures.getUnchecked(thumbnailFuture));
+            } catch (RuntimeException ex) {
+                Logger.getLogger(CourseworkPreviewColumnGenerator.class
+                        .getName()).log(Level.WARNING, null, ex);
+            }
+            return previewImage;
+        }
+
+        final UI ui = UI.getCurrent();
+        Futures.addCallback(thumbnailFuture, new FutureCallback<byte[]>() {
+
+            @Override
+            public void onSuccess(final byte[] thumbnail) {
+                try {
+                    ui.access(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            setPreview(previewImage, courseworkId,
+                                    thumbnail);
+                        }
+                    });
+                } catch (UIDetachedException ex) {
+                    // The table is gone already
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Logger.getLogger(CourseworkPreviewColumnGenerator.class
+                        .getName()).log(Level.WARNING, null, t);
+            }
+        });
+
+        return previewImage;
+    }
+
+    /**
+     * Sets the thumbnail as the source of the preview image.
+     * 
+     * @param previewImage the Image component of the cell
+     * @param courseworkId the id of the coursework
+     * @param thumbnail the encoded image bytes or null if there is no page
+     */
+    private static void setPreview(Image previewImage, int courseworkId,
+            final byte[] thumbnail) {
+        if (thumbnail == null) {
+            return;
+        }
+
+        previewImage.setSource(new StreamResource(
+                new StreamResource.StreamSource() {
+
+                    @Override
+                    public InputStream getStream() {
+                        return new ByteArrayInputStream(thumbnail);
+                    }
+                }, "preview-" + courseworkId + "."
+                + PageImageEncoder.detectFormat(thumbnail)));
+    }
+
+}
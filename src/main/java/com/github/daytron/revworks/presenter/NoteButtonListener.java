@@ -120,7 +120,8 @@ public class NoteButtonListener implements Button.ClickListener {
         }
 
         // Trigger update note is_read fields via event bus
-        AppEventBus.post(new AppEvent.UpdateNoteIsReadWhenClickEvent(noteId,
+        AppEventBus.post(new AppEvent.UpdateNoteIsReadWhenClickEvent(
+                courseworkView.getCoursework().getId(), noteId,
                 event.getButton()));
     }
 
@@ -19,6 +19,8 @@ import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.model.UserNotification;
+import com.github.daytron.revworks.service.CurrentUserSession;
+import com.github.daytron.revworks.view.main.HeaderComponent;
 import com.vaadin.server.Sizeable;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Label;
@@ -157,6 +159,11 @@ public class NotificationButtonListener implements Button.ClickListener {
 
             // Unpause the auto retrieve notification after closing window
             MainUI.get().getNotificationsProvider().setPause(false);
+            HeaderComponent dashboardHeader
+                    = CurrentUserSession.getDashboardHeader();
+            if (dashboardHeader != null) {
+                dashboardHeader.refreshNotifications();
+            }
         }
 
     }
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.vaadin.ui.UI;
+import com.vaadin.util.CurrentInstance;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A server-wide hub that tells open UIs when the data they show has 
+ * changed, replacing the per-session database pollers. The write paths 
+ * publish a change to a topic and key, such as the notes of one coursework, 
+ * and only the UIs subscribed to that key refresh. A refresh runs on a small 
+ * shared worker pool with its UI set as the current instance, and the UI 
+ * pushes the result to the browser.
+ * 
+ * <p>
+ * Changes not published through this hub, such as rows written by another 
+ * server, are picked up by a slow safety poll of each subscription. The 
+ * poll interval doubles while a refresh finds nothing new, up to a maximum 
+ * that is also used while the browser tab is hidden, and drops back to the 
+ * minimum once a refresh finds a change or the tab is shown again.
+ *
+ * @author Ryan Gilera
+ */
+public final class ChangeHub {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ChangeHub.class.getName());
+
+    /**
+     * The kinds of data a UI may subscribe to.
+     */
+    public enum Topic {
+        /**
+         * The notes of a coursework, keyed by coursework id.
+         */
+        COURSEWORK_NOTES,
+        /**
+         * The comments of a note, keyed by note id.
+         */
+        NOTE_COMMENTS,
+        /**
+         * The notifications of a user, keyed by user id.
+         */
+        USER_NOTIFICATIONS
+    }
+
+    /**
+     * The reloading of the data of a subscription.
+     */
+    public interface RefreshTask {
+
+        /**
+         * Reloads the data and updates the UI through {@code UI.access}.
+         *
+         * @return true if anything has changed since the last refresh
+         */
+        boolean refresh();
+    }
+
+    /**
+     * Shortest interval of the safety poll in milliseconds.
+     */
+    public static final long MIN_POLL_INTERVAL = 5000;
+
+    /**
+     * Longest interval of the safety poll in milliseconds.
+     */
+    public static final long MAX_POLL_INTERVAL = 120000;
+
+    private final Map<Topic, ConcurrentMap<Integer, Set<Subscription>>> subscriptions
+            = new EnumMap<>(Topic.class);
+    private final ThreadPoolExecutor dispatcher;
+    private final ScheduledThreadPoolExecutor pollTimer;
+
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+    private final AtomicLong publishedCounter = new AtomicLong();
+    private final AtomicLong refreshCounter = new AtomicLong();
+    private final AtomicLong coalescedCounter = new AtomicLong();
+    private final AtomicLong pollCounter = new AtomicLong();
+    private final AtomicLong overrunCounter = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    /**
+     * A class constructor that takes the number of threads refreshing UIs.
+     *
+     * @param dispatcherThreads the number of worker threads
+     */
+    public ChangeHub(int dispatcherThreads) {
+        for (Topic topic : Topic.values()) {
+            subscriptions.put(topic,
+                    new ConcurrentHashMap<Integer, Set<Subscription>>());
+        }
+
+        final int threads = Math.max(1, dispatcherThreads);
+        this.dispatcher = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    private final AtomicInteger threadCount
+                            = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-change-hub-"
+                                + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.dispatcher.allowCoreThreadTimeOut(true);
+
+        // Only hands due polls over to the workers
+        this.pollTimer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-change-hub-poll");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.pollTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Subscribes a UI to the changes of a key. The refresh task runs on a 
+     * worker thread with the UI as the current UI, so it may use 
+     * {@code UI.getCurrent()} and the session of the UI as on a request 
+     * thread. It must change components only through {@code UI.access}.
+     *
+     * @param topic the kind of data
+     * @param key the id the data belongs to
+     * @param ui the UI showing the data
+     * @param refreshTask reloads the data and updates the UI
+     * @return the Subscription object
+     */
+    public Subscription subscribe(Topic topic, int key, UI ui,
+            RefreshTask refreshTask) {
+        final Subscription subscription = new Subscription(topic, key, ui,
+                refreshTask);
+
+        ConcurrentMap<Integer, Set<Subscription>> topicSubscriptions
+                = subscriptions.get(topic);
+        Set<Subscription> keySubscriptions = topicSubscriptions.get(key);
+        if (keySubscriptions == null) {
+            Set<Subscription> newSubscriptions
+                    = new CopyOnWriteArraySet<>();
+            keySubscriptions = topicSubscriptions.putIfAbsent(key,
+                    newSubscriptions);
+            if (keySubscriptions == null) {
+                keySubscriptions = newSubscriptions;
+            }
+        }
+        keySubscriptions.add(subscription);
+        subscriptionCount.incrementAndGet();
+
+        subscription.schedulePoll();
+        return subscription;
+    }
+
+    /**
+     * Tells every UI subscribed to a key that its data has changed. Called 
+     * by the write paths after the change is committed.
+     *
+     * @param topic the kind of data
+     * @param key the id the data belongs to
+     */
+    public void publish(Topic topic, int key) {
+        publishedCounter.incrementAndGet();
+
+        Set<Subscription> keySubscriptions = subscriptions.get(topic)
+                .get(key);
+        if (keySubscriptions == null) {
+            return;
+        }
+
+        for (Subscription subscription : keySubscriptions) {
+            subscription.refresh();
+        }
+    }
+
+    /**
+     * Tells the subscriptions of a UI whether its browser tab is hidden. A 
+     * hidden tab is polled at the longest interval. Once shown again, its 
+     * data is refreshed at once.
+     *
+     * @param ui the UI whose tab is hidden or shown
+     * @param isHidden true if the tab is hidden
+     */
+    public void setClientHidden(UI ui, boolean isHidden) {
+        for (ConcurrentMap<Integer, Set<Subscription>> topicSubscriptions
+                : subscriptions.values()) {
+            for (Set<Subscription> keySubscriptions
+                    : topicSubscriptions.values()) {
+                for (Subscription subscription : keySubscriptions) {
+                    if (subscription.ui == ui) {
+                        subscription.setClientHidden(isHidden);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Summarises the subscriptions, refreshes and polls for logging 
+     * purposes. The lag is the time a refresh waited for a worker.
+     *
+     * @return the hub statistics as a String
+     */
+    public String getStatistics() {
+        final long refreshes = refreshCounter.get();
+        return String.format("[change hub subscriptions=%d published=%d "
+                + "refreshes=%d coalesced=%d polls=%d overruns=%d "
+                + "queued=%d avgLagMs=%d maxLagMs=%d]",
+                subscriptionCount.get(), publishedCounter.get(),
+                refreshes, coalescedCounter.get(), pollCounter.get(),
+                overrunCounter.get(), dispatcher.getQueue().size(),
+                (refreshes == 0) ? 0 : totalLagMillis.get() / refreshes,
+                maxLagMillis.get());
+    }
+
+    /**
+     * Stops the worker and poll threads. Pending refreshes are dropped.
+     */
+    public void shutdown() {
+        pollTimer.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Removes a subscription from its key.
+     *
+     * @param subscription the Subscription object to remove
+     */
+    private void remove(Subscription subscription) {
+        ConcurrentMap<Integer, Set<Subscription>> topicSubscriptions
+                = subscriptions.get(subscription.topic);
+        Set<Subscription> keySubscriptions = topicSubscriptions.get(
+                subscription.key);
+
+        if (keySubscriptions != null
+                && keySubscriptions.remove(subscription)) {
+            subscriptionCount.decrementAndGet();
+
+            if (keySubscriptions.isEmpty()) {
+                topicSubscriptions.remove(subscription.key, keySubscriptions);
+            }
+        }
+    }
+
+    /**
+     * The subscription of one UI component to the changes of one key. 
+     * Changes published while a refresh is still queued are folded into it.
+     */
+    public final class Subscription implements Runnable {
+
+        private final Topic topic;
+        private final int key;
+        private final UI ui;
+        private final RefreshTask refreshTask;
+        private final AtomicBoolean isPending = new AtomicBoolean(false);
+        private volatile boolean isActive = true;
+        private volatile boolean isClientHidden = false;
+        private volatile long queuedAt;
+        private long pollInterval = MIN_POLL_INTERVAL;
+        private ScheduledFuture<?> nextPoll;
+
+        private Subscription(Topic topic, int key, UI ui,
+                RefreshTask refreshTask) {
+            this.topic = topic;
+            this.key = key;
+            this.ui = ui;
+            this.refreshTask = refreshTask;
+        }
+
+        /**
+         * Schedules the refresh task unless it is already queued. Also used 
+         * for the first load right after subscribing.
+         */
+        public void refresh() {
+            if (!isActive) {
+                return;
+            }
+
+            if (!isPending.compareAndSet(false, true)) {
+                coalescedCounter.incrementAndGet();
+                return;
+            }
+
+            queuedAt = System.currentTimeMillis();
+            try {
+                dispatcher.execute(this);
+            } catch (RejectedExecutionException ex) {
+                isPending.set(false);
+            }
+        }
+
+        /**
+         * Stops the refreshes. Calling it more than once is harmless.
+         */
+        public void unsubscribe() {
+            isActive = false;
+            remove(this);
+
+            synchronized (this) {
+                if (nextPoll != null) {
+                    nextPoll.cancel(false);
+                    nextPoll = null;
+                }
+            }
+        }
+
+        /**
+         * Switches between the hidden and the shown browser tab.
+         *
+         * @param isHidden true if the tab is hidden
+         */
+        private void setClientHidden(boolean isHidden) {
+            final boolean wasHidden = isClientHidden;
+            isClientHidden = isHidden;
+
+            if (wasHidden && !isHidden) {
+                synchronized (this) {
+                    pollInterval = MIN_POLL_INTERVAL;
+                }
+                refresh();
+            }
+        }
+
+        /**
+         * Adapts the poll interval to the outcome of a refresh and schedules 
+         * the next poll, replacing the one scheduled before.
+         *
+         * @param isChanged true if the refresh found a change
+         */
+        private synchronized void adaptPollInterval(boolean isChanged) {
+            if (isChanged) {
+                pollInterval = MIN_POLL_INTERVAL;
+            } else {
+                pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+            }
+            schedulePoll();
+        }
+
+        /**
+         * Schedules the next safety poll, replacing the one scheduled before.
+         */
+        private synchronized void schedulePoll() {
+            if (!isActive) {
+                return;
+            }
+
+            if (nextPoll != null) {
+                nextPoll.cancel(false);
+            }
+
+            final long delay = isClientHidden
+                    ? MAX_POLL_INTERVAL : pollInterval;
+            try {
+                nextPoll = pollTimer.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                nextPoll = null;
+            }
+        }
+
+        /**
+         * Runs a due safety poll. A poll falling due while the previous 
+         * refresh is still queued is counted as an overrun.
+         */
+        private void poll() {
+            if (!isActive) {
+                return;
+            }
+
+            pollCounter.incrementAndGet();
+            if (isPending.get()) {
+                overrunCounter.incrementAndGet();
+                return;
+            }
+            refresh();
+        }
+
+        /**
+         * Runs the refresh task with the UI as the current instance. A UI 
+         * that has been closed is unsubscribed instead.
+         */
+        @Override
+        public void run() {
+            // Changes published from now on need another refresh
+            isPending.set(false);
+
+            if (!isActive) {
+                return;
+            }
+
+            if (ui.getSession() == null || ui.isClosing()) {
+                unsubscribe();
+                return;
+            }
+
+            refreshCounter.incrementAndGet();
+            final long lag = System.currentTimeMillis() - queuedAt;
+            totalLagMillis.addAndGet(lag);
+            if (lag > maxLagMillis.get()) {
+                maxLagMillis.set(lag);
+            }
+
+            boolean isChanged = false;
+            Map<Class<?>, CurrentInstance> oldInstances
+                    = CurrentInstance.setCurrent(ui);
+            try {
+                isChanged = refreshTask.refresh();
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            } finally {
+                CurrentInstance.restoreInstances(oldInstances);
+            }
+
+            adaptPollInterval(isChanged);
+        }
+    }
+
+}
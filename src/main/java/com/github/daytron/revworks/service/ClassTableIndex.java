@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.model.ClassTable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the classes of a user, indexed by class id. The 
+ * classes themselves are the shared instances of the 
+ * {@link ReferenceDataCache}.
+ *
+ * @author Ryan Gilera
+ */
+public final class ClassTableIndex implements Iterable<ClassTable> {
+
+    /**
+     * The index without classes, used for admins and outside a semester.
+     */
+    public static final ClassTableIndex EMPTY
+            = new ClassTableIndex(Collections.<ClassTable>emptyList());
+
+    private final List<ClassTable> listOfClassTables;
+    private final Map<Integer, ClassTable> classTablesById;
+
+    /**
+     * A class constructor that takes the classes in display order.
+     *
+     * @param classTables the classes of the user
+     */
+    public ClassTableIndex(List<ClassTable> classTables) {
+        this.listOfClassTables = Collections.unmodifiableList(
+                new ArrayList<>(classTables));
+
+        final Map<Integer, ClassTable> byId = new HashMap<>();
+        for (ClassTable classTable : classTables) {
+            byId.put(classTable.getId(), classTable);
+        }
+        this.classTablesById = Collections.unmodifiableMap(byId);
+    }
+
+    /**
+     * Access a class of the user by its id.
+     *
+     * @param classId the id of the class
+     * @return the ClassTable object or null if the user is not part of it
+     */
+    public ClassTable get(int classId) {
+        return classTablesById.get(classId);
+    }
+
+    /**
+     * Access the classes of the user in display order.
+     *
+     * @return the unmodifiable List of classes
+     */
+    public List<ClassTable> getList() {
+        return listOfClassTables;
+    }
+
+    /**
+     * Determine if the user has no class.
+     *
+     * @return true if there is no class, otherwise false
+     */
+    public boolean isEmpty() {
+        return listOfClassTables.isEmpty();
+    }
+
+    /**
+     * Access the number of classes of the user.
+     *
+     * @return the number of classes
+     */
+    public int size() {
+        return listOfClassTables.size();
+    }
+
+    @Override
+    public Iterator<ClassTable> iterator() {
+        return listOfClassTables.iterator();
+    }
+
+}
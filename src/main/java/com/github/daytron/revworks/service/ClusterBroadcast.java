@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+/**
+ * Sends events to the other server nodes running this application behind 
+ * the load balancer, so changes made on one node reach the UIs and sessions 
+ * kept in memory by the others. An event is never delivered back to the 
+ * node that sent it, since the sender handles it locally.
+ *
+ * @author Ryan Gilera
+ * @see OutboxClusterBroadcast
+ * @see InProcessClusterBroadcast
+ */
+public interface ClusterBroadcast {
+
+    /**
+     * Receives the events sent by the other nodes.
+     */
+    interface Listener {
+
+        /**
+         * Handles an event sent by another node. Called on a thread of the 
+         * broadcast, so it must not block.
+         *
+         * @param event the ClusterEvent object received
+         */
+        void onEvent(ClusterEvent event);
+    }
+
+    /**
+     * Access the id of this node, unique within the cluster.
+     *
+     * @return the node id as a String
+     */
+    String getNodeId();
+
+    /**
+     * Sends an event to the other nodes.
+     *
+     * @param type the kind of event
+     * @param topic the kind of changed data, null for a sign in
+     * @param key the id the changed data belongs to, or the id of the user 
+     * signing in
+     */
+    void publish(ClusterEvent.Type type, ChangeHub.Topic topic, int key);
+
+    /**
+     * Adds a listener for the events sent by the other nodes.
+     *
+     * @param listener the Listener object to add
+     */
+    void addListener(Listener listener);
+
+    /**
+     * Summarises the sent and received events for logging purposes.
+     *
+     * @return the broadcast statistics as a String
+     */
+    String getStatistics();
+
+    /**
+     * Stops sending and receiving events.
+     */
+    void shutdown();
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+/**
+ * An event sent from one server node to the others through a 
+ * {@link ClusterBroadcast}.
+ *
+ * @author Ryan Gilera
+ */
+public final class ClusterEvent {
+
+    /**
+     * The kinds of events sent between nodes.
+     */
+    public enum Type {
+        /**
+         * Data shown by the UIs has changed, see {@link ChangeHub}.
+         */
+        DATA_CHANGED,
+        /**
+         * A user has signed in, so other sessions of the user are closed.
+         */
+        USER_SIGNED_IN
+    }
+
+    private final Type type;
+    private final ChangeHub.Topic topic;
+    private final int key;
+    private final String originNode;
+
+    /**
+     * A class constructor that takes the event type, the topic and key of 
+     * the changed data and the node sending the event.
+     *
+     * @param type the kind of event
+     * @param topic the kind of changed data, null for a sign in
+     * @param key the id the changed data belongs to, or the id of the user 
+     * signing in
+     * @param originNode the id of the node sending the event
+     */
+    public ClusterEvent(Type type, ChangeHub.Topic topic, int key,
+            String originNode) {
+        this.type = type;
+        this.topic = topic;
+        this.key = key;
+        this.originNode = originNode;
+    }
+
+    /**
+     * Access the kind of event.
+     *
+     * @return the Type of the event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Access the kind of changed data.
+     *
+     * @return the ChangeHub.Topic or null for a sign in
+     */
+    public ChangeHub.Topic getTopic() {
+        return topic;
+    }
+
+    /**
+     * Access the id the changed data belongs to, or the id of the user 
+     * signing in.
+     *
+     * @return the key as an integer
+     */
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * Access the id of the node that sent the event.
+     *
+     * @return the node id as a String
+     */
+    public String getOriginNode() {
+        return originNode;
+    }
+
+}
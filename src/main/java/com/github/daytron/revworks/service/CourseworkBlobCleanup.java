@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.github.daytron.revworks.service.mapper.RowMapper;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clears the BLOBs of coursework rows that have been migrated to the 
+ * {@link CourseworkStorage}. A BLOB is only cleared once the stored copy is 
+ * found intact: the BLOB, the row and the stored file must agree on the 
+ * size, and the stored bytes must hash to the digest kept in the row. Rows 
+ * failing the check keep their BLOB and are logged. The rows are processed 
+ * in small batches and the connection is only held while reading a batch 
+ * and clearing a single row, never while a file is hashed.
+ *
+ * @author Ryan Gilera
+ */
+public final class CourseworkBlobCleanup extends QueryManagerAbstract
+        implements Runnable {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(CourseworkBlobCleanup.class.getName());
+
+    // Number of rows read per round trip
+    private static final int BATCH_SIZE = 50;
+
+    private final CourseworkStorage courseworkStorage;
+    private volatile boolean stopped;
+
+    /**
+     * A class constructor that takes the store the BLOBs were migrated to.
+     *
+     * @param courseworkStorage the coursework store
+     */
+    public CourseworkBlobCleanup(CourseworkStorage courseworkStorage) {
+        this.courseworkStorage = courseworkStorage;
+        this.stopped = false;
+    }
+
+    /**
+     * Asks a running cleanup to stop after the current row.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Goes through every migrated row once, clearing the BLOBs whose stored 
+     * copy is verified.
+     */
+    @Override
+    public void run() {
+        int lastId = 0;
+        int clearedRows = 0;
+        int skippedRows = 0;
+
+        try {
+            List<MigratedRow> listOfRows = selectBatch(lastId);
+            while (!stopped && !listOfRows.isEmpty()) {
+                for (MigratedRow row : listOfRows) {
+                    if (stopped) {
+                        break;
+                    }
+                    lastId = row.id;
+
+                    if (isVerified(row)) {
+                        clearBlob(row);
+                        clearedRows++;
+                    } else {
+                        LOGGER.log(Level.WARNING, "Stored file {0} does not "
+                                + "match coursework {1}, the BLOB is kept.",
+                                new Object[]{row.fileHash, row.id});
+                        skippedRows++;
+                    }
+                }
+
+                listOfRows = selectBatch(lastId);
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+
+        LOGGER.log(Level.INFO, "Coursework BLOB cleanup: cleared={0}, "
+                + "kept={1}", new Object[]{clearedRows, skippedRows});
+    }
+
+    /**
+     * Determines if the stored copy of a row can replace its BLOB.
+     *
+     * @param row the migrated row
+     * @return true if the stored file is intact, otherwise false
+     */
+    private boolean isVerified(MigratedRow row) {
+        if (row.fileSize != row.blobSize) {
+            return false;
+        }
+
+        try {
+            return courseworkStorage.verify(row.fileHash, row.fileSize);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the next batch of migrated rows still holding a BLOB.
+     *
+     * @param lastId the id of the last row processed
+     * @return the list of rows, empty once every row is processed
+     * @throws SQLException if the query fails
+     */
+    private List<MigratedRow> selectBatch(int lastId) throws SQLException {
+        reserve();
+
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.SELECT_MIGRATED_COURSEWORK_BLOBS)) {
+            preparedStatement.setInt(1, lastId);
+            preparedStatement.setInt(2, BATCH_SIZE);
+
+            return queryForList(preparedStatement, new RowMapper<MigratedRow>() {
+
+                @Override
+                public MigratedRow mapRow(ResultSet resultSet)
+                        throws SQLException {
+                    return new MigratedRow(resultSet.getInt(1),
+                            resultSet.getString(2), resultSet.getLong(3),
+                            resultSet.getLong(4));
+                }
+            });
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Clears the BLOB of a verified row, unless the row changed meanwhile.
+     *
+     * @param row the verified row
+     * @throws SQLException if the update fails
+     */
+    private void clearBlob(MigratedRow row) throws SQLException {
+        reserve();
+
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.CLEAR_COURSEWORK_BLOB)) {
+            preparedStatement.setInt(1, row.id);
+            preparedStatement.setString(2, row.fileHash);
+            preparedStatement.setLong(3, row.fileSize);
+            preparedStatement.executeUpdate();
+            getConnection().commit();
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Reserves a connection for the next query.
+     *
+     * @throws SQLException if no connection is available
+     */
+    private void reserve() throws SQLException {
+        if (!reserveConnectionPool()) {
+            throw new SQLException("No database connection available.");
+        }
+    }
+
+    /**
+     * A coursework row whose file is stored and still kept as a BLOB.
+     */
+    private static final class MigratedRow {
+
+        private final int id;
+        private final String fileHash;
+        private final long fileSize;
+        private final long blobSize;
+
+        MigratedRow(int id, String fileHash, long fileSize, long blobSize) {
+            this.id = id;
+            this.fileHash = fileHash;
+            this.fileSize = fileSize;
+            this.blobSize = blobSize;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.MainUI;
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.github.daytron.revworks.util.PdfRenderer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * A background ingestion stage run once a new coursework is committed. It 
+ * records the page count and the size of the first page in the 
+ * <code>Coursework</code> row, then renders the first pages and the page 
+ * thumbnails into the {@link PageImageCache}, so whoever opens the 
+ * coursework first sees it at once. The first pages are rendered at the 
+ * preview resolution and at the display resolution a typical viewer picks 
+ * for the recorded page width. Each task runs on the low priority 
+ * background thread of the {@link PdfRenderingEngine} and renders its pages 
+ * one after another, so a burst of submissions queues up there and never 
+ * takes a worker from the viewers.
+ *
+ * @author Ryan Gilera
+ */
+public final class CourseworkIngestionTask extends QueryManagerAbstract
+        implements Callable<Void> {
+
+    /**
+     * Number of leading pages rendered for display.
+     */
+    public static final int PRE_RENDERED_PAGES = 3;
+
+    /**
+     * Maximum number of page thumbnails rendered.
+     */
+    public static final int MAX_THUMBNAILS = 100;
+
+    private final int courseworkId;
+    private final File courseworkFile;
+    private final PageImageCache pageImageCache;
+    private final PdfRenderingEngine renderingEngine;
+
+    /**
+     * A class constructor that takes the coursework id, its stored file, 
+     * the page cache to render into and the engine the pages are rendered 
+     * by.
+     * 
+     * @param courseworkId the id of the committed coursework
+     * @param courseworkFile the stored coursework file
+     * @param pageImageCache the cache the rendered pages are kept in
+     * @param renderingEngine the engine the pages are rendered by
+     */
+    public CourseworkIngestionTask(int courseworkId, File courseworkFile,
+            PageImageCache pageImageCache,
+            PdfRenderingEngine renderingEngine) {
+        this.courseworkId = courseworkId;
+        this.courseworkFile = courseworkFile;
+        this.pageImageCache = pageImageCache;
+        this.renderingEngine = renderingEngine;
+    }
+
+    /**
+     * Schedules the ingestion of a committed coursework on the background 
+     * thread of the rendering engine of the servlet.
+     * 
+     * @param courseworkId the id of the committed coursework
+     * @param courseworkFile the stored coursework file
+     * @return the future completion of the ingestion
+     */
+    public static ListenableFuture<Void> submit(int courseworkId,
+            File courseworkFile) {
+        PdfRenderingEngine renderingEngine
+                = MainUI.MainUIServlet.getRenderingEngine();
+        PageImageCache pageImageCache = MainUI.MainUIServlet.getPageImageCache();
+
+        if (renderingEngine == null || pageImageCache == null) {
+            return Futures.immediateFuture(null);
+        }
+
+        return renderingEngine.submitBackground(new CourseworkIngestionTask(
+                courseworkId, courseworkFile, pageImageCache,
+                renderingEngine));
+    }
+
+    /**
+     * Reads the page info, stores it and renders the pages into the cache. 
+     * Failures are logged only, the coursework is then rendered when it is 
+     * opened.
+     * 
+     * @return nothing
+     */
+    @Override
+    public Void call() {
+        try (PDDocument document
+                = renderingEngine.loadDocument(courseworkFile)) {
+            final int pageCount = document.getNumberOfPages();
+
+            float pageWidth = 0;
+            float pageHeight = 0;
+            if (pageCount > 0) {
+                PDPage firstPage = document.getPage(0);
+                PDRectangle mediaBox = firstPage.getMediaBox();
+                pageWidth = mediaBox.getWidth();
+                pageHeight = mediaBox.getHeight();
+
+                // Pages turned sideways are shown in landscape
+                if (firstPage.getRotation() % 180 != 0) {
+                    float width = pageWidth;
+                    pageWidth = pageHeight;
+                    pageHeight = width;
+                }
+            }
+
+            storePageInfo(pageCount, pageWidth, pageHeight);
+
+            final int displayDpi = PdfRenderer.selectDpi(
+                    PdfRenderer.TYPICAL_VIEWPORT_WIDTH, 1.0, pageWidth);
+
+            for (int page = 1; page <= Math.min(PRE_RENDERED_PAGES, pageCount);
+                    page++) {
+                renderIntoCache(document, page, PdfRenderer.PREVIEW_DPI);
+                renderIntoCache(document, page, displayDpi);
+            }
+
+            for (int page = 1; page <= Math.min(MAX_THUMBNAILS, pageCount);
+                    page++) {
+                renderIntoCache(document, page, PdfRenderer.THUMBNAIL_DPI);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(CourseworkIngestionTask.class.getName())
+                    .log(Level.WARNING, "Could not ingest coursework "
+                            + courseworkId, ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Renders a page into the cache unless it is already cached.
+     * 
+     * @param document the loaded PDDocument object
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     * @throws IOException occurs when rendering the page fails
+     */
+    private void renderIntoCache(final PDDocument document,
+            final int pageNumber, final int dpi) throws IOException {
+        pageImageCache.get(new PageImageCache.PageKey(courseworkId,
+                pageNumber, dpi,
+                renderingEngine.getPageImageEncoder().getProfileName()),
+                new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws IOException {
+                        return renderingEngine.renderDocumentPage(document,
+                                pageNumber - 1, dpi, null);
+                    }
+                });
+    }
+
+    /**
+     * Records the page count and the size of the first page in the 
+     * coursework row.
+     * 
+     * @param pageCount the number of pages
+     * @param pageWidth the width of the first page in PDF points
+     * @param pageHeight the height of the first page in PDF points
+     */
+    private void storePageInfo(int pageCount, float pageWidth,
+            float pageHeight) {
+        if (!reserveConnectionPool()) {
+            return;
+        }
+
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.UPDATE_COURSEWORK_PAGE_INFO)) {
+            preparedStatement.setInt(1, pageCount);
+            preparedStatement.setFloat(2, pageWidth);
+            preparedStatement.setFloat(3, pageHeight);
+            preparedStatement.setInt(4, courseworkId);
+            preparedStatement.executeUpdate();
+            getConnection().commit();
+        } catch (SQLException ex) {
+            Logger.getLogger(CourseworkIngestionTask.class.getName())
+                    .log(Level.SEVERE, null, ex);
+        } finally {
+            releaseConnection();
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * A content-addressed store for coursework files. Every file is written once
+ * under a name derived from the SHA-256 digest of its bytes, i.e.
+ * <code>&lt;store&gt;/ab/abcdef...0123.pdf</code>, and is never modified
+ * afterwards. Only the digest and the file size are kept in the
+ * <code>Coursework</code> row, so the same bytes submitted twice are stored
+ * once and a stored file can be handed to the PDF renderer directly without
+ * any copying.
+ *
+ * @author Ryan Gilera
+ */
+public final class CourseworkStorage {
+
+    private static final String FILE_EXTENSION = ".pdf";
+    private static final String TEMP_FOLDER = "tmp";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final File storeDirectory;
+
+    /**
+     * A class constructor that takes the root directory of the store. The
+     * directory is created if it does not exist yet.
+     *
+     * @param storeDirectory the root directory of the store
+     * @throws IOException if the directory cannot be created or written to
+     */
+    public CourseworkStorage(File storeDirectory) throws IOException {
+        this.storeDirectory = storeDirectory;
+        this.storeDirectory.mkdirs();
+
+        if (!storeDirectory.isDirectory()
+                || !Files.isWritable(storeDirectory.toPath())) {
+            throw new IOException("Coursework store is not a writable "
+                    + "directory: " + storeDirectory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Stores a copy of the given file. If a file with the same content is
+     * already stored, the existing file is reused and nothing else is kept.
+     *
+     * @param sourceFile the file to store
+     * @return the {@link StoredFile} describing the stored copy
+     * @throws IOException if the file cannot be read or written
+     */
+    public StoredFile store(File sourceFile) throws IOException {
+        try (InputStream inputStream = new FileInputStream(sourceFile)) {
+            return store(inputStream);
+        }
+    }
+
+    /**
+     * Stores the bytes read from the given stream. The bytes are read once
+     * through a fixed size buffer: they are written to a temporary file in
+     * the store while the SHA-256 digest and the size are computed, then the
+     * temporary file is atomically renamed to its content address. If a file
+     * with the same content is already stored, the temporary file is simply
+     * discarded. The stream is not closed.
+     *
+     * @param inputStream the stream to store
+     * @return the {@link StoredFile} describing the stored copy
+     * @throws IOException if the stream cannot be read or written
+     */
+    public StoredFile store(InputStream inputStream) throws IOException {
+        final File tempFolder = new File(storeDirectory, TEMP_FOLDER);
+        tempFolder.mkdirs();
+
+        File tempFile = File.createTempFile("coursework", ".tmp", tempFolder);
+        try {
+            final HashingInputStream hashingInputStream
+                    = new HashingInputStream(Hashing.sha256(), inputStream);
+            final long fileSize;
+
+            try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                fileSize = ByteStreams.copy(hashingInputStream, outputStream);
+            }
+
+            final String fileHash = hashingInputStream.hash().toString();
+            final File storedFile = resolve(fileHash);
+
+            if (!storedFile.exists()) {
+                storedFile.getParentFile().mkdirs();
+
+                // The temporary file lives in the same file system, so the 
+                // file only ever appears under its final name complete
+                try {
+                    Files.move(tempFile.toPath(),
+                            storedFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                    storedFile.setReadOnly();
+                } catch (FileAlreadyExistsException ex) {
+                    // The same content was stored by a concurrent upload
+                }
+            }
+
+            return new StoredFile(fileHash, fileSize, storedFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Stores a finished upload from the {@link UploadSpool}. The digest
+     * computed while the upload was received is trusted, so the bytes are
+     * not read again: the spool file is moved into place, or simply left to
+     * the spool cleanup if the same content is already stored.
+     *
+     * @param spooledUpload the finished upload
+     * @return the {@link StoredFile} describing the stored copy
+     * @throws IOException if the spool file cannot be moved into the store
+     */
+    public StoredFile store(UploadSpool.SpooledUpload spooledUpload)
+            throws IOException {
+        final File storedFile = resolve(spooledUpload.getFileHash());
+
+        if (!storedFile.exists()) {
+            storedFile.getParentFile().mkdirs();
+
+            try {
+                Files.move(spooledUpload.getFile().toPath(),
+                        storedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                storedFile.setReadOnly();
+            } catch (FileAlreadyExistsException ex) {
+                // The same content was stored by a concurrent upload
+            } catch (AtomicMoveNotSupportedException ex) {
+                // The spool is on another file system, copy it instead
+                return store(spooledUpload.getFile());
+            }
+        }
+
+        return new StoredFile(spooledUpload.getFileHash(),
+                spooledUpload.getFileSize(), storedFile);
+    }
+
+    /**
+     * Returns the location of the stored file for the given digest. The file
+     * itself may not exist.
+     *
+     * @param fileHash the hexadecimal SHA-256 digest of the file
+     * @return the File object of the stored file
+     * @throws IllegalArgumentException if the digest is not a valid SHA-256
+     * hexadecimal string
+     */
+    public File resolve(String fileHash) {
+        if (fileHash == null || !HASH_PATTERN.matcher(fileHash).matches()) {
+            throw new IllegalArgumentException(
+                    "Invalid coursework file hash: " + fileHash);
+        }
+
+        return new File(new File(storeDirectory, fileHash.substring(0, 2)),
+                fileHash + FILE_EXTENSION);
+    }
+
+    /**
+     * Determines if a file with the given digest is stored.
+     *
+     * @param fileHash the hexadecimal SHA-256 digest of the file
+     * @return true if the file exists in the store, otherwise false
+     */
+    public boolean contains(String fileHash) {
+        return resolve(fileHash).isFile();
+    }
+
+    /**
+     * Determines if the stored file of the given digest is intact, i.e. it 
+     * exists, has the given size and its bytes still hash to the digest. 
+     * The whole file is read, so this is meant for maintenance only.
+     *
+     * @param fileHash the hexadecimal SHA-256 digest of the file
+     * @param fileSize the expected file size in bytes
+     * @return true if the stored file matches, otherwise false
+     * @throws IOException if the stored file cannot be read
+     */
+    public boolean verify(String fileHash, long fileSize) throws IOException {
+        final File storedFile = resolve(fileHash);
+        if (!storedFile.isFile() || storedFile.length() != fileSize) {
+            return false;
+        }
+
+        try (InputStream inputStream = new FileInputStream(storedFile)) {
+            final HashingInputStream hashingInputStream
+                    = new HashingInputStream(Hashing.sha256(), inputStream);
+            ByteStreams.copy(hashingInputStream,
+                    ByteStreams.nullOutputStream());
+
+            return fileHash.equals(hashingInputStream.hash().toString());
+        }
+    }
+
+    /**
+     * Access the root directory of the store.
+     *
+     * @return the File object of the directory
+     */
+    public File getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    /**
+     * Describes a file kept in the store.
+     */
+    public static final class StoredFile {
+
+        private final String fileHash;
+        private final long fileSize;
+        private final File file;
+
+        private StoredFile(String fileHash, long fileSize, File file) {
+            this.fileHash = fileHash;
+            this.fileSize = fileSize;
+            this.file = file;
+        }
+
+        /**
+         * Access the SHA-256 digest of the file.
+         *
+         * @return the digest as a hexadecimal String
+         */
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        /**
+         * Access the size of the file.
+         *
+         * @return file size in bytes
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * Access the stored file.
+         *
+         * @return the File object of the stored file
+         */
+        public File getFile() {
+            return file;
+        }
+    }
+
+}
@@ -16,12 +16,9 @@
 package com.github.daytron.revworks.service;
 
 import com.github.daytron.revworks.MainUI;
-import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.view.main.CommentComponent;
 import com.github.daytron.revworks.view.main.CourseworkView;
 import com.github.daytron.revworks.view.main.HeaderComponent;
-import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
-import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
 import com.vaadin.server.VaadinService;
 import com.vaadin.server.VaadinSession;
 import java.io.File;
@@ -50,7 +47,6 @@ public class CurrentUserSession {
      */
     public static final String CURRENT_SEMESTER_KEY = "Current Semester";
 
-    public static final String JDBC_CONNECTION_POOL_KEY = "JDBC POOL";
     /**
      * The attribute key used to store the current classes associated with the
      * current user
@@ -79,19 +75,17 @@ public class CurrentUserSession {
     /**
      * Sets the name of the current user and stores it in the current session.
      * Using a {@code null} username will remove the username from the session.
-     * It also stores a list for generated files mark for deletion later on, the
-     * current semester through semester id and the SimpleJDBCConnectionPool
-     * object used for this session.
+     * It also stores a list for generated files mark for deletion later on and 
+     * the current semester through semester id. The JDBC connection pool is 
+     * shared by the servlet so it is not stored in the session.
      *
      * @param currentUser The current user
      * @param semesterID The current semester
-     * @param listOfClassTables The list of classes associated with the user
-     * @param jbdcConnectionPool The SimpleJDBCConnectionPool object
+     * @param classTables The classes associated with the user
      * @throws IllegalStateException if the current session cannot be accessed.
      */
     public static void set(Principal currentUser, String semesterID,
-            CopyOnWriteArrayList<ClassTable> listOfClassTables,
-            JDBCConnectionPool jbdcConnectionPool) {
+            ClassTableIndex classTables) {
         try {
             VaadinSession vaadinSession = VaadinSession.getCurrent();
 
@@ -105,15 +99,12 @@ public class CurrentUserSession {
             vaadinSession.setAttribute(CURRENT_SEMESTER_KEY, semesterID);
 
             // For list of classes
-            vaadinSession.setAttribute(CURRENT_CLASSES, listOfClassTables);
+            vaadinSession.setAttribute(CURRENT_CLASSES, classTables);
 
             // For file trash bin
             CopyOnWriteArrayList<File> listOfFilesToBeDeleted = new CopyOnWriteArrayList<>();
             vaadinSession.setAttribute(TRASH_CAN_FOR_FILES_KEY, listOfFilesToBeDeleted);
 
-            // For JDBC connection pool
-            vaadinSession.setAttribute(JDBC_CONNECTION_POOL_KEY, jbdcConnectionPool);
-
         } finally {
             VaadinSession.getCurrent().getLockInstance().unlock();
         }
@@ -281,29 +272,15 @@ public class CurrentUserSession {
     }
 
     /**
-     * Access list of classes associated with the current user. For admin user
-     * the list is empty by default.
-     *
-     * @return CopyOnWriteArrayList object
-     */
-    public static CopyOnWriteArrayList<ClassTable> getCurrentClassTables() {
-        CopyOnWriteArrayList<ClassTable> listOfClasses
-                = (CopyOnWriteArrayList<ClassTable>) VaadinSession.getCurrent()
-                .getAttribute(CURRENT_CLASSES);
-        return listOfClasses;
-    }
-
-    /**
-     * Access the JDBC connection pool object that is used throughout
-     * the session.
+     * Access the classes associated with the current user, indexed by class 
+     * id. For admin user the index is empty by default.
      *
-     * @return SimpleJDBCConnectionPool object
+     * @return ClassTableIndex object
      */
-    public static JDBCConnectionPool getJDBCConnectionPool() {
-        SimpleJDBCConnectionPool simpleJDBCConnectionPool
-                = (SimpleJDBCConnectionPool) VaadinSession.getCurrent()
-                .getAttribute(JDBC_CONNECTION_POOL_KEY);
-        return simpleJDBCConnectionPool;
+    public static ClassTableIndex getCurrentClassTables() {
+        ClassTableIndex classTables = (ClassTableIndex) VaadinSession
+                .getCurrent().getAttribute(CURRENT_CLASSES);
+        return classTables;
     }
 
     /**
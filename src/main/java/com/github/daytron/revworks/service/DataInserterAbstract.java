@@ -21,6 +21,7 @@ import com.github.daytron.revworks.data.UserNotificationType;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.model.User;
 import com.google.common.eventbus.Subscribe;
 import com.vaadin.ui.Button;
 import java.sql.PreparedStatement;
@@ -46,67 +47,89 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
     @Override
     public void insertNewComment(final AppEvent.SubmitNewCommentEvent event) {
         if (reserveConnectionPool()) {
-            try (PreparedStatement preparedStatementComment = getConnection()
-                    .prepareStatement(
-                            PreparedQueryStatement.INSERT_COMMENT.getQuery())) {
-                        preparedStatementComment.setString(1, event.getMessage());
-
-                        if (MainUI.get().getAccessControl().isUserAStudent()) {
-                            preparedStatementComment.setBoolean(2, true);
-                        } else {
-                            preparedStatementComment.setBoolean(2, false);
-                        }
-
-                        preparedStatementComment.setInt(3, event.getNoteId());
-
-                        preparedStatementComment.executeUpdate();
-                        getConnection().commit();
-
-                        preparedStatementComment.close();
-
-                        // Update note of its is_read fields
-                        PreparedStatement preparedStatementNote
-                                = getConnection().prepareStatement(
-                                        PreparedQueryStatement.UPDATE_NOTE.getQuery());
-
-                        if (MainUI.get().getAccessControl().isUserAStudent()) {
-                            preparedStatementNote.setBoolean(1, true);
-                            preparedStatementNote.setBoolean(2, false);
-                        } else {
-                            preparedStatementNote.setBoolean(1, false);
-                            preparedStatementNote.setBoolean(2, true);
-                        }
-
-                        preparedStatementNote.setInt(3, event.getNoteId());
-                        preparedStatementNote.executeUpdate();
-                        getConnection().commit();
-
-                        preparedStatementNote.close();
-
-                        // Create new user notification for the corresponding user
-                        final Coursework coursework = event.getCoursework();
-                        
-                        if (MainUI.get().getAccessControl().isUserAStudent()) {
-                            AppEventBus.post(new AppEvent.InsertNotificationEvent(
-                                    " has sent you a comment",
-                                    "on ", UserNotificationType.COMMENT,
-                                    coursework.getClassTable().getLecturerUser().getId(),
-                                    coursework.getId()));
-                        } else {
-                            AppEventBus.post(new AppEvent.InsertNotificationEvent(
-                                    " has sent you a comment",
-                                    "on ", UserNotificationType.COMMENT,
-                                    coursework.getStudentUser().getId(),
-                                    coursework.getId()));
-                        }
-
-                    } catch (SQLException ex) {
-                        Logger.getLogger(LecturerDataInserterImpl.class.getName())
-                                .log(Level.SEVERE, null, ex);
-                        notifyDataSendError();
-                    } finally {
-                        releaseConnection();
-                    }
+            final Coursework coursework = event.getCoursework();
+            boolean isCommentInserted = false;
+
+            try {
+                // Locks the coursework row until the commit below, so its 
+                // comment ids are committed in ascending order
+                updateChangeVersion(coursework.getId());
+
+                PreparedStatement preparedStatementComment = prepareStatement(
+                        PreparedQueryStatement.INSERT_COMMENT);
+                preparedStatementComment.setString(1, event.getMessage());
+
+                if (MainUI.get().getAccessControl().isUserAStudent()) {
+                    preparedStatementComment.setBoolean(2, true);
+                } else {
+                    preparedStatementComment.setBoolean(2, false);
+                }
+
+                preparedStatementComment.setInt(3, event.getNoteId());
+
+                preparedStatementComment.executeUpdate();
+
+                preparedStatementComment.close();
+
+                // The note is read by the sender and unread by the receiver 
+                // now, so both unread counts follow it
+                updateUnreadCounters(coursework, event.getNoteId());
+
+                // Update note of its is_read fields
+                PreparedStatement preparedStatementNote = prepareStatement(
+                        PreparedQueryStatement.UPDATE_NOTE);
+
+                if (MainUI.get().getAccessControl().isUserAStudent()) {
+                    preparedStatementNote.setBoolean(1, true);
+                    preparedStatementNote.setBoolean(2, false);
+                } else {
+                    preparedStatementNote.setBoolean(1, false);
+                    preparedStatementNote.setBoolean(2, true);
+                }
+
+                preparedStatementNote.setInt(3, coursework.getId());
+                preparedStatementNote.setInt(4, event.getNoteId());
+                preparedStatementNote.executeUpdate();
+                getConnection().commit();
+
+                preparedStatementNote.close();
+
+                // Open views of the note and its coursework refresh
+                publishChange(ChangeHub.Topic.NOTE_COMMENTS,
+                        event.getNoteId());
+                publishChange(ChangeHub.Topic.COURSEWORK_NOTES,
+                        coursework.getId());
+
+                isCommentInserted = true;
+            } catch (SQLException ex) {
+                Logger.getLogger(LecturerDataInserterImpl.class.getName())
+                        .log(Level.SEVERE, null, ex);
+                notifyDataSendError();
+            } finally {
+                releaseConnection();
+            }
+
+            // The notification is inserted on a connection of its own, so it 
+            // is only posted once this one is back in the pool and none of 
+            // its statements is touched any more
+            if (isCommentInserted) {
+                // Create new user notification for the corresponding user
+                if (MainUI.get().getAccessControl().isUserAStudent()) {
+                    AppEventBus.post(new AppEvent.InsertNotificationEvent(
+                            " has sent you a comment",
+                            "on ", UserNotificationType.COMMENT,
+                            coursework.getClassTable().getLecturerUser().getId(),
+                            coursework.getId(),
+                            coursework.getTitle()));
+                } else {
+                    AppEventBus.post(new AppEvent.InsertNotificationEvent(
+                            " has sent you a comment",
+                            "on ", UserNotificationType.COMMENT,
+                            coursework.getStudentUser().getId(),
+                            coursework.getId(),
+                            coursework.getTitle()));
+                }
+            }
         } else {
             notifyDataSendError();
         }
@@ -126,10 +149,14 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
                 entry.getValue().removeStyleName("note-clicked");
             }
 
+            final Coursework coursework = event.getCoursework();
             try {
+                // The note and its first comment are committed together under 
+                // a new change version of the coursework
+                updateChangeVersion(coursework.getId());
+
                 PreparedStatement preparedStatementNote
-                        = getConnection().prepareStatement(
-                                PreparedQueryStatement.INSERT_NOTE.getQuery(),
+                        = prepareStatement(PreparedQueryStatement.INSERT_NOTE,
                                 Statement.RETURN_GENERATED_KEYS);
                 preparedStatementNote.setInt(1, event.getPageNumber());
 
@@ -149,10 +176,10 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
                     preparedStatementNote.setBoolean(4, true);
                 }
 
-                preparedStatementNote.setInt(5, event.getCoursework().getId());
+                preparedStatementNote.setInt(5, coursework.getId());
+                preparedStatementNote.setInt(6, coursework.getId());
 
                 preparedStatementNote.executeUpdate();
-                getConnection().commit();
 
                 ResultSet resultSet = preparedStatementNote.getGeneratedKeys();
                 int generatedNoteId;
@@ -169,8 +196,7 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
                 }
 
                 PreparedStatement preparedStatementComment
-                        = getConnection().prepareStatement(
-                                PreparedQueryStatement.INSERT_COMMENT.getQuery());
+                        = prepareStatement(PreparedQueryStatement.INSERT_COMMENT);
                 preparedStatementComment.setString(1, event.getMessage());
 
                 if (MainUI.get().getAccessControl().isUserAStudent()) {
@@ -182,6 +208,15 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
                 preparedStatementComment.setInt(3, generatedNoteId);
 
                 preparedStatementComment.executeUpdate();
+
+                // The new note is unread by the receiver
+                if (MainUI.get().getAccessControl().isUserAStudent()) {
+                    updateUnreadCounter(coursework.getClassTable()
+                            .getLecturerUser().getId(), coursework.getId(), 1);
+                } else {
+                    updateUnreadCounter(coursework.getStudentUser().getId(),
+                            coursework.getId(), 1);
+                }
                 getConnection().commit();
 
                 preparedStatementNote.close();
@@ -191,21 +226,32 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
                 event.getCourseworkView().getCommentLayout()
                         .setNoteId(generatedNoteId);
 
+                // Open views of the coursework refresh, and the comment 
+                // component of the creator shows the first comment
+                publishChange(ChangeHub.Topic.COURSEWORK_NOTES,
+                        coursework.getId());
+                publishChange(ChangeHub.Topic.NOTE_COMMENTS, generatedNoteId);
+
+                // The notification is inserted on a connection of its own, so
+                // this one goes back to the shared pool first
+                releaseConnection();
+
                 // Create new user notification for the corresponding user
-                final Coursework coursework = event.getCoursework();
                 
                 if (MainUI.get().getAccessControl().isUserAStudent()) {
                     AppEventBus.post(new AppEvent.InsertNotificationEvent(
                             " has created a note",
                             "on ", UserNotificationType.NOTE,
                             coursework.getClassTable().getLecturerUser().getId(),
-                            coursework.getId()));
+                            coursework.getId(),
+                            coursework.getTitle()));
                 } else {
                     AppEventBus.post(new AppEvent.InsertNotificationEvent(
                             " has created a note",
                             "on ", UserNotificationType.NOTE,
                             coursework.getStudentUser().getId(),
-                            coursework.getId()));
+                            coursework.getId(),
+                            coursework.getTitle()));
                 }
 
             } catch (SQLException ex) {
@@ -230,34 +276,55 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
 
         if (reserveConnectionPool()) {
             try {
+                final boolean isStudentUser
+                        = MainUI.get().getAccessControl().isUserAStudent();
+
+                // Clicking a note already read changes nothing, so the 
+                // coursework row is not locked and no viewer refreshes
+                if (isNoteRead(event.getNoteId(), isStudentUser)) {
+                    styleNoteButtonAsRead(button);
+                    return;
+                }
+
+                // The coursework row is locked before the note row, as by 
+                // the comment inserts, so the two never deadlock
+                updateChangeVersion(event.getCourseworkId());
+
                 PreparedStatement preparedStatementNote;
                 
-                if (MainUI.get().getAccessControl().isUserAStudent()) {
+                if (isStudentUser) {
                     preparedStatementNote
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.STUDENT_UPDATE_NOTE
-                                    .getQuery());
-
-                    preparedStatementNote.setBoolean(1, true);
-                    preparedStatementNote.setInt(2, event.getNoteId());
+                            = prepareStatement(
+                                    PreparedQueryStatement.STUDENT_UPDATE_NOTE);
                 } else {
                     preparedStatementNote
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.LECTURER_UPDATE_NOTE
-                                    .getQuery());
-
-                    preparedStatementNote.setBoolean(1, true);
-                    preparedStatementNote.setInt(2, event.getNoteId());
+                            = prepareStatement(
+                                    PreparedQueryStatement.LECTURER_UPDATE_NOTE);
                 }
 
-                preparedStatementNote.executeUpdate();
-                getConnection().commit();
+                preparedStatementNote.setBoolean(1, true);
+                preparedStatementNote.setInt(2, event.getCourseworkId());
+                preparedStatementNote.setInt(3, event.getNoteId());
+                preparedStatementNote.setBoolean(4, true);
 
+                final int updatedNotes = preparedStatementNote.executeUpdate();
                 preparedStatementNote.close();
+
+                if (updatedNotes > 0) {
+                    updateUnreadCounter(
+                            ((User) CurrentUserSession.getPrincipal()).getId(),
+                            event.getCourseworkId(), -updatedNotes);
+                    getConnection().commit();
+
+                    // Other open views of the same user see the note as read
+                    publishChange(ChangeHub.Topic.COURSEWORK_NOTES,
+                            event.getCourseworkId());
+                } else {
+                    // Read meanwhile in another session, keep the version
+                    getConnection().rollback();
+                }
                 
-                button.removeStyleName("note-unread");
-                button.addStyleName("note-read");
-                button.addStyleName("note-clicked");
+                styleNoteButtonAsRead(button);
             } catch (SQLException ex) {
                 Logger.getLogger(DataInserterAbstract.class.getName())
                         .log(Level.SEVERE, null, ex);
@@ -269,5 +336,98 @@ public class DataInserterAbstract extends QueryManagerAbstract implements DataIn
             notifyDataSendError();
         }
     }
+
+    /**
+     * Shows a clicked note button as read.
+     * 
+     * @param button the note Button object
+     */
+    private void styleNoteButtonAsRead(Button button) {
+        button.removeStyleName("note-unread");
+        button.addStyleName("note-read");
+        button.addStyleName("note-clicked");
+    }
+
+    /**
+     * Reads the read flag of a note for the current user without locking 
+     * the note.
+     * 
+     * @param noteId the note id
+     * @param isStudentUser true to read the student flag, otherwise the 
+     * lecturer flag
+     * @return true if the note is read, false if unread or not found
+     * @throws SQLException if the query fails
+     */
+    private boolean isNoteRead(int noteId, boolean isStudentUser)
+            throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.SELECT_NOTE_READ_STATUS)) {
+            preparedStatement.setInt(1, noteId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next()
+                        && resultSet.getBoolean(isStudentUser ? 1 : 2);
+            }
+        }
+    }
+
+    /**
+     * Updates the unread counts of the student and the lecturer of a 
+     * coursework for a comment sent by the current user, within the current 
+     * transaction. Must be called before the note read flags are updated.
+     * 
+     * @param coursework the coursework of the note
+     * @param noteId the id of the commented note
+     * @throws SQLException if a query fails
+     */
+    private void updateUnreadCounters(Coursework coursework, int noteId)
+            throws SQLException {
+        boolean isReadStudent = true;
+        boolean isReadLecturer = true;
+
+        // The coursework row is locked, so the flags cannot change meanwhile
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.SELECT_NOTE_READ_STATUS)) {
+            preparedStatement.setInt(1, noteId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    isReadStudent = resultSet.getBoolean(1);
+                    isReadLecturer = resultSet.getBoolean(2);
+                }
+            }
+        }
+
+        final int studentUserId = coursework.getStudentUser().getId();
+        final int lecturerUserId = coursework.getClassTable()
+                .getLecturerUser().getId();
+
+        if (MainUI.get().getAccessControl().isUserAStudent()) {
+            updateUnreadCounter(studentUserId, coursework.getId(),
+                    isReadStudent ? 0 : -1);
+            updateUnreadCounter(lecturerUserId, coursework.getId(),
+                    isReadLecturer ? 1 : 0);
+        } else {
+            updateUnreadCounter(studentUserId, coursework.getId(),
+                    isReadStudent ? 1 : 0);
+            updateUnreadCounter(lecturerUserId, coursework.getId(),
+                    isReadLecturer ? 0 : -1);
+        }
+    }
+
+    /**
+     * Increments the change version of a coursework within the current 
+     * transaction. Notes written in the same transaction are stamped with 
+     * the new version, so open views fetch only the notes above the version 
+     * they have seen.
+     * 
+     * @param courseworkId the coursework id
+     * @throws SQLException if the update fails
+     */
+    private void updateChangeVersion(int courseworkId) throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.UPDATE_COURSEWORK_CHANGE_VERSION)) {
+            preparedStatement.setInt(1, courseworkId);
+            preparedStatement.executeUpdate();
+        }
+    }
     
 }
@@ -18,22 +18,25 @@ package com.github.daytron.revworks.service;
 import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPoolException;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
 import com.github.daytron.revworks.MainUI;
-import com.github.daytron.revworks.data.AnnouncementType;
 import com.github.daytron.revworks.data.ExceptionMsg;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.data.UserType;
 import com.github.daytron.revworks.model.Announcement;
-import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.model.Note;
+import com.github.daytron.revworks.service.mapper.AnnouncementRowMapper;
+import com.github.daytron.revworks.service.mapper.NoteRowMapper;
+import com.github.daytron.revworks.service.mapper.RowMapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,8 +49,6 @@ import java.util.logging.Logger;
 public abstract class DataProviderAbstract extends QueryManagerAbstract
         implements DataProvider {
 
-    private static final String GSM_LONDON = "GSM London";
-
     private List<Announcement> listOfAnnouncements;
     private Coursework receivedCoursework;
 
@@ -73,117 +74,260 @@ public abstract class DataProviderAbstract extends QueryManagerAbstract
                 PreparedStatement preparedStatement;
                 
                 if (MainUI.get().getAccessControl().isUserAStudent()) {
-                    preparedStatement = getConnection().prepareStatement(
-                            PreparedQueryStatement
-                            .STUDENT_SELECT_ANNOUNCEMENTS
-                            .getQuery());
+                    preparedStatement = prepareStatement(
+                            PreparedQueryStatement.STUDENT_SELECT_ANNOUNCEMENTS);
                 } else {
                     // Otherwise it's a lecturer
-                    preparedStatement = getConnection().prepareStatement(
-                            PreparedQueryStatement
-                            .LECTURER_SELECT_ANNOUNCEMENTS
-                            .getQuery());
+                    preparedStatement = prepareStatement(
+                            PreparedQueryStatement.LECTURER_SELECT_ANNOUNCEMENTS);
                 }
 
                 preparedStatement.setInt(1,
                         MainUI.get().getAccessControl().getUserId());
 
-                ResultSet resultSet = preparedStatement.executeQuery();
-
-                // Return empty list if no result
-                if (!resultSet.next()) {
-                    preparedStatement.close();
-                    resultSet.close();
-                    releaseConnection();
-                    
-                    return new ArrayList<>();
-                }
-
-                resultSet.beforeFirst();
+                List<Announcement> listOfResults = queryForList(
+                        preparedStatement, new AnnouncementRowMapper(
+                                CurrentUserSession.getCurrentClassTables(),
+                                MainUI.get().getAccessControl().getUserType()
+                                == UserType.STUDENT,
+                                MainUI.get().getAccessControl().getFullName()));
+                preparedStatement.close();
 
                 this.listOfAnnouncements = new ArrayList<>();
 
                 int counter = 0;
-                while (resultSet.next()) {
+                LocalDateTime now = LocalDateTime.now();
+                for (Announcement announcement : listOfResults) {
                     counter += 1;
-                    
-                    Timestamp timestamp = resultSet.getTimestamp(4);
-                    LocalDateTime dateSubmitted = timestamp.toLocalDateTime();
-                    
+
                     if (counter > 3) {
-                        LocalDateTime now = LocalDateTime.now();
-                        int days = (int)ChronoUnit.DAYS.between(dateSubmitted, now);
-                        
+                        int days = (int) ChronoUnit.DAYS.between(
+                                announcement.getDateTimeSubmitted(), now);
+
                         if (days > 7) {
                             break;
                         }
                     }
 
-                    AnnouncementType announcementType;
-                    String announcementSource;
-                    Announcement announcement;
-
-                    CopyOnWriteArrayList<ClassTable> listOfClassTables 
-                            = CurrentUserSession.getCurrentClassTables();
-                    
-                    if (resultSet.getInt(5) == 2) {
-                        int classId = resultSet.getInt(6);
-                        
-                        ClassTable selectedClassTable = null;
-                        
-                        for (ClassTable classTable : listOfClassTables) {
-                            if (classTable.getId() == classId) {
-                                selectedClassTable = classTable;
-                                break;
-                            }
+                    this.listOfAnnouncements.add(announcement);
+                }
+
+                return listOfAnnouncements;
+            } catch (SQLException ex) {
+                Logger.getLogger(DataProviderAbstract.class.getName())
+                        .log(Level.SEVERE, null, ex);
+                throw new SQLErrorQueryException(
+                        ExceptionMsg.SQL_ERROR_QUERY.getMsg());
+            } finally {
+                releaseConnection();
+            }
+        } else {
+            throw new SQLErrorRetrievingConnectionAndPoolException(
+                    ExceptionMsg.SQL_ERROR_CONNECTION.getMsg());
+        }
+
+    }
+    
+
+    /**
+     * Reads an unread count of a user, a single row lookup by primary key.
+     * 
+     * @param userId the id of the user
+     * @param courseworkId the id of the coursework whose notes are counted, 
+     * or {@link #NOTIFICATIONS_COUNTER} for the user notifications
+     * @return the unread count or null if nothing is counted yet
+     * @throws SQLException if the query fails
+     */
+    protected final Integer queryUnreadCount(int userId, int courseworkId)
+            throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.SELECT_UNREAD_COUNTER)) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.setInt(2, courseworkId);
+            return queryForObject(preparedStatement,
+                    new RowMapper<Integer>() {
+
+                        @Override
+                        public Integer mapRow(ResultSet resultSet)
+                                throws SQLException {
+                            return resultSet.getInt(1);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Reads the change version of a row, used by the views to skip the 
+     * retrieval when nothing has changed since the version they have seen.
+     * 
+     * @param query the query selecting the version of a single row
+     * @param id the id of the row
+     * @return the change version, zero if the row is not found
+     * @throws SQLException if the query fails
+     */
+    protected final int queryChangeVersion(PreparedQueryStatement query,
+            int id) throws SQLException {
+        final Integer changeVersion;
+        try (PreparedStatement preparedStatement = prepareStatement(query)) {
+            preparedStatement.setInt(1, id);
+            changeVersion = queryForObject(preparedStatement,
+                    new RowMapper<Integer>() {
+
+                        @Override
+                        public Integer mapRow(ResultSet resultSet)
+                                throws SQLException {
+                            return resultSet.getInt(1);
+                        }
+                    });
+        }
+
+        return (changeVersion == null) ? 0 : changeVersion;
+    }
+
+    /**
+     * Re-evaluates the read status of a coursework from the unread count of 
+     * the user. A coursework is read only if every one of its notes is 
+     * read. The counter row is created with the coursework, and a coursework 
+     * whose notes were never written to has a change version of zero, so a 
+     * single lookup by primary key tells all three cases apart. The notes 
+     * are only scanned for legacy courseworks without a counter row.
+     * 
+     * @param courseworkId the coursework id
+     * @param userId the id of the student or lecturer of the coursework
+     * @param isStudentUser true to check the student read flags, otherwise 
+     * the lecturer read flags
+     * @return true if all notes are read, false if at least one is not, or 
+     * null if the coursework has no notes
+     * @throws SQLException if the query fails
+     */
+    protected final Boolean areAllNotesRead(int courseworkId, int userId,
+            boolean isStudentUser) throws SQLException {
+        final Integer unreadCount;
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.SELECT_COURSEWORK_UNREAD_COUNTER)) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.setInt(2, courseworkId);
+            unreadCount = queryForObject(preparedStatement,
+                    new RowMapper<Integer>() {
+
+                        @Override
+                        public Integer mapRow(ResultSet resultSet)
+                                throws SQLException {
+                            return resultSet.getInt(1);
                         }
-                        
-                        String moduleId = selectedClassTable.getModuleId();
-                        String moduleName = selectedClassTable.getModuleName();
-
-                        announcementType = AnnouncementType.CLASS_WIDE;
-
-                        if (MainUI.get().getAccessControl().getUserType()
-                                == UserType.STUDENT) {
-                            announcementSource = selectedClassTable.getLecturerUser()
-                                    .getFirstName()
-                                    + " " + selectedClassTable.getLecturerUser()
-                                    .getLastName();
-                        } else {
-                            announcementSource
-                                    = MainUI.get().getAccessControl().getFullName();
+                    });
+        }
+
+        if (unreadCount != null) {
+            // Minus one stands for a coursework without any note
+            return (unreadCount < 0) ? null : unreadCount == 0;
+        }
+
+        final List<Note> listOfNotes;
+        try (PreparedStatement preparedStatementNote = prepareStatement(
+                PreparedQueryStatement.SELECT_NOTE)) {
+            preparedStatementNote.setInt(1, courseworkId);
+            listOfNotes = queryForList(preparedStatementNote,
+                    new NoteRowMapper());
+        }
+
+        if (listOfNotes.isEmpty()) {
+            return null;
+        }
+
+        for (Note note : listOfNotes) {
+            boolean isRead = isStudentUser
+                    ? note.isReadStudent() : note.isReadLecturer();
+
+            // If at least one of the note is not read yet
+            if (!isRead) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Resolves the file of a coursework and attaches it to the coursework 
+     * object. A coursework kept in the coursework store already has its 
+     * immutable stored file attached by the list query, so nothing is 
+     * fetched. A legacy coursework whose file is still kept as a BLOB is 
+     * migrated on first access: the bytes are streamed once into the 
+     * coursework store and the row is updated to reference the stored file. 
+     * The BLOB itself is kept until {@link CourseworkBlobCleanup} has 
+     * verified the stored copy.
+     * 
+     * @param coursework the Coursework object to fetch the file for
+     * @return the coursework file as a File object
+     * @throws SQLErrorQueryException if the query or the file write fails
+     * @throws SQLErrorRetrievingConnectionAndPoolException for error in 
+     * in connecting to the database
+     */
+    public File fetchCourseworkFile(Coursework coursework) throws
+            SQLErrorQueryException,
+            SQLErrorRetrievingConnectionAndPoolException {
+        if (coursework.getCourseworkFile() != null
+                && coursework.getCourseworkFile().exists()) {
+            return coursework.getCourseworkFile();
+        }
+
+        if (coursework.getFileHash() != null) {
+            // The row references a stored file that no longer exists
+            Logger.getLogger(DataProviderAbstract.class.getName())
+                    .log(Level.SEVERE, "Missing stored file {0} for coursework "
+                            + "{1}", new Object[]{coursework.getFileHash(),
+                                coursework.getId()});
+            throw new SQLErrorQueryException(
+                    ExceptionMsg.SQL_ERROR_QUERY.getMsg());
+        }
+
+        final CourseworkStorage courseworkStorage = getCourseworkStorage();
+        if (courseworkStorage == null) {
+            throw new SQLErrorQueryException(
+                    ExceptionMsg.SQL_ERROR_QUERY.getMsg());
+        }
+
+        if (reserveConnectionPool()) {
+            try {
+                final CourseworkStorage.StoredFile storedFile;
+
+                try (PreparedStatement preparedStatement = prepareStatement(
+                        PreparedQueryStatement.SELECT_COURSEWORK_FILE)) {
+                    preparedStatement.setInt(1, coursework.getId());
+
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        if (!resultSet.next()) {
+                            throw new SQLErrorQueryException(
+                                    ExceptionMsg.SQL_ERROR_QUERY.getMsg());
                         }
 
-                        announcement = new Announcement(
-                                resultSet.getInt(1),
-                                resultSet.getString(2),
-                                resultSet.getString(3),
-                                dateSubmitted,
-                                announcementType,
-                                announcementSource,
-                                moduleId,
-                                moduleName);
-                    } else {
-                        announcementType = AnnouncementType.SYSTEM_WIDE;
-                        announcementSource = GSM_LONDON;
-
-                        announcement = new Announcement(
-                                resultSet.getInt(1),
-                                resultSet.getString(2),
-                                resultSet.getString(3),
-                                dateSubmitted,
-                                announcementType,
-                                announcementSource);
+                        // Stream the bytes straight to the store instead of 
+                        // holding the whole file in memory
+                        try (InputStream inputStream
+                                = resultSet.getBinaryStream(1)) {
+                            if (inputStream == null) {
+                                throw new SQLErrorQueryException(
+                                        ExceptionMsg.SQL_ERROR_QUERY.getMsg());
+                            }
+
+                            storedFile = courseworkStorage.store(inputStream);
+                        }
                     }
+                }
 
-                    this.listOfAnnouncements.add(announcement);
+                try (PreparedStatement preparedStatement = prepareStatement(
+                        PreparedQueryStatement.UPDATE_COURSEWORK_FILE_HASH)) {
+                    preparedStatement.setString(1, storedFile.getFileHash());
+                    preparedStatement.setLong(2, storedFile.getFileSize());
+                    preparedStatement.setInt(3, coursework.getId());
+                    preparedStatement.executeUpdate();
+                    getConnection().commit();
                 }
 
-                preparedStatement.close();
-                resultSet.close();
-  
-                return listOfAnnouncements;
-            } catch (SQLException ex) {
+                coursework.setStoredFile(storedFile.getFileHash(),
+                        storedFile.getFile());
+            } catch (SQLException | IOException ex) {
                 Logger.getLogger(DataProviderAbstract.class.getName())
                         .log(Level.SEVERE, null, ex);
                 throw new SQLErrorQueryException(
@@ -196,8 +340,8 @@ public abstract class DataProviderAbstract extends QueryManagerAbstract
                     ExceptionMsg.SQL_ERROR_CONNECTION.getMsg());
         }
 
+        return coursework.getCourseworkFile();
     }
-    
 
     public void setReceivedCoursework(Coursework receivedCoursework) {
         this.receivedCoursework = receivedCoursework;
@@ -15,15 +15,16 @@
  */
 package com.github.daytron.revworks.service;
 
+import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.ErrorMsg;
 import com.github.daytron.revworks.data.FontAwesomeIcon;
+import com.github.daytron.revworks.exception.UploadSizeLimitExceededException;
 import com.github.daytron.revworks.util.NotificationUtil;
-import com.google.gwt.thirdparty.guava.common.io.Files;
+import com.google.common.io.Files;
 import com.vaadin.ui.ProgressBar;
 import com.vaadin.ui.Upload;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,6 +46,8 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
 
     private final ProgressBar progressbar;
     private File fileUploaded;
+    private UploadSpool.SpoolOutputStream spoolOutputStream;
+    private UploadSpool.SpooledUpload spooledUpload;
     private Upload uploader;
     private boolean isUploaded;
     private boolean isCustomeError;
@@ -70,28 +73,39 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
     }
 
     /**
-     * Creates a new file as a placeholder to be written by the FileOutStream.
+     * Opens a new file in the upload spool to be written by the upload. The 
+     * file gets a unique name, so concurrent uploads of files with the same 
+     * name never overwrite each other. The allowed file size is enforced 
+     * while the bytes arrive.
      * 
      * @param filename the filename of the coursework file
      * @param mimeType the mimetype of the file
-     * @return the OutputStream object if no FileNotFoundException occurs, 
+     * @return the OutputStream object if the spool file is created, 
      * otherwise returns null
      */
     @Override
     public OutputStream receiveUpload(String filename, String mimeType) {
-        FileOutputStream fileOutputStream;
+        UploadSpool uploadSpool = MainUI.MainUIServlet.getUploadSpool();
+        if (uploadSpool == null) {
+            Logger.getLogger(FileUploadReceiver.class.getName())
+                    .log(Level.SEVERE, "No upload spool found. "
+                            + "The servlet is not initialised.");
+            return null;
+        }
 
-        try {
-            fileUploaded = new File(filename);
-            fileOutputStream = new FileOutputStream(fileUploaded);
+        // Throw away any previous upload that was not submitted
+        tryDeleteFile();
 
-        } catch (FileNotFoundException ex) {
+        try {
+            spoolOutputStream = uploadSpool.open(filename, 
+                    MAX_SIZE_FILE_ALLOWED);
+        } catch (IOException ex) {
             Logger.getLogger(FileUploadReceiver.class.getName())
                     .log(Level.SEVERE, null, ex);
             return null;
         }
 
-        return fileOutputStream;
+        return spoolOutputStream;
     }
 
     /**
@@ -197,16 +211,22 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
         this.progressbar.setVisible(false);
 
         if (!isCustomeError) {
-            NotificationUtil.showError(
-                    ErrorMsg.STUDENT_FAILED_UPLOAD_COURSEWORK.getText(),
-                    ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+            if (event.getReason() instanceof UploadSizeLimitExceededException) {
+                NotificationUtil.showError(
+                        ErrorMsg.STUDENT_FAILED_UPLOAD_COURSEWORK.getText(),
+                        ErrorMsg.STUDENT_REACHED_MAX_FILE_SIZE.getText());
+            } else {
+                NotificationUtil.showError(
+                        ErrorMsg.STUDENT_FAILED_UPLOAD_COURSEWORK.getText(),
+                        ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+            }
             this.isCustomeError = false;
         }
     }
 
     /**
      * If the upload succeed, show an information notification. Save the 
-     * temporary file created for cleanup later on when session ends.
+     * spool file created for cleanup later on when session ends.
      * 
      * @param event SucceededEvent object from Upload class
      */
@@ -215,6 +235,8 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
         NotificationUtil.showInformation(
                 FontAwesomeIcon.CLOUD_UPLOAD.getLgSize(),
                 "File upload finished.", null);
+        this.spooledUpload = spoolOutputStream.getSpooledUpload();
+        this.fileUploaded = spooledUpload.getFile();
         this.isUploaded = true;
 
         // Just to be sure. A user may submit another file
@@ -228,12 +250,16 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
     }
 
     /**
-     * Tries to delete the temporary file.
+     * Tries to delete the spool file.
      */
     public void tryDeleteFile() {
-        if (fileUploaded != null) {
-            fileUploaded.delete();
+        if (spoolOutputStream != null) {
+            spoolOutputStream.discard();
         }
+
+        spooledUpload = null;
+        fileUploaded = null;
+        isUploaded = false;
     }
 
     /**
@@ -245,6 +271,16 @@ public class FileUploadReceiver implements Upload.Receiver, Upload.ProgressListe
         return fileUploaded;
     }
 
+    /**
+     * Access the uploaded file together with the digest, size and page count 
+     * computed while it was received.
+     * 
+     * @return SpooledUpload object or null if no upload has finished
+     */
+    public UploadSpool.SpooledUpload getSpooledUpload() {
+        return spooledUpload;
+    }
+
     /**
      * Access the flag for determining if the the file is uploaded or not.
      * 
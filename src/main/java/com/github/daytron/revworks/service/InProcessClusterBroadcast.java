@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ClusterBroadcast} for a single server or for tests. Every 
+ * broadcast created from another one joins its group and receives the 
+ * events of the others synchronously on the publishing thread, so several 
+ * nodes can be simulated within one JVM. A broadcast on its own has no 
+ * other nodes to send to.
+ *
+ * @author Ryan Gilera
+ */
+public final class InProcessClusterBroadcast implements ClusterBroadcast {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<InProcessClusterBroadcast> group;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong sentCounter = new AtomicLong();
+    private final AtomicLong receivedCounter = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * A class constructor that creates a broadcast with a group of its own.
+     */
+    public InProcessClusterBroadcast() {
+        this.group = new CopyOnWriteArrayList<>();
+        this.group.add(this);
+    }
+
+    /**
+     * A class constructor that joins the group of another broadcast.
+     *
+     * @param member any broadcast of the group to join
+     */
+    public InProcessClusterBroadcast(InProcessClusterBroadcast member) {
+        this.group = member.group;
+        this.group.add(this);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(ClusterEvent.Type type, ChangeHub.Topic topic,
+            int key) {
+        if (!running) {
+            return;
+        }
+
+        sentCounter.incrementAndGet();
+        final ClusterEvent event = new ClusterEvent(type, topic, key, nodeId);
+
+        for (InProcessClusterBroadcast node : group) {
+            if (node != this) {
+                node.receive(event);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public String getStatistics() {
+        return "nodes=" + group.size()
+                + ", sent=" + sentCounter.get()
+                + ", received=" + receivedCounter.get();
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        group.remove(this);
+    }
+
+    /**
+     * Hands an event of another node to the listeners of this one. A 
+     * failing listener never stops the others.
+     *
+     * @param event the ClusterEvent object received
+     */
+    private void receive(ClusterEvent event) {
+        receivedCounter.incrementAndGet();
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(InProcessClusterBroadcast.class.getName())
+                        .log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+}
@@ -45,10 +45,9 @@ public class LecturerDataInserterImpl extends DataInserterAbstract implements
         if (reserveConnectionPool()) {
             try {
                 // Insert new Announcement item
-                PreparedStatement preparedStatement1 = getConnection()
-                        .prepareStatement(
-                                PreparedQueryStatement.LECTURER_INSERT_NEW_ANNOUNCEMENT
-                                .getQuery(), Statement.RETURN_GENERATED_KEYS);
+                PreparedStatement preparedStatement1 = prepareStatement(
+                        PreparedQueryStatement.LECTURER_INSERT_NEW_ANNOUNCEMENT,
+                        Statement.RETURN_GENERATED_KEYS);
                 preparedStatement1.setString(1, event.getTitle().getValue());
                 preparedStatement1.setString(2, event.getRichTextArea().getValue());
 
@@ -69,11 +68,8 @@ public class LecturerDataInserterImpl extends DataInserterAbstract implements
                     return;
                 }
 
-                PreparedStatement preparedStatement2 = getConnection()
-                        .prepareStatement(
-                                PreparedQueryStatement
-                                        .LECTURER_INSERT_NEW_CLASSWIDE_ANNOUNCEMENT
-                                        .getQuery());
+                PreparedStatement preparedStatement2 = prepareStatement(
+                        PreparedQueryStatement.LECTURER_INSERT_NEW_CLASSWIDE_ANNOUNCEMENT);
 
                 preparedStatement2.setInt(1, newId);
                 preparedStatement2.setInt(2, event.getSelectedClass().getId());
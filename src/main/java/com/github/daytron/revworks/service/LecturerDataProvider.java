@@ -37,7 +37,8 @@ public interface LecturerDataProvider {
      * particular {@link ClassTable}.
      * 
      * <p>
-     * A temporary file is created to hold the stream data of coursework itself.
+     * Only the coursework metadata and file size are retrieved. The 
+     * coursework file itself is fetched once the coursework is opened.
      * 
      * <p>
      * Throws custom exceptions for various error events.
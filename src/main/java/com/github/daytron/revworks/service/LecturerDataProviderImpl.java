@@ -18,7 +18,6 @@ package com.github.daytron.revworks.service;
 import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.ErrorMsg;
 import com.github.daytron.revworks.data.ExceptionMsg;
-import com.github.daytron.revworks.data.FilePath;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.event.AppEvent.*;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
@@ -26,23 +25,17 @@ import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPool
 import com.github.daytron.revworks.exception.SQLErrorUpdateException;
 import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.Coursework;
-import com.github.daytron.revworks.model.StudentUser;
+import com.github.daytron.revworks.model.User;
+import com.github.daytron.revworks.service.mapper.CourseworkRowMapper;
 import com.github.daytron.revworks.util.NotificationUtil;
 import com.github.daytron.revworks.view.main.CourseworkView;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.io.Files;
 import com.vaadin.data.util.BeanItemContainer;
-import com.vaadin.server.VaadinService;
-import java.io.File;
 import java.io.IOException;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
-import java.util.UUID;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,7 +58,7 @@ public class LecturerDataProviderImpl extends DataProviderAbstract
     public ConcurrentHashMap<ClassTable, BeanItemContainer> extractCourseworkData() throws
             SQLErrorRetrievingConnectionAndPoolException, SQLErrorQueryException, 
             IOException {
-        CopyOnWriteArrayList<ClassTable> listOfClassTables
+        ClassTableIndex listOfClassTables
                 = CurrentUserSession.getCurrentClassTables();
 
         // If somehow the lecturer is not registered to any classes
@@ -81,162 +74,58 @@ public class LecturerDataProviderImpl extends DataProviderAbstract
                 // Then pass those opbjects to BeanItemContainer
                 final ConcurrentHashMap<ClassTable, BeanItemContainer> listOfBeanItemContainers = new ConcurrentHashMap<>();
 
-                for (ClassTable classTable : listOfClassTables) {
-                    final PreparedStatement preparedStatementCoursework
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.LECTURER_SELECT_COURSEWORK
-                                    .getQuery());
-
-                    preparedStatementCoursework.setInt(1, classTable.getId());
-
-                    ResultSet resultSetCoursework
-                            = preparedStatementCoursework.executeQuery();
-
-                    // If no courseworks found for a particular class
-                    // add an empty BeanItemContainer object and
-                    // close statement and resultset
-                    if (!resultSetCoursework.next()) {
-                        preparedStatementCoursework.close();
-                        resultSetCoursework.close();
+                final User lecturerUser
+                        = (User) CurrentUserSession.getPrincipal();
 
-                        listOfBeanItemContainers.put(classTable,
-                                new BeanItemContainer(Coursework.class));
-                        continue;
+                for (ClassTable classTable : listOfClassTables) {
+                    final List<Coursework> listOfClassCourseworks;
+
+                    try (PreparedStatement preparedStatementCoursework
+                            = prepareStatement(
+                                    PreparedQueryStatement.LECTURER_SELECT_COURSEWORK)) {
+                        preparedStatementCoursework.setInt(1, classTable.getId());
+
+                        // The owner of each coursework is read from the row
+                        listOfClassCourseworks = queryForList(
+                                preparedStatementCoursework,
+                                new CourseworkRowMapper(classTable, null,
+                                        getCourseworkStorage()));
                     }
 
-                    resultSetCoursework.beforeFirst();
+                    // If no courseworks found for a particular class
+                    // the BeanItemContainer object is left empty
                     BeanItemContainer<Coursework> beanItemContainer
                             = new BeanItemContainer<>(Coursework.class);
-                    while (resultSetCoursework.next()) {
-                        // Extract the coursework id
-                        int courseworkID = resultSetCoursework.getInt(1);
 
-                        // Then before extracting the remaining details
-                        // Check first if the corresponding notes are read 
+                    for (Coursework coursework : listOfClassCourseworks) {
+                        // Check if the corresponding notes are read 
                         // or unread then update the coursework is_read field
-                        PreparedStatement preparedStatementNote
-                                = getConnection().prepareStatement(
-                                        PreparedQueryStatement.SELECT_NOTE.getQuery());
-                        preparedStatementNote.setInt(1, courseworkID);
-
-                        boolean isReadLecturerCoursework
-                                = resultSetCoursework.getBoolean(8);
-                        // Default true 
-                        // if all notes are true then this should be true
-                        // otherwise this is updated to false further 
-                        // down the code
-                        boolean isReadLecturerNote = true;
-
-                        ResultSet resultSetNote = preparedStatementNote
-                                .executeQuery();
-                        if (resultSetNote.next()) {
-                            resultSetNote.beforeFirst();
-
-                            while (resultSetNote.next()) {
-                                isReadLecturerNote
-                                        = resultSetNote.getBoolean(6);
-                                // If at least one of the note is not
-                                // read yet, break
-                                if (isReadLecturerNote == false) {
-                                    break;
-                                }
-                            }
-
-                            // Close first 
-                            preparedStatementNote.close();
-                            resultSetNote.close();
-
-                            // Then update coursework student is_read field
-                            if (isReadLecturerNote != isReadLecturerCoursework) {
-                                // Save it first
-                                isReadLecturerCoursework = isReadLecturerNote;
-
-                                // Then update
-                                try (PreparedStatement preparedStatementUpdate
-                                        = getConnection().prepareStatement(
-                                                PreparedQueryStatement
-                                                .LECTURER_UPDATE_COURSEWORK_IS_READ
-                                                .getQuery())) {
-                                            preparedStatementUpdate.setBoolean(1,
-                                                    isReadLecturerCoursework);
-                                            preparedStatementUpdate.setInt(2, 
-                                                    courseworkID);
-
-                                            preparedStatementUpdate.executeUpdate();
-                                            getConnection().commit();
-                                        }
+                        // if it is not up to date
+                        Boolean isReadLecturerNote = areAllNotesRead(
+                                coursework.getId(), lecturerUser.getId(),
+                                false);
+
+                        if (isReadLecturerNote != null
+                                && isReadLecturerNote != coursework.isReadLecturer()) {
+                            coursework.setReadLecturer(isReadLecturerNote);
+
+                            try (PreparedStatement preparedStatementUpdate
+                                    = prepareStatement(
+                                            PreparedQueryStatement.LECTURER_UPDATE_COURSEWORK_IS_READ)) {
+                                preparedStatementUpdate.setBoolean(1,
+                                        isReadLecturerNote);
+                                preparedStatementUpdate.setInt(2,
+                                        coursework.getId());
+
+                                preparedStatementUpdate.executeUpdate();
+                                getConnection().commit();
                             }
                         }
 
-                        // getPrincipal the bytes data from the resultset
-                        byte[] pdfData = resultSetCoursework.getBytes(4);
-
-                        // Retrieve file extension
-                        String fileExtension = resultSetCoursework.getString(5);
-
-                        // Prepare destination path of the pdf file
-                        String basePath = VaadinService.getCurrent()
-                                .getBaseDirectory().getAbsolutePath()
-                                + FilePath.TEMP_FILE_HOLDER.getPath();
-
-                        // Generate random filename
-                        // so it won't overwrite by the next retrieve file
-                        String randomStringForFilename = UUID.randomUUID().toString();
-
-                        String pdfFilename = basePath
-                                + FilePath.FILE_OUTPUT_NAME.getPath()
-                                + "/" + randomStringForFilename + "."
-                                + fileExtension;
-
-                        File pdfFile = new File(pdfFilename);
-                        pdfFile.getParentFile().mkdirs();
-                        
-                        try {
-                            pdfFile.createNewFile();
-
-                            // Begin file write from the bytes retrieved to the newly 
-                            // created file with random UUID as filename
-                            Files.write(pdfData, pdfFile);
-
-                            // Add to trashbin for later file cleanup
-                            CurrentUserSession.getFileTrashBin().add(pdfFile);
-
-                        } catch (IOException ex) {
-                            Logger.getLogger(LecturerDataProviderImpl.class
-                                    .getName()).log(Level.SEVERE, null, ex);
-
-                            // If unable to recreate the file,
-                            // skip to next coursework
-                            continue;
-                        }
-
-                        // Convert SQL DATETIME datatype to Java 8's LocalDateTime
-                        Timestamp timestamp = resultSetCoursework.getTimestamp(3);
-                        LocalDateTime dateSubmitted = timestamp.toLocalDateTime();
-
-                        StudentUser studentUser = new StudentUser(
-                                resultSetCoursework.getInt(6),
-                                Integer.toString(resultSetCoursework.getInt(9)),
-                                resultSetCoursework.getString(10),
-                                resultSetCoursework.getString(11));
-
-                        beanItemContainer.addBean(new Coursework(
-                                courseworkID,
-                                resultSetCoursework.getString(2),
-                                dateSubmitted,
-                                pdfFile, fileExtension,
-                                classTable,
-                                studentUser,
-                                resultSetCoursework.getBoolean(7),
-                                isReadLecturerCoursework));
-
+                        beanItemContainer.addBean(coursework);
                     }
 
                     listOfBeanItemContainers.put(classTable, beanItemContainer);
-
-                    preparedStatementCoursework.close();
-                    resultSetCoursework.close();
-
                 }
 
                 releaseConnection();
@@ -283,9 +172,8 @@ public class LecturerDataProviderImpl extends DataProviderAbstract
          */
         if (reserveConnectionPool()) {
             try (PreparedStatement preparedStatementUpdate
-                    = getConnection().prepareStatement(
-                            PreparedQueryStatement.LECTURER_UPDATE_COURSEWORK_IS_READ
-                            .getQuery())) {
+                    = prepareStatement(
+                            PreparedQueryStatement.LECTURER_UPDATE_COURSEWORK_IS_READ)) {
                         preparedStatementUpdate.setBoolean(1, true);
                         preparedStatementUpdate.setInt(2,
                                 event.getCoursework().getId());
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.MainUI;
+import com.github.daytron.revworks.model.UserNotification;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands a newly committed user notification straight to the live session of 
+ * its recipient, found through the session registry of the servlet. Every 
+ * open UI of the session adds the notification to its 
+ * {@link NotificationProvider}, which updates the unread badge, and the 
+ * change is pushed to the browser at once. The database row is kept for 
+ * durability and for recipients who are not signed in, and is read again 
+ * only by the safety poll of the change hub.
+ *
+ * @author Ryan Gilera
+ */
+public final class NotificationDispatcher {
+
+    private final Map<String, VaadinSession> userSessions;
+
+    private final AtomicLong deliveredCounter = new AtomicLong();
+    private final AtomicLong offlineCounter = new AtomicLong();
+
+    /**
+     * A class constructor that takes the session registry of the servlet.
+     *
+     * @param userSessions the live sessions keyed by user id
+     */
+    public NotificationDispatcher(Map<String, VaadinSession> userSessions) {
+        this.userSessions = userSessions;
+    }
+
+    /**
+     * Delivers a committed notification to the open UIs of its recipient. 
+     * The UIs are updated asynchronously under their session lock.
+     *
+     * @param userId the id of the recipient
+     * @param userNotification the committed UserNotification object
+     * @return true if the recipient has a live session, otherwise false
+     */
+    public boolean deliver(int userId,
+            final UserNotification userNotification) {
+        final VaadinSession session = userSessions.get(
+                Integer.toString(userId));
+
+        if (session == null
+                || session.getState() != VaadinSession.State.OPEN) {
+            offlineCounter.incrementAndGet();
+            return false;
+        }
+
+        deliveredCounter.incrementAndGet();
+        session.access(new Runnable() {
+
+            @Override
+            public void run() {
+                for (UI ui : session.getUIs()) {
+                    if (!(ui instanceof MainUI)) {
+                        continue;
+                    }
+
+                    // Runs with the UI as the current UI, so the badge 
+                    // event reaches the event bus of that UI
+                    final MainUI mainUI = (MainUI) ui;
+                    mainUI.access(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            mainUI.getNotificationsProvider()
+                                    .addNotification(userNotification);
+                        }
+                    });
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Summarises the deliveries for logging purposes.
+     *
+     * @return the dispatcher statistics as a String
+     */
+    public String getStatistics() {
+        return String.format("[notification dispatcher delivered=%d "
+                + "offline=%d]", deliveredCounter.get(), offlineCounter.get());
+    }
+
+}
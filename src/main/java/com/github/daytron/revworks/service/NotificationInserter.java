@@ -15,6 +15,7 @@
  */
 package com.github.daytron.revworks.service;
 
+import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.data.UserNotificationType;
 import com.github.daytron.revworks.event.AppEvent;
@@ -25,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDateTime;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,9 +52,13 @@ public class NotificationInserter extends QueryManagerAbstract {
     public void insertUserNotification(AppEvent.InsertNotificationEvent event) {
         if (reserveConnectionPool()) {
             try {
+                // The notification and its coursework row are committed 
+                // together under a new notification version of the recipient
+                updateNotificationVersion(event.getToUserId());
+
                 PreparedStatement preparedStatement
-                        = getConnection().prepareStatement(
-                                PreparedQueryStatement.INSERT_NOTIFICATION.getQuery(),
+                        = prepareStatement(
+                                PreparedQueryStatement.INSERT_NOTIFICATION,
                                 Statement.RETURN_GENERATED_KEYS);
 
                 preparedStatement.setString(1, event.getTitle());
@@ -75,9 +81,9 @@ public class NotificationInserter extends QueryManagerAbstract {
                 preparedStatement.setInt(5, event.getToUserId());
                 preparedStatement.setInt(6, 
                         ((User)CurrentUserSession.getPrincipal()).getId());
+                preparedStatement.setInt(7, event.getToUserId());
 
                 preparedStatement.executeUpdate();
-                getConnection().commit();
 
                 // Get the new id from insert query
                 ResultSet resultSet = preparedStatement.getGeneratedKeys();
@@ -102,18 +108,42 @@ public class NotificationInserter extends QueryManagerAbstract {
                 // Coursework table, inserts a new notification coursework data
                 if (notificationTypeId <= 3 && notificationTypeId > 0) {
                     PreparedStatement prepareStatementNC
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement
-                                            .INSERT_NOTIFICATIONS_COURSEWORK.getQuery());
+                            = prepareStatement(
+                                    PreparedQueryStatement.INSERT_NOTIFICATIONS_COURSEWORK);
                     prepareStatementNC.setInt(1, newId);
                     prepareStatementNC.setInt(2, event.getCourseworkId());
 
                     prepareStatementNC.executeUpdate();
-                    getConnection().commit();
 
                     prepareStatementNC.close();
                 }
 
+                updateUnreadCounter(event.getToUserId(),
+                        NOTIFICATIONS_COUNTER, 1);
+                getConnection().commit();
+
+                // Hand it straight to the recipient if signed in here, 
+                // otherwise the node of the recipient refreshes its header
+                final NotificationDispatcher notificationDispatcher
+                        = MainUI.MainUIServlet.getNotificationDispatcher();
+                boolean isDelivered = false;
+                if (notificationDispatcher != null) {
+                    final User fromUser
+                            = (User) CurrentUserSession.getPrincipal();
+                    isDelivered = notificationDispatcher.deliver(
+                            event.getToUserId(),
+                            new UserNotification(newId, event.getTitle(),
+                                    event.getMessage(), LocalDateTime.now(),
+                                    false, event.getUserNotificationType(),
+                                    fromUser.getId(), fromUser.getFirstName(),
+                                    event.getCourseworkId(),
+                                    event.getCourseworkTitle()));
+                }
+                if (!isDelivered) {
+                    publishChange(ChangeHub.Topic.USER_NOTIFICATIONS,
+                            event.getToUserId());
+                }
+
             } catch (SQLException ex) {
                 Logger.getLogger(NotificationInserter.class.getName())
                         .log(Level.SEVERE, null, ex);
@@ -131,6 +161,11 @@ public class NotificationInserter extends QueryManagerAbstract {
 
         if (reserveConnectionPool()) {
             try {
+                final int userId
+                        = ((User) CurrentUserSession.getPrincipal()).getId();
+                updateNotificationVersion(userId);
+
+                int updatedNotifications = 0;
                 for (UserNotification userNotification : event
                         .getListOfUserNotifications()) {
                     // Skip if it is already read
@@ -139,15 +174,22 @@ public class NotificationInserter extends QueryManagerAbstract {
                     }
 
                     PreparedStatement preparedStatement
-                            = getConnection().prepareStatement(PreparedQueryStatement
-                                    .UPDATE_NOTIFICATION_TO_READ.getQuery());
-                    preparedStatement.setInt(1, userNotification.getId());
+                            = prepareStatement(
+                                    PreparedQueryStatement.UPDATE_NOTIFICATION_TO_READ);
+                    preparedStatement.setInt(1, userId);
+                    preparedStatement.setInt(2, userNotification.getId());
 
-                    preparedStatement.executeUpdate();
-                    getConnection().commit();
+                    // Only a notification that was unread is counted down
+                    updatedNotifications += preparedStatement.executeUpdate();
 
                     preparedStatement.close();
                 }
+                updateUnreadCounter(userId, NOTIFICATIONS_COUNTER,
+                        -updatedNotifications);
+                getConnection().commit();
+
+                // Other open headers of the same user refresh too
+                publishChange(ChangeHub.Topic.USER_NOTIFICATIONS, userId);
             } catch (SQLException ex) {
                 Logger.getLogger(NotificationInserter.class.getName())
                         .log(Level.SEVERE, null, ex);
@@ -160,5 +202,22 @@ public class NotificationInserter extends QueryManagerAbstract {
         }
 
     }
+
+    /**
+     * Increments the notification version of a user within the current 
+     * transaction. Notifications written in the same transaction are stamped 
+     * with the new version, so open headers fetch only the notifications 
+     * above the version they have seen.
+     * 
+     * @param userId the id of the user the notifications belong to
+     * @throws SQLException if the update fails
+     */
+    private void updateNotificationVersion(int userId) throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.UPDATE_USER_NOTIFICATION_VERSION)) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.executeUpdate();
+        }
+    }
     
 }
@@ -29,6 +29,7 @@ public class NotificationProvider extends QueryManagerAbstract {
 
     private CopyOnWriteArrayList<UserNotification> listOfNotifications;
     private boolean pause;
+    private int unreadCount;
     
     /**
      * A class constructor that initialises listOfNotifications and pause 
@@ -47,20 +48,71 @@ public class NotificationProvider extends QueryManagerAbstract {
      * @param listOfNotifications CopyOnWriteArrayList object
      */
     public synchronized void setListOfNotifications(CopyOnWriteArrayList<UserNotification> listOfNotifications) {
+        setListOfNotifications(listOfNotifications, null);
+    }
+
+    /**
+     * Saves all retrieved user notifications together with the unread count 
+     * kept in the database. Then call the event handler via AppEventBus to 
+     * update the unread badge count in the user notification button.
+     * 
+     * @param listOfNotifications CopyOnWriteArrayList object
+     * @param unreadCount the unread count of the user, or null to count the 
+     * unread notifications in the list
+     */
+    public synchronized void setListOfNotifications(
+            CopyOnWriteArrayList<UserNotification> listOfNotifications,
+            Integer unreadCount) {
         this.listOfNotifications = listOfNotifications;
         
-        // Count how many unread notifications
-        int unreadCount = 0;
-        
-        for (UserNotification userNotification : listOfNotifications) {
-            if (!userNotification.isRead()) {
-                unreadCount += 1;
+        if (unreadCount != null) {
+            this.unreadCount = unreadCount;
+        } else {
+            // Count how many unread notifications
+            this.unreadCount = 0;
+
+            for (UserNotification userNotification : listOfNotifications) {
+                if (!userNotification.isRead()) {
+                    this.unreadCount += 1;
+                }
             }
         }
         
         // Call an event to trigger in the button to update unread badge count
-        AppEventBus.post(
-                new AppEvent.UpdateNotificationButtonBadgeCountEvent(unreadCount));
+        AppEventBus.post(new AppEvent.UpdateNotificationButtonBadgeCountEvent(
+                this.unreadCount));
+    }
+
+    /**
+     * Adds a newly delivered unread notification to the stored ones and 
+     * counts it in the unread badge. Read notifications shown in place of 
+     * unread ones are dropped, as with a retrieval from the database. While 
+     * the notification window is open nothing is changed, since the shown 
+     * notifications are retrieved again once it is closed.
+     * 
+     * @param userNotification the delivered UserNotification object
+     */
+    public synchronized void addNotification(
+            UserNotification userNotification) {
+        if (pause) {
+            return;
+        }
+
+        final CopyOnWriteArrayList<UserNotification> listOfUnreadNotifications
+                = new CopyOnWriteArrayList<>();
+        boolean isAlreadyStored = false;
+        for (UserNotification storedNotification : listOfNotifications) {
+            if (storedNotification.getId() == userNotification.getId()) {
+                isAlreadyStored = !storedNotification.isRead();
+            } else if (!storedNotification.isRead()) {
+                listOfUnreadNotifications.add(storedNotification);
+            }
+        }
+        listOfUnreadNotifications.add(userNotification);
+
+        // The database count went up in the same transaction
+        setListOfNotifications(listOfUnreadNotifications,
+                isAlreadyStored ? unreadCount : unreadCount + 1);
     }
 
     /**
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.github.daytron.revworks.service.mapper.RowMapper;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The default {@link ClusterBroadcast}, backed by the 
+ * <code>ClusterEvent</code> table in the shared database. Published events 
+ * are written as rows and every node tails the table for the rows written 
+ * by the others, so no other infrastructure than the database is needed. 
+ * A single thread does both, in order. Old rows are purged by every node.
+ * <p>
+ * Events are hints only. An event missed while the database is unreachable 
+ * or committed out of order is caught up by the safety poll of the 
+ * {@link ChangeHub}.
+ *
+ * @author Ryan Gilera
+ */
+public final class OutboxClusterBroadcast implements ClusterBroadcast {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(OutboxClusterBroadcast.class.getName());
+
+    /**
+     * Delay between two reads of the table, in milliseconds.
+     */
+    public static final long TAIL_INTERVAL = 250;
+
+    /**
+     * Delay between two purges of old rows, in milliseconds.
+     */
+    public static final long PURGE_INTERVAL = 60000;
+
+    // Reads skipped after a failure, so a database outage is not hammered
+    private static final int FAILURE_BACKOFF_TICKS = 20;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledThreadPoolExecutor outboxThread;
+    private final OutboxStatements statements = new OutboxStatements();
+
+    private final AtomicLong sentCounter = new AtomicLong();
+    private final AtomicLong receivedCounter = new AtomicLong();
+    private final AtomicLong failureCounter = new AtomicLong();
+    private final AtomicLong purgedCounter = new AtomicLong();
+
+    // Only touched by the outbox thread
+    private long lastEventId = -1;
+    private long lastPurgeTime = 0;
+    private int backoffTicks = 0;
+
+    /**
+     * A class constructor that starts tailing the table. Only rows written 
+     * after the first successful read are received.
+     */
+    public OutboxClusterBroadcast() {
+        this.outboxThread = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-cluster-outbox");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.outboxThread.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                tail();
+            }
+        }, TAIL_INTERVAL, TAIL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Writes the event to the table on the outbox thread, so the caller 
+     * never waits for the database.
+     *
+     * @param type the kind of event
+     * @param topic the kind of changed data, null for a sign in
+     * @param key the id the changed data belongs to, or the id of the user 
+     * signing in
+     */
+    @Override
+    public void publish(final ClusterEvent.Type type,
+            final ChangeHub.Topic topic, final int key) {
+        try {
+            outboxThread.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        statements.insertEvent(
+                                new ClusterEvent(type, topic, key, nodeId));
+                        sentCounter.incrementAndGet();
+                    } catch (SQLException ex) {
+                        failureCounter.incrementAndGet();
+                        LOGGER.log(Level.WARNING, "Could not send cluster "
+                                + "event " + type + " " + topic + " " + key,
+                                ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Shut down, the other nodes catch up by polling
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public String getStatistics() {
+        return "node=" + nodeId
+                + ", sent=" + sentCounter.get()
+                + ", received=" + receivedCounter.get()
+                + ", failures=" + failureCounter.get()
+                + ", purged=" + purgedCounter.get();
+    }
+
+    @Override
+    public void shutdown() {
+        outboxThread.shutdown();
+        try {
+            outboxThread.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the rows written since the last read and hands the ones of the 
+     * other nodes to the listeners. Purges old rows from time to time.
+     */
+    private void tail() {
+        if (backoffTicks > 0) {
+            backoffTicks--;
+            return;
+        }
+
+        try {
+            if (lastEventId < 0) {
+                lastEventId = statements.selectLastEventId();
+            }
+
+            for (OutboxRow row : statements.selectEventsAfter(lastEventId)) {
+                lastEventId = row.id;
+
+                if (row.event != null
+                        && !nodeId.equals(row.event.getOriginNode())) {
+                    receive(row.event);
+                }
+            }
+
+            final long now = System.currentTimeMillis();
+            if (now - lastPurgeTime >= PURGE_INTERVAL) {
+                lastPurgeTime = now;
+                purgedCounter.addAndGet(statements.deleteOldEvents());
+            }
+        } catch (SQLException ex) {
+            failureCounter.incrementAndGet();
+            backoffTicks = FAILURE_BACKOFF_TICKS;
+            LOGGER.log(Level.WARNING, "Could not read cluster events.", ex);
+        }
+    }
+
+    /**
+     * Hands an event of another node to the listeners. A failing listener 
+     * never stops the others or the tailing.
+     *
+     * @param event the ClusterEvent object received
+     */
+    private void receive(ClusterEvent event) {
+        receivedCounter.incrementAndGet();
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * A row read from the table, with a null event if the row holds a type 
+     * or topic unknown to this version.
+     */
+    private static final class OutboxRow {
+
+        private final long id;
+        private final ClusterEvent event;
+
+        OutboxRow(long id, ClusterEvent event) {
+            this.id = id;
+            this.event = event;
+        }
+    }
+
+    /**
+     * The queries on the <code>ClusterEvent</code> table. Each one reserves 
+     * and releases its own connection. Only used by the outbox thread.
+     */
+    private static final class OutboxStatements extends QueryManagerAbstract {
+
+        /**
+         * Writes an event as a new row.
+         *
+         * @param event the ClusterEvent object to write
+         * @throws SQLException if the row cannot be written
+         */
+        void insertEvent(ClusterEvent event) throws SQLException {
+            reserve();
+
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.INSERT_CLUSTER_EVENT)) {
+                preparedStatement.setString(1, event.getOriginNode());
+                preparedStatement.setString(2, event.getType().name());
+                if (event.getTopic() == null) {
+                    preparedStatement.setNull(3, Types.VARCHAR);
+                } else {
+                    preparedStatement.setString(3, event.getTopic().name());
+                }
+                preparedStatement.setInt(4, event.getKey());
+                preparedStatement.executeUpdate();
+                getConnection().commit();
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Reads the id of the latest row.
+         *
+         * @return the latest id or zero if the table is empty
+         * @throws SQLException if the table cannot be read
+         */
+        long selectLastEventId() throws SQLException {
+            reserve();
+
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.SELECT_CLUSTER_EVENT_LAST_ID)) {
+                Long lastId = queryForObject(preparedStatement,
+                        new RowMapper<Long>() {
+
+                            @Override
+                            public Long mapRow(ResultSet resultSet)
+                                    throws SQLException {
+                                return resultSet.getLong(1);
+                            }
+                        });
+
+                return (lastId == null) ? 0 : lastId;
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Reads the rows written after the given id, oldest first.
+         *
+         * @param lastId the id of the last row read
+         * @return the list of rows, empty if there is none
+         * @throws SQLException if the table cannot be read
+         */
+        List<OutboxRow> selectEventsAfter(long lastId) throws SQLException {
+            reserve();
+
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.SELECT_CLUSTER_EVENTS_AFTER)) {
+                preparedStatement.setLong(1, lastId);
+
+                return queryForList(preparedStatement,
+                        new RowMapper<OutboxRow>() {
+
+                            @Override
+                            public OutboxRow mapRow(ResultSet resultSet)
+                                    throws SQLException {
+                                final long id = resultSet.getLong(1);
+                                final String topic = resultSet.getString(4);
+
+                                try {
+                                    return new OutboxRow(id, new ClusterEvent(
+                                            ClusterEvent.Type.valueOf(
+                                                    resultSet.getString(3)),
+                                            (topic == null) ? null
+                                                    : ChangeHub.Topic
+                                                    .valueOf(topic),
+                                            resultSet.getInt(5),
+                                            resultSet.getString(2)));
+                                } catch (IllegalArgumentException ex) {
+                                    return new OutboxRow(id, null);
+                                }
+                            }
+                        });
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Deletes the rows every node has long read.
+         *
+         * @return the number of deleted rows
+         * @throws SQLException if the rows cannot be deleted
+         */
+        int deleteOldEvents() throws SQLException {
+            reserve();
+
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.DELETE_OLD_CLUSTER_EVENTS)) {
+                final int deleted = preparedStatement.executeUpdate();
+                getConnection().commit();
+                return deleted;
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Reserves a connection for the next query.
+         *
+         * @throws SQLException if no connection is available
+         */
+        private void reserve() throws SQLException {
+            if (!reserveConnectionPool()) {
+                throw new SQLException("No database connection available.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A server-wide cache of rendered coursework pages, shared by every session.
+ * Pages are kept as encoded image bytes in two tiers: a least recently used
+ * memory tier and a larger, size-bounded disk tier below it. A page evicted
+ * from memory is still found on disk, and a page requested by several users
+ * at the same time is only rendered once.
+ *
+ * @author Ryan Gilera
+ */
+public final class PageImageCache {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PageImageCache.class.getName());
+
+    private final File cacheDirectory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+
+    // Both maps are in access order, the eldest entry is evicted first
+    private final LinkedHashMap<PageKey, byte[]> memoryTier
+            = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<PageKey, Long> diskTier
+            = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+
+    private final ConcurrentHashMap<PageKey, FutureTask<byte[]>> pagesInFlight
+            = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * A class constructor that takes the disk tier directory and the size
+     * bounds of both tiers. The directory is created if it does not exist
+     * yet, and pages left over by a previous run are removed.
+     *
+     * @param cacheDirectory the directory of the disk tier
+     * @param maxMemoryBytes the maximum total size of the memory tier
+     * @param maxDiskBytes the maximum total size of the disk tier
+     */
+    public PageImageCache(File cacheDirectory, long maxMemoryBytes,
+            long maxDiskBytes) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.cacheDirectory.mkdirs();
+
+        File[] leftOverFiles = cacheDirectory.listFiles();
+        if (leftOverFiles != null) {
+            for (File leftOverFile : leftOverFiles) {
+                leftOverFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached page image, looking in memory first and on disk
+     * second. A page found on disk is moved back into memory.
+     *
+     * @param key the PageKey of the page
+     * @return the encoded image bytes or null if the page is not cached
+     */
+    public byte[] get(PageKey key) {
+        synchronized (memoryTier) {
+            byte[] bytes = memoryTier.get(key);
+            if (bytes != null) {
+                memoryHits.incrementAndGet();
+                return bytes;
+            }
+        }
+
+        final boolean onDisk;
+        synchronized (diskTier) {
+            onDisk = diskTier.get(key) != null;
+        }
+
+        if (onDisk) {
+            try {
+                byte[] bytes = Files.toByteArray(toFile(key));
+                diskHits.incrementAndGet();
+                putInMemory(key, bytes);
+                return bytes;
+            } catch (IOException ex) {
+                // Evicted in the meantime
+                LOGGER.log(Level.FINE, null, ex);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the cached page image or renders it with the given loader and
+     * caches the result. Concurrent requests for the same page wait for a
+     * single render.
+     *
+     * @param key the PageKey of the page
+     * @param loader renders the encoded image bytes of the page
+     * @return the encoded image bytes
+     * @throws IOException if rendering the page fails
+     */
+    public byte[] get(final PageKey key, final Callable<byte[]> loader)
+            throws IOException {
+        byte[] bytes = get(key);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                byte[] renderedBytes = loader.call();
+                put(key, renderedBytes);
+                return renderedBytes;
+            }
+        });
+
+        FutureTask<byte[]> runningTask = pagesInFlight.putIfAbsent(key, task);
+        if (runningTask == null) {
+            runningTask = task;
+            misses.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                pagesInFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return runningTask.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                    + "page " + key);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Adds a page image to both tiers.
+     *
+     * @param key the PageKey of the page
+     * @param bytes the encoded image bytes
+     */
+    public void put(PageKey key, byte[] bytes) {
+        putInMemory(key, bytes);
+        putOnDisk(key, bytes);
+    }
+
+    /**
+     * Determines if a page is cached in either tier without updating the
+     * recency of the page.
+     *
+     * @param key the PageKey of the page
+     * @return true if the page is cached, otherwise false
+     */
+    public boolean contains(PageKey key) {
+        synchronized (memoryTier) {
+            if (memoryTier.containsKey(key)) {
+                return true;
+            }
+        }
+
+        synchronized (diskTier) {
+            return diskTier.containsKey(key);
+        }
+    }
+
+    /**
+     * Summarises the cache usage for logging purposes.
+     *
+     * @return the cache statistics as a String
+     */
+    public String getStatistics() {
+        final long hits = memoryHits.get() + diskHits.get();
+        final long requests = hits + misses.get();
+        final double hitRate = (requests == 0) ? 0.0
+                : (100.0 * hits) / requests;
+
+        final int memoryPages;
+        final long memorySize;
+        synchronized (memoryTier) {
+            memoryPages = memoryTier.size();
+            memorySize = memoryBytes;
+        }
+
+        final int diskPages;
+        final long diskSize;
+        synchronized (diskTier) {
+            diskPages = diskTier.size();
+            diskSize = diskBytes;
+        }
+
+        return String.format("[pages memory=%d/%dB disk=%d/%dB "
+                + "memoryHits=%d diskHits=%d misses=%d hitRate=%.1f%% "
+                + "memoryEvictions=%d diskEvictions=%d]",
+                memoryPages, memorySize, diskPages, diskSize,
+                memoryHits.get(), diskHits.get(), misses.get(), hitRate,
+                memoryEvictions.get(), diskEvictions.get());
+    }
+
+    /**
+     * Adds a page image to the memory tier and evicts the least recently
+     * used pages beyond the size bound.
+     *
+     * @param key the PageKey of the page
+     * @param bytes the encoded image bytes
+     */
+    private void putInMemory(PageKey key, byte[] bytes) {
+        if (bytes.length > maxMemoryBytes) {
+            return;
+        }
+
+        synchronized (memoryTier) {
+            byte[] previousBytes = memoryTier.put(key, bytes);
+            if (previousBytes != null) {
+                memoryBytes -= previousBytes.length;
+            }
+            memoryBytes += bytes.length;
+
+            Iterator<Map.Entry<PageKey, byte[]>> iterator
+                    = memoryTier.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+                Map.Entry<PageKey, byte[]> eldest = iterator.next();
+                memoryBytes -= eldest.getValue().length;
+                iterator.remove();
+                memoryEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes a page image to the disk tier unless it is already there and
+     * deletes the least recently used pages beyond the size bound.
+     *
+     * @param key the PageKey of the page
+     * @param bytes the encoded image bytes
+     */
+    private void putOnDisk(PageKey key, byte[] bytes) {
+        if (bytes.length > maxDiskBytes) {
+            return;
+        }
+
+        synchronized (diskTier) {
+            if (diskTier.containsKey(key)) {
+                return;
+            }
+        }
+
+        final File pageFile = toFile(key);
+        try {
+            // Write under a temporary name so readers never see a partial 
+            // page
+            File tempFile = File.createTempFile("page", ".tmp",
+                    cacheDirectory);
+            try {
+                Files.write(bytes, tempFile);
+                java.nio.file.Files.move(tempFile.toPath(),
+                        pageFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Could not write page " + key
+                    + " to the disk cache.", ex);
+            return;
+        }
+
+        final List<File> evictedFiles = new ArrayList<>();
+        synchronized (diskTier) {
+            Long previousSize = diskTier.put(key, (long) bytes.length);
+            if (previousSize != null) {
+                diskBytes -= previousSize;
+            }
+            diskBytes += bytes.length;
+
+            Iterator<Map.Entry<PageKey, Long>> iterator
+                    = diskTier.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+                Map.Entry<PageKey, Long> eldest = iterator.next();
+                diskBytes -= eldest.getValue();
+                evictedFiles.add(toFile(eldest.getKey()));
+                iterator.remove();
+                diskEvictions.incrementAndGet();
+            }
+        }
+
+        for (File evictedFile : evictedFiles) {
+            evictedFile.delete();
+        }
+    }
+
+    /**
+     * Returns the disk tier file of a page.
+     *
+     * @param key the PageKey of the page
+     * @return the File object of the page
+     */
+    private File toFile(PageKey key) {
+        return new File(cacheDirectory, key.toFileName());
+    }
+
+    /**
+     * Identifies a rendered page by coursework, page number, resolution and
+     * image format. A key may also identify a single tile of a page rendered
+     * for zooming.
+     */
+    public static final class PageKey {
+
+        // Tile coordinate of a key that stands for the whole page
+        private static final int WHOLE_PAGE = -1;
+
+        private final int courseworkId;
+        private final int pageNumber;
+        private final int dpi;
+        private final String format;
+        private final int tileColumn;
+        private final int tileRow;
+
+        /**
+         * A class constructor that takes the coursework id, the page number,
+         * the resolution and the image format of the page.
+         *
+         * @param courseworkId the coursework id
+         * @param pageNumber the one-based page number
+         * @param dpi the resolution the page is rendered at
+         * @param format the image format name, e.g. png
+         */
+        public PageKey(int courseworkId, int pageNumber, int dpi,
+                String format) {
+            this(courseworkId, pageNumber, dpi, format, WHOLE_PAGE,
+                    WHOLE_PAGE);
+        }
+
+        /**
+         * A class constructor for a single tile of a page.
+         *
+         * @param courseworkId the coursework id
+         * @param pageNumber the one-based page number
+         * @param dpi the resolution the page is rendered at
+         * @param format the image format name, e.g. png
+         * @param tileColumn the zero-based column of the tile
+         * @param tileRow the zero-based row of the tile
+         */
+        public PageKey(int courseworkId, int pageNumber, int dpi,
+                String format, int tileColumn, int tileRow) {
+            this.courseworkId = courseworkId;
+            this.pageNumber = pageNumber;
+            this.dpi = dpi;
+            this.format = format.toLowerCase();
+            this.tileColumn = tileColumn;
+            this.tileRow = tileRow;
+        }
+
+        /**
+         * Access the coursework id.
+         *
+         * @return id as an integer
+         */
+        public int getCourseworkId() {
+            return courseworkId;
+        }
+
+        /**
+         * Access the page number.
+         *
+         * @return the one-based page number
+         */
+        public int getPageNumber() {
+            return pageNumber;
+        }
+
+        /**
+         * Access the resolution the page is rendered at.
+         *
+         * @return the resolution in dots per inch
+         */
+        public int getDpi() {
+            return dpi;
+        }
+
+        /**
+         * Access the image format.
+         *
+         * @return the lower case format name
+         */
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * Determines if this key stands for a single tile of a page.
+         *
+         * @return true for a tile, false for the whole page
+         */
+        public boolean isTile() {
+            return tileColumn != WHOLE_PAGE;
+        }
+
+        /**
+         * Returns a file name unique to this key.
+         *
+         * @return the file name as a String
+         */
+        public String toFileName() {
+            return courseworkId + "-" + pageNumber + "-" + dpi
+                    + (isTile() ? "-" + tileColumn + "x" + tileRow : "")
+                    + "." + format.replaceAll("[^a-z0-9]", "");
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof PageKey)) {
+                return false;
+            }
+
+            PageKey other = (PageKey) object;
+            return courseworkId == other.courseworkId
+                    && pageNumber == other.pageNumber
+                    && dpi == other.dpi
+                    && tileColumn == other.tileColumn
+                    && tileRow == other.tileRow
+                    && format.equals(other.format);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = courseworkId;
+            hash = 31 * hash + pageNumber;
+            hash = 31 * hash + dpi;
+            hash = 31 * hash + tileColumn;
+            hash = 31 * hash + tileRow;
+            hash = 31 * hash + format.hashCode();
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return toFileName();
+        }
+    }
+
+}
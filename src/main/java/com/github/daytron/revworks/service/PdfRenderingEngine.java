@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.util.PageImageEncoder;
+import com.github.daytron.revworks.util.PdfRenderer;
+import com.github.daytron.revworks.util.PdfTileRenderer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * A server-wide engine that renders coursework pages on a bounded pool of
+ * worker threads, sized to the available cores by default. Callers get a
+ * {@link ListenableFuture} instead of waiting, so rendering never runs on the
+ * request thread that holds the session lock. Pages of one document are
+ * rendered in parallel as long as every task renders with its own copy of
+ * the document. Rendered pages go to the {@link PageImageCache}, and a page
+ * already cached is returned at once. Every page is encoded through the
+ * engine's {@link PageImageEncoder}.
+ * <p>
+ * Background work that renders many pages in one task, such as the 
+ * ingestion of a new coursework or a batch of thumbnails, runs on a 
+ * separate low priority thread, so it never holds up the pages a viewer is 
+ * waiting for.
+ * <p>
+ * Memory is bounded on two sides. Documents keep only a small buffer in the 
+ * heap and spill the rest to scratch files, and the page images being drawn 
+ * at the same time must fit in the pixel budget of the 
+ * {@link RenderAdmissionControl}. Renders over the budget wait their turn.
+ *
+ * @author Ryan Gilera
+ */
+public final class PdfRenderingEngine {
+
+    // Heap memory each loaded document may use before spilling to scratch 
+    // files in the temporary directory
+    private static final long DOCUMENT_MEMORY_BYTES = 4L * 1024 * 1024;
+
+    // Share of the heap the page images being rendered may take
+    private static final double RENDER_HEAP_SHARE = 0.25;
+
+    // Threads running background work, kept apart from the viewer requests
+    private static final int BACKGROUND_THREADS = 1;
+
+    private final PageImageCache pageImageCache;
+    private final PageImageEncoder pageImageEncoder;
+    private final RenderAdmissionControl admissionControl;
+    private final int parallelism;
+    private final ThreadPoolExecutor workers;
+    private final ListeningExecutorService listeningWorkers;
+    private final ThreadPoolExecutor backgroundWorkers;
+    private final ListeningExecutorService listeningBackgroundWorkers;
+
+    /**
+     * A class constructor that takes the page cache, the page encoder and the
+     * number of worker threads.
+     *
+     * @param pageImageCache the cache the rendered pages are kept in
+     * @param pageImageEncoder the encoder the rendered pages are written with
+     * @param parallelism the number of worker threads
+     */
+    public PdfRenderingEngine(PageImageCache pageImageCache,
+            PageImageEncoder pageImageEncoder, int parallelism) {
+        this.pageImageCache = pageImageCache;
+        this.pageImageEncoder = pageImageEncoder;
+        this.admissionControl = RenderAdmissionControl.forHeapShare(
+                RENDER_HEAP_SHARE);
+        this.parallelism = Math.max(1, parallelism);
+        this.workers = new ThreadPoolExecutor(this.parallelism,
+                this.parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    private final AtomicInteger threadCount
+                            = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-pdf-renderer-"
+                                + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.listeningWorkers = MoreExecutors.listeningDecorator(workers);
+
+        this.backgroundWorkers = new ThreadPoolExecutor(BACKGROUND_THREADS,
+                BACKGROUND_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    private final AtomicInteger threadCount
+                            = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-pdf-background-"
+                                + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        this.backgroundWorkers.allowCoreThreadTimeOut(true);
+        this.listeningBackgroundWorkers = MoreExecutors.listeningDecorator(
+                backgroundWorkers);
+    }
+
+    /**
+     * A class constructor that takes the page cache and the page encoder and
+     * sizes the worker pool to the available cores.
+     *
+     * @param pageImageCache the cache the rendered pages are kept in
+     * @param pageImageEncoder the encoder the rendered pages are written with
+     */
+    public PdfRenderingEngine(PageImageCache pageImageCache,
+            PageImageEncoder pageImageEncoder) {
+        this(pageImageCache, pageImageEncoder,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the given page from the cache or schedules it to be rendered
+     * by the given renderer on a worker thread.
+     *
+     * @param key the PageKey of the page
+     * @param renderer renders the encoded image bytes of the page
+     * @return the future image bytes of the page
+     */
+    public ListenableFuture<byte[]> renderPage(
+            final PageImageCache.PageKey key, final Callable<byte[]> renderer) {
+        byte[] cachedPage = pageImageCache.get(key);
+        if (cachedPage != null) {
+            return Futures.immediateFuture(cachedPage);
+        }
+
+        return listeningWorkers.submit(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                return pageImageCache.get(key, renderer);
+            }
+        });
+    }
+
+    /**
+     * Loads a document with a bounded heap buffer. Whatever does not fit is 
+     * kept in a scratch file that is deleted when the document is closed.
+     *
+     * @param documentFile the PDF file to load
+     * @return the loaded PDDocument object
+     * @throws IOException if the document cannot be loaded
+     */
+    public PDDocument loadDocument(File documentFile) throws IOException {
+        return PDDocument.load(documentFile,
+                MemoryUsageSetting.setupMixed(DOCUMENT_MEMORY_BYTES));
+    }
+
+    /**
+     * Renders and encodes a page of a loaded document once its image fits 
+     * in the pixel budget. Meant to be called from a worker thread, which 
+     * waits while the budget is used up.
+     *
+     * @param document the loaded PDDocument object, used by the calling 
+     * thread only
+     * @param pageIndex the zero-based index of the page
+     * @param dpi the resolution in dots per inch
+     * @param onQueued run once before waiting if the page has to wait for 
+     * memory, may be null
+     * @return the encoded image bytes of the page
+     * @throws IOException if rendering fails or the wait is interrupted
+     */
+    public byte[] renderDocumentPage(PDDocument document, int pageIndex,
+            int dpi, Runnable onQueued) throws IOException {
+        final long pagePixels = RenderAdmissionControl.estimatePixels(
+                document.getPage(pageIndex), dpi);
+
+        try (RenderAdmissionControl.Admission admission
+                = admissionControl.admit(pagePixels, onQueued)) {
+            return PdfRenderer.renderPage(new PDFRenderer(document),
+                    pageIndex, dpi, pageImageEncoder);
+        }
+    }
+
+    /**
+     * Renders and encodes a single tile of a zoomed page once the tile fits 
+     * in the pixel budget.
+     *
+     * @param document the loaded PDDocument object, used by the calling 
+     * thread only
+     * @param pageIndex the zero-based index of the page
+     * @param grid the TileGrid of the page at the zoomed resolution
+     * @param column the zero-based column of the tile
+     * @param row the zero-based row of the tile
+     * @param onQueued run once before waiting if the tile has to wait for 
+     * memory, may be null
+     * @return the encoded image bytes of the tile
+     * @throws IOException if rendering fails or the wait is interrupted
+     */
+    public byte[] renderDocumentTile(PDDocument document, int pageIndex,
+            PdfTileRenderer.TileGrid grid, int column, int row,
+            Runnable onQueued) throws IOException {
+        final long tilePixels = (long) grid.getTileWidth(column)
+                * grid.getTileHeight(row);
+
+        try (RenderAdmissionControl.Admission admission
+                = admissionControl.admit(tilePixels, onQueued)) {
+            return PdfTileRenderer.renderTile(new PDFRenderer(document),
+                    pageIndex, grid, column, row, pageImageEncoder);
+        }
+    }
+
+    /**
+     * Access the number of renders waiting for memory.
+     *
+     * @return the number of waiting renders
+     */
+    public int getWaitingRenders() {
+        return admissionControl.getWaitingRenders();
+    }
+
+    /**
+     * Runs any other document task, such as loading a document, on a worker
+     * thread.
+     *
+     * @param <T> the type of the result
+     * @param task the task to run
+     * @return the future result of the task
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> task) {
+        return listeningWorkers.submit(task);
+    }
+
+    /**
+     * Runs a long background task, such as rendering many pages of a 
+     * document, on the low priority thread. Background tasks run one after 
+     * another and never take a worker thread from the viewers.
+     *
+     * @param <T> the type of the result
+     * @param task the task to run
+     * @return the future result of the task
+     */
+    public <T> ListenableFuture<T> submitBackground(Callable<T> task) {
+        return listeningBackgroundWorkers.submit(task);
+    }
+
+    /**
+     * Determines if the given page is already cached.
+     *
+     * @param key the PageKey of the page
+     * @return true if the page is cached, otherwise false
+     */
+    public boolean isCached(PageImageCache.PageKey key) {
+        return pageImageCache.contains(key);
+    }
+
+    /**
+     * Access the encoder every page is written with. Its profile name is part
+     * of the {@link PageImageCache.PageKey} of a page.
+     *
+     * @return the PageImageEncoder object
+     */
+    public PageImageEncoder getPageImageEncoder() {
+        return pageImageEncoder;
+    }
+
+    /**
+     * Access the number of worker threads, which is also the number of pages 
+     * of one document that may render at the same time.
+     *
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Summarises the worker pool usage for logging purposes.
+     *
+     * @return the engine statistics as a String
+     */
+    public String getStatistics() {
+        return String.format("[renderer threads=%d active=%d queued=%d "
+                + "completed=%d] [background active=%d queued=%d "
+                + "completed=%d] %s", parallelism, workers.getActiveCount(),
+                workers.getQueue().size(), workers.getCompletedTaskCount(),
+                backgroundWorkers.getActiveCount(),
+                backgroundWorkers.getQueue().size(),
+                backgroundWorkers.getCompletedTaskCount(),
+                admissionControl.getStatistics());
+    }
+
+    /**
+     * Stops the worker and background threads. Pages still queued are not 
+     * rendered.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        backgroundWorkers.shutdownNow();
+    }
+
+}
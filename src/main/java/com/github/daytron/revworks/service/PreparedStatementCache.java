@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of prepared statements attached to a single pooled connection and
+ * keyed by {@link PreparedQueryStatement}. A statement is only prepared once
+ * per physical connection. The returned statements are proxies whose
+ * <code>close()</code> only hands the statement back to the cache, so the
+ * usual try-with-resources blocks keep working unchanged. Every lease gets a 
+ * proxy of its own, so a proxy kept after its close cannot touch the 
+ * statement of the next caller: closing it again does nothing and any other 
+ * use fails as on a closed statement. The real statements are closed 
+ * together with the connection.
+ *
+ * @author Ryan Gilera
+ */
+final class PreparedStatementCache {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PreparedStatementCache.class.getName());
+
+    private final Connection connection;
+    private final AtomicLong hitCounter;
+    private final AtomicLong missCounter;
+    private final Map<PreparedQueryStatement, CachedStatement> plainStatements
+            = new EnumMap<>(PreparedQueryStatement.class);
+    private final Map<PreparedQueryStatement, CachedStatement> generatedKeysStatements
+            = new EnumMap<>(PreparedQueryStatement.class);
+
+    /**
+     * A class constructor that takes the connection owning the statements and
+     * the counters shared by every cache of the pool.
+     *
+     * @param connection the pooled Connection object
+     * @param hitCounter the counter for statements served from the cache
+     * @param missCounter the counter for statements that had to be prepared
+     */
+    PreparedStatementCache(Connection connection, AtomicLong hitCounter,
+            AtomicLong missCounter) {
+        this.connection = connection;
+        this.hitCounter = hitCounter;
+        this.missCounter = missCounter;
+    }
+
+    /**
+     * Returns the cached statement for the given query, preparing it on first
+     * use. If the cached statement is still open by another caller on the
+     * same connection, a plain uncached statement is returned instead.
+     *
+     * @param query the PreparedQueryStatement to prepare
+     * @param autoGeneratedKeys either <code>Statement.RETURN_GENERATED_KEYS
+     * </code> or <code>Statement.NO_GENERATED_KEYS</code>
+     * @return PreparedStatement object
+     * @throws SQLException if the statement cannot be prepared
+     */
+    synchronized PreparedStatement prepare(PreparedQueryStatement query,
+            int autoGeneratedKeys) throws SQLException {
+        final Map<PreparedQueryStatement, CachedStatement> statements
+                = (autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS)
+                        ? generatedKeysStatements : plainStatements;
+
+        CachedStatement cachedStatement = statements.get(query);
+
+        if (cachedStatement != null) {
+            if (cachedStatement.inUse) {
+                missCounter.incrementAndGet();
+                return connection.prepareStatement(query.getQuery(),
+                        autoGeneratedKeys);
+            }
+
+            hitCounter.incrementAndGet();
+            return cachedStatement.lease();
+        }
+
+        missCounter.incrementAndGet();
+        cachedStatement = new CachedStatement(connection.prepareStatement(
+                query.getQuery(), autoGeneratedKeys));
+        statements.put(query, cachedStatement);
+
+        return cachedStatement.lease();
+    }
+
+    /**
+     * Hands back every statement a caller forgot to close. Called when the
+     * connection is released to the pool.
+     */
+    synchronized void releaseAll() {
+        for (CachedStatement cachedStatement : plainStatements.values()) {
+            cachedStatement.logicalClose();
+        }
+
+        for (CachedStatement cachedStatement : generatedKeysStatements.values()) {
+            cachedStatement.logicalClose();
+        }
+    }
+
+    /**
+     * Closes every real statement. Called before the connection is closed.
+     */
+    synchronized void closeAll() {
+        closeStatements(plainStatements);
+        closeStatements(generatedKeysStatements);
+    }
+
+    /**
+     * Closes and removes the real statements of the given map.
+     *
+     * @param statements the statements to close
+     */
+    private void closeStatements(
+            Map<PreparedQueryStatement, CachedStatement> statements) {
+        for (CachedStatement cachedStatement : statements.values()) {
+            try {
+                cachedStatement.statement.close();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.FINE, null, ex);
+            }
+        }
+
+        statements.clear();
+    }
+
+    /**
+     * A real prepared statement and the number of times it has been handed 
+     * out.
+     */
+    private final class CachedStatement {
+
+        private final PreparedStatement statement;
+        private final List<ResultSet> openResultSets = new ArrayList<>();
+        private boolean inUse;
+        private long generation;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.inUse = false;
+            this.generation = 0;
+        }
+
+        /**
+         * Marks the statement as in use and returns a proxy valid for this 
+         * lease only. Called with the cache locked.
+         *
+         * @return the PreparedStatement proxy of the new lease
+         */
+        private PreparedStatement lease() {
+            inUse = true;
+            generation++;
+
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new StatementHandle(this, generation));
+        }
+
+        /**
+         * Closes the result sets opened through this statement and makes the
+         * statement available again. Calling it more than once is harmless.
+         */
+        private void logicalClose() {
+            if (!inUse) {
+                return;
+            }
+
+            for (ResultSet resultSet : openResultSets) {
+                try {
+                    resultSet.close();
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.FINE, null, ex);
+                }
+            }
+            openResultSets.clear();
+
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setFetchSize(0);
+                inUse = false;
+            } catch (SQLException ex) {
+                // Leave it marked as in use so it is never handed out again
+                LOGGER.log(Level.WARNING,
+                        "Could not reset cached prepared statement.", ex);
+            }
+        }
+    }
+
+    /**
+     * The proxy of a single lease of a cached statement.
+     */
+    private final class StatementHandle implements InvocationHandler {
+
+        private final CachedStatement cachedStatement;
+        private final long generation;
+
+        StatementHandle(CachedStatement cachedStatement, long generation) {
+            this.cachedStatement = cachedStatement;
+            this.generation = generation;
+        }
+
+        @Override
+        public Object invoke(Object proxyObject, Method method, Object[] args)
+                throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (PreparedStatementCache.this) {
+                        if (isCurrent()) {
+                            cachedStatement.logicalClose();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (PreparedStatementCache.this) {
+                        return !isCurrent();
+                    }
+                case "equals":
+                    return proxyObject == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxyObject);
+                default:
+                    break;
+            }
+
+            synchronized (PreparedStatementCache.this) {
+                if (!isCurrent()) {
+                    throw new SQLException("statement is closed");
+                }
+            }
+
+            final Object result;
+            try {
+                result = method.invoke(cachedStatement.statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+
+            if (result instanceof ResultSet) {
+                cachedStatement.openResultSets.add((ResultSet) result);
+            }
+
+            return result;
+        }
+
+        /**
+         * Determines if this lease still holds the statement. Called with 
+         * the cache locked.
+         *
+         * @return true if the statement is in use by this lease
+         */
+        private boolean isCurrent() {
+            return cachedStatement.inUse
+                    && cachedStatement.generation == generation;
+        }
+    }
+
+}
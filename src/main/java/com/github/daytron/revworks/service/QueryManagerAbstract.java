@@ -17,10 +17,17 @@ package com.github.daytron.revworks.service;
 
 import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.ErrorMsg;
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.github.daytron.revworks.service.mapper.RowMapper;
 import com.github.daytron.revworks.util.NotificationUtil;
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.MissingResourceException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,21 +40,39 @@ import java.util.logging.Logger;
  */
 public class QueryManagerAbstract {
 
-    private JDBCConnectionPool connectionPool;
+    /**
+     * The coursework id under which the unread user notifications of a user 
+     * are counted in the <code>UnreadCounter</code> table.
+     */
+    public static final int NOTIFICATIONS_COUNTER = 0;
+
+    private SharedJDBCConnectionPool connectionPool;
     private Connection connection;
+    private int fetchSize;
 
     /**
      * Connects to the database via connection manager. No extra connection pool 
-     * is created. The same SimpleJDBCConnectionPool object is used to connect 
-     * throughout the session's lifecycle. A connection is established from the 
-     * same connection pool. Although SimpleJDBCConnectionPool is not a connection 
-     * pool per se, its implementation acts like one.
+     * is created. The same {@link SharedJDBCConnectionPool} object owned by the 
+     * servlet is used by every session, so this also works from background 
+     * threads that are not bound to a UI. A connection is established from 
+     * the shared connection pool.
      * 
      * @return boolean value true if successfully connected, otherwise false
      */
     public final boolean reserveConnectionPool() {
         try {
-            this.connectionPool = MainUI.get().getConnectionManager().connect();
+            SQLConnectionManager connectionManager
+                    = MainUI.MainUIServlet.getConnectionManager();
+
+            if (connectionManager == null) {
+                Logger.getLogger(QueryManagerAbstract.class.getName())
+                        .log(Level.SEVERE, "No connection manager found. "
+                                + "The servlet is not initialised.");
+                return false;
+            }
+
+            this.connectionPool = connectionManager.connect();
+            this.fetchSize = connectionManager.getFetchSize();
             this.connection = connectionPool.reserveConnection();
 
             return true;
@@ -65,11 +90,12 @@ public class QueryManagerAbstract {
 
     /**
      * Releases the current connection from the connection pool so it can be 
-     * used by others later on.
+     * used by others later on. Calling this method more than once is safe.
      */
     public final void releaseConnection() {
-        if (connectionPool != null || connection != null) {
+        if (connectionPool != null && connection != null) {
             this.connectionPool.releaseConnection(connection);
+            this.connection = null;
         }
     }
 
@@ -82,6 +108,88 @@ public class QueryManagerAbstract {
         return connection;
     }
 
+    /**
+     * Prepares a query on the current connection. The statement is cached per
+     * pooled connection, so repeated queries skip the parsing round trip.
+     * Closing the returned statement hands it back to the cache.
+     *
+     * @param query the PreparedQueryStatement to prepare
+     * @return PreparedStatement object
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public final PreparedStatement prepareStatement(
+            PreparedQueryStatement query) throws SQLException {
+        return prepareStatement(query, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Prepares a query on the current connection with the option to retrieve
+     * auto generated keys. See {@link #prepareStatement(
+     * PreparedQueryStatement)}.
+     *
+     * @param query the PreparedQueryStatement to prepare
+     * @param autoGeneratedKeys either <code>Statement.RETURN_GENERATED_KEYS
+     * </code> or <code>Statement.NO_GENERATED_KEYS</code>
+     * @return PreparedStatement object
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public final PreparedStatement prepareStatement(
+            PreparedQueryStatement query, int autoGeneratedKeys)
+            throws SQLException {
+        return connectionPool.prepareStatement(connection, query,
+                autoGeneratedKeys);
+    }
+
+    /**
+     * Executes a query and maps every row in a single forward-only pass. Rows 
+     * are fetched from the server in batches of the configured fetch size, 
+     * so large results are not buffered as a whole. The mapper must not run 
+     * other queries on this connection while the rows are read.
+     *
+     * @param <T> the type of object produced for each row
+     * @param preparedStatement the statement with its parameters already set
+     * @param rowMapper the RowMapper object that converts each row
+     * @return the list of mapped objects, empty if there is no result
+     * @throws SQLException if the query fails
+     */
+    public final <T> List<T> queryForList(PreparedStatement preparedStatement,
+            RowMapper<T> rowMapper) throws SQLException {
+        final List<T> listOfObjects = new ArrayList<>();
+
+        preparedStatement.setFetchSize(fetchSize);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                T object = rowMapper.mapRow(resultSet);
+
+                if (object != null) {
+                    listOfObjects.add(object);
+                }
+            }
+        }
+
+        return listOfObjects;
+    }
+
+    /**
+     * Executes a query expected to return at most one row and maps it.
+     *
+     * @param <T> the type of object produced for the row
+     * @param preparedStatement the statement with its parameters already set
+     * @param rowMapper the RowMapper object that converts the row
+     * @return the mapped object or null if there is no result
+     * @throws SQLException if the query fails
+     */
+    public final <T> T queryForObject(PreparedStatement preparedStatement,
+            RowMapper<T> rowMapper) throws SQLException {
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (resultSet.next()) {
+                return rowMapper.mapRow(resultSet);
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Access the connection pool itself.
      * 
@@ -90,7 +198,67 @@ public class QueryManagerAbstract {
     public final JDBCConnectionPool getConnectionPool() {
         return connectionPool;
     }
+
+    /**
+     * Access the coursework store shared by every session of the servlet.
+     * 
+     * @return CourseworkStorage object or null if the servlet is not yet 
+     * initialised
+     */
+    public final CourseworkStorage getCourseworkStorage() {
+        return MainUI.MainUIServlet.getCourseworkStorage();
+    }
+
+    /**
+     * Tells the UIs subscribed to the given data that it has changed, on 
+     * this node and on the other nodes of the cluster. Must be called after 
+     * the change is committed.
+     * 
+     * @param topic the kind of data
+     * @param key the id the data belongs to
+     */
+    public final void publishChange(ChangeHub.Topic topic, int key) {
+        final ChangeHub changeHub = MainUI.MainUIServlet.getChangeHub();
+        final ClusterBroadcast clusterBroadcast
+                = MainUI.MainUIServlet.getClusterBroadcast();
+
+        if (changeHub != null) {
+            changeHub.publish(topic, key);
+        }
+
+        if (clusterBroadcast != null) {
+            clusterBroadcast.publish(ClusterEvent.Type.DATA_CHANGED, topic,
+                    key);
+        }
+    }
     
+    /**
+     * Adds to the unread count of a user within the current transaction. 
+     * The count never goes below zero.
+     * 
+     * @param userId the id of the user
+     * @param courseworkId the id of the coursework whose notes are counted, 
+     * or {@link #NOTIFICATIONS_COUNTER} for the user notifications
+     * @param delta the number of items that became unread, negative for 
+     * items that became read
+     * @throws SQLException if the update fails
+     */
+    public final void updateUnreadCounter(int userId, int courseworkId,
+            int delta) throws SQLException {
+        if (delta == 0) {
+            return;
+        }
+
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.UPDATE_UNREAD_COUNTER)) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.setInt(2, courseworkId);
+            preparedStatement.setInt(3, delta);
+            preparedStatement.setInt(4, delta);
+            preparedStatement.executeUpdate();
+        }
+    }
+
     /**
      * Displays a generic data send error notification for query error events.
      */
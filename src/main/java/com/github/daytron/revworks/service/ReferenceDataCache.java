@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.github.daytron.revworks.model.ClassTable;
+import com.github.daytron.revworks.model.LecturerUser;
+import com.github.daytron.revworks.service.mapper.ClassTableRowMapper;
+import com.github.daytron.revworks.service.mapper.RowMapper;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A server-wide cache of the current semester and its classes, modules and 
+ * lecturers, shared by every session. The data is loaded in one pass and 
+ * kept as an immutable snapshot, so each {@link ClassTable} and 
+ * {@link LecturerUser} exists once however many users sign in. The snapshot 
+ * is reloaded on the first use of a new day, which covers the semester 
+ * rollover, once it is older than {@link #MAX_AGE} to pick up changes made 
+ * by the admins, or when a student is found in a class it does not know, 
+ * at most once per {@link #MIN_RELOAD_INTERVAL}. Only the class ids of a 
+ * student are read per sign in.
+ *
+ * @author Ryan Gilera
+ */
+public final class ReferenceDataCache {
+
+    /**
+     * Age after which the snapshot is reloaded, in milliseconds.
+     */
+    public static final long MAX_AGE = 15 * 60 * 1000;
+
+    /**
+     * Minimum time between two loads triggered by an unknown class, in 
+     * milliseconds. A class that never makes it into the snapshot, such as 
+     * one without a lecturer, would otherwise reload it on every sign in.
+     */
+    public static final long MIN_RELOAD_INTERVAL = 60 * 1000;
+
+    private volatile Snapshot snapshot = null;
+    private volatile long lastReloadAttempt = 0;
+
+    private final AtomicLong hitCounter = new AtomicLong();
+    private final AtomicLong loadCounter = new AtomicLong();
+    private final AtomicLong failureCounter = new AtomicLong();
+
+    /**
+     * Access the id of the current semester.
+     *
+     * @return the semester id or an empty String outside a semester
+     * @throws SQLException if the data cannot be loaded
+     */
+    public String getCurrentSemesterId() throws SQLException {
+        return currentSnapshot().semesterId;
+    }
+
+    /**
+     * Access the classes a lecturer teaches in the current semester.
+     *
+     * @param lecturerUserId the user id of the lecturer
+     * @return the ClassTableIndex object, empty if there is no class
+     * @throws SQLException if the data cannot be loaded
+     */
+    public ClassTableIndex getLecturerClasses(int lecturerUserId)
+            throws SQLException {
+        final ClassTableIndex classTableIndex
+                = currentSnapshot().classesByLecturer.get(lecturerUserId);
+
+        return (classTableIndex == null)
+                ? ClassTableIndex.EMPTY : classTableIndex;
+    }
+
+    /**
+     * Access the classes a student takes in the current semester. The class 
+     * ids are read from the database, the classes come from the cache.
+     *
+     * @param studentUserId the user id of the student
+     * @return the ClassTableIndex object, empty if there is no class
+     * @throws SQLException if the data cannot be loaded
+     */
+    public ClassTableIndex getStudentClasses(int studentUserId)
+            throws SQLException {
+        Snapshot currentSnapshot = currentSnapshot();
+        if (currentSnapshot.semesterId.isEmpty()) {
+            return ClassTableIndex.EMPTY;
+        }
+
+        final List<Integer> listOfClassIds = new ReferenceDataStatements()
+                .selectStudentClassIds(studentUserId,
+                        currentSnapshot.semesterId);
+
+        // A class added since the last load
+        if (!currentSnapshot.classesById.keySet()
+                .containsAll(listOfClassIds)
+                && System.currentTimeMillis() - lastReloadAttempt
+                >= MIN_RELOAD_INTERVAL) {
+            currentSnapshot = reload(currentSnapshot);
+        }
+
+        final List<ClassTable> listOfClassTables = new ArrayList<>();
+        for (Integer classId : listOfClassIds) {
+            final ClassTable classTable
+                    = currentSnapshot.classesById.get(classId);
+
+            if (classTable != null) {
+                listOfClassTables.add(classTable);
+            }
+        }
+
+        return new ClassTableIndex(listOfClassTables);
+    }
+
+    /**
+     * Access a class of the current semester by its id.
+     *
+     * @param classId the id of the class
+     * @return the ClassTable object or null if not found
+     * @throws SQLException if the data cannot be loaded
+     */
+    public ClassTable getClassTable(int classId) throws SQLException {
+        return currentSnapshot().classesById.get(classId);
+    }
+
+    /**
+     * Access a lecturer teaching in the current semester by user id.
+     *
+     * @param lecturerUserId the user id of the lecturer
+     * @return the LecturerUser object or null if not found
+     * @throws SQLException if the data cannot be loaded
+     */
+    public LecturerUser getLecturer(int lecturerUserId) throws SQLException {
+        return currentSnapshot().lecturersById.get(lecturerUserId);
+    }
+
+    /**
+     * Drops the snapshot, so the next use loads the data again.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Summarises the cache usage for logging purposes.
+     *
+     * @return the cache statistics as a String
+     */
+    public String getStatistics() {
+        final Snapshot currentSnapshot = snapshot;
+
+        return "hits=" + hitCounter.get()
+                + ", loads=" + loadCounter.get()
+                + ", failures=" + failureCounter.get()
+                + ", classes=" + ((currentSnapshot == null)
+                        ? 0 : currentSnapshot.classesById.size())
+                + ", lecturers=" + ((currentSnapshot == null)
+                        ? 0 : currentSnapshot.lecturersById.size());
+    }
+
+    /**
+     * Returns the snapshot, loading it if missing or out of date.
+     *
+     * @return the current Snapshot object
+     * @throws SQLException if the data cannot be loaded
+     */
+    private Snapshot currentSnapshot() throws SQLException {
+        final Snapshot currentSnapshot = snapshot;
+
+        if (currentSnapshot != null && currentSnapshot.isFresh()) {
+            hitCounter.incrementAndGet();
+            return currentSnapshot;
+        }
+
+        return reload(currentSnapshot);
+    }
+
+    /**
+     * Loads a new snapshot unless another thread already replaced the given 
+     * one. A failed load keeps serving the old snapshot of the same day.
+     *
+     * @param staleSnapshot the snapshot found to be out of date, or null
+     * @return the new Snapshot object
+     * @throws SQLException if the data cannot be loaded and there is no 
+     * snapshot of the same day
+     */
+    private synchronized Snapshot reload(Snapshot staleSnapshot)
+            throws SQLException {
+        if (snapshot != null && snapshot != staleSnapshot
+                && snapshot.isFresh()) {
+            return snapshot;
+        }
+
+        lastReloadAttempt = System.currentTimeMillis();
+        try {
+            final Snapshot newSnapshot = new ReferenceDataStatements().load();
+            loadCounter.incrementAndGet();
+            snapshot = newSnapshot;
+            return newSnapshot;
+        } catch (SQLException ex) {
+            failureCounter.incrementAndGet();
+
+            if (staleSnapshot != null
+                    && staleSnapshot.loadedOn.equals(LocalDate.now())) {
+                Logger.getLogger(ReferenceDataCache.class.getName())
+                        .log(Level.WARNING, "Could not reload reference "
+                                + "data, serving the previous load.", ex);
+                return staleSnapshot;
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * An immutable load of the reference data.
+     */
+    private static final class Snapshot {
+
+        private final String semesterId;
+        private final Map<Integer, ClassTable> classesById;
+        private final Map<Integer, ClassTableIndex> classesByLecturer;
+        private final Map<Integer, LecturerUser> lecturersById;
+        private final LocalDate loadedOn;
+        private final long loadedAt;
+
+        Snapshot(String semesterId, List<ClassTable> listOfClassTables,
+                Map<Integer, LecturerUser> lecturersById) {
+            this.semesterId = semesterId;
+
+            final Map<Integer, ClassTable> byId = new HashMap<>();
+            final Map<Integer, List<ClassTable>> byLecturer
+                    = new LinkedHashMap<>();
+            for (ClassTable classTable : listOfClassTables) {
+                byId.put(classTable.getId(), classTable);
+
+                final int lecturerUserId
+                        = classTable.getLecturerUser().getId();
+                if (!byLecturer.containsKey(lecturerUserId)) {
+                    byLecturer.put(lecturerUserId,
+                            new ArrayList<ClassTable>());
+                }
+                byLecturer.get(lecturerUserId).add(classTable);
+            }
+
+            final Map<Integer, ClassTableIndex> indexByLecturer
+                    = new HashMap<>();
+            for (Map.Entry<Integer, List<ClassTable>> entry
+                    : byLecturer.entrySet()) {
+                indexByLecturer.put(entry.getKey(),
+                        new ClassTableIndex(entry.getValue()));
+            }
+
+            this.classesById = Collections.unmodifiableMap(byId);
+            this.classesByLecturer = Collections.unmodifiableMap(
+                    indexByLecturer);
+            this.lecturersById = Collections.unmodifiableMap(
+                    new HashMap<>(lecturersById));
+            this.loadedOn = LocalDate.now();
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Determine if the snapshot is of today and not older than the 
+         * maximum age.
+         *
+         * @return true if it can be served, otherwise false
+         */
+        boolean isFresh() {
+            return loadedOn.equals(LocalDate.now())
+                    && System.currentTimeMillis() - loadedAt < MAX_AGE;
+        }
+    }
+
+    /**
+     * The queries loading the reference data. Each one reserves and releases 
+     * its own connection, so an instance is used by one thread only.
+     */
+    private static final class ReferenceDataStatements
+            extends QueryManagerAbstract {
+
+        /**
+         * Loads the current semester with its classes and lecturers.
+         *
+         * @return the new Snapshot object
+         * @throws SQLException if a query fails
+         */
+        Snapshot load() throws SQLException {
+            reserve();
+
+            try {
+                final String semesterId;
+                try (PreparedStatement preparedStatement = prepareStatement(
+                        PreparedQueryStatement.SELECT_CURRENT_SEMESTER)) {
+                    semesterId = queryForObject(preparedStatement,
+                            new RowMapper<String>() {
+
+                                @Override
+                                public String mapRow(ResultSet resultSet)
+                                        throws SQLException {
+                                    return resultSet.getString(1)
+                                            .toUpperCase();
+                                }
+                            });
+                }
+
+                // Outside a semester there is no class to load
+                if (semesterId == null) {
+                    return new Snapshot("", new ArrayList<ClassTable>(),
+                            new HashMap<Integer, LecturerUser>());
+                }
+
+                final Map<Integer, LecturerUser> lecturers = new HashMap<>();
+                final List<ClassTable> listOfClassTables;
+                try (PreparedStatement preparedStatement = prepareStatement(
+                        PreparedQueryStatement.SELECT_SEMESTER_CLASSES)) {
+                    preparedStatement.setString(1, semesterId);
+                    listOfClassTables = queryForList(preparedStatement,
+                            new ClassTableRowMapper(lecturers));
+                }
+
+                return new Snapshot(semesterId, listOfClassTables,
+                        lecturers);
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Reads the ids of the classes a student takes in a semester.
+         *
+         * @param studentUserId the user id of the student
+         * @param semesterId the id of the semester
+         * @return the list of class ids, empty if there is none
+         * @throws SQLException if the query fails
+         */
+        List<Integer> selectStudentClassIds(int studentUserId,
+                String semesterId) throws SQLException {
+            reserve();
+
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.STUDENT_SELECT_CLASS_ID)) {
+                preparedStatement.setInt(1, studentUserId);
+                preparedStatement.setString(2, semesterId);
+
+                return queryForList(preparedStatement,
+                        new RowMapper<Integer>() {
+
+                            @Override
+                            public Integer mapRow(ResultSet resultSet)
+                                    throws SQLException {
+                                return resultSet.getInt(1);
+                            }
+                        });
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Reserves a connection for the next query.
+         *
+         * @throws SQLException if no connection is available
+         */
+        private void reserve() throws SQLException {
+            if (!reserveConnectionPool()) {
+                throw new SQLException("No database connection available.");
+            }
+        }
+    }
+
+}
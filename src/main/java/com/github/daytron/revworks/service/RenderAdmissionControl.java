@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Limits the pages rendered at the same time by the memory their images 
+ * take rather than by their number. Every render asks for the estimated 
+ * pixel count of its page image and waits in a fair queue while the pixel 
+ * budget is used up, so a burst of large scanned pages is rendered a few at 
+ * a time instead of running the server out of memory. A page larger than 
+ * the whole budget is rendered alone.
+ *
+ * @author Ryan Gilera
+ */
+public final class RenderAdmissionControl {
+
+    // Bytes per pixel of a rendered RGB page image
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int pixelBudget;
+    private final Semaphore pixels;
+
+    private final AtomicInteger waitingRenders = new AtomicInteger();
+    private final AtomicInteger peakWaitingRenders = new AtomicInteger();
+    private final AtomicLong admittedCounter = new AtomicLong();
+    private final AtomicLong queuedCounter = new AtomicLong();
+
+    /**
+     * A class constructor that takes the number of pixels that may be 
+     * rendered at the same time.
+     *
+     * @param pixelBudget the pixel budget shared by every render
+     */
+    public RenderAdmissionControl(long pixelBudget) {
+        this.pixelBudget = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE, pixelBudget));
+        this.pixels = new Semaphore(this.pixelBudget, true);
+    }
+
+    /**
+     * Creates an admission control that lets the rendered page images take 
+     * up to the given share of the maximum heap size.
+     *
+     * @param heapShare the share of the heap between 0 and 1
+     * @return RenderAdmissionControl object
+     */
+    public static RenderAdmissionControl forHeapShare(double heapShare) {
+        return new RenderAdmissionControl((long) (Runtime.getRuntime()
+                .maxMemory() * heapShare / BYTES_PER_PIXEL));
+    }
+
+    /**
+     * Estimates the pixel count of a page rendered at the given resolution.
+     *
+     * @param page the PDPage object to render
+     * @param dpi the resolution in dots per inch
+     * @return the estimated number of pixels
+     */
+    public static long estimatePixels(PDPage page, int dpi) {
+        PDRectangle cropBox = page.getCropBox();
+        // 72 PDF points make an inch
+        final double scale = dpi / 72.0;
+        return (long) Math.ceil(cropBox.getWidth() * scale)
+                * (long) Math.ceil(cropBox.getHeight() * scale);
+    }
+
+    /**
+     * Waits until the given number of pixels fits in the budget. The 
+     * returned admission gives the pixels back when it is closed.
+     *
+     * @param pagePixels the estimated pixel count of the page image
+     * @param onQueued run once before waiting if the budget is used up, may 
+     * be null
+     * @return the Admission object to close once the page is rendered
+     * @throws IOException if the thread is interrupted while waiting
+     */
+    public Admission admit(long pagePixels, Runnable onQueued)
+            throws IOException {
+        final int permits = (int) Math.max(1,
+                Math.min(pixelBudget, pagePixels));
+
+        try {
+            // The timed form respects the fair queue, the untimed one would 
+            // let small renders barge ahead of a waiting large page
+            if (!pixels.tryAcquire(permits, 0, TimeUnit.MILLISECONDS)) {
+                queuedCounter.incrementAndGet();
+                updatePeak(waitingRenders.incrementAndGet());
+                try {
+                    if (onQueued != null) {
+                        onQueued.run();
+                    }
+                    pixels.acquire(permits);
+                } finally {
+                    waitingRenders.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for render memory.");
+        }
+
+        admittedCounter.incrementAndGet();
+        return new Admission(permits);
+    }
+
+    /**
+     * Access the number of renders waiting for memory.
+     *
+     * @return the number of waiting renders
+     */
+    public int getWaitingRenders() {
+        return waitingRenders.get();
+    }
+
+    /**
+     * Summarises the budget usage for logging purposes.
+     *
+     * @return the admission statistics as a String
+     */
+    public String getStatistics() {
+        return String.format("[admission budget=%dpx inUse=%dpx waiting=%d "
+                + "peakWaiting=%d admitted=%d queued=%d]", pixelBudget,
+                pixelBudget - pixels.availablePermits(), waitingRenders.get(),
+                peakWaitingRenders.get(), admittedCounter.get(),
+                queuedCounter.get());
+    }
+
+    /**
+     * Records a new highest number of waiting renders.
+     *
+     * @param waiting the current number of waiting renders
+     */
+    private void updatePeak(int waiting) {
+        int peak = peakWaitingRenders.get();
+        while (waiting > peak
+                && !peakWaitingRenders.compareAndSet(peak, waiting)) {
+            peak = peakWaitingRenders.get();
+        }
+    }
+
+    /**
+     * The pixels held by one render.
+     */
+    public final class Admission implements AutoCloseable {
+
+        private final int permits;
+        private boolean released;
+
+        private Admission(int permits) {
+            this.permits = permits;
+            this.released = false;
+        }
+
+        /**
+         * Gives the pixels back to the budget. Calling it more than once is 
+         * harmless.
+         */
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                pixels.release(permits);
+            }
+        }
+    }
+
+}
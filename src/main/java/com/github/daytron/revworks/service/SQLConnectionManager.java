@@ -15,33 +15,47 @@
  */
 package com.github.daytron.revworks.service;
 
-import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
 import java.sql.SQLException;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
 /**
- * A class for establishing and retrieving connection from the database.
+ * A class for establishing and retrieving connection from the database. A 
+ * single instance is created by the servlet and shared by every session, so 
+ * the number of database connections depends on the load rather than on the 
+ * number of open UIs.
  *
  * @author Ryan Gilera
  */
 @SuppressWarnings("serial")
 public final class SQLConnectionManager {
 
-    private SimpleJDBCConnectionPool jbdcConnectionPool = null;
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_MIN_IDLE_CONNECTIONS = 2;
+    private static final int DEFAULT_BORROW_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 300000;
+    private static final int DEFAULT_LEAK_THRESHOLD_MILLIS = 60000;
+    private static final int DEFAULT_FETCH_SIZE = 100;
+    private static final boolean DEFAULT_LEAK_TRACING = false;
+
+    private SharedJDBCConnectionPool jbdcConnectionPool = null;
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
 
     public SQLConnectionManager() {
     }
 
     /**
-     * Returns {@link SimpleJDBCConnectionPool} object. Creates a new object if
-     * no object is attached.
+     * Returns {@link SharedJDBCConnectionPool} object. Creates a new object if
+     * no object is attached. The pool limits are read from the same 
+     * properties file as the credentials and fall back to sensible defaults 
+     * if missing.
      *
-     * @return SimpleJDBCConnectionPool object
+     * @return SharedJDBCConnectionPool object
      * @throws SQLException occurs whenever something went wrong to the database
      * connection
      */
-    public SimpleJDBCConnectionPool connect() throws SQLException, MissingResourceException {
+    public synchronized SharedJDBCConnectionPool connect() throws SQLException, 
+            MissingResourceException {
 
         if (jbdcConnectionPool == null) {
             // retrieve properties file
@@ -53,14 +67,112 @@ public final class SQLConnectionManager {
             String dbUser = propertyBundle.getString("dbuser");
             String dbPass = propertyBundle.getString("dbpass");
 
-            String dbSchemaPath = "jdbc:mysql://localhost/" + dbSchema;
+            // Server side prepared statements pay off now that statements 
+            // are cached per connection. Cursor fetch lets queries with a 
+            // fetch size stream their rows instead of buffering them all
+            String dbSchemaPath = "jdbc:mysql://localhost/" + dbSchema
+                    + "?useServerPrepStmts=true&useCursorFetch=true";
+
+            fetchSize = getIntProperty(propertyBundle, "query.fetchSize",
+                    DEFAULT_FETCH_SIZE);
 
-            jbdcConnectionPool = new SimpleJDBCConnectionPool(
+            jbdcConnectionPool = new SharedJDBCConnectionPool(
                     "com.mysql.jdbc.Driver",
-                    dbSchemaPath, dbUser, dbPass, 4, 10);
+                    dbSchemaPath, dbUser, dbPass,
+                    getIntProperty(propertyBundle, "pool.maxConnections",
+                            DEFAULT_MAX_CONNECTIONS),
+                    getIntProperty(propertyBundle, "pool.minIdleConnections",
+                            DEFAULT_MIN_IDLE_CONNECTIONS),
+                    getIntProperty(propertyBundle, "pool.borrowTimeoutMillis",
+                            DEFAULT_BORROW_TIMEOUT_MILLIS),
+                    getIntProperty(propertyBundle, "pool.idleTimeoutMillis",
+                            DEFAULT_IDLE_TIMEOUT_MILLIS),
+                    getIntProperty(propertyBundle, "pool.leakThresholdMillis",
+                            DEFAULT_LEAK_THRESHOLD_MILLIS),
+                    getBooleanProperty(propertyBundle, "pool.leakTracing",
+                            DEFAULT_LEAK_TRACING));
         }
 
         return jbdcConnectionPool;
     }
 
+    /**
+     * Access the number of rows fetched per round trip by forward-only 
+     * queries. Configured with the optional <code>query.fetchSize</code> key, 
+     * zero buffers the whole result.
+     *
+     * @return the fetch size
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Reads an optional value from the properties file.
+     *
+     * @param key the property key
+     * @param defaultValue the value used if the key or the file is not 
+     * present
+     * @return the String value of the property
+     */
+    public String getProperty(String key, String defaultValue) {
+        try {
+            final ResourceBundle propertyBundle = ResourceBundle
+                    .getBundle("com/github/daytron/revworks/dbconfig");
+
+            if (!propertyBundle.containsKey(key)) {
+                return defaultValue;
+            }
+
+            return propertyBundle.getString(key).trim();
+        } catch (MissingResourceException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Destroys the connection pool if one is created. Called by the servlet 
+     * when the application is undeployed.
+     */
+    public synchronized void shutdown() {
+        if (jbdcConnectionPool != null) {
+            jbdcConnectionPool.destroy();
+            jbdcConnectionPool = null;
+        }
+    }
+
+    /**
+     * Reads an optional integer value from the properties file.
+     * 
+     * @param propertyBundle the ResourceBundle object
+     * @param key the property key
+     * @param defaultValue the value used if the key is not present
+     * @return the integer value of the property
+     */
+    static int getIntProperty(ResourceBundle propertyBundle, String key,
+            int defaultValue) {
+        if (!propertyBundle.containsKey(key)) {
+            return defaultValue;
+        }
+
+        return Integer.parseInt(propertyBundle.getString(key).trim());
+    }
+
+    /**
+     * Reads an optional boolean value from the properties file.
+     * 
+     * @param propertyBundle the ResourceBundle object
+     * @param key the property key
+     * @param defaultValue the value used if the key is not present
+     * @return the boolean value of the property
+     */
+    static boolean getBooleanProperty(ResourceBundle propertyBundle,
+            String key, boolean defaultValue) {
+        if (!propertyBundle.containsKey(key)) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean(propertyBundle.getString(key).trim());
+    }
+
 }
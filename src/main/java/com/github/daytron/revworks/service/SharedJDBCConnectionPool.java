@@ -0,0 +1,667 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.data.PreparedQueryStatement;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded JDBC connection pool shared by every session of the servlet. The
+ * number of physical connections is capped by the maximum pool size no matter
+ * how many sessions or browser tabs are open: a slot is reserved before any 
+ * connection is opened, whether for a caller or to refill the idle 
+ * connections. Connections are validated before
+ * they are handed out, idle connections are evicted in the background and
+ * connections held for too long are reported as possible leaks. Each
+ * connection carries its own {@link PreparedStatementCache}, so frequently
+ * used queries are only prepared once per physical connection.
+ *
+ * @author Ryan Gilera
+ */
+public final class SharedJDBCConnectionPool implements JDBCConnectionPool {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SharedJDBCConnectionPool.class.getName());
+
+    // Connections idle for less than this are handed out without a ping
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 30;
+    // Wait for a connection being opened by a refill to turn up idle
+    private static final long SLOT_WAIT_MILLIS = 10;
+
+    private final String driverName;
+    private final String connectionUri;
+    private final String userName;
+    private final String password;
+    private final int maxConnections;
+    private final int minIdleConnections;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakTracing;
+
+    private final Semaphore permits;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LinkedBlockingDeque<IdleConnection> idleConnections
+            = new LinkedBlockingDeque<>();
+    private final Map<Connection, Lease> leasedConnections
+            = new ConcurrentHashMap<>();
+    private final Map<Connection, PreparedStatementCache> statementCaches
+            = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenanceExecutor;
+    private volatile boolean destroyed = false;
+
+    // Statistics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /**
+     * A class constructor that takes the database credentials and the pool
+     * limits.
+     *
+     * @param driverName the JDBC driver class name
+     * @param connectionUri the JDBC connection URI
+     * @param userName the database user
+     * @param password the database password
+     * @param maxConnections the maximum number of physical connections
+     * @param minIdleConnections the number of idle connections kept open by
+     * the maintenance task
+     * @param borrowTimeoutMillis the maximum time a caller waits for a free
+     * connection
+     * @param idleTimeoutMillis the time after which an idle connection is
+     * closed
+     * @param leakThresholdMillis the time after which a reserved connection is
+     * reported as a possible leak
+     * @param leakTracing true to record the stack trace of every reservation, 
+     * so a leak report shows where it was reserved. Costly, for debugging 
+     * only
+     * @throws SQLException if the JDBC driver cannot be loaded
+     */
+    public SharedJDBCConnectionPool(String driverName, String connectionUri,
+            String userName, String password, int maxConnections,
+            int minIdleConnections, long borrowTimeoutMillis,
+            long idleTimeoutMillis, long leakThresholdMillis,
+            boolean leakTracing) throws SQLException {
+        if (maxConnections < 1 || minIdleConnections < 0
+                || minIdleConnections > maxConnections) {
+            throw new IllegalArgumentException(
+                    "Invalid connection pool size configuration.");
+        }
+
+        try {
+            Class.forName(driverName).newInstance();
+        } catch (ClassNotFoundException | InstantiationException
+                | IllegalAccessException ex) {
+            throw new SQLException("Could not load JDBC driver "
+                    + driverName, ex);
+        }
+
+        this.driverName = driverName;
+        this.connectionUri = connectionUri;
+        this.userName = userName;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.minIdleConnections = minIdleConnections;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.leakTracing = leakTracing;
+        this.permits = new Semaphore(maxConnections, true);
+
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "revworks-jdbc-pool-maintenance");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    evictIdleConnections();
+                    fillIdleConnections();
+                    detectLeaks();
+                    logStatistics(Level.FINE);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+        }, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reserves a connection from the pool. Waits up to the configured borrow
+     * timeout for a free slot if all connections are in use. A pooled
+     * connection that has been idle for a while is validated before it is
+     * returned.
+     *
+     * @return an open Connection object with auto commit disabled
+     * @throws SQLException if the pool is destroyed, the borrow timeout
+     * expires or a new connection cannot be opened
+     */
+    @Override
+    public Connection reserveConnection() throws SQLException {
+        if (destroyed) {
+            throw new SQLException("Connection pool is already destroyed.");
+        }
+
+        final long startTime = System.nanoTime();
+        boolean acquired;
+
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(
+                    "Interrupted while waiting for a database connection.", ex);
+        }
+
+        if (!acquired) {
+            borrowTimeoutCount.incrementAndGet();
+            throw new SQLException("Timed out after " + borrowTimeoutMillis
+                    + " ms waiting for a database connection. "
+                    + getStatistics());
+        }
+
+        recordBorrowWait(System.nanoTime() - startTime);
+
+        try {
+            Connection connection = takeIdleConnection();
+
+            while (connection == null) {
+                if (destroyed) {
+                    throw new SQLException(
+                            "Connection pool is already destroyed.");
+                }
+
+                connection = createConnection();
+
+                if (connection == null) {
+                    // Every slot is open but not every one is leased, so a 
+                    // refill is about to hand its connection to the pool
+                    IdleConnection idleConnection = idleConnections.pollFirst(
+                            SLOT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (idleConnection != null) {
+                        idleConnections.offerFirst(idleConnection);
+                    }
+                    connection = takeIdleConnection();
+                }
+            }
+
+            leasedConnections.put(connection, new Lease(leakTracing));
+            return connection;
+        } catch (InterruptedException ex) {
+            permits.release();
+            Thread.currentThread().interrupt();
+            throw new SQLException(
+                    "Interrupted while waiting for a database connection.", ex);
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Any uncommitted work is rolled back
+     * first. A connection that cannot be rolled back is closed and discarded.
+     * Releasing a connection that is not currently reserved is ignored, so
+     * calling this method twice for the same connection is harmless.
+     *
+     * @param connection the Connection object to release
+     */
+    @Override
+    public void releaseConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        Lease lease = leasedConnections.remove(connection);
+
+        if (lease == null) {
+            return;
+        }
+
+        try {
+            if (destroyed) {
+                closeQuietly(connection);
+                return;
+            }
+
+            PreparedStatementCache statementCache
+                    = statementCaches.get(connection);
+            if (statementCache != null) {
+                statementCache.releaseAll();
+            }
+
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                idleConnections.offerFirst(new IdleConnection(connection));
+            } catch (SQLException ex) {
+                LOGGER.log(Level.WARNING,
+                        "Discarding connection that failed to roll back.", ex);
+                closeQuietly(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Prepares a query on a reserved connection, reusing the statement
+     * prepared earlier on the same physical connection if there is one. The
+     * returned statement may be closed as usual, which only hands it back to
+     * the cache.
+     *
+     * @param connection a Connection object reserved from this pool
+     * @param query the PreparedQueryStatement to prepare
+     * @param autoGeneratedKeys either <code>Statement.RETURN_GENERATED_KEYS
+     * </code> or <code>Statement.NO_GENERATED_KEYS</code>
+     * @return PreparedStatement object
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepareStatement(Connection connection,
+            PreparedQueryStatement query, int autoGeneratedKeys)
+            throws SQLException {
+        if (!leasedConnections.containsKey(connection)) {
+            // Not one of ours, so nothing to cache against
+            return connection.prepareStatement(query.getQuery(),
+                    autoGeneratedKeys);
+        }
+
+        PreparedStatementCache statementCache = statementCaches.get(connection);
+
+        if (statementCache == null) {
+            statementCache = new PreparedStatementCache(connection,
+                    statementCacheHits, statementCacheMisses);
+            statementCaches.put(connection, statementCache);
+        }
+
+        return statementCache.prepare(query, autoGeneratedKeys);
+    }
+
+    /**
+     * Closes every idle connection and stops the maintenance task. Connections
+     * that are still reserved are closed when they are released.
+     */
+    @Override
+    public void destroy() {
+        destroyed = true;
+        maintenanceExecutor.shutdownNow();
+
+        IdleConnection idleConnection;
+        while ((idleConnection = idleConnections.pollFirst()) != null) {
+            closeQuietly(idleConnection.connection);
+        }
+
+        logStatistics(Level.INFO);
+    }
+
+    /**
+     * Access the number of connections currently reserved.
+     *
+     * @return the number of reserved connections
+     */
+    public int getActiveConnectionCount() {
+        return leasedConnections.size();
+    }
+
+    /**
+     * Access the number of open connections waiting in the pool.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleConnectionCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Access the average time callers waited for a connection.
+     *
+     * @return the average borrow wait time in milliseconds
+     */
+    public double getAverageBorrowWaitMillis() {
+        long count = borrowCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMicros(totalBorrowWaitNanos.get())
+                / (count * 1000.0);
+    }
+
+    /**
+     * Access the longest time a caller waited for a connection.
+     *
+     * @return the maximum borrow wait time in milliseconds
+     */
+    public long getMaxBorrowWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxBorrowWaitNanos.get());
+    }
+
+    /**
+     * Access the number of reservations that gave up waiting.
+     *
+     * @return the number of borrow timeouts
+     */
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.get();
+    }
+
+    /**
+     * Access the number of connections reported as possible leaks.
+     *
+     * @return the number of leak reports
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * Access the number of statements served from the statement caches.
+     *
+     * @return the number of statement cache hits
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * Access the number of statements that had to be prepared.
+     *
+     * @return the number of statement cache misses
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * Summarises the current pool usage for logging purposes.
+     *
+     * @return the pool statistics as a String
+     */
+    public String getStatistics() {
+        return String.format("[pool max=%d open=%d active=%d idle=%d "
+                + "borrowed=%d "
+                + "avgWait=%.2fms maxWait=%dms timeouts=%d created=%d "
+                + "closed=%d leaks=%d stmtHits=%d stmtMisses=%d]",
+                maxConnections, openConnections.get(),
+                getActiveConnectionCount(),
+                getIdleConnectionCount(), borrowCount.get(),
+                getAverageBorrowWaitMillis(), getMaxBorrowWaitMillis(),
+                borrowTimeoutCount.get(), createdCount.get(),
+                closedCount.get(), leakCount.get(),
+                statementCacheHits.get(), statementCacheMisses.get());
+    }
+
+    /**
+     * Takes the most recently used idle connection, validating it if it has
+     * been idle long enough to have been dropped by the server.
+     *
+     * @return a valid Connection object or null if the pool has none left
+     */
+    private Connection takeIdleConnection() {
+        IdleConnection idleConnection;
+
+        while ((idleConnection = idleConnections.pollFirst()) != null) {
+            long idleTime = System.currentTimeMillis()
+                    - idleConnection.idleSince;
+
+            if (idleTime < VALIDATION_INTERVAL_MILLIS
+                    || isValid(idleConnection.connection)) {
+                return idleConnection.connection;
+            }
+
+            closeQuietly(idleConnection.connection);
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens a new physical connection to the database if the maximum number 
+     * of physical connections is not reached. The slot is taken before the 
+     * connection is opened and given back if opening it fails.
+     *
+     * @return Connection object with auto commit disabled, or null if every 
+     * slot is taken
+     * @throws SQLException if the connection cannot be opened
+     */
+    private Connection createConnection() throws SQLException {
+        int currentCount;
+        do {
+            currentCount = openConnections.get();
+            if (currentCount >= maxConnections) {
+                return null;
+            }
+        } while (!openConnections.compareAndSet(currentCount,
+                currentCount + 1));
+
+        try {
+            Connection connection = DriverManager.getConnection(connectionUri,
+                    userName, password);
+            connection.setAutoCommit(false);
+            createdCount.incrementAndGet();
+
+            return connection;
+        } catch (SQLException | RuntimeException ex) {
+            openConnections.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes idle connections that have not been used within the idle timeout
+     * while keeping the configured minimum number of idle connections open.
+     * The least recently used connections sit at the tail of the deque.
+     */
+    private void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+
+        while (idleConnections.size() > minIdleConnections) {
+            IdleConnection oldest = idleConnections.peekLast();
+
+            if (oldest == null || now - oldest.idleSince < idleTimeoutMillis) {
+                break;
+            }
+
+            if (idleConnections.removeLastOccurrence(oldest)) {
+                closeQuietly(oldest.connection);
+            }
+        }
+    }
+
+    /**
+     * Opens new connections until the configured minimum number of idle 
+     * connections is reached, without exceeding the maximum number of 
+     * physical connections. Gives up quietly if the database is unreachable, 
+     * the next run tries again.
+     */
+    private void fillIdleConnections() {
+        while (!destroyed && idleConnections.size() < minIdleConnections) {
+            try {
+                Connection connection = createConnection();
+                if (connection == null) {
+                    return;
+                }
+
+                idleConnections.offerLast(new IdleConnection(connection));
+            } catch (SQLException ex) {
+                LOGGER.log(Level.FINE,
+                        "Could not open an idle connection.", ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports connections that have been reserved for longer than the leak
+     * threshold. Each lease is only reported once.
+     */
+    private void detectLeaks() {
+        final long now = System.currentTimeMillis();
+
+        for (Iterator<Lease> iterator = leasedConnections.values().iterator();
+                iterator.hasNext();) {
+            Lease lease = iterator.next();
+
+            if (!lease.reported && now - lease.reservedAt > leakThresholdMillis) {
+                lease.reported = true;
+                leakCount.incrementAndGet();
+
+                LOGGER.log(Level.WARNING, "Possible connection leak: "
+                        + "connection reserved by thread " + lease.threadName
+                        + " for " + (now - lease.reservedAt) + " ms.",
+                        lease.origin);
+            }
+        }
+    }
+
+    /**
+     * Pings the database through the given connection.
+     *
+     * @param connection the Connection object to test
+     * @return true if the connection is still usable, otherwise false
+     */
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes a connection together with its cached statements, ignoring any
+     * error.
+     *
+     * @param connection the Connection object to close
+     */
+    private void closeQuietly(Connection connection) {
+        PreparedStatementCache statementCache
+                = statementCaches.remove(connection);
+        if (statementCache != null) {
+            statementCache.closeAll();
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+        } finally {
+            closedCount.incrementAndGet();
+            openConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Records the time a caller spent waiting for a connection.
+     *
+     * @param waitNanos the wait time in nanoseconds
+     */
+    private void recordBorrowWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalBorrowWaitNanos.addAndGet(waitNanos);
+
+        long currentMax = maxBorrowWaitNanos.get();
+        while (waitNanos > currentMax
+                && !maxBorrowWaitNanos.compareAndSet(currentMax, waitNanos)) {
+            currentMax = maxBorrowWaitNanos.get();
+        }
+    }
+
+    /**
+     * Logs the pool statistics with the given level.
+     *
+     * @param level the logging Level
+     */
+    private void logStatistics(Level level) {
+        if (LOGGER.isLoggable(level)) {
+            LOGGER.log(level, "JDBC pool for {0} using {1}: {2}",
+                    new Object[]{connectionUri, driverName, getStatistics()});
+        }
+    }
+
+    /**
+     * An open connection waiting in the pool.
+     */
+    private static final class IdleConnection {
+
+        private final Connection connection;
+        private final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Book keeping for a reserved connection used by the leak detection. The 
+     * stack trace is only captured with leak tracing on, since every query 
+     * reserves a connection.
+     */
+    private static final class Lease {
+
+        private final long reservedAt;
+        private final String threadName;
+        private final Throwable origin;
+        private volatile boolean reported;
+
+        Lease(boolean leakTracing) {
+            this.reservedAt = System.currentTimeMillis();
+            this.threadName = Thread.currentThread().getName();
+            this.origin = leakTracing
+                    ? new Throwable("Connection reserved here") : null;
+            this.reported = false;
+        }
+    }
+
+}
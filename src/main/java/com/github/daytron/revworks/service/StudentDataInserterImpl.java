@@ -23,10 +23,6 @@ import com.github.daytron.revworks.event.AppEvent.StudentSubmitCourseworkEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.view.main.student.StudentSubmitCourseworkSucessView;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.io.Files;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -50,37 +46,44 @@ implements StudentDataInserter {
     @Override
     public void insertNewCoursework(StudentSubmitCourseworkEvent event) {
         
+        // Move the spooled file to the coursework store before taking a 
+        // connection, only the hash and the size are kept in the database
+        final CourseworkStorage courseworkStorage = getCourseworkStorage();
+        if (courseworkStorage == null) {
+            notifyDataSendError();
+            return;
+        }
+
+        final CourseworkStorage.StoredFile storedFile;
+        try {
+            storedFile = courseworkStorage.store(event.getSpooledUpload());
+        } catch (IOException ex) {
+            Logger.getLogger(StudentDataInserterImpl.class.getName())
+                    .log(Level.SEVERE, null, ex);
+            notifyDataSendError();
+            return;
+        }
+        
         if (reserveConnectionPool()) {
             try {
-                PreparedStatement preparedStatement = getConnection()
-                        .prepareStatement(PreparedQueryStatement
-                                .STUDENT_INSERT_NEW_COURSEWORK.getQuery(),
+                PreparedStatement preparedStatement = prepareStatement(
+                        PreparedQueryStatement.STUDENT_INSERT_NEW_COURSEWORK,
                                 Statement.RETURN_GENERATED_KEYS);
                 
                 preparedStatement.setString(1, event.getTitle());
+                preparedStatement.setString(2, storedFile.getFileHash());
+                preparedStatement.setLong(3, storedFile.getFileSize());
                 
-                String fileExtension = Files.getFileExtension(event.getCourseworkFile().getAbsolutePath());
-                fileExtension = fileExtension.toLowerCase();
-                preparedStatement.setString(3, fileExtension);
+                preparedStatement.setString(4, 
+                        event.getSpooledUpload().getFileExtension());
                 
-                preparedStatement.setBoolean(4, false);
                 preparedStatement.setBoolean(5, false);
-                preparedStatement.setInt(6, MainUI.get().getAccessControl().getUserId());
-                preparedStatement.setInt(7, event.getClassTable().getId());
-                
-                // Prepare pdf file to be inserted to the database
-                byte[] pdfByte = new byte[(int)event.getCourseworkFile().length()];
-                DataInputStream dataInputStream = new DataInputStream((
-                        new FileInputStream(event.getCourseworkFile())));
-                // Read data into byte array
-                dataInputStream.read(pdfByte);
-                dataInputStream.close();
-                
-                preparedStatement.setBytes(2, pdfByte);
+                preparedStatement.setBoolean(6, false);
+                preparedStatement.setInt(7, MainUI.get().getAccessControl().getUserId());
+                preparedStatement.setInt(8, event.getClassTable().getId());
                 
                 // Execute query
                 preparedStatement.executeUpdate();
-                getConnection().commit();
                 
                 ResultSet resultSet = preparedStatement.getGeneratedKeys();
                 int generatedCourseworkId;
@@ -98,23 +101,37 @@ implements StudentDataInserter {
                 
                 preparedStatement.close();
                 resultSet.close();
+
+                // Both unread counts exist from the start, so the coursework 
+                // lists read them by primary key even before the first note
+                insertUnreadCounter(MainUI.get().getAccessControl().getUserId(),
+                        generatedCourseworkId);
+                insertUnreadCounter(
+                        event.getClassTable().getLecturerUser().getId(),
+                        generatedCourseworkId);
+                getConnection().commit();
+
+                // Prepare the pages for viewing while nobody is waiting
+                CourseworkIngestionTask.submit(generatedCourseworkId,
+                        storedFile.getFile());
                 
+                // The notification is inserted on a connection of its own, so
+                // this one goes back to the shared pool first
+                releaseConnection();
+
                 // Create new user notification for the corresponding user
                 AppEventBus.post(new AppEvent.InsertNotificationEvent(
                                     " has submitted a coursework",
                                     "", UserNotificationType.COURSEWORK,
                                     event.getClassTable().getLecturerUser().getId(),
-                                    generatedCourseworkId));
+                                    generatedCourseworkId,
+                                    event.getTitle()));
                 
                 
                 // switch view to success page
                 MainUI.get().getNavigator()
                         .navigateTo(StudentSubmitCourseworkSucessView.VIEW_NAME);
-            } catch (SQLException | FileNotFoundException ex) {
-                Logger.getLogger(StudentDataInserterImpl.class.getName())
-                        .log(Level.SEVERE, null, ex);
-                notifyDataSendError();
-            } catch (IOException ex) {
+            } catch (SQLException ex) {
                 Logger.getLogger(StudentDataInserterImpl.class.getName())
                         .log(Level.SEVERE, null, ex);
                 notifyDataSendError();
@@ -126,4 +143,22 @@ implements StudentDataInserter {
         }
     }
 
+    /**
+     * Creates the zeroed unread count of a user for a new coursework within 
+     * the current transaction.
+     * 
+     * @param userId the id of the user
+     * @param courseworkId the id of the new coursework
+     * @throws SQLException if the insert fails
+     */
+    private void insertUnreadCounter(int userId, int courseworkId)
+            throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(
+                PreparedQueryStatement.INSERT_UNREAD_COUNTER)) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.setInt(2, courseworkId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
 }
@@ -18,7 +18,6 @@ package com.github.daytron.revworks.service;
 import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.ErrorMsg;
 import com.github.daytron.revworks.data.ExceptionMsg;
-import com.github.daytron.revworks.data.FilePath;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.event.AppEvent.*;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
@@ -27,25 +26,17 @@ import com.github.daytron.revworks.exception.SQLErrorUpdateException;
 import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.Coursework;
 import com.github.daytron.revworks.model.StudentUser;
-import com.github.daytron.revworks.model.User;
+import com.github.daytron.revworks.service.mapper.CourseworkRowMapper;
 import com.github.daytron.revworks.util.NotificationUtil;
 import com.github.daytron.revworks.view.main.CourseworkView;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.io.Files;
 import com.vaadin.data.util.BeanItemContainer;
-import com.vaadin.server.VaadinService;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,7 +58,7 @@ public class StudentDataProviderImpl extends DataProviderAbstract
     @Override
     public BeanItemContainer<Coursework> extractCourseworkData() throws SQLErrorRetrievingConnectionAndPoolException, SQLErrorQueryException,
             FileNotFoundException, IOException {
-        CopyOnWriteArrayList<ClassTable> listOfClassTables
+        ClassTableIndex listOfClassTables
                 = CurrentUserSession.getCurrentClassTables();
 
         if (listOfClassTables.isEmpty()) {
@@ -78,139 +69,48 @@ public class StudentDataProviderImpl extends DataProviderAbstract
             try {
                 final List<Coursework> listOfCourseworks = new ArrayList<>();
 
-                for (ClassTable classTable : listOfClassTables) {
-                    final PreparedStatement preparedStatement
-                            = getConnection().prepareStatement(
-                                    PreparedQueryStatement.STUDENT_SELECT_COURSEWORK
-                                    .getQuery());
-
-                    preparedStatement.setInt(1, classTable.getId());
-                    preparedStatement.setInt(2,
-                            ((User) CurrentUserSession.getPrincipal()).getId());
-
-                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                        // Skip to the next class if there are no coursework
-                        // submitted for this class
-                        if (!resultSet.next()) {
-                            preparedStatement.close();
-                            resultSet.close();
-
-                            continue;
-                        }
-
-                        resultSet.beforeFirst();
+                final StudentUser studentUser
+                        = (StudentUser) CurrentUserSession.getPrincipal();
 
-                        // Cycle through the SQL query result
-                        while (resultSet.next()) {
-
-                            // Extract the coursework id
-                            int courseworkID = resultSet.getInt(1);
-
-                            // Then before extracting the remaining details
-                            // Check first if the corresponding notes are read 
-                            // or unread then update the coursework is_read field
-                            PreparedStatement preparedStatementNote
-                                    = getConnection().prepareStatement(
-                                            PreparedQueryStatement.SELECT_NOTE.getQuery());
-                            preparedStatementNote.setInt(1, courseworkID);
-
-                            boolean isReadStudentCoursework = resultSet.getBoolean(6);
-                            
-                            // Default true 
-                            // if all notes are true then this should be true
-                            // otherwise this is updated to false further 
-                            // down the code
-                            boolean isReadStudentNote = true;
-                            
-                            ResultSet resultSetNote = preparedStatementNote
-                                    .executeQuery();
-                            if (resultSetNote.next()) {
-                                resultSetNote.beforeFirst();
-
-                                while (resultSetNote.next()) {
-                                    isReadStudentNote
-                                            = resultSetNote.getBoolean(5);
+                for (ClassTable classTable : listOfClassTables) {
+                    final List<Coursework> listOfClassCourseworks;
 
-                                    // If at least one of the note is not
-                                    // read yet, break
-                                    if (isReadStudentNote == false) {
-                                        break;
-                                    }
-                                }
+                    try (PreparedStatement preparedStatement
+                            = prepareStatement(
+                                    PreparedQueryStatement.STUDENT_SELECT_COURSEWORK)) {
+                        preparedStatement.setInt(1, classTable.getId());
+                        preparedStatement.setInt(2, studentUser.getId());
 
-                                // Close first 
-                                preparedStatementNote.close();
-                                resultSetNote.close();
-                                
-                                // Then update coursework student is_read field
-                                // If isReadStudentCoursework is not up to date,
-                                // update it with isReadStudentNote
-                                if (isReadStudentNote != isReadStudentCoursework) {
-                                    // Save it first
-                                    isReadStudentCoursework = isReadStudentNote;
-                                    
-                                    // Then update
-                                    try (PreparedStatement preparedStatementUpdate
-                                            = getConnection().prepareStatement(
-                                                    PreparedQueryStatement.STUDENT_UPDATE_COURSEWORK_IS_READ
-                                                    .getQuery())) {
-                                                preparedStatementUpdate.setBoolean(1,
-                                                        isReadStudentCoursework);
-                                                preparedStatementUpdate.setInt(2, courseworkID);
+                        listOfClassCourseworks = queryForList(preparedStatement,
+                                new CourseworkRowMapper(classTable,
+                                        studentUser, getCourseworkStorage()));
+                    }
 
-                                                preparedStatementUpdate.executeUpdate();
-                                                getConnection().commit();
-                                            }
-                                }
+                    for (Coursework coursework : listOfClassCourseworks) {
+                        // Check if the corresponding notes are read 
+                        // or unread then update the coursework is_read field
+                        // if it is not up to date
+                        Boolean isReadStudentNote = areAllNotesRead(
+                                coursework.getId(), studentUser.getId(), true);
+
+                        if (isReadStudentNote != null
+                                && isReadStudentNote != coursework.isReadStudent()) {
+                            coursework.setReadStudent(isReadStudentNote);
+
+                            try (PreparedStatement preparedStatementUpdate
+                                    = prepareStatement(
+                                            PreparedQueryStatement.STUDENT_UPDATE_COURSEWORK_IS_READ)) {
+                                preparedStatementUpdate.setBoolean(1,
+                                        isReadStudentNote);
+                                preparedStatementUpdate.setInt(2,
+                                        coursework.getId());
+
+                                preparedStatementUpdate.executeUpdate();
+                                getConnection().commit();
                             }
-
-                            // Get the bytes data (pdf) from the resultset
-                            byte[] pdfData = resultSet.getBytes(4);
-                            
-                            // Retrieve file extension
-                            String fileExtension = resultSet.getString(5);
-
-                            // Prepare destination path of the pdf file
-                            String basePath = VaadinService.getCurrent()
-                                    .getBaseDirectory().getAbsolutePath()
-                                    + FilePath.TEMP_FILE_HOLDER.getPath();
-
-                            // Generate random filename
-                            // so it won't overwrite by the next retrieve file
-                            String randomStringForFilename = UUID.randomUUID().toString();
-
-                            String pdfFilename = basePath
-                                    + FilePath.FILE_OUTPUT_NAME.getPath()
-                                    + "/" + randomStringForFilename + "."
-                                    + fileExtension;
-
-                            File pdfFile = new File(pdfFilename);
-                            pdfFile.getParentFile().mkdirs();
-                            pdfFile.createNewFile();
-
-                            // Begin file write from the bytes retrieved to the newly
-                            // created file with random UUID as filename
-                            Files.write(pdfData, pdfFile);
-
-                            // Add to trashbin for later file cleanup
-                            CurrentUserSession.getFileTrashBin().add(pdfFile);
-
-                            // Convert SQL DATETIME datatype to Java 8's LocalDateTime
-                            Timestamp timestamp = resultSet.getTimestamp(3);
-                            LocalDateTime dateSubmitted = timestamp.toLocalDateTime();
-
-                            listOfCourseworks.add(new Coursework(courseworkID,
-                                    resultSet.getString(2),
-                                    dateSubmitted,
-                                    pdfFile,
-                                    fileExtension,
-                                    classTable,
-                                    (StudentUser) CurrentUserSession.getPrincipal(),
-                                    isReadStudentCoursework,
-                                    resultSet.getBoolean(7)));
                         }
 
-                        preparedStatement.close();
+                        listOfCourseworks.add(coursework);
                     }
                 }
 
@@ -271,9 +171,8 @@ public class StudentDataProviderImpl extends DataProviderAbstract
          */
         if (reserveConnectionPool()) {
             try (PreparedStatement preparedStatementUpdate
-                    = getConnection().prepareStatement(
-                            PreparedQueryStatement.STUDENT_UPDATE_COURSEWORK_IS_READ
-                            .getQuery())) {
+                    = prepareStatement(
+                            PreparedQueryStatement.STUDENT_UPDATE_COURSEWORK_IS_READ)) {
                         preparedStatementUpdate.setBoolean(1, true);
                         preparedStatementUpdate.setInt(2,
                                 event.getCoursework().getId());
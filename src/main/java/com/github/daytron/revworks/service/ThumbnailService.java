@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.util.PdfRenderer;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Produces the small page images used to navigate a coursework. Thumbnails 
+ * are rendered at {@link PdfRenderer#THUMBNAIL_DPI} and kept in the 
+ * server-wide {@link PageImageCache} next to the full pages, under their own 
+ * resolution. Missing thumbnails are rendered in batches, so a range of 
+ * pages costs a single document load on the background thread of the 
+ * {@link PdfRenderingEngine}. Most thumbnails are already cached by the 
+ * {@link CourseworkIngestionTask} when the coursework is submitted. The 
+ * first page previews of the coursework lists are asked for again each 
+ * time a table regenerates its cells, so a first page being rendered is 
+ * shared by every caller instead of being rendered once per request.
+ *
+ * @author Ryan Gilera
+ */
+public final class ThumbnailService {
+
+    /**
+     * Number of thumbnails requested together by the viewer.
+     */
+    public static final int BATCH_SIZE = 20;
+
+    private final PageImageCache pageImageCache;
+    private final PdfRenderingEngine renderingEngine;
+    private final ConcurrentMap<Integer, ListenableFuture<byte[]>> 
+            pendingFirstPages = new ConcurrentHashMap<>();
+
+    /**
+     * A class constructor that takes the page cache and the rendering 
+     * engine.
+     *
+     * @param pageImageCache the cache the thumbnails are kept in
+     * @param renderingEngine the engine the thumbnails are rendered by
+     */
+    public ThumbnailService(PageImageCache pageImageCache,
+            PdfRenderingEngine renderingEngine) {
+        this.pageImageCache = pageImageCache;
+        this.renderingEngine = renderingEngine;
+    }
+
+    /**
+     * Requests the thumbnail of a single page.
+     *
+     * @param coursework the coursework of the page
+     * @param pageNumber the one-based page number
+     * @return the future encoded image bytes of the thumbnail, null if the 
+     * coursework has no such page
+     */
+    public ListenableFuture<byte[]> requestThumbnail(Coursework coursework,
+            final int pageNumber) {
+        return Futures.transform(requestThumbnails(coursework, pageNumber,
+                pageNumber), new Function<Map<Integer, byte[]>, byte[]>() {
+
+                    @Override
+                    public byte[] apply(Map<Integer, byte[]> thumbnails) {
+                        return thumbnails.get(pageNumber);
+                    }
+                });
+    }
+
+    /**
+     * Requests the thumbnail of the first page of a coursework. While it is 
+     * being rendered, every caller gets the same future.
+     *
+     * @param coursework the coursework of the page
+     * @return the future encoded image bytes of the thumbnail, null if the 
+     * coursework has no page
+     */
+    public ListenableFuture<byte[]> requestFirstPageThumbnail(
+            Coursework coursework) {
+        final int courseworkId = coursework.getId();
+
+        final ListenableFuture<byte[]> pendingFuture
+                = pendingFirstPages.get(courseworkId);
+        if (pendingFuture != null) {
+            return pendingFuture;
+        }
+
+        final SettableFuture<byte[]> newFuture = SettableFuture.create();
+        final ListenableFuture<byte[]> otherFuture
+                = pendingFirstPages.putIfAbsent(courseworkId, newFuture);
+        if (otherFuture != null) {
+            return otherFuture;
+        }
+
+        Futures.addCallback(requestThumbnail(coursework, 1),
+                new FutureCallback<byte[]>() {
+
+                    @Override
+                    public void onSuccess(byte[] thumbnail) {
+                        pendingFirstPages.remove(courseworkId, newFuture);
+                        newFuture.set(thumbnail);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        pendingFirstPages.remove(courseworkId, newFuture);
+                        newFuture.setException(t);
+                    }
+                });
+
+        return newFuture;
+    }
+
+    /**
+     * Requests the thumbnails of a range of pages. Cached thumbnails are 
+     * returned at once. Otherwise the document is loaded once on the 
+     * background thread and the missing thumbnails are rendered one after 
+     * another.
+     *
+     * @param coursework the coursework of the pages
+     * @param firstPage the first one-based page number
+     * @param lastPage the last one-based page number, clamped to the page 
+     * count of the document
+     * @return the future thumbnails keyed by page number
+     */
+    public ListenableFuture<Map<Integer, byte[]>> requestThumbnails(
+            Coursework coursework, final int firstPage, final int lastPage) {
+        final int courseworkId = coursework.getId();
+        final File courseworkFile = coursework.getCourseworkFile();
+        final int knownPageCount = coursework.getPageCount();
+
+        final Map<Integer, byte[]> cachedThumbnails = new TreeMap<>();
+        final int cachedLastPage = (knownPageCount > 0)
+                ? Math.min(lastPage, knownPageCount) : lastPage;
+        for (int page = Math.max(1, firstPage); page <= cachedLastPage;
+                page++) {
+            byte[] thumbnail = pageImageCache.get(toPageKey(courseworkId,
+                    page));
+            if (thumbnail == null) {
+                break;
+            }
+            cachedThumbnails.put(page, thumbnail);
+        }
+
+        if (knownPageCount > 0 && cachedThumbnails.size()
+                == cachedLastPage - Math.max(1, firstPage) + 1) {
+            return Futures.immediateFuture(
+                    Collections.unmodifiableMap(cachedThumbnails));
+        }
+
+        if (courseworkFile == null) {
+            return Futures.immediateFailedFuture(new IOException(
+                    "Coursework file is not available."));
+        }
+
+        return renderingEngine.submitBackground(
+                new Callable<Map<Integer, byte[]>>() {
+
+            @Override
+            public Map<Integer, byte[]> call() throws Exception {
+                final Map<Integer, byte[]> thumbnails
+                        = new TreeMap<>(cachedThumbnails);
+
+                try (PDDocument document
+                        = renderingEngine.loadDocument(courseworkFile)) {
+                    final int last = Math.min(lastPage,
+                            document.getNumberOfPages());
+
+                    for (int page = Math.max(1, firstPage); page <= last;
+                            page++) {
+                        if (!thumbnails.containsKey(page)) {
+                            thumbnails.put(page, renderThumbnail(document,
+                                    courseworkId, page));
+                        }
+                    }
+                }
+
+                return Collections.unmodifiableMap(thumbnails);
+            }
+        });
+    }
+
+    /**
+     * Returns the thumbnail of a page from the cache or renders it.
+     *
+     * @param document the loaded PDDocument object
+     * @param courseworkId the id of the coursework
+     * @param pageNumber the one-based page number
+     * @return the encoded image bytes of the thumbnail
+     * @throws IOException occurs when rendering the page fails
+     */
+    private byte[] renderThumbnail(final PDDocument document,
+            int courseworkId, final int pageNumber) throws IOException {
+        return pageImageCache.get(toPageKey(courseworkId, pageNumber),
+                new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws IOException {
+                        return renderingEngine.renderDocumentPage(document,
+                                pageNumber - 1, PdfRenderer.THUMBNAIL_DPI,
+                                null);
+                    }
+                });
+    }
+
+    /**
+     * Returns the cache key of the thumbnail of a page.
+     *
+     * @param courseworkId the id of the coursework
+     * @param pageNumber the one-based page number
+     * @return PageKey object
+     */
+    private PageImageCache.PageKey toPageKey(int courseworkId,
+            int pageNumber) {
+        return new PageImageCache.PageKey(courseworkId, pageNumber,
+                PdfRenderer.THUMBNAIL_DPI,
+                renderingEngine.getPageImageEncoder().getProfileName());
+    }
+
+}
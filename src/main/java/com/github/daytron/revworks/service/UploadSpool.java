@@ -0,0 +1,372 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service;
+
+import com.github.daytron.revworks.exception.UploadSizeLimitExceededException;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A spool directory for files being uploaded. Every upload is streamed to its
+ * own uniquely named file through a {@link FileChannel}, whatever name the
+ * client sent. While the bytes arrive, the SHA-256 digest is computed and 
+ * the allowed file size is enforced, so a finished upload never has to be 
+ * read again before it is stored.
+ *
+ * @author Ryan Gilera
+ */
+public final class UploadSpool {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(UploadSpool.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_EXTENSION_LENGTH = 10;
+
+    private final File spoolDirectory;
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger peakActiveUploads = new AtomicInteger();
+    private final AtomicLong completedUploads = new AtomicLong();
+    private final AtomicLong rejectedUploads = new AtomicLong();
+    private final AtomicLong discardedUploads = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * A class constructor that takes the spool directory. The directory is
+     * created if it does not exist yet, and files left over by a previous run
+     * are removed, so the directory must not be shared with another server.
+     *
+     * @param spoolDirectory the spool directory
+     * @throws IOException if the directory cannot be created or written to
+     */
+    public UploadSpool(File spoolDirectory) throws IOException {
+        this.spoolDirectory = spoolDirectory;
+        this.spoolDirectory.mkdirs();
+
+        if (!spoolDirectory.isDirectory() || !spoolDirectory.canWrite()) {
+            throw new IOException("Upload spool is not a writable directory: "
+                    + spoolDirectory.getAbsolutePath());
+        }
+
+        File[] leftOverFiles = spoolDirectory.listFiles();
+        if (leftOverFiles != null) {
+            for (File leftOverFile : leftOverFiles) {
+                leftOverFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Opens a new spool file for an upload.
+     *
+     * @param filename the file name sent by the client, only its extension
+     * is kept
+     * @param maxFileSize the allowed file size in bytes
+     * @return the {@link SpoolOutputStream} to write the upload to
+     * @throws IOException if the spool file cannot be created
+     */
+    public SpoolOutputStream open(String filename, long maxFileSize)
+            throws IOException {
+        String fileExtension = Files.getFileExtension(filename == null
+                ? "" : filename).toLowerCase().replaceAll("[^a-z0-9]", "");
+        if (fileExtension.length() > MAX_EXTENSION_LENGTH) {
+            fileExtension = fileExtension.substring(0, MAX_EXTENSION_LENGTH);
+        }
+
+        File spoolFile = new File(spoolDirectory, UUID.randomUUID().toString()
+                + (fileExtension.isEmpty() ? "" : "." + fileExtension));
+
+        return new SpoolOutputStream(spoolFile, fileExtension, maxFileSize);
+    }
+
+    /**
+     * Access the spool directory.
+     *
+     * @return the File object of the directory
+     */
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Summarises the spool usage for logging purposes.
+     *
+     * @return the spool statistics as a String
+     */
+    public String getStatistics() {
+        final long nanos = totalNanos.get();
+        final double megabytesPerSecond = (nanos == 0) ? 0.0
+                : (totalBytes.get() / (1024.0 * 1024.0)) / (nanos / 1e9);
+
+        return String.format("[uploads active=%d peak=%d completed=%d "
+                + "rejected=%d discarded=%d bytes=%d throughput=%.2fMB/s]",
+                activeUploads.get(), peakActiveUploads.get(),
+                completedUploads.get(), rejectedUploads.get(),
+                discardedUploads.get(), totalBytes.get(), megabytesPerSecond);
+    }
+
+    /**
+     * Records the start of an upload and updates the peak concurrency.
+     */
+    private void uploadStarted() {
+        final int active = activeUploads.incrementAndGet();
+
+        int peak = peakActiveUploads.get();
+        while (active > peak
+                && !peakActiveUploads.compareAndSet(peak, active)) {
+            peak = peakActiveUploads.get();
+        }
+    }
+
+    /**
+     * The output stream of a single upload. Bytes are collected in a fixed
+     * size buffer and written to the spool file through its channel.
+     */
+    public final class SpoolOutputStream extends OutputStream {
+
+        private final File spoolFile;
+        private final String fileExtension;
+        private final long maxFileSize;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Hasher hasher = Hashing.sha256().newHasher();
+        private final long startTime;
+        private long fileSize;
+        private boolean closed;
+        private SpooledUpload spooledUpload;
+
+        private SpoolOutputStream(File spoolFile, String fileExtension,
+                long maxFileSize) throws IOException {
+            this.spoolFile = spoolFile;
+            this.fileExtension = fileExtension;
+            this.maxFileSize = maxFileSize;
+            this.channel = FileChannel.open(spoolFile.toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.startTime = System.nanoTime();
+            this.fileSize = 0;
+            this.closed = false;
+            this.spooledUpload = null;
+
+            uploadStarted();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+                throws IOException {
+            if (closed) {
+                throw new IOException("Spool file is already closed.");
+            }
+
+            if (fileSize + length > maxFileSize) {
+                rejectedUploads.incrementAndGet();
+                abort();
+                throw new UploadSizeLimitExceededException(maxFileSize);
+            }
+
+            hasher.putBytes(bytes, offset, length);
+            fileSize += length;
+
+            int position = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                if (!buffer.hasRemaining()) {
+                    drainBuffer();
+                }
+
+                final int chunk = Math.min(remaining, buffer.remaining());
+                buffer.put(bytes, position, chunk);
+                position += chunk;
+                remaining -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                drainBuffer();
+            }
+        }
+
+        /**
+         * Writes the remaining bytes and closes the spool file. The
+         * {@link SpooledUpload} becomes available afterwards.
+         *
+         * @throws IOException if the remaining bytes cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            try {
+                drainBuffer();
+            } catch (IOException ex) {
+                abort();
+                throw ex;
+            }
+
+            closed = true;
+            channel.close();
+            activeUploads.decrementAndGet();
+
+            spooledUpload = new SpooledUpload(spoolFile, fileExtension,
+                    hasher.hash().toString(), fileSize);
+
+            completedUploads.incrementAndGet();
+            totalBytes.addAndGet(fileSize);
+            totalNanos.addAndGet(System.nanoTime() - startTime);
+
+            LOGGER.log(Level.FINE, "Spooled upload of {0} bytes. {1}",
+                    new Object[]{fileSize, getStatistics()});
+        }
+
+        /**
+         * Throws the upload away and deletes its spool file. Used when the
+         * upload failed or was interrupted. Calling it more than once is
+         * harmless.
+         */
+        public void discard() {
+            if (!closed) {
+                abort();
+            } else if (spooledUpload != null && spoolFile.exists()) {
+                spoolFile.delete();
+                discardedUploads.incrementAndGet();
+            }
+
+            spooledUpload = null;
+        }
+
+        /**
+         * Access the finished upload.
+         *
+         * @return the {@link SpooledUpload} object or null if the upload has
+         * not finished successfully
+         */
+        public SpooledUpload getSpooledUpload() {
+            return spooledUpload;
+        }
+
+        /**
+         * Writes the buffered bytes to the channel.
+         *
+         * @throws IOException if writing fails
+         */
+        private void drainBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Closes the channel and deletes the spool file of an unfinished
+         * upload.
+         */
+        private void abort() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, null, ex);
+            }
+            spoolFile.delete();
+            activeUploads.decrementAndGet();
+            discardedUploads.incrementAndGet();
+        }
+    }
+
+    /**
+     * A finished upload kept in the spool directory.
+     */
+    public static final class SpooledUpload {
+
+        private final File file;
+        private final String fileExtension;
+        private final String fileHash;
+        private final long fileSize;
+
+        private SpooledUpload(File file, String fileExtension, String fileHash,
+                long fileSize) {
+            this.file = file;
+            this.fileExtension = fileExtension;
+            this.fileHash = fileHash;
+            this.fileSize = fileSize;
+        }
+
+        /**
+         * Access the spool file.
+         *
+         * @return File object
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Access the file extension taken from the file name sent by the
+         * client.
+         *
+         * @return the lower case file extension or an empty String
+         */
+        public String getFileExtension() {
+            return fileExtension;
+        }
+
+        /**
+         * Access the SHA-256 digest computed while the upload was received.
+         *
+         * @return the digest as a hexadecimal String
+         */
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        /**
+         * Access the size of the upload.
+         *
+         * @return file size in bytes
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+    }
+
+}
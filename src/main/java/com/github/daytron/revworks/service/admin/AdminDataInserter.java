@@ -49,9 +49,8 @@ public final class AdminDataInserter extends QueryManagerAbstract {
     @Subscribe
     public void insertNewAnnouncement(final AppEvent.AdminSubmitNewAnnouncementEvent event) {
         if (reserveConnectionPool()) {
-            try (PreparedStatement preparedStatement = getConnection()
-                    .prepareStatement(PreparedQueryStatement
-                            .ADMIN_INSERT_ANNOUNCEMENT.getQuery());) {
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.ADMIN_INSERT_ANNOUNCEMENT);) {
                 preparedStatement.setString(1, event.getTitle().getValue());
                 preparedStatement.setString(2, event.getRichTextArea().getValue());
                 
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.data.AnnouncementType;
+import com.github.daytron.revworks.model.Announcement;
+import com.github.daytron.revworks.model.ClassTable;
+import com.github.daytron.revworks.service.ClassTableIndex;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Maps a row of <code>STUDENT_SELECT_ANNOUNCEMENTS</code> or
+ * <code>LECTURER_SELECT_ANNOUNCEMENTS</code> into an {@link Announcement}
+ * object. Class-wide announcements are resolved against the classes of the
+ * current user.
+ *
+ * @author Ryan Gilera
+ */
+public class AnnouncementRowMapper implements RowMapper<Announcement> {
+
+    private static final String GSM_LONDON = "GSM London";
+    private static final int CLASS_WIDE_TYPE_ID = 2;
+
+    private final ClassTableIndex classTables;
+    private final boolean studentUser;
+    private final String userFullName;
+
+    /**
+     * A class constructor that takes the classes of the current user, its
+     * role and its full name.
+     *
+     * @param classTables the classes of the current user
+     * @param studentUser true if the current user is a student
+     * @param userFullName the full name of the current user, used as the
+     * source of class-wide announcements made by a lecturer
+     */
+    public AnnouncementRowMapper(ClassTableIndex classTables,
+            boolean studentUser, String userFullName) {
+        this.classTables = classTables;
+        this.studentUser = studentUser;
+        this.userFullName = userFullName;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return the Announcement object or null if it belongs to a class the 
+     * user is no longer part of
+     */
+    @Override
+    public Announcement mapRow(ResultSet resultSet) throws SQLException {
+        LocalDateTime dateSubmitted = resultSet.getTimestamp(4)
+                .toLocalDateTime();
+
+        if (resultSet.getInt(5) != CLASS_WIDE_TYPE_ID) {
+            return new Announcement(
+                    resultSet.getInt(1),
+                    resultSet.getString(2),
+                    resultSet.getString(3),
+                    dateSubmitted,
+                    AnnouncementType.SYSTEM_WIDE,
+                    GSM_LONDON);
+        }
+
+        ClassTable selectedClassTable = classTables.get(resultSet.getInt(6));
+
+        if (selectedClassTable == null) {
+            return null;
+        }
+
+        String announcementSource;
+        if (studentUser) {
+            announcementSource = selectedClassTable.getLecturerUser()
+                    .getFirstName()
+                    + " " + selectedClassTable.getLecturerUser()
+                    .getLastName();
+        } else {
+            announcementSource = userFullName;
+        }
+
+        return new Announcement(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getString(3),
+                dateSubmitted,
+                AnnouncementType.CLASS_WIDE,
+                announcementSource,
+                selectedClassTable.getModuleId(),
+                selectedClassTable.getModuleName());
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.model.ClassTable;
+import com.github.daytron.revworks.model.LecturerUser;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Maps a row of <code>SELECT_SEMESTER_CLASSES</code> into a 
+ * {@link ClassTable} object. Lecturers teaching several classes are mapped 
+ * once and shared by their classes.
+ *
+ * @author Ryan Gilera
+ */
+public class ClassTableRowMapper implements RowMapper<ClassTable> {
+
+    private final Map<Integer, LecturerUser> lecturers;
+
+    /**
+     * A class constructor that takes the map the lecturers are kept in.
+     *
+     * @param lecturers the lecturers mapped so far keyed by user id, filled 
+     * in while mapping
+     */
+    public ClassTableRowMapper(Map<Integer, LecturerUser> lecturers) {
+        this.lecturers = lecturers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ClassTable mapRow(ResultSet resultSet) throws SQLException {
+        final int lecturerUserId = resultSet.getInt(4);
+        LecturerUser classLecturer = lecturers.get(lecturerUserId);
+
+        if (classLecturer == null) {
+            classLecturer = new LecturerUser(
+                    lecturerUserId,
+                    resultSet.getString(5),
+                    resultSet.getString(6),
+                    resultSet.getString(7));
+            lecturers.put(lecturerUserId, classLecturer);
+        }
+
+        return new ClassTable(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getString(3),
+                classLecturer);
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.model.Comment;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a row of <code>SELECT_COMMENT</code> into a {@link Comment} object.
+ *
+ * @author Ryan Gilera
+ */
+public class CommentRowMapper implements RowMapper<Comment> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comment mapRow(ResultSet resultSet) throws SQLException {
+        return new Comment(
+                resultSet.getInt(4),
+                resultSet.getString(1),
+                resultSet.getTimestamp(2).toLocalDateTime(),
+                resultSet.getBoolean(3));
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.model.ClassTable;
+import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.model.StudentUser;
+import com.github.daytron.revworks.service.CourseworkStorage;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a row of <code>STUDENT_SELECT_COURSEWORK</code> or
+ * <code>LECTURER_SELECT_COURSEWORK</code> into a {@link Coursework} object.
+ * Only the metadata and the file size are mapped. A coursework kept in the
+ * coursework store is resolved straight to its stored file, while a legacy
+ * coursework still kept in the database is fetched when it is opened.
+ *
+ * @author Ryan Gilera
+ */
+public class CourseworkRowMapper implements RowMapper<Coursework> {
+
+    private final ClassTable classTable;
+    private final StudentUser studentUser;
+    private final CourseworkStorage courseworkStorage;
+
+    /**
+     * A class constructor that takes the class of the courseworks, the
+     * owner of the courseworks and the store holding the coursework files.
+     *
+     * @param classTable the class the courseworks are submitted to
+     * @param studentUser the owner of every coursework or null to read the
+     * owner from the row
+     * @param courseworkStorage the coursework store
+     */
+    public CourseworkRowMapper(ClassTable classTable, StudentUser studentUser,
+            CourseworkStorage courseworkStorage) {
+        this.classTable = classTable;
+        this.studentUser = studentUser;
+        this.courseworkStorage = courseworkStorage;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Coursework mapRow(ResultSet resultSet) throws SQLException {
+        StudentUser owner = studentUser;
+        if (owner == null) {
+            owner = new StudentUser(
+                    resultSet.getInt(6),
+                    Integer.toString(resultSet.getInt(9)),
+                    resultSet.getString(10),
+                    resultSet.getString(11));
+        }
+
+        Coursework coursework = new Coursework(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getTimestamp(3).toLocalDateTime(),
+                resultSet.getLong(4),
+                resultSet.getString(5),
+                classTable,
+                owner,
+                resultSet.getBoolean("is_read_s"),
+                resultSet.getBoolean("is_read_l"));
+
+        // Zero for courseworks submitted before the page info was recorded
+        coursework.setPageInfo(resultSet.getInt("page_count"),
+                resultSet.getFloat("page_width"),
+                resultSet.getFloat("page_height"));
+
+        String fileHash = resultSet.getString("file_hash");
+        if (fileHash != null && courseworkStorage != null) {
+            coursework.setStoredFile(fileHash,
+                    courseworkStorage.resolve(fileHash));
+        }
+
+        return coursework;
+    }
+
+}
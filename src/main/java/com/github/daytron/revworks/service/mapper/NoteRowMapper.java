@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.model.Note;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a row of <code>SELECT_NOTE</code> into a {@link Note} object.
+ *
+ * @author Ryan Gilera
+ */
+public class NoteRowMapper implements RowMapper<Note> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Note mapRow(ResultSet resultSet) throws SQLException {
+        return new Note(
+                resultSet.getInt(1),
+                resultSet.getInt(2),
+                resultSet.getTimestamp(3).toLocalDateTime(),
+                resultSet.getBoolean(4),
+                resultSet.getBoolean(5),
+                resultSet.getBoolean(6));
+    }
+
+}
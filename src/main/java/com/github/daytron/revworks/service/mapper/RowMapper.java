@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a {@link ResultSet} into an object. Implementations
+ * only read the current row and never move the cursor, so a result can be
+ * consumed in a single forward-only pass.
+ *
+ * @author Ryan Gilera
+ * @param <T> the type of object produced for each row
+ */
+public interface RowMapper<T> {
+
+    /**
+     * Maps the current row into an object.
+     *
+     * @param resultSet the ResultSet object positioned on the row to map
+     * @return the mapped object or null to skip the row
+     * @throws SQLException if a column cannot be read
+     */
+    T mapRow(ResultSet resultSet) throws SQLException;
+
+}
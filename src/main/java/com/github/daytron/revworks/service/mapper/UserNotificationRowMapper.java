@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.service.mapper;
+
+import com.github.daytron.revworks.data.UserNotificationType;
+import com.github.daytron.revworks.model.UserNotification;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a row of <code>SELECT_USER_NOTIFICATION_CHANGED</code> or
+ * <code>SELECT_USER_NOTIFICATION_READ</code> into a {@link UserNotification}
+ * object.
+ *
+ * @author Ryan Gilera
+ */
+public class UserNotificationRowMapper implements RowMapper<UserNotification> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UserNotification mapRow(ResultSet resultSet) throws SQLException {
+        UserNotificationType userNotificationType;
+
+        switch (resultSet.getInt(6)) {
+            case 1:
+                userNotificationType = UserNotificationType.COURSEWORK;
+                break;
+            case 2:
+                userNotificationType = UserNotificationType.NOTE;
+                break;
+            default:
+                userNotificationType = UserNotificationType.COMMENT;
+                break;
+        }
+
+        return new UserNotification(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getString(3),
+                resultSet.getTimestamp(4).toLocalDateTime(),
+                resultSet.getBoolean(5),
+                userNotificationType,
+                resultSet.getInt(7),
+                resultSet.getString(8),
+                resultSet.getInt(9),
+                resultSet.getString(10));
+    }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Provides row mappers that convert a single row of a query result into a 
+ * model object in one forward-only pass.
+ *
+ * @since 1.0.0
+ * @author Ryan Gilera ryangilera@gmail.com
+ * @version 1.0
+ */
+package com.github.daytron.revworks.service.mapper;
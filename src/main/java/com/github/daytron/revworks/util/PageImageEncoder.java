@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes rendered pages into image bytes. The format is either fixed or, in
+ * the automatic mode, chosen per page: pages that look like text and line
+ * art are kept lossless as PNG, while scanned or photo-heavy pages, which
+ * PNG compresses badly, are written as JPEG. Every worker thread keeps its
+ * own image writers and output buffer, so they are reused from page to
+ * page. The size and encode time of every page is recorded per format.
+ *
+ * @author Ryan Gilera
+ */
+public final class PageImageEncoder {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PageImageEncoder.class.getName());
+
+    /**
+     * The PNG format name.
+     */
+    public static final String PNG = "png";
+
+    /**
+     * The JPEG format name.
+     */
+    public static final String JPEG = "jpg";
+
+    // Number of pixels sampled when classifying a page
+    private static final int CLASSIFY_SAMPLES = 4096;
+    // Distinct sampled colours, at 4 bits per channel, above which a page 
+    // is treated as scanned or photographic
+    private static final int PHOTOGRAPHIC_COLOURS = 200;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * How the format of a page is chosen.
+     */
+    public enum Mode {
+        /**
+         * Every page is written as PNG.
+         */
+        PNG,
+        /**
+         * Every page is written as JPEG.
+         */
+        JPEG,
+        /**
+         * Text pages are written as PNG and scanned pages as JPEG.
+         */
+        AUTO
+    }
+
+    private final Mode mode;
+    private final float jpegQuality;
+    private final ThreadLocal<EncoderResources> encoderResources
+            = new ThreadLocal<EncoderResources>() {
+
+                @Override
+                protected EncoderResources initialValue() {
+                    return new EncoderResources();
+                }
+            };
+
+    private final FormatStatistics pngStatistics = new FormatStatistics();
+    private final FormatStatistics jpegStatistics = new FormatStatistics();
+
+    /**
+     * A class constructor that takes the encoding mode and the JPEG quality.
+     *
+     * @param mode how the format of a page is chosen
+     * @param jpegQuality the JPEG compression quality between 0 and 1
+     */
+    public PageImageEncoder(Mode mode, float jpegQuality) {
+        this.mode = mode;
+        this.jpegQuality = Math.max(0f, Math.min(1f, jpegQuality));
+    }
+
+    /**
+     * Returns a name that identifies the encoder settings. Pages encoded with
+     * different settings are cached separately.
+     *
+     * @return the profile name as a String
+     */
+    public String getProfileName() {
+        if (mode == Mode.PNG) {
+            return PNG;
+        }
+
+        return mode.name().toLowerCase() + Math.round(jpegQuality * 100);
+    }
+
+    /**
+     * Encodes a rendered page.
+     *
+     * @param image the rendered page
+     * @param pageDescription describes the page for logging purposes
+     * @return the encoded image bytes
+     * @throws IOException if encoding fails
+     */
+    public byte[] encode(BufferedImage image, String pageDescription)
+            throws IOException {
+        final long startTime = System.nanoTime();
+
+        final boolean isJpeg = (mode == Mode.JPEG)
+                || (mode == Mode.AUTO && isPhotographic(image));
+        final EncoderResources resources = encoderResources.get();
+        final ImageWriter writer = isJpeg
+                ? resources.getJpegWriter() : resources.getPngWriter();
+        final ImageWriteParam writeParam = isJpeg
+                ? resources.getJpegWriteParam(jpegQuality) : null;
+
+        final byte[] bytes;
+        resources.buffer.reset();
+        try (ImageOutputStream outputStream
+                = new MemoryCacheImageOutputStream(resources.buffer)) {
+            writer.setOutput(outputStream);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+            outputStream.flush();
+        } finally {
+            writer.reset();
+        }
+        bytes = resources.buffer.toByteArray();
+
+        final long encodeNanos = System.nanoTime() - startTime;
+        (isJpeg ? jpegStatistics : pngStatistics).record(bytes.length,
+                encodeNanos);
+
+        LOGGER.log(Level.FINE, "Encoded {0} as {1}: {2} bytes in {3} ms",
+                new Object[]{pageDescription, isJpeg ? JPEG : PNG,
+                    bytes.length, encodeNanos / 1000000});
+
+        return bytes;
+    }
+
+    /**
+     * Detects the format of encoded image bytes.
+     *
+     * @param bytes the encoded image bytes
+     * @return {@link #JPEG} for JPEG bytes, otherwise {@link #PNG}
+     */
+    public static String detectFormat(byte[] bytes) {
+        if (bytes.length > 1 && (bytes[0] & 0xFF) == 0xFF
+                && (bytes[1] & 0xFF) == 0xD8) {
+            return JPEG;
+        }
+        return PNG;
+    }
+
+    /**
+     * Summarises the encoded pages per format for logging purposes.
+     *
+     * @return the encoder statistics as a String
+     */
+    public String getStatistics() {
+        return String.format("[encoder profile=%s png=%s jpeg=%s]",
+                getProfileName(), pngStatistics, jpegStatistics);
+    }
+
+    /**
+     * Guesses whether a page is a scan or a photo by counting the distinct
+     * colours of a sample of its pixels. Text and line art only use a few
+     * colours plus their anti-aliasing shades.
+     *
+     * @param image the rendered page
+     * @return true if the page looks scanned or photographic
+     */
+    private static boolean isPhotographic(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int step = Math.max(1, (int) Math.sqrt(
+                (double) width * height / CLASSIFY_SAMPLES));
+
+        final boolean[] seenColours = new boolean[4096];
+        int distinctColours = 0;
+
+        for (int y = step / 2; y < height; y += step) {
+            for (int x = step / 2; x < width; x += step) {
+                int rgb = image.getRGB(x, y);
+                int colour = ((rgb >> 12) & 0xF00) | ((rgb >> 8) & 0xF0)
+                        | ((rgb >> 4) & 0xF);
+
+                if (!seenColours[colour]) {
+                    seenColours[colour] = true;
+                    distinctColours++;
+                    if (distinctColours > PHOTOGRAPHIC_COLOURS) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The image writers and buffer reused by one thread.
+     */
+    private static final class EncoderResources {
+
+        private final ByteArrayOutputStream buffer
+                = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        private ImageWriter pngWriter;
+        private ImageWriter jpegWriter;
+        private ImageWriteParam jpegWriteParam;
+
+        ImageWriter getPngWriter() {
+            if (pngWriter == null) {
+                pngWriter = ImageIO.getImageWritersByFormatName("png").next();
+            }
+            return pngWriter;
+        }
+
+        ImageWriter getJpegWriter() {
+            if (jpegWriter == null) {
+                jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+            }
+            return jpegWriter;
+        }
+
+        ImageWriteParam getJpegWriteParam(float quality) {
+            if (jpegWriteParam == null) {
+                jpegWriteParam = getJpegWriter().getDefaultWriteParam();
+                jpegWriteParam.setCompressionMode(
+                        ImageWriteParam.MODE_EXPLICIT);
+                jpegWriteParam.setCompressionQuality(quality);
+            }
+            return jpegWriteParam;
+        }
+    }
+
+    /**
+     * Counters of the pages encoded in one format.
+     */
+    private static final class FormatStatistics {
+
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        void record(long pageBytes, long encodeNanos) {
+            pages.incrementAndGet();
+            bytes.addAndGet(pageBytes);
+            nanos.addAndGet(encodeNanos);
+        }
+
+        @Override
+        public String toString() {
+            final long count = pages.get();
+            return String.format("%d pages/%dB avg=%dB/%.1fms", count,
+                    bytes.get(), (count == 0) ? 0 : bytes.get() / count,
+                    (count == 0) ? 0.0 : nanos.get() / 1e6 / count);
+        }
+    }
+
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.util;
+
+import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.service.PageImageCache;
+import com.github.daytron.revworks.service.PdfRenderingEngine;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Provides the pages of a coursework as images on demand. Only the page 
+ * count is read up front. A page is rendered by the 
+ * {@link PdfRenderingEngine} the first time it is requested, and its 
+ * neighbours are rendered alongside it so flipping through the coursework 
+ * does not wait for the renderer. PDFBox documents are not thread safe, so 
+ * every page being rendered at the same time gets its own copy of the 
+ * document, up to the parallelism of the engine. Rendered pages are kept in 
+ * the server-wide {@link PageImageCache}, so a page already seen by anyone 
+ * is not rendered again. When the server is short of render memory, pages 
+ * wait in the engine's queue and a {@link RenderQueueListener} is told so.
+ *
+ * @author Ryan Gilera
+ */
+public final class PdfPageProvider {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PdfPageProvider.class.getName());
+
+    // Number of pages rendered ahead on each side of the shown page
+    private static final int PREFETCH_DISTANCE = 2;
+
+    private final int courseworkId;
+    private final File courseworkFile;
+    private final PdfRenderingEngine renderingEngine;
+    private final int maxDocuments;
+    private final int pageCount;
+
+    private final BlockingQueue<PDDocument> idleDocuments
+            = new LinkedBlockingQueue<>();
+    private final List<PDDocument> loadedDocuments = new ArrayList<>();
+    private final Map<Integer, Future<?>> pendingPrefetches
+            = new ConcurrentHashMap<>();
+    private volatile int prefetchDpi = PdfRenderer.PAGE_DPI;
+    private volatile boolean closed;
+    private volatile RenderQueueListener renderQueueListener;
+
+    /**
+     * Listens for pages that have to wait for render memory.
+     */
+    public interface RenderQueueListener {
+
+        /**
+         * Called from a rendering thread when a page is queued because the 
+         * pages being rendered already use up the memory budget.
+         *
+         * @param pageNumber the one-based page number
+         * @param dpi the resolution in dots per inch
+         * @param waitingRenders the number of renders waiting on the server
+         */
+        void renderQueued(int pageNumber, int dpi, int waitingRenders);
+    }
+
+    /**
+     * A class constructor that loads the coursework file and reads its page 
+     * count. No page is rendered yet. Use {@link #open(Coursework, 
+     * PdfRenderingEngine)} to load it off the calling thread.
+     * 
+     * @param coursework the coursework to provide the pages of
+     * @param renderingEngine the engine the pages are rendered by
+     * @throws IOException occurs when the coursework file cannot be loaded
+     */
+    public PdfPageProvider(Coursework coursework,
+            PdfRenderingEngine renderingEngine) throws IOException {
+        this.courseworkId = coursework.getId();
+        this.courseworkFile = coursework.getCourseworkFile();
+        this.renderingEngine = renderingEngine;
+        this.maxDocuments = renderingEngine.getParallelism();
+        this.closed = false;
+
+        PDDocument document = renderingEngine.loadDocument(courseworkFile);
+        loadedDocuments.add(document);
+        this.pageCount = document.getNumberOfPages();
+        idleDocuments.add(document);
+    }
+
+    /**
+     * Loads the page provider of a coursework on a worker thread of the 
+     * rendering engine.
+     * 
+     * @param coursework the coursework to provide the pages of
+     * @param renderingEngine the engine the pages are rendered by
+     * @return the future page provider
+     */
+    public static ListenableFuture<PdfPageProvider> open(
+            final Coursework coursework,
+            final PdfRenderingEngine renderingEngine) {
+        return renderingEngine.submit(new Callable<PdfPageProvider>() {
+
+            @Override
+            public PdfPageProvider call() throws IOException {
+                return new PdfPageProvider(coursework, renderingEngine);
+            }
+        });
+    }
+
+    /**
+     * Access the number of pages of the coursework.
+     * 
+     * @return page count as integer value
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Sets the listener told about pages waiting for render memory.
+     * 
+     * @param listener the RenderQueueListener object or null for none
+     */
+    public void setRenderQueueListener(RenderQueueListener listener) {
+        this.renderQueueListener = listener;
+    }
+
+    /**
+     * Requests the image of the given page at full resolution and schedules 
+     * its neighbours to be rendered as well. The returned future is already 
+     * done if the page is cached.
+     * 
+     * @param pageNumber the one-based page number
+     * @return the future encoded image bytes of the page
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    public ListenableFuture<byte[]> requestPage(int pageNumber) {
+        return requestPage(pageNumber, PdfRenderer.PAGE_DPI);
+    }
+
+    /**
+     * Requests the image of the given page at the given resolution and 
+     * schedules its neighbours to be rendered at the same resolution. The 
+     * returned future is already done if the page is cached.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     * @return the future encoded image bytes of the page
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    public ListenableFuture<byte[]> requestPage(int pageNumber, int dpi) {
+        checkPageNumber(pageNumber);
+
+        ListenableFuture<byte[]> pageFuture = renderPage(pageNumber, dpi);
+        prefetchAround(pageNumber, dpi);
+        return pageFuture;
+    }
+
+    /**
+     * Requests a quick low resolution preview of the given page. No other 
+     * page is scheduled.
+     * 
+     * @param pageNumber the one-based page number
+     * @return the future encoded image bytes of the preview
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    public ListenableFuture<byte[]> requestPreview(int pageNumber) {
+        checkPageNumber(pageNumber);
+        return renderPage(pageNumber, PdfRenderer.PREVIEW_DPI);
+    }
+
+    /**
+     * Requests the split into tiles of the given page at a zoomed 
+     * resolution.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the zoomed resolution in dots per inch
+     * @return the future TileGrid of the page
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    public ListenableFuture<PdfTileRenderer.TileGrid> requestTileGrid(
+            final int pageNumber, final int dpi) {
+        checkPageNumber(pageNumber);
+
+        return renderingEngine.submit(
+                new Callable<PdfTileRenderer.TileGrid>() {
+
+                    @Override
+                    public PdfTileRenderer.TileGrid call() throws IOException {
+                        PDDocument document = borrowDocument();
+                        try {
+                            return PdfTileRenderer.getTileGrid(
+                                    document.getPage(pageNumber - 1), dpi);
+                        } finally {
+                            returnDocument(document);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Requests a single tile of a zoomed page. The returned future is 
+     * already done if the tile is cached.
+     * 
+     * @param pageNumber the one-based page number
+     * @param grid the TileGrid of the page at the zoomed resolution
+     * @param column the zero-based column of the tile
+     * @param row the zero-based row of the tile
+     * @return the future encoded image bytes of the tile
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    public ListenableFuture<byte[]> requestTile(final int pageNumber,
+            final PdfTileRenderer.TileGrid grid, final int column,
+            final int row) {
+        checkPageNumber(pageNumber);
+
+        return renderingEngine.renderPage(new PageImageCache.PageKey(
+                courseworkId, pageNumber, grid.getDpi(),
+                renderingEngine.getPageImageEncoder().getProfileName(),
+                column, row), new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws IOException {
+                        PDDocument document = borrowDocument();
+                        try {
+                            return renderingEngine.renderDocumentTile(
+                                    document, pageNumber - 1, grid, column,
+                                    row, null);
+                        } finally {
+                            returnDocument(document);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Determines if the given page is already cached at the given 
+     * resolution.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     * @return true if the page is cached, otherwise false
+     */
+    public boolean isCached(int pageNumber, int dpi) {
+        return renderingEngine.isCached(toPageKey(pageNumber, dpi));
+    }
+
+    /**
+     * Stops any pending background rendering and closes the documents. The 
+     * rendered pages stay in the cache.
+     */
+    public void close() {
+        closed = true;
+
+        for (Future<?> future : pendingPrefetches.values()) {
+            future.cancel(false);
+        }
+        pendingPrefetches.clear();
+
+        // Documents still rendering are closed when they are handed back
+        closeIdleDocuments();
+    }
+
+    /**
+     * Validates a page number.
+     * 
+     * @param pageNumber the one-based page number
+     * @throws IndexOutOfBoundsException if no such page exists
+     */
+    private void checkPageNumber(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > pageCount) {
+            throw new IndexOutOfBoundsException("No such page: " + pageNumber);
+        }
+    }
+
+    /**
+     * Returns the given page from the cache or schedules it to be rendered.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     * @return the future encoded image bytes of the page
+     */
+    private ListenableFuture<byte[]> renderPage(final int pageNumber,
+            final int dpi) {
+        return renderingEngine.renderPage(toPageKey(pageNumber, dpi),
+                new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws IOException {
+                        PDDocument document = borrowDocument();
+                        try {
+                            return renderingEngine.renderDocumentPage(
+                                    document, pageNumber - 1, dpi,
+                                    new Runnable() {
+
+                                        @Override
+                                        public void run() {
+                                            notifyQueued(pageNumber, dpi);
+                                        }
+                                    });
+                        } finally {
+                            returnDocument(document);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Tells the listener, if any, that a page waits for render memory.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     */
+    private void notifyQueued(int pageNumber, int dpi) {
+        final RenderQueueListener listener = renderQueueListener;
+        if (listener != null && !closed) {
+            listener.renderQueued(pageNumber, dpi,
+                    renderingEngine.getWaitingRenders());
+        }
+    }
+
+    /**
+     * Takes an idle copy of the document, loading a new copy if every loaded 
+     * copy is in use and the limit is not reached yet.
+     * 
+     * @return PDDocument object used by the calling thread only
+     * @throws IOException if the provider is closed or loading fails
+     */
+    private PDDocument borrowDocument() throws IOException {
+        if (closed) {
+            throw new IOException("Page provider is already closed.");
+        }
+
+        PDDocument document = idleDocuments.poll();
+        if (document != null) {
+            return document;
+        }
+
+        synchronized (loadedDocuments) {
+            if (closed) {
+                throw new IOException("Page provider is already closed.");
+            }
+
+            if (loadedDocuments.size() < maxDocuments) {
+                document = renderingEngine.loadDocument(courseworkFile);
+                loadedDocuments.add(document);
+                return document;
+            }
+        }
+
+        try {
+            while (!closed) {
+                document = idleDocuments.poll(100, TimeUnit.MILLISECONDS);
+                if (document != null) {
+                    return document;
+                }
+            }
+            throw new IOException("Page provider is already closed.");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a document.",
+                    ex);
+        }
+    }
+
+    /**
+     * Hands a copy of the document back, closing it if the provider has 
+     * been closed in the meantime.
+     * 
+     * @param document the borrowed PDDocument object
+     */
+    private void returnDocument(PDDocument document) {
+        if (closed) {
+            closeQuietly(document);
+        } else {
+            idleDocuments.add(document);
+
+            // The provider may have been closed after the check above, once 
+            // close() had already emptied the idle queue
+            if (closed) {
+                closeIdleDocuments();
+            }
+        }
+    }
+
+    /**
+     * Closes every idle copy of the document. Safe to run from several 
+     * threads, as each copy is taken off the queue once.
+     */
+    private void closeIdleDocuments() {
+        PDDocument document;
+        while ((document = idleDocuments.poll()) != null) {
+            closeQuietly(document);
+        }
+    }
+
+    /**
+     * Closes a copy of the document, logging any failure.
+     * 
+     * @param document the PDDocument object to close
+     */
+    private static void closeQuietly(PDDocument document) {
+        try {
+            document.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+        }
+    }
+
+    /**
+     * Returns the cache key of the given page.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     * @return PageKey object
+     */
+    private PageImageCache.PageKey toPageKey(int pageNumber, int dpi) {
+        return new PageImageCache.PageKey(courseworkId, pageNumber, dpi,
+                renderingEngine.getPageImageEncoder().getProfileName());
+    }
+
+    /**
+     * Schedules the neighbours of the given page to be rendered and cancels 
+     * prefetches that are no longer near the page.
+     * 
+     * @param pageNumber the one-based page number being shown
+     * @param dpi the resolution in dots per inch
+     */
+    private void prefetchAround(int pageNumber, int dpi) {
+        // Prefetches at another resolution are no longer useful
+        final boolean isDpiChanged = (dpi != prefetchDpi);
+        prefetchDpi = dpi;
+
+        for (Map.Entry<Integer, Future<?>> entry
+                : pendingPrefetches.entrySet()) {
+            if (isDpiChanged || entry.getValue().isDone()
+                    || Math.abs(entry.getKey() - pageNumber) > PREFETCH_DISTANCE) {
+                entry.getValue().cancel(false);
+                pendingPrefetches.remove(entry.getKey());
+            }
+        }
+
+        for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+            schedulePrefetch(pageNumber + distance, dpi);
+            schedulePrefetch(pageNumber - distance, dpi);
+        }
+    }
+
+    /**
+     * Schedules a single page to be rendered in the background.
+     * 
+     * @param pageNumber the one-based page number
+     * @param dpi the resolution in dots per inch
+     */
+    private void schedulePrefetch(int pageNumber, int dpi) {
+        if (closed || pageNumber < 1 || pageNumber > pageCount
+                || pendingPrefetches.containsKey(pageNumber)
+                || renderingEngine.isCached(toPageKey(pageNumber, dpi))) {
+            return;
+        }
+
+        pendingPrefetches.put(pageNumber, renderPage(pageNumber, dpi));
+    }
+
+}
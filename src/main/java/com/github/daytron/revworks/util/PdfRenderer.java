@@ -15,22 +15,12 @@
  */
 package com.github.daytron.revworks.util;
 
-import com.github.daytron.revworks.model.Coursework;
-import com.github.daytron.revworks.service.CurrentUserSession;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
-import javax.imageio.ImageIO;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
-import org.apache.pdfbox.pdmodel.PDPageTree;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
 /**
- * Utility wrapper for extracting pages of PDF file using PDFBox
+ * Utility wrapper for rendering pages of PDF file using PDFBox
  * library.
  *
  * @author Ryan Gilera
@@ -38,34 +28,93 @@ import org.apache.pdfbox.rendering.PDFRenderer;
 public final class PdfRenderer {
 
     /**
-     * Extract pages as images to retain the exact page structure. Warning: 
-     * This app uses a snapshot version of the upcoming version 2 of PDFBox. The 
-     * current implementation could change in the release version.
-     * 
-     * @param coursework the coursework that is about to be extracted
-     * @return list of file images as pages of the coursework
-     * @throws IOException occurs when extracting pages fails
+     * The resolution every page is rendered at.
+     */
+    public static final int PAGE_DPI = 200;
+
+    /**
+     * The resolution page thumbnails are rendered at.
+     */
+    public static final int THUMBNAIL_DPI = 24;
+
+    /**
+     * The resolution of the quick preview shown while a page is rendered.
      */
-    public static List<File> extractPages(Coursework coursework) throws IOException {
-        List<File> listOfPages = new ArrayList<>();
+    public static final int PREVIEW_DPI = 48;
 
-        PDDocument document = PDDocument.load(coursework.getCourseworkFile());
-        PDDocumentCatalog catalog = document.getDocumentCatalog();
-        @SuppressWarnings("unchecked")
-        PDPageTree pages = catalog.getPages();
-        PDFRenderer renderer = new PDFRenderer(document);
+    /**
+     * A common width of the page viewer in CSS pixels, used to guess the 
+     * display resolution before anyone opens a coursework.
+     */
+    public static final int TYPICAL_VIEWPORT_WIDTH = 800;
+
+    // Resolutions a page is rendered at for display, in ascending order
+    private static final int[] DISPLAY_DPI_TIERS = {PREVIEW_DPI, 72, 96, 144,
+        PAGE_DPI};
+
+    // Width of an A4 page in PDF points, used when the page size is unknown
+    private static final float DEFAULT_PAGE_WIDTH = 595f;
+
+    private PdfRenderer() {
+    }
 
-        for (int i = 0; i < pages.getCount(); i++) {
-            BufferedImage image = renderer.renderImageWithDPI(i, 200f);
-            File pageFile = new File("image-" + UUID.randomUUID()
-                    + i + ".png");
+    /**
+     * Chooses the lowest display resolution that still fills the given 
+     * viewport at the device pixel ratio of the browser. The result never 
+     * exceeds {@link #PAGE_DPI}.
+     * 
+     * @param viewportWidth the width of the page viewer in CSS pixels
+     * @param pixelRatio the device pixel ratio of the browser
+     * @param pageWidth the width of the page in PDF points or 0 if unknown
+     * @return the resolution in dots per inch
+     */
+    public static int selectDpi(int viewportWidth, double pixelRatio,
+            float pageWidth) {
+        final float widthInPoints = (pageWidth > 0)
+                ? pageWidth : DEFAULT_PAGE_WIDTH;
+        final double devicePixels = viewportWidth * Math.max(1.0, pixelRatio);
+        // 72 PDF points make an inch
+        final double requiredDpi = devicePixels * 72.0 / widthInPoints;
 
-            ImageIO.write(image, "png", pageFile);
-            CurrentUserSession.markForGarbageCollection(pageFile);
-            listOfPages.add(pageFile);
+        for (int dpi : DISPLAY_DPI_TIERS) {
+            if (dpi >= requiredDpi) {
+                return dpi;
+            }
         }
+        return PAGE_DPI;
+    }
+
+    /**
+     * Renders a single page as an image to retain the exact page structure. 
+     * Warning: This app uses a snapshot version of the upcoming version 2 of 
+     * PDFBox. The current implementation could change in the release version.
+     * 
+     * @param renderer the PDFRenderer object of the loaded document
+     * @param pageIndex the zero-based index of the page
+     * @param encoder the PageImageEncoder the image is written with
+     * @return the encoded image bytes of the page
+     * @throws IOException occurs when rendering the page fails
+     */
+    public static byte[] renderPage(PDFRenderer renderer, int pageIndex,
+            PageImageEncoder encoder) throws IOException {
+        return renderPage(renderer, pageIndex, PAGE_DPI, encoder);
+    }
+
+    /**
+     * Renders a single page as an image at the given resolution.
+     * 
+     * @param renderer the PDFRenderer object of the loaded document
+     * @param pageIndex the zero-based index of the page
+     * @param dpi the resolution in dots per inch
+     * @param encoder the PageImageEncoder the image is written with
+     * @return the encoded image bytes of the page
+     * @throws IOException occurs when rendering the page fails
+     */
+    public static byte[] renderPage(PDFRenderer renderer, int pageIndex,
+            int dpi, PageImageEncoder encoder) throws IOException {
+        BufferedImage image = renderer.renderImageWithDPI(pageIndex, dpi);
 
-        document.close();
-        return listOfPages;
+        return encoder.encode(image, "page " + (pageIndex + 1) + " at "
+                + dpi + " dpi");
     }
 }
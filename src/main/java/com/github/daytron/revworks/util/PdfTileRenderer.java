@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Utility for rendering a page in square tiles, used when a page is zoomed 
+ * in. Only the tiles in view are rendered, so a deep zoom costs about one 
+ * screen of pixels no matter how large the whole page image would be.
+ *
+ * @author Ryan Gilera
+ */
+public final class PdfTileRenderer {
+
+    /**
+     * The width and height of a tile in pixels.
+     */
+    public static final int TILE_SIZE = 512;
+
+    /**
+     * The highest resolution a zoomed page is rendered at.
+     */
+    public static final int MAX_ZOOM_DPI = 600;
+
+    private PdfTileRenderer() {
+    }
+
+    /**
+     * Computes how a page is split into tiles at the given resolution.
+     * 
+     * @param page the PDPage object to render
+     * @param dpi the resolution in dots per inch
+     * @return TileGrid object
+     */
+    public static TileGrid getTileGrid(PDPage page, int dpi) {
+        PDRectangle cropBox = page.getCropBox();
+        // 72 PDF points make an inch
+        final double scale = dpi / 72.0;
+        int width = (int) Math.ceil(cropBox.getWidth() * scale);
+        int height = (int) Math.ceil(cropBox.getHeight() * scale);
+
+        // Pages turned sideways are rendered in landscape
+        if (page.getRotation() % 180 != 0) {
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+
+        return new TileGrid(dpi, width, height);
+    }
+
+    /**
+     * Renders a single tile of a page.
+     * 
+     * @param renderer the PDFRenderer object of the loaded document
+     * @param pageIndex the zero-based index of the page
+     * @param grid the TileGrid of the page at the wanted resolution
+     * @param column the zero-based column of the tile
+     * @param row the zero-based row of the tile
+     * @param encoder the PageImageEncoder the tile is written with
+     * @return the encoded image bytes of the tile
+     * @throws IOException occurs when rendering the page fails
+     */
+    public static byte[] renderTile(PDFRenderer renderer, int pageIndex,
+            TileGrid grid, int column, int row, PageImageEncoder encoder)
+            throws IOException {
+        BufferedImage image = new BufferedImage(grid.getTileWidth(column),
+                grid.getTileHeight(row), BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setBackground(Color.WHITE);
+            graphics.clearRect(0, 0, image.getWidth(), image.getHeight());
+            // Shift the page so the tile lands at the origin, the rest of 
+            // the page falls outside the image and is clipped
+            graphics.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+            renderer.renderPageToGraphics(pageIndex, graphics,
+                    grid.getDpi() / 72f);
+        } finally {
+            graphics.dispose();
+        }
+
+        return encoder.encode(image, "page " + (pageIndex + 1) + " tile "
+                + column + "x" + row + " at " + grid.getDpi() + " dpi");
+    }
+
+    /**
+     * The size of a rendered page and its split into tiles.
+     */
+    public static final class TileGrid {
+
+        private final int dpi;
+        private final int width;
+        private final int height;
+
+        /**
+         * A class constructor that takes the resolution and the pixel size 
+         * of the whole page.
+         * 
+         * @param dpi the resolution in dots per inch
+         * @param width the width of the page in pixels
+         * @param height the height of the page in pixels
+         */
+        public TileGrid(int dpi, int width, int height) {
+            this.dpi = dpi;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Access the resolution.
+         * 
+         * @return the resolution in dots per inch
+         */
+        public int getDpi() {
+            return dpi;
+        }
+
+        /**
+         * Access the width of the whole page.
+         * 
+         * @return the width in pixels
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Access the height of the whole page.
+         * 
+         * @return the height in pixels
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Access the number of tile columns.
+         * 
+         * @return the number of columns
+         */
+        public int getColumns() {
+            return (width + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        /**
+         * Access the number of tile rows.
+         * 
+         * @return the number of rows
+         */
+        public int getRows() {
+            return (height + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        /**
+         * Access the width of the tiles of a column. Tiles of the last 
+         * column may be narrower.
+         * 
+         * @param column the zero-based column
+         * @return the width in pixels
+         */
+        public int getTileWidth(int column) {
+            return Math.min(TILE_SIZE, width - column * TILE_SIZE);
+        }
+
+        /**
+         * Access the height of the tiles of a row. Tiles of the last row may 
+         * be lower.
+         * 
+         * @param row the zero-based row
+         * @return the height in pixels
+         */
+        public int getTileHeight(int row) {
+            return Math.min(TILE_SIZE, height - row * TILE_SIZE);
+        }
+    }
+
+}
@@ -19,28 +19,30 @@ import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
+import com.github.daytron.revworks.model.Comment;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.service.ChangeHub;
 import com.github.daytron.revworks.service.DataProviderAbstract;
+import com.github.daytron.revworks.service.mapper.CommentRowMapper;
 import com.vaadin.event.ShortcutAction;
 import com.vaadin.server.FontAwesome;
 import com.vaadin.shared.ui.label.ContentMode;
 import com.vaadin.ui.Button;
+import com.vaadin.ui.CssLayout;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.Panel;
 import com.vaadin.ui.TextArea;
+import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.themes.ValoTheme;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
+import java.sql.SQLException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,16 +55,27 @@ import java.util.logging.Logger;
 @SuppressWarnings("serial")
 public class CommentComponent extends VerticalLayout {
 
-    private final ScheduledExecutorService scheduler
-            = Executors.newScheduledThreadPool(1);
-    private final Runnable runnableTask;
-    private final ScheduledFuture scheduledFuture;
+    /**
+     * Number of the latest comments shown when a note is opened, and of the 
+     * earlier comments shown per request.
+     */
+    public static final int SHOWN_COMMENTS = 50;
+
+    private static final DateTimeFormatter DATE_FORMATTER
+            = DateTimeFormatter.ofPattern("dd-MMM hh:mm a");
+
+    private final UI ui;
+    private final CommentsExtractorRunnable runnableTask;
+    private ChangeHub.Subscription subscription;
 
     private final Coursework coursework;
-    private final Label commentLabel;
+    private final CssLayout commentListLayout;
+    private final Button earlierCommentsButton;
+    private int firstShownCommentId = 0;
     private final TextArea writerArea;
-    private boolean isFirstComment;
-    private int noteId;
+    // Read by the refresh on a change hub thread
+    private volatile boolean isFirstComment;
+    private volatile int noteId;
     private final int page;
     private final CourseworkView courseworkView;
     private final Panel commentContainerPanel;
@@ -84,8 +97,8 @@ public class CommentComponent extends VerticalLayout {
 
     /**
      * This constructor is used when creating a comment in an existing note. It 
-     * launches an executor service for update and retrieval of comments from 
-     * the database. 
+     * subscribes to the comment changes of the note, so comments are 
+     * retrieved from the database whenever one is added.
      * 
      * @param coursework the associated coursework
      * @param isFirstComment boolean value for initial comment creation
@@ -108,7 +121,8 @@ public class CommentComponent extends VerticalLayout {
         addStyleName("coursework-panel-wrapper");
         addStyleName("coursework-panel-border");
 
-        this.commentLabel = new Label("", ContentMode.HTML);
+        this.commentListLayout = new CssLayout();
+        this.earlierCommentsButton = new Button("Show earlier comments");
         this.writerArea = new TextArea();
         HorizontalLayout headerLayout = createHeader();
         addComponent(headerLayout);
@@ -123,10 +137,25 @@ public class CommentComponent extends VerticalLayout {
             writerArea.focus();
         }
 
+        ui = UI.getCurrent();
         runnableTask = new CommentsExtractorRunnable(MainUI.get()
                 .getAccessControl().isUserAStudent());
-        scheduledFuture = scheduler.scheduleWithFixedDelay(runnableTask,
-                0, 500, TimeUnit.MILLISECONDS);
+        subscribeToComments();
+    }
+
+    /**
+     * Subscribes to the comment changes of the current note and loads its 
+     * comments. A note that is not yet created has nothing to subscribe to.
+     */
+    private void subscribeToComments() {
+        final ChangeHub changeHub = MainUI.MainUIServlet.getChangeHub();
+        if (changeHub == null || noteId <= 0) {
+            return;
+        }
+
+        subscription = changeHub.subscribe(ChangeHub.Topic.NOTE_COMMENTS,
+                noteId, ui, runnableTask);
+        subscription.refresh();
     }
 
     /**
@@ -188,16 +217,29 @@ public class CommentComponent extends VerticalLayout {
         contentLayout.setSizeFull();
 
         // Comment Viewer
-        commentLabel.setWidth("100%");
-        commentLabel.setHeightUndefined();
-        commentLabel.addStyleName("comment-label");
+        commentListLayout.setWidth("100%");
+        commentListLayout.addStyleName("comment-label");
+
+        earlierCommentsButton.setWidth("100%");
+        earlierCommentsButton.addStyleName(ValoTheme.BUTTON_LINK);
+        earlierCommentsButton.addStyleName(ValoTheme.BUTTON_SMALL);
+        earlierCommentsButton.setVisible(false);
+        earlierCommentsButton.addClickListener(new Button.ClickListener() {
 
-        commentContainerPanel.setContent(commentLabel);
+            @Override
+            public void buttonClick(Button.ClickEvent event) {
+                showEarlierComments();
+            }
+        });
+
+        final VerticalLayout commentViewerLayout = new VerticalLayout(
+                earlierCommentsButton, commentListLayout);
+        commentViewerLayout.setWidth("100%");
+
+        commentContainerPanel.setContent(commentViewerLayout);
         commentContainerPanel.setSizeFull();
         commentContainerPanel.addStyleName("coursework-panel-border");
 
-        // TODO Fille with old contents for commentLabel
-        // if (isFirstCommentt == false ) {}
         contentLayout.addComponent(commentContainerPanel);
 
         // Comment Writer
@@ -248,12 +290,68 @@ public class CommentComponent extends VerticalLayout {
     }
 
     /**
-     * Access the comment label.
+     * Appends new comments to the comment list. Only the new entries are 
+     * sent to the browser. When a note is opened, only its latest comments 
+     * are loaded and the earlier ones are loaded on request. Must be called 
+     * with the session locked.
+     * 
+     * @param newComments the formatted new comments, oldest first
+     * @param isNewNote true if the comments are the first ones of the note
+     * @param earliestCommentId the id of the oldest new comment
+     * @param hasEarlierComments true if the note has comments older than the 
+     * loaded ones, only used for a new note
+     */
+    private void appendComments(List<String> newComments, boolean isNewNote,
+            int earliestCommentId, boolean hasEarlierComments) {
+        if (isNewNote) {
+            commentListLayout.removeAllComponents();
+            firstShownCommentId = earliestCommentId;
+            earlierCommentsButton.setVisible(hasEarlierComments);
+        }
+
+        for (String comment : newComments) {
+            commentListLayout.addComponent(createCommentEntry(comment));
+        }
+
+        commentContainerPanel.setScrollTop(Short.MAX_VALUE);
+    }
+
+    /**
+     * Loads the next batch of comments before the earliest one shown.
+     */
+    private void showEarlierComments() {
+        final List<Comment> listOfComments = runnableTask
+                .selectEarlierComments(noteId, firstShownCommentId);
+        if (listOfComments == null) {
+            return;
+        }
+
+        // Newest first, so each one goes in front of the previous one
+        final int shownCount = Math.min(listOfComments.size(),
+                SHOWN_COMMENTS);
+        for (int index = 0; index < shownCount; index++) {
+            final Comment comment = listOfComments.get(index);
+            commentListLayout.addComponent(createCommentEntry(
+                    runnableTask.formatComment(comment)), 0);
+            firstShownCommentId = comment.getId();
+        }
+
+        earlierCommentsButton.setVisible(
+                listOfComments.size() > SHOWN_COMMENTS);
+        commentContainerPanel.setScrollTop(0);
+    }
+
+    /**
+     * Creates the label of a single comment.
      * 
-     * @return label object
+     * @param comment the formatted comment
+     * @return Label object
      */
-    public Label getCommentLabel() {
-        return commentLabel;
+    private Label createCommentEntry(String comment) {
+        Label commentEntry = new Label(comment, ContentMode.HTML);
+        commentEntry.setWidth("100%");
+        commentEntry.addStyleName("comment-entry");
+        return commentEntry;
     }
 
     /**
@@ -266,12 +364,20 @@ public class CommentComponent extends VerticalLayout {
     }
 
     /**
-     * Sets the noteId.
+     * Sets the noteId and subscribes to the comment changes of that note. 
+     * The first comment of a new note is then retrieved like any other.
      * 
      * @param noteId integer value
      */
     public void setNoteId(int noteId) {
         this.noteId = noteId;
+        this.isFirstComment = false;
+
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+        subscribeToComments();
     }
 
     /**
@@ -284,157 +390,222 @@ public class CommentComponent extends VerticalLayout {
     }
 
     /**
-     * shuts down the executor service for retrieving and updating comments 
-     * in real time.
+     * Stops retrieving and updating comments in real time.
      */
     public void shutdownCommentExecutor() {
-        scheduledFuture.cancel(true);
-        scheduler.shutdownNow();
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
     }
 
     /**
-     * A Runnable object for Executor service that updates and retrieves comments 
-     * continuously. 
+     * A refresh task run by the change hub that retrieves the comments 
+     * whenever a comment is added to the note. Opening a note fetches only 
+     * its latest comments, afterwards only the comments above the last seen 
+     * comment id are fetched. Each is formatted once and appended to the 
+     * ones shown. Earlier comments are fetched by id on request, so a long 
+     * thread is never loaded as a whole.
      */
     final class CommentsExtractorRunnable extends DataProviderAbstract 
-    implements Runnable {
+    implements ChangeHub.RefreshTask {
 
-        private int previousCommentCount = 0;
         private final boolean isStudentUser;
+        private int currentNoteId = 0;
+        private int lastCommentId = 0;
 
         public CommentsExtractorRunnable(boolean isStudentUser) {
             this.isStudentUser = isStudentUser;
         }
 
         /**
-         * Updates and retrieves comments continuously from the database. If 
-         * the associated comment component only just created its first comment, 
-         * no need to retrieve non-existing previous comments.
+         * Retrieves the new comments from the database. If the associated 
+         * comment component only just created its first comment, no need to 
+         * retrieve non-existing previous comments.
+         * 
+         * @return true if new comments were found
          */
         @Override
-        public void run() {
-            if (!isFirstComment && noteId > 0) {
-                if (reserveConnectionPool()) {
-                    try {
-                        ResultSet resultSet;
-                        StringBuilder stringBuilder;
-                        try (PreparedStatement preparedStatement = getConnection()
-                                .prepareStatement(PreparedQueryStatement.SELECT_COMMENT.getQuery())) {
-                            preparedStatement.setInt(1, noteId);
-                            resultSet = preparedStatement.executeQuery();
-                            
-                            if (!resultSet.next()) {
-                                preparedStatement.close();
-                                resultSet.close();
-                                releaseConnection();
-                                return;
-                            }
-                            // Calculate the current resulting row count
-                            int numberOfResultedRows = 0;
-                            resultSet.beforeFirst();
-                            
-                            while (resultSet.next()) {
-                                numberOfResultedRows += 1;
-                            }
-
-                            // Skips repainting comments on Label if the 
-                            // result returns the same number of comments.
-                            // Note comments cannot be deleted so comparing 
-                            // them by size is valid
-                            if (numberOfResultedRows == 0
-                                    || (numberOfResultedRows == previousCommentCount)) {
-
-                                preparedStatement.close();
-                                resultSet.close();
-                                releaseConnection();
-                                return;
-                            }
-
-                            // Save it for the next round
-                            previousCommentCount = numberOfResultedRows;
-
-                            stringBuilder = new StringBuilder();
-                            resultSet.beforeFirst();
-                            DateTimeFormatter formatter
-                                    = DateTimeFormatter.ofPattern("dd-MMM hh:mm a");
-
-                            int counter = 0;
-                            
-                            while (resultSet.next()) {
-                                counter += 1;
-                                String message = resultSet.getString(1);
-
-                                Timestamp timestamp = resultSet.getTimestamp(2);
-                                LocalDateTime dateSubmitted = timestamp.toLocalDateTime();
-                                String dateString = dateSubmitted.format(formatter);
-
-                                boolean isStudentToLecturer = resultSet.getBoolean(3);
-
-                                // Only add hr line after 1st comment
-                                if (counter > 1) {
-                                    stringBuilder.append("<hr>");
-                                }
-
-                                if (isStudentToLecturer) {
-                                    if (isStudentUser) {
-                                        stringBuilder.append("<div class=\"right-align-comment\"><small><b>")
-                                                .append("Me" + "&nbsp;&nbsp;")
-                                                .append(dateString)
-                                                .append("</b></small>")
-                                                .append("<br>")
-                                                .append(message)
-                                                .append("</div>");
-                                    } else {
-                                        stringBuilder.append("<div><small><b>")
-                                                .append(coursework.getStudentUser()
-                                                        .getFirstName())
-                                                .append("&nbsp;&nbsp;")
-                                                .append(dateString)
-                                                .append("</b></small>")
-                                                .append("<br>").append(message)
-                                                .append("</div>");
-                                    }
-                                } else {
-                                    if (isStudentUser) {
-                                        stringBuilder.append("<div><small><b>")
-                                                .append(coursework.getClassTable()
-                                                        .getLecturerUser()
-                                                        .getFirstName())
-                                                .append("&nbsp;&nbsp;")
-                                                .append(dateString)
-                                                .append("</b></small>")
-                                                .append("<br>").append(message)
-                                                .append("</div>");
-                                    } else {
-                                        stringBuilder.append("<div class=\"right-align-comment\"><small><b>")
-                                                .append("Me" + "&nbsp;&nbsp;")
-                                                .append(dateString)
-                                                .append("</b></small>")
-                                                .append("<br>")
-                                                .append(message)
-                                                .append("</div>");
-                                    }
-                                }
-                            }
-                        }
-                        resultSet.close();
-
-                        MainUI.get().access(new Runnable() {
-                            @Override
-                            public void run() {
-                                commentLabel.setValue(stringBuilder.toString());
-                                commentContainerPanel.setScrollTop(Short.MAX_VALUE);
-                            }
-                        });
-
-                    } catch (Exception ex) {
-                        Logger.getLogger(CommentsExtractorRunnable.class.getName())
-                                .log(Level.SEVERE, null, ex);
-                    } finally {
-                        releaseConnection();
+        public synchronized boolean refresh() {
+            if (isFirstComment || noteId <= 0) {
+                return false;
+            }
+
+            if (!reserveConnectionPool()) {
+                return false;
+            }
+
+            // Start over if the component moved on to another note
+            final boolean isNewNote = (noteId != currentNoteId);
+            if (isNewNote) {
+                currentNoteId = noteId;
+                lastCommentId = 0;
+            }
+
+            final List<String> newComments = new ArrayList<>();
+            final boolean hasEarlierComments;
+            int firstNewCommentId = 0;
+            try {
+                final List<Comment> listOfComments;
+                if (isNewNote) {
+                    // One more than shown tells if there are earlier ones
+                    listOfComments = selectLatestComments(currentNoteId,
+                            Integer.MAX_VALUE);
+                    hasEarlierComments
+                            = listOfComments.size() > SHOWN_COMMENTS;
+                    if (hasEarlierComments) {
+                        listOfComments.remove(SHOWN_COMMENTS);
                     }
+                    Collections.reverse(listOfComments);
+                } else {
+                    try (PreparedStatement preparedStatement
+                            = prepareStatement(
+                                    PreparedQueryStatement.SELECT_COMMENT)) {
+                        preparedStatement.setInt(1, currentNoteId);
+                        preparedStatement.setInt(2, lastCommentId);
+                        listOfComments = queryForList(preparedStatement,
+                                new CommentRowMapper());
+                    }
+                    hasEarlierComments = false;
+                }
+
+                // Note comments cannot be edited or deleted, so nothing 
+                // above the last seen id means nothing has changed
+                if (listOfComments.isEmpty()) {
+                    return false;
+                }
+
+                firstNewCommentId = listOfComments.get(0).getId();
+                for (Comment comment : listOfComments) {
+                    newComments.add(formatComment(comment));
+                    lastCommentId = comment.getId();
                 }
+            } catch (Exception ex) {
+                Logger.getLogger(CommentsExtractorRunnable.class.getName())
+                        .log(Level.SEVERE, null, ex);
+                if (isNewNote) {
+                    // Load the latest comments again on the next refresh
+                    currentNoteId = 0;
+                }
+                return false;
+            } finally {
+                releaseConnection();
             }
+
+            final int earliestCommentId = firstNewCommentId;
+            MainUI.get().access(new Runnable() {
+                @Override
+                public void run() {
+                    appendComments(newComments, isNewNote, earliestCommentId,
+                            hasEarlierComments);
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Retrieves the comments of a note older than the given one. Called 
+         * with the session locked when earlier comments are requested.
+         * 
+         * @param selectedNoteId the id of the note
+         * @param beforeCommentId the id of the earliest comment shown
+         * @return up to one more than {@link #SHOWN_COMMENTS} comments, 
+         * newest first, or null if they cannot be retrieved
+         */
+        synchronized List<Comment> selectEarlierComments(int selectedNoteId,
+                int beforeCommentId) {
+            if (!reserveConnectionPool()) {
+                return null;
+            }
+
+            try {
+                return selectLatestComments(selectedNoteId, beforeCommentId);
+            } catch (Exception ex) {
+                Logger.getLogger(CommentsExtractorRunnable.class.getName())
+                        .log(Level.SEVERE, null, ex);
+                return null;
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * Retrieves the latest comments of a note older than the given id on 
+         * the reserved connection.
+         * 
+         * @param selectedNoteId the id of the note
+         * @param beforeCommentId the comment id to stop before
+         * @return up to one more than {@link #SHOWN_COMMENTS} comments, 
+         * newest first
+         * @throws SQLException if the query fails
+         */
+        private List<Comment> selectLatestComments(int selectedNoteId,
+                int beforeCommentId) throws SQLException {
+            try (PreparedStatement preparedStatement = prepareStatement(
+                    PreparedQueryStatement.SELECT_LATEST_COMMENTS)) {
+                preparedStatement.setInt(1, selectedNoteId);
+                preparedStatement.setInt(2, beforeCommentId);
+                preparedStatement.setInt(3, SHOWN_COMMENTS + 1);
+                return queryForList(preparedStatement,
+                        new CommentRowMapper());
+            }
+        }
+
+        /**
+         * Formats a comment as HTML, aligned by its sender.
+         * 
+         * @param comment the Comment object to format
+         * @return the formatted comment
+         */
+        private String formatComment(Comment comment) {
+            final StringBuilder commentBuilder = new StringBuilder();
+
+            String message = comment.getMessage();
+            String dateString = comment.getDateSubmitted()
+                    .format(DATE_FORMATTER);
+            boolean isStudentToLecturer = comment.isStudentToLecturer();
+
+            if (isStudentToLecturer) {
+                if (isStudentUser) {
+                    commentBuilder.append("<div class=\"right-align-comment\"><small><b>")
+                            .append("Me" + "&nbsp;&nbsp;")
+                            .append(dateString)
+                            .append("</b></small>")
+                            .append("<br>")
+                            .append(message)
+                            .append("</div>");
+                } else {
+                    commentBuilder.append("<div><small><b>")
+                            .append(coursework.getStudentUser()
+                                    .getFirstName())
+                            .append("&nbsp;&nbsp;")
+                            .append(dateString)
+                            .append("</b></small>")
+                            .append("<br>").append(message)
+                            .append("</div>");
+                }
+            } else {
+                if (isStudentUser) {
+                    commentBuilder.append("<div><small><b>")
+                            .append(coursework.getClassTable()
+                                    .getLecturerUser()
+                                    .getFirstName())
+                            .append("&nbsp;&nbsp;")
+                            .append(dateString)
+                            .append("</b></small>")
+                            .append("<br>").append(message)
+                            .append("</div>");
+                } else {
+                    commentBuilder.append("<div class=\"right-align-comment\"><small><b>")
+                            .append("Me" + "&nbsp;&nbsp;")
+                            .append(dateString)
+                            .append("</b></small>")
+                            .append("<br>")
+                            .append(message)
+                            .append("</div>");
+                }
+            }
+
+            return commentBuilder.toString();
         }
     }
     
@@ -21,37 +21,48 @@ import com.github.daytron.revworks.data.PreparedQueryStatement;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.model.Note;
 import com.github.daytron.revworks.presenter.NoteButtonListener;
+import com.github.daytron.revworks.service.ChangeHub;
 import com.github.daytron.revworks.service.CurrentUserSession;
 import com.github.daytron.revworks.service.DataProviderAbstract;
+import com.github.daytron.revworks.service.mapper.NoteRowMapper;
 import com.github.daytron.revworks.util.NotificationUtil;
+import com.github.daytron.revworks.util.PdfPageProvider;
+import com.github.daytron.revworks.util.PageImageEncoder;
 import com.github.daytron.revworks.util.PdfRenderer;
+import com.github.daytron.revworks.util.PdfTileRenderer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.vaadin.data.Property;
 import com.vaadin.navigator.View;
 import com.vaadin.navigator.ViewChangeListener;
-import com.vaadin.server.FileResource;
 import com.vaadin.server.FontAwesome;
+import com.vaadin.server.StreamResource;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Image;
+import com.vaadin.ui.JavaScriptFunction;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.Panel;
 import com.vaadin.ui.TextField;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.themes.ValoTheme;
-import java.io.File;
+import elemental.json.JsonArray;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,10 +79,34 @@ public class CourseworkView extends VerticalLayout implements View {
     public static final String VIEW_NAME = "CourseworkView";
     public static final String VIEW_TITLE = "Coursework Display View";
 
+    private static final String COURSEWORK_PAGE_PANEL_ID
+            = "coursework-page-panel";
+    private static final String VIEWPORT_CALLBACK
+            = "revworksCourseworkViewport";
+    private static final String SCROLL_CALLBACK
+            = "revworksCourseworkScroll";
+    // Zoom factors relative to the page fitting the viewer width
+    private static final double[] ZOOM_LEVELS = {1.0, 1.5, 2.0, 3.0, 4.0};
+
     private boolean isInitialised = false;
     private Coursework coursework;
-    private List<File> listOfPdfPages;
+    private volatile PdfPageProvider pageProvider;
+    private volatile boolean isClosed = false;
+    private UI ui;
+    // Resolution tier for the current viewport and the image being shown
+    private int viewportDpi = PdfRenderer.PAGE_DPI;
+    private int shownPage = 0;
+    private int shownDpi = 0;
+    // Width of the viewer and the visible part of a zoomed page in CSS pixels
+    private int viewportWidth;
+    private double scrollLeft = 0;
+    private double scrollTop = 0;
+    private double scrollViewWidth = 0;
+    private double scrollViewHeight = 0;
+    private int zoomLevel = 0;
+    private TiledPageLayout tiledPageLayout;
     private Panel courseworkPagePanel;
+    private ThumbnailStrip thumbnailStrip;
     private int currentPage;
     private final TextField pageField;
     private VerticalLayout scrollNoteLayout;
@@ -80,10 +115,8 @@ public class CourseworkView extends VerticalLayout implements View {
 
     private Map<Integer, Button> listOfNoteButtons;
 
-    private ScheduledExecutorService noteScheduler
-            = Executors.newScheduledThreadPool(1);
-    private Runnable noteRunnableTask;
-    private ScheduledFuture noteScheduledFuture;
+    private ChangeHub.RefreshTask noteRunnableTask;
+    private ChangeHub.Subscription noteSubscription;
 
     /**
      * Builds its corresponding GUI components upon creation of this object.
@@ -97,8 +130,9 @@ public class CourseworkView extends VerticalLayout implements View {
     /**
      * The entry point for all derived classes of View. If not currently 
      * initialised, then builds the UI components. Skips UI creation if the 
-     * received coursework is null. It launches an executor service for update 
-     * and retrieval of notes from the database. 
+     * received coursework is null. It subscribes to the note changes of the 
+     * coursework, so notes are retrieved from the database whenever one is 
+     * added. 
      * 
      * @param event ViewChangeEvent object
      */
@@ -108,13 +142,13 @@ public class CourseworkView extends VerticalLayout implements View {
 
             listOfNoteButtons = new ConcurrentHashMap<>();
 
+            final DataProviderAbstract dataProvider;
             if (MainUI.get().getAccessControl().isUserAStudent()) {
-                coursework = MainUI.get().getStudentDataProvider()
-                        .getReceivedCoursework();
+                dataProvider = MainUI.get().getStudentDataProvider();
             } else {
-                coursework = MainUI.get().getLecturerDataProvider()
-                        .getReceivedCoursework();
+                dataProvider = MainUI.get().getLecturerDataProvider();
             }
+            coursework = dataProvider.getReceivedCoursework();
 
             if (coursework == null) {
                 NotificationUtil.showError(
@@ -124,14 +158,24 @@ public class CourseworkView extends VerticalLayout implements View {
             }
 
             try {
-                listOfPdfPages = new ArrayList<>();
+                // The coursework file is only fetched now that it is opened
+                dataProvider.fetchCourseworkFile(coursework);
+
+                // Pages are filled in from the rendering threads
+                ui = UI.getCurrent();
                 initView();
 
                 noteRunnableTask = new CourseworkView.NotesExtractorRunnable(
                         MainUI.get().getAccessControl().isUserAStudent(),
                         this);
-                noteScheduledFuture = noteScheduler.scheduleWithFixedDelay(
-                        noteRunnableTask, 0, 500, TimeUnit.MILLISECONDS);
+                final ChangeHub changeHub
+                        = MainUI.MainUIServlet.getChangeHub();
+                if (changeHub != null) {
+                    noteSubscription = changeHub.subscribe(
+                            ChangeHub.Topic.COURSEWORK_NOTES,
+                            coursework.getId(), ui, noteRunnableTask);
+                    noteSubscription.refresh();
+                }
 
                 // Store coursework view to this session
                 CurrentUserSession.setCurrentCourseworkView(this);
@@ -210,12 +254,15 @@ public class CourseworkView extends VerticalLayout implements View {
                     AppEventBus.post(new AppEvent.ToggleCourseworkViewEvent(
                             expanderLayout, true));
                     expanderButton.setDescription("Minimise view");
+                    // The wider viewer asks for a sharper page
+                    measureViewport();
                 } else {
                     expanderLayout.removeStyleName("max");
                     event.getButton().setIcon(FontAwesome.EXPAND);
                     AppEventBus.post(new AppEvent.ToggleCourseworkViewEvent(
                             expanderLayout, false));
                     expanderButton.setDescription("Maximise view");
+                    measureViewport();
                 }
             }
         });
@@ -274,7 +321,8 @@ public class CourseworkView extends VerticalLayout implements View {
 
     /**
      * The component for coursework viewer. Allows to navigate to other pages 
-     * through buttons and textfield for quick page turn.
+     * through buttons, textfield for quick page turn and a strip of page 
+     * thumbnails.
      * 
      * @return the coursework viewer as VerticalLayout object
      * @throws IOException occurs when extracting pages from the coursework
@@ -315,30 +363,57 @@ public class CourseworkView extends VerticalLayout implements View {
                         return;
                     }
 
-                    if (page > listOfPdfPages.size() || 
+                    if (pageProvider == null) {
+                        // Still loading, the first page is shown next
+                        pageField.setValue(String.valueOf(currentPage));
+                        return;
+                    }
+
+                    if (page > pageProvider.getPageCount() || 
                             page < 1) {
                         NotificationUtil.showWarning("Page out of bounds!", 
                                 "No such page exist.");
                         pageField.setValue(String.valueOf(currentPage));
                     } else {
-                        try {
-                        FileResource fileResource
-                                = new FileResource(listOfPdfPages.get(page - 1));
-                        Image image = new Image(null, fileResource);
-                        image.setWidth("100%");
-                        image.setHeightUndefined();
-                                
-                        courseworkPagePanel.setContent(image);
-                        currentPage = page;
-                        } catch (Exception e) {
-                            NotificationUtil.showError(
-                                    ErrorMsg.DATA_FETCH_ERROR.getText(),
-                                    ErrorMsg.CONSULT_YOUR_ADMIN.getText());
-                        }
+                        showPage(page);
                     }
             }
         });
 
+        final Button zoomOutButton = new Button();
+        final Button zoomInButton = new Button();
+
+        zoomOutButton.setDescription("Zoom out");
+        zoomOutButton.setIcon(FontAwesome.SEARCH_MINUS);
+        zoomOutButton.setStyleName(ValoTheme.BUTTON_ICON_ONLY);
+        zoomOutButton.addStyleName(ValoTheme.BUTTON_SMALL);
+        zoomOutButton.addStyleName(ValoTheme.BUTTON_BORDERLESS);
+        zoomOutButton.setEnabled(false);
+        zoomOutButton.addClickListener(new Button.ClickListener() {
+
+            @Override
+            public void buttonClick(Button.ClickEvent event) {
+                setZoomLevel(zoomLevel - 1);
+                zoomOutButton.setEnabled(zoomLevel > 0);
+                zoomInButton.setEnabled(true);
+            }
+        });
+
+        zoomInButton.setDescription("Zoom in");
+        zoomInButton.setIcon(FontAwesome.SEARCH_PLUS);
+        zoomInButton.setStyleName(ValoTheme.BUTTON_ICON_ONLY);
+        zoomInButton.addStyleName(ValoTheme.BUTTON_SMALL);
+        zoomInButton.addStyleName(ValoTheme.BUTTON_BORDERLESS);
+        zoomInButton.addClickListener(new Button.ClickListener() {
+
+            @Override
+            public void buttonClick(Button.ClickEvent event) {
+                setZoomLevel(zoomLevel + 1);
+                zoomInButton.setEnabled(zoomLevel < ZOOM_LEVELS.length - 1);
+                zoomOutButton.setEnabled(true);
+            }
+        });
+
         Button leftButton = new Button();
         leftButton.setDescription("Flip to the previous page");
         leftButton.setIcon(FontAwesome.ARROW_LEFT);
@@ -350,21 +425,7 @@ public class CourseworkView extends VerticalLayout implements View {
             @Override
             public void buttonClick(Button.ClickEvent event) {
                 if (currentPage > 1) {
-                    try {
-                        FileResource fileResource
-                                = new FileResource(listOfPdfPages.get(currentPage - 2));
-                        Image image = new Image(null, fileResource);
-                        image.setWidth("100%");
-                        image.setHeightUndefined();
-
-                        courseworkPagePanel.setContent(image);
-                        currentPage = currentPage - 1;
-                        pageField.setValue("" + currentPage);
-                    } catch (Exception e) {
-                        NotificationUtil.showError(
-                                ErrorMsg.DATA_FETCH_ERROR.getText(),
-                                ErrorMsg.CONSULT_YOUR_ADMIN.getText());
-                    }
+                    showPage(currentPage - 1);
                 }
             }
         });
@@ -379,43 +440,88 @@ public class CourseworkView extends VerticalLayout implements View {
 
             @Override
             public void buttonClick(Button.ClickEvent event) {
-                if (currentPage < listOfPdfPages.size()) {
-                    try {
-                        FileResource fileResource
-                                = new FileResource(listOfPdfPages.get(currentPage));
-                        Image image = new Image(null, fileResource);
-                        image.setWidth("100%");
-                        image.setHeightUndefined();
-
-                        courseworkPagePanel.setContent(image);
-                        currentPage = currentPage + 1;
-                        pageField.setValue("" + currentPage);
-                    } catch (Exception e) {
-                        NotificationUtil.showError(
-                                ErrorMsg.DATA_FETCH_ERROR.getText(),
-                                ErrorMsg.CONSULT_YOUR_ADMIN.getText());
-                    }
+                if (pageProvider != null
+                        && currentPage < pageProvider.getPageCount()) {
+                    showPage(currentPage + 1);
                 }
             }
         });
 
         // Content
         courseworkPagePanel = new Panel();
+        courseworkPagePanel.setId(COURSEWORK_PAGE_PANEL_ID);
         courseworkPagePanel.setSizeFull();
         courseworkPagePanel.addStyleName("coursework-panel-border");
 
-        listOfPdfPages = PdfRenderer.extractPages(coursework);
-
         // Label for total of pages next to the arrows in header
-        Label totalPagesLabel = new Label("/ " + listOfPdfPages.size());
+        // The page count recorded at submission is shown before the 
+        // document is loaded
+        final Label totalPagesLabel = new Label("/ "
+                + (coursework.getPageCount() > 0
+                        ? coursework.getPageCount() : "-"));
         totalPagesLabel.setSizeUndefined();
 
-        Image image = new Image(null, new FileResource(listOfPdfPages.get(0)));
-        image.setWidth("100%");
-        image.setHeightUndefined();
-        courseworkPagePanel.setContent(image);
+        courseworkPagePanel.setContent(createPagePlaceholder(
+                "Loading coursework..."));
         currentPage = 1;
 
+        // Start from half the browser window until the viewer is measured
+        viewportWidth = ui.getPage().getBrowserWindowWidth() / 2;
+        viewportDpi = PdfRenderer.selectDpi(viewportWidth, 1.0,
+                coursework.getPageWidth());
+        registerViewportCallback();
+        measureViewport();
+
+        // The document is loaded by the rendering engine, the view is shown 
+        // right away and the first page is filled in once it is rendered
+        Futures.addCallback(PdfPageProvider.open(coursework,
+                MainUI.MainUIServlet.getRenderingEngine()),
+                new FutureCallback<PdfPageProvider>() {
+
+                    @Override
+                    public void onSuccess(final PdfPageProvider provider) {
+                        boolean isAccessed = accessView(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                if (isClosed) {
+                                    provider.close();
+                                    return;
+                                }
+
+                                pageProvider = provider;
+                                provider.setRenderQueueListener(
+                                        createRenderQueueListener());
+                                totalPagesLabel.setValue("/ "
+                                        + provider.getPageCount());
+                                thumbnailStrip.load(provider.getPageCount());
+                                showPage(currentPage);
+                            }
+                        });
+
+                        if (!isAccessed) {
+                            provider.close();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        Logger.getLogger(CourseworkView.class.getName())
+                                .log(Level.SEVERE, null, t);
+                        accessView(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                NotificationUtil.showError(
+                                        ErrorMsg.DATA_FETCH_ERROR.getText(),
+                                        ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+                            }
+                        });
+                    }
+                });
+
+        headerLayout.addComponent(zoomOutButton);
+        headerLayout.addComponent(zoomInButton);
         headerLayout.addComponent(leftButton);
         headerLayout.addComponent(pageField);
         headerLayout.addComponent(totalPagesLabel);
@@ -425,6 +531,10 @@ public class CourseworkView extends VerticalLayout implements View {
 
         viewerLayout.addComponent(headerLayout);
         viewerLayout.addComponent(courseworkPagePanel);
+
+        // Thumbnails to jump straight to any page
+        thumbnailStrip = new ThumbnailStrip(coursework, this, ui);
+        viewerLayout.addComponent(thumbnailStrip);
         
         viewerLayout.setExpandRatio(courseworkPagePanel, 1);
 
@@ -528,11 +638,22 @@ public class CourseworkView extends VerticalLayout implements View {
     }
 
     /**
-     * Shuts down the executor service for update and retrieval of notes.
+     * Stops the update and retrieval of notes. The 
+     * background page rendering of this view is stopped as well.
      */
     public void shutdownNoteExecutor() {
-        noteScheduledFuture.cancel(true);
-        noteScheduler.shutdownNow();
+        if (noteSubscription != null) {
+            noteSubscription.unsubscribe();
+        }
+
+        isClosed = true;
+        closeTiledPage();
+        if (thumbnailStrip != null) {
+            thumbnailStrip.close();
+        }
+        if (pageProvider != null) {
+            pageProvider.close();
+        }
     }
 
     /**
@@ -586,258 +707,674 @@ public class CourseworkView extends VerticalLayout implements View {
      * @param pageNumber page as integer value
      */
     public void flipToPage(int pageNumber) {
-        FileResource fileResource
-                = new FileResource(listOfPdfPages.get(pageNumber - 1));
-        Image image = new Image(null, fileResource);
-        image.setWidth("100%");
+        showPage(pageNumber);
+    }
+
+    /**
+     * Shows the given page in the coursework viewer at the resolution chosen 
+     * for the current viewport. The page is requested from the page 
+     * provider, which renders it on the rendering engine if needed and 
+     * prefetches its neighbours. If the page is not cached yet, a low 
+     * resolution preview is shown first and replaced once the page is 
+     * pushed to the browser.
+     * 
+     * @param pageNumber page as integer value
+     */
+    private void showPage(final int pageNumber) {
+        if (pageProvider == null) {
+            return;
+        }
+
+        if (ZOOM_LEVELS[zoomLevel] > 1.0) {
+            showTiledPage(pageNumber);
+            return;
+        }
+        closeTiledPage();
+
+        final int dpi = viewportDpi;
+        final ListenableFuture<byte[]> pageFuture;
+        try {
+            pageFuture = pageProvider.requestPage(pageNumber, dpi);
+        } catch (IndexOutOfBoundsException e) {
+            Logger.getLogger(CourseworkView.class.getName())
+                    .log(Level.SEVERE, null, e);
+            NotificationUtil.showError(
+                    ErrorMsg.DATA_FETCH_ERROR.getText(),
+                    ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+            return;
+        }
+
+        setCurrentPageNumber(pageNumber);
+
+        if (pageFuture.isDone()) {
+            // Cached pages are shown in the same round trip
+            try {
+                setPageImage(pageNumber, dpi, Futures.getUnchecked(pageFuture));
+            } catch (RuntimeException e) {
+                Logger.getLogger(CourseworkView.class.getName())
+                        .log(Level.SEVERE, null, e);
+                NotificationUtil.showError(
+                        ErrorMsg.DATA_FETCH_ERROR.getText(),
+                        ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+            }
+            return;
+        }
+
+        if (shownPage != pageNumber) {
+            courseworkPagePanel.setContent(createPagePlaceholder(
+                    "Rendering page " + pageNumber + "..."));
+        }
+
+        if (dpi > PdfRenderer.PREVIEW_DPI) {
+            deliverPage(pageProvider.requestPreview(pageNumber), pageNumber,
+                    PdfRenderer.PREVIEW_DPI, false);
+        }
+        deliverPage(pageFuture, pageNumber, dpi, true);
+    }
+
+    /**
+     * Shows the given page zoomed in. The page is split into tiles at the 
+     * zoomed resolution and only the tiles in view are rendered.
+     * 
+     * @param pageNumber page as integer value
+     */
+    private void showTiledPage(final int pageNumber) {
+        final double zoom = ZOOM_LEVELS[zoomLevel];
+        final int dpi = Math.min(PdfTileRenderer.MAX_ZOOM_DPI,
+                (int) Math.round(viewportDpi * zoom));
+        final double cssWidth = viewportWidth * zoom;
+
+        final ListenableFuture<PdfTileRenderer.TileGrid> gridFuture;
+        try {
+            gridFuture = pageProvider.requestTileGrid(pageNumber, dpi);
+        } catch (IndexOutOfBoundsException e) {
+            Logger.getLogger(CourseworkView.class.getName())
+                    .log(Level.SEVERE, null, e);
+            NotificationUtil.showError(
+                    ErrorMsg.DATA_FETCH_ERROR.getText(),
+                    ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+            return;
+        }
+
+        setCurrentPageNumber(pageNumber);
+
+        Futures.addCallback(gridFuture,
+                new FutureCallback<PdfTileRenderer.TileGrid>() {
+
+                    @Override
+                    public void onSuccess(
+                            final PdfTileRenderer.TileGrid grid) {
+                        accessView(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                // Skip if the user flipped or zoomed again
+                                if (currentPage == pageNumber
+                                && ZOOM_LEVELS[zoomLevel] == zoom) {
+                                    setTiledPage(pageNumber, grid, cssWidth);
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        if (t instanceof CancellationException || isClosed) {
+                            return;
+                        }
+
+                        Logger.getLogger(CourseworkView.class.getName())
+                                .log(Level.SEVERE, null, t);
+                        accessView(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                NotificationUtil.showError(
+                                        ErrorMsg.DATA_FETCH_ERROR.getText(),
+                                        ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Replaces the content of the coursework viewer with a tiled page. When 
+     * only the zoom of the same page changes, the scroll position is scaled 
+     * so the same part of the page stays in view.
+     * 
+     * @param pageNumber page as integer value
+     * @param grid the TileGrid of the page at the zoomed resolution
+     * @param cssWidth the width of the zoomed page in CSS pixels
+     */
+    private void setTiledPage(int pageNumber, PdfTileRenderer.TileGrid grid,
+            double cssWidth) {
+        double scrollRatio = 0;
+        if (tiledPageLayout != null
+                && tiledPageLayout.getPageNumber() == pageNumber) {
+            scrollRatio = cssWidth / tiledPageLayout.getWidth();
+        }
+        closeTiledPage();
+
+        scrollLeft *= scrollRatio;
+        scrollTop *= scrollRatio;
+
+        tiledPageLayout = new TiledPageLayout(pageProvider,
+                coursework.getId(), pageNumber, grid, cssWidth, ui);
+        courseworkPagePanel.setContent(tiledPageLayout);
+        courseworkPagePanel.setScrollLeft((int) scrollLeft);
+        courseworkPagePanel.setScrollTop((int) scrollTop);
+        shownPage = 0;
+        shownDpi = 0;
+
+        // Until the browser reports the visible area, assume the viewer is 
+        // about as high as a page fitting its width
+        tiledPageLayout.showVisibleTiles(scrollLeft, scrollTop,
+                (scrollViewWidth > 0) ? scrollViewWidth : viewportWidth,
+                (scrollViewHeight > 0) ? scrollViewHeight
+                        : viewportWidth * 1.5);
+        measureViewport();
+    }
+
+    /**
+     * Stops the tiled page shown, if any, from adding more tiles.
+     */
+    private void closeTiledPage() {
+        if (tiledPageLayout != null) {
+            tiledPageLayout.close();
+            tiledPageLayout = null;
+        }
+    }
+
+    /**
+     * Changes the zoom level and shows the current page again.
+     * 
+     * @param level the index of the zoom factor
+     */
+    private void setZoomLevel(int level) {
+        final int newLevel = Math.max(0, Math.min(ZOOM_LEVELS.length - 1,
+                level));
+        if (newLevel == zoomLevel) {
+            return;
+        }
+
+        zoomLevel = newLevel;
+        showPage(currentPage);
+    }
+
+    /**
+     * Records the page being shown in the viewer and its controls.
+     * 
+     * @param pageNumber page as integer value
+     */
+    private void setCurrentPageNumber(int pageNumber) {
+        if (pageNumber != currentPage) {
+            scrollLeft = 0;
+            scrollTop = 0;
+        }
 
-        courseworkPagePanel.setContent(image);
         currentPage = pageNumber;
         pageField.setValue("" + currentPage);
+        thumbnailStrip.setCurrentPage(currentPage);
+    }
+
+    /**
+     * Shows a page image in the coursework viewer once it is rendered, 
+     * unless the user has flipped away from the page or a sharper image of 
+     * it is already shown.
+     * 
+     * @param pageFuture the future encoded image bytes of the page
+     * @param pageNumber page as integer value
+     * @param dpi the resolution the page is rendered at
+     * @param isErrorShown true to notify the user if rendering fails
+     */
+    private void deliverPage(ListenableFuture<byte[]> pageFuture,
+            final int pageNumber, final int dpi, final boolean isErrorShown) {
+        Futures.addCallback(pageFuture, new FutureCallback<byte[]>() {
+
+            @Override
+            public void onSuccess(final byte[] pageImage) {
+                accessView(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (currentPage == pageNumber
+                                && (shownPage != pageNumber
+                                || shownDpi <= dpi)) {
+                            setPageImage(pageNumber, dpi, pageImage);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof CancellationException || isClosed
+                        || !isErrorShown) {
+                    return;
+                }
+
+                Logger.getLogger(CourseworkView.class.getName())
+                        .log(Level.SEVERE, null, t);
+                accessView(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        NotificationUtil.showError(
+                                ErrorMsg.DATA_FETCH_ERROR.getText(),
+                                ErrorMsg.CONSULT_YOUR_ADMIN.getText());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces the content of the coursework viewer with a page image.
+     * 
+     * @param pageNumber page as integer value
+     * @param dpi the resolution the page is rendered at
+     * @param pageImage the encoded image bytes of the page
+     */
+    private void setPageImage(int pageNumber, int dpi, byte[] pageImage) {
+        Image image = new Image(null, createPageResource(pageNumber, dpi,
+                pageImage));
+        image.setWidth("100%");
+        image.setHeightUndefined();
+
+        courseworkPagePanel.setContent(image);
+        shownPage = pageNumber;
+        shownDpi = dpi;
+    }
+
+    /**
+     * Asks the browser for the width of the page viewer and its device pixel 
+     * ratio, and for the visible part of a zoomed page. The answers arrive 
+     * through the JavaScript functions registered by 
+     * {@link #registerViewportCallback()}. The first call also makes the 
+     * browser report every scroll of the viewer, shortly after the user 
+     * stops panning. The measurement waits a moment so a layout change made 
+     * in the same round trip is already applied.
+     */
+    private void measureViewport() {
+        if (ui == null) {
+            return;
+        }
+
+        ui.getPage().getJavaScript().execute("setTimeout(function() {"
+                + "var panel = document.getElementById('"
+                + COURSEWORK_PAGE_PANEL_ID + "');"
+                + VIEWPORT_CALLBACK + "(panel ? panel.clientWidth "
+                + ": window.innerWidth, window.devicePixelRatio || 1);"
+                + "var content = panel ? panel.querySelector("
+                + "'.v-panel-content') : null;"
+                + "if (!content) { return; }"
+                + "var report = function() {"
+                + SCROLL_CALLBACK + "(content.scrollLeft, content.scrollTop, "
+                + "content.clientWidth, content.clientHeight); };"
+                + "if (!content.revworksScroll) {"
+                + "content.revworksScroll = true; var timer = null;"
+                + "content.addEventListener('scroll', function() {"
+                + "clearTimeout(timer); timer = setTimeout(report, 150); });"
+                + "}"
+                + "report();"
+                + "}, 200);");
     }
 
     /**
-     * A Runnable object for Executor service that updates and retrieves notes 
-     * continuously. 
+     * Registers the JavaScript functions that report the viewport of the 
+     * page viewer and its scroll position. A different resolution tier, or a 
+     * different width while zoomed, re-requests the page shown. Scrolling a 
+     * zoomed page requests the tiles that come into view.
      */
-    final class NotesExtractorRunnable extends DataProviderAbstract implements Runnable {
+    private void registerViewportCallback() {
+        ui.getPage().getJavaScript().addFunction(VIEWPORT_CALLBACK,
+                new JavaScriptFunction() {
+
+                    @Override
+                    public void call(JsonArray arguments) {
+                        if (isClosed || arguments.length() < 2) {
+                            return;
+                        }
+
+                        int width = (int) arguments.getNumber(0);
+                        int dpi = PdfRenderer.selectDpi(width,
+                                arguments.getNumber(1),
+                                coursework.getPageWidth());
+
+                        // A zoomed page is laid out in CSS pixels, so it 
+                        // follows width changes beyond a scrollbar or so
+                        boolean isZoomedWidthChanged = zoomLevel > 0
+                                && Math.abs(width - viewportWidth) * 20
+                                > viewportWidth;
+                        viewportWidth = width;
+
+                        if (dpi != viewportDpi || isZoomedWidthChanged) {
+                            viewportDpi = dpi;
+                            showPage(currentPage);
+                        }
+                    }
+                });
+
+        ui.getPage().getJavaScript().addFunction(SCROLL_CALLBACK,
+                new JavaScriptFunction() {
+
+                    @Override
+                    public void call(JsonArray arguments) {
+                        if (isClosed || arguments.length() < 4) {
+                            return;
+                        }
+
+                        scrollLeft = arguments.getNumber(0);
+                        scrollTop = arguments.getNumber(1);
+                        scrollViewWidth = arguments.getNumber(2);
+                        scrollViewHeight = arguments.getNumber(3);
+
+                        if (tiledPageLayout != null) {
+                            tiledPageLayout.showVisibleTiles(scrollLeft,
+                                    scrollTop, scrollViewWidth,
+                                    scrollViewHeight);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Creates the placeholder shown while a page is not yet available.
+     * 
+     * @param message the message of the placeholder
+     * @return Label object
+     */
+    private Label createPagePlaceholder(String message) {
+        Label placeholderLabel = new Label(message);
+        placeholderLabel.setSizeUndefined();
+        placeholderLabel.addStyleName(ValoTheme.LABEL_LIGHT);
+        return placeholderLabel;
+    }
+
+    /**
+     * Creates the listener that tells the user when the page being opened 
+     * waits for the server to free render memory. A page already shown, 
+     * even as a preview, is left as it is.
+     * 
+     * @return PdfPageProvider.RenderQueueListener object
+     */
+    private PdfPageProvider.RenderQueueListener createRenderQueueListener() {
+        return new PdfPageProvider.RenderQueueListener() {
+
+            @Override
+            public void renderQueued(final int pageNumber, int dpi,
+                    final int waitingRenders) {
+                accessView(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (currentPage == pageNumber
+                                && shownPage != pageNumber) {
+                            courseworkPagePanel.setContent(
+                                    createPagePlaceholder("Page " + pageNumber
+                                            + " is queued, the server is busy"
+                                            + " rendering (" + waitingRenders
+                                            + " waiting)..."));
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Runs a command on this view from a rendering thread. The change is 
+     * pushed to the browser.
+     * 
+     * @param command the command to run with the session locked
+     * @return true if the command is scheduled, false if the UI is already 
+     * detached
+     */
+    private boolean accessView(Runnable command) {
+        if (ui == null || isClosed) {
+            return false;
+        }
+
+        try {
+            ui.access(command);
+            return true;
+        } catch (UIDetachedException ex) {
+            return false;
+        }
+    }
 
-        private int previousNoteCount = 0;
+    /**
+     * Wraps the image bytes of a page as a resource for an Image component.
+     * 
+     * @param pageNumber page as integer value
+     * @param dpi the resolution the page is rendered at
+     * @param pageImage the encoded image bytes of the page
+     * @return StreamResource object
+     */
+    private StreamResource createPageResource(int pageNumber, int dpi,
+            final byte[] pageImage) {
+        return new StreamResource(new StreamResource.StreamSource() {
+
+            @Override
+            public InputStream getStream() {
+                return new ByteArrayInputStream(pageImage);
+            }
+        }, "page-" + coursework.getId() + "-" + pageNumber + "-" + dpi + "."
+                + PageImageEncoder.detectFormat(pageImage));
+    }
+
+    /**
+     * A refresh task run by the change hub that retrieves the notes 
+     * whenever a note is added to the coursework. Only the notes changed 
+     * since the last seen change version of the coursework are fetched. 
+     * They are compared against the notes already shown, and the added 
+     * notes and read status changes are applied to the note panel in a 
+     * single UI access.
+     */
+    final class NotesExtractorRunnable extends DataProviderAbstract implements ChangeHub.RefreshTask {
+
+        private final Map<Integer, Boolean> shownReadStatus = new HashMap<>();
+        private int lastChangeVersion = -1;
         private final boolean isStudentUser;
         private final CourseworkView courseworkView;
         private boolean isFirstRun;
-        private boolean isNewNoteAdded;
 
         public NotesExtractorRunnable(boolean isStudentUser,
                 CourseworkView courseworkView) {
             this.isStudentUser = isStudentUser;
             this.courseworkView = courseworkView;
             this.isFirstRun = true;
-            isNewNoteAdded = false;
         }
 
         @Override
-        public void run() {
+        public synchronized boolean refresh() {
+            final List<Note> listOfNotes;
             if (reserveConnectionPool()) {
-                final ResultSet resultSet;
-
-                try (PreparedStatement preparedStatement = getConnection()
-                        .prepareStatement(PreparedQueryStatement.SELECT_NOTE.getQuery())) {
-                    preparedStatement.setInt(1, coursework.getId());
-                    resultSet = preparedStatement.executeQuery();
-
-                    if (!resultSet.next()) {
-                        preparedStatement.close();
-                        resultSet.close();
-                        releaseConnection();
-                        
+                try {
+                    // A single row lookup tells if any note has changed
+                    final int changeVersion = queryChangeVersion(
+                            PreparedQueryStatement.SELECT_COURSEWORK_CHANGE_VERSION,
+                            coursework.getId());
+                    if (changeVersion == lastChangeVersion) {
                         isFirstRun = false;
-                        return;
+                        return false;
                     }
 
-                    // Calculate the current resulting row count
-                    int numberOfResultedRows = 0;
-                    resultSet.beforeFirst();
-                    
-                    while (resultSet.next()) {
-                        numberOfResultedRows += 1;
+                    try (PreparedStatement preparedStatement = prepareStatement(
+                            PreparedQueryStatement.SELECT_NOTE_CHANGED)) {
+                        preparedStatement.setInt(1, coursework.getId());
+                        preparedStatement.setInt(2, lastChangeVersion);
+                        listOfNotes = queryForList(preparedStatement,
+                                new NoteRowMapper());
                     }
 
-                    // detect if there is a new note added
-                    // this feature is used for detecting a note added
-                    // by this user to apply clicked css style later on
-                    if (numberOfResultedRows == 0
-                            || (numberOfResultedRows == previousNoteCount)) {
-                        isNewNoteAdded = false;
-                    } else {
-                        isNewNoteAdded = true;
-                        // Save it for the next round
-                        previousNoteCount = numberOfResultedRows;
-                    }
+                    // Save it for the next round
+                    lastChangeVersion = changeVersion;
+                } catch (SQLException ex) {
+                    Logger.getLogger(CourseworkView.class.getName())
+                            .log(Level.SEVERE, null, ex);
+                    return false;
+                } finally {
+                    releaseConnection();
+                }
+            } else {
+                return false;
+            }
 
-                    // Refresh scrollNoteLayout
-//                    MainUI.get().access(new Runnable() {
-//                        @Override
-//                        public void run() {
-//                            // Clear previous buttons
-//                            scrollNoteLayout.removeAllComponents();
-//                            listOfNoteButtons = new HashMap<>();
-//                        }
-//                    });
-                    int lastNoteIdForActivatingClickedStyle = -1;
-                    boolean lastIsStudentToLecturer = false;
-
-                    resultSet.beforeFirst();
-                    
-                    while (resultSet.next()) {
-                        final int noteId = resultSet.getInt(1);
-                        lastNoteIdForActivatingClickedStyle = noteId;
-
-                        final int pageNum = resultSet.getInt(2);
-
-                        final boolean isStudentToLecturer = resultSet.getBoolean(4);
-                        lastIsStudentToLecturer = isStudentToLecturer;
-
-                        final boolean isReadStudent = resultSet.getBoolean(5);
-                        final boolean isReadLecturer = resultSet.getBoolean(6);
-
-                        MainUI.get().access(new Runnable() {
-                            @Override
-                            public void run() {
-                                boolean alreadyInTheListButton = false;
-                                for (Map.Entry<Integer, Button> entry
-                                        : courseworkView.getListOfNoteButtons()
-                                        .entrySet()) {
-                                    if (entry.getKey() == noteId) {
-                                        // Detect if the note is not currently open
-                                        if (!(commentLayout.getNoteId() == noteId
-                                                && commentLayout.isVisible())) {
-                                            if (isStudentUser) {
-                                                if (!isReadStudent) {
-                                                    entry.getValue()
-                                                            .addStyleName("note-unread");
-                                                }
-                                            } else {
-                                                if (!isReadLecturer) {
-                                                    entry.getValue()
-                                                            .addStyleName("note-unread");
-                                                }
-                                            }
-                                        }
-
-                                        alreadyInTheListButton = true;
-                                        break;
-                                    }
-                                }
+            // Compare against the notes shown to find what the panel lacks
+            final List<Note> addedNotes = new ArrayList<>();
+            final Map<Integer, Boolean> changedReadStatus = new HashMap<>();
+            for (Note note : listOfNotes) {
+                final boolean isRead = isStudentUser
+                        ? note.isReadStudent() : note.isReadLecturer();
+                final Boolean shownIsRead = shownReadStatus.put(note.getId(),
+                        isRead);
+
+                if (shownIsRead == null) {
+                    addedNotes.add(note);
+                } else if (shownIsRead != isRead) {
+                    changedReadStatus.put(note.getId(), isRead);
+                }
+            }
 
-                                // Otherwise add a new note button
-                                if (!alreadyInTheListButton) {
-                                    String identifier = "";
-                                    if (isStudentToLecturer) {
-                                        if (isStudentUser) {
-                                            identifier += "Me";
-                                        } else {
-                                            identifier += coursework
-                                                    .getStudentUser()
-                                                    .getFirstName();
-                                        }
-                                    } else {
-                                        if (isStudentUser) {
-                                            identifier += coursework
-                                                    .getClassTable()
-                                                    .getLecturerUser()
-                                                    .getFirstName();
-                                        } else {
-                                            identifier += "Me";
-                                        }
-                                    }
-
-                                    boolean isRead;
-                                    
-                                    if (isStudentUser) {
-                                        isRead = isReadStudent;
-                                    } else {
-                                        isRead = isReadLecturer;
-                                    }
-
-                                    Button noteButton = new Button(
-                                            identifier + " [p" + pageNum + "]");
-                                    noteButton.setWidth("100%");
-                                    noteButton.addStyleName("coursework-panel-border");
-
-                                    // Apply style
-                                    if (isRead) {
-                                        noteButton.addStyleName("note-read");
-                                    } else {
-                                        noteButton.addStyleName("note-unread");
-                                    }
-
-                                    listOfNoteButtons.put(noteId, noteButton);
-                                    scrollNoteLayout.addComponent(noteButton);
-
-                                    noteButton.addClickListener(new NoteButtonListener(
-                                            courseworkView, pageNum));
-                                }
+            final boolean isAfterFirstRun = !isFirstRun;
+            isFirstRun = false;
 
-                            }
-                        });
-                    }
+            // Skip the UI task if nothing shown has changed
+            if (addedNotes.isEmpty() && changedReadStatus.isEmpty()) {
+                return true;
+            }
 
-                    // Only triggered if there is a new note added and this method 
-                    // run after the first one and there is a last note id
-                    if (isNewNoteAdded && !isFirstRun
-                            && lastNoteIdForActivatingClickedStyle > 0) {
-                        // Logically, the last note button added is 
-                        // a newly created opened comment, since it is only updated
-                        // if there is a new note added to list
-                        // So it is safe to say that this note must also have clicked
-                        // style added to it
-
-                        // Make sure first that the newly added note button
-                        // is created by the corresponding user
-                        // It is possible to add a new button from other user
-                        if ((isStudentUser && lastIsStudentToLecturer)
-                                || (!isStudentUser && !lastIsStudentToLecturer)) {
-
-                            final int copyOfLastNoteId = lastNoteIdForActivatingClickedStyle;
-                            MainUI.get().access(new Runnable() {
-
-                                @Override
-                                public void run() {
-
-                                    for (Map.Entry<Integer, Button> entry
-                                            : courseworkView.getListOfNoteButtons()
-                                            .entrySet()) {
-                                        if (entry.getKey() == copyOfLastNoteId) {
-                                            entry.getValue().removeStyleName("note-unread");
-                                            entry.getValue().addStyleName("note-clicked");
-                                            break;
-                                        }
-
-                                    }
-                                }
-                            });
-                        } else {
-                            // Otherwise retain current clicked style to the 
-                            // currently opened comment layout
-                            // Possible scenarion when this user is reading a note
-                            // then suddenly the other user sent a new note
-                            MainUI.get().access(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    int currentOpenPageNoteId = commentLayout.getNoteId();
-
-                                    if (commentLayout.isVisible()) {
-                                        for (Map.Entry<Integer, Button> entry
-                                                : courseworkView.getListOfNoteButtons()
-                                                .entrySet()) {
-                                            if (currentOpenPageNoteId == entry.getKey()) {
-                                                // remove any unread style
-                                                entry.getValue().removeStyleName("note-unread");
-
-                                                entry.getValue().addStyleName("note-clicked");
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            });
-                        }
+            MainUI.get().access(new Runnable() {
+                @Override
+                public void run() {
+                    applyNoteChanges(addedNotes, changedReadStatus,
+                            isAfterFirstRun);
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Adds the buttons of the added notes and restyles the notes whose 
+         * read status has changed. Must be called with the session locked.
+         * 
+         * @param addedNotes the notes not shown yet, in ascending id order
+         * @param changedReadStatus the new read status of shown notes by 
+         * note id
+         * @param isAfterFirstRun true if the notes were added after the view 
+         * was opened
+         */
+        private void applyNoteChanges(List<Note> addedNotes,
+                Map<Integer, Boolean> changedReadStatus,
+                boolean isAfterFirstRun) {
+            final int currentOpenNoteId = commentLayout.isVisible()
+                    ? commentLayout.getNoteId() : 0;
+
+            for (Map.Entry<Integer, Boolean> entry
+                    : changedReadStatus.entrySet()) {
+                Button noteButton = listOfNoteButtons.get(entry.getKey());
+
+                // Detect if the note is not currently open
+                if (noteButton == null
+                        || entry.getKey() == currentOpenNoteId) {
+                    continue;
+                }
+
+                if (entry.getValue()) {
+                    noteButton.removeStyleName("note-unread");
+                    noteButton.addStyleName("note-read");
+                } else {
+                    noteButton.removeStyleName("note-read");
+                    noteButton.addStyleName("note-unread");
+                }
+            }
 
+            for (Note note : addedNotes) {
+                final int noteId = note.getId();
+                final int pageNum = note.getPageNumber();
+                final boolean isStudentToLecturer = note.isStudentToLecturer();
+
+                String identifier = "";
+                if (isStudentToLecturer) {
+                    if (isStudentUser) {
+                        identifier += "Me";
+                    } else {
+                        identifier += coursework
+                                .getStudentUser()
+                                .getFirstName();
+                    }
+                } else {
+                    if (isStudentUser) {
+                        identifier += coursework
+                                .getClassTable()
+                                .getLecturerUser()
+                                .getFirstName();
+                    } else {
+                        identifier += "Me";
                     }
+                }
 
-                    isFirstRun = false;
+                boolean isRead;
+
+                if (isStudentUser) {
+                    isRead = note.isReadStudent();
+                } else {
+                    isRead = note.isReadLecturer();
+                }
 
-                    preparedStatement.close();
-                    resultSet.close();
+                Button noteButton = new Button(
+                        identifier + " [p" + pageNum + "]");
+                noteButton.setWidth("100%");
+                noteButton.addStyleName("coursework-panel-border");
 
-                } catch (SQLException ex) {
-                    Logger.getLogger(CourseworkView.class.getName())
-                            .log(Level.SEVERE, null, ex);
-                } finally {
-                    releaseConnection();
+                // Apply style
+                if (isRead) {
+                    noteButton.addStyleName("note-read");
+                } else {
+                    noteButton.addStyleName("note-unread");
                 }
+
+                listOfNoteButtons.put(noteId, noteButton);
+                scrollNoteLayout.addComponent(noteButton);
+
+                noteButton.addClickListener(new NoteButtonListener(
+                        courseworkView, pageNum));
+            }
+
+            // Only triggered if there is a new note added after the first 
+            // run
+            if (addedNotes.isEmpty() || !isAfterFirstRun) {
+                return;
+            }
+
+            final Note lastAddedNote = addedNotes.get(addedNotes.size() - 1);
+            final boolean lastIsStudentToLecturer
+                    = lastAddedNote.isStudentToLecturer();
+
+            // Make sure first that the newly added note button
+            // is created by the corresponding user
+            // It is possible to add a new button from other user
+            final Button clickedButton;
+            if ((isStudentUser && lastIsStudentToLecturer)
+                    || (!isStudentUser && !lastIsStudentToLecturer)) {
+                // Logically, the last note button added by this user is 
+                // a newly created opened comment, so it must also have 
+                // clicked style added to it
+                clickedButton = listOfNoteButtons.get(lastAddedNote.getId());
+            } else {
+                // Otherwise retain current clicked style to the 
+                // currently opened comment layout
+                // Possible scenarion when this user is reading a note
+                // then suddenly the other user sent a new note
+                clickedButton = listOfNoteButtons.get(currentOpenNoteId);
+            }
+
+            if (clickedButton != null) {
+                // remove any unread style
+                clickedButton.removeStyleName("note-unread");
+                clickedButton.addStyleName("note-clicked");
             }
         }
     }
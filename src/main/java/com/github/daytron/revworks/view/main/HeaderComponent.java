@@ -18,31 +18,28 @@ package com.github.daytron.revworks.view.main;
 import com.github.daytron.revworks.MainUI;
 import com.github.daytron.revworks.component.NotificationButton;
 import com.github.daytron.revworks.data.PreparedQueryStatement;
-import com.github.daytron.revworks.data.UserNotificationType;
 import com.github.daytron.revworks.event.AppEvent;
 import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.model.User;
 import com.github.daytron.revworks.model.UserNotification;
 import com.github.daytron.revworks.presenter.NotificationButtonListener;
+import com.github.daytron.revworks.service.ChangeHub;
 import com.github.daytron.revworks.service.CurrentUserSession;
 import com.github.daytron.revworks.service.DataProviderAbstract;
+import com.github.daytron.revworks.service.mapper.UserNotificationRowMapper;
 import com.vaadin.server.FontAwesome;
 import com.vaadin.ui.Alignment;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
+import com.vaadin.ui.UI;
 import com.vaadin.ui.themes.ValoTheme;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,15 +51,14 @@ import java.util.logging.Logger;
 @SuppressWarnings("serial")
 public class HeaderComponent extends HorizontalLayout {
 
-    private final ScheduledExecutorService scheduler
-            = Executors.newScheduledThreadPool(1);
-    private final Runnable runnableTask;
-    private final ScheduledFuture scheduledFuture;
+    private final ChangeHub.RefreshTask runnableTask;
+    private ChangeHub.Subscription subscription;
 
     /**
      * A class constructor that builds its UI components upon object creation. 
-     * It launches an executor service for update and retrieval of notifications 
-     * from the database. 
+     * It subscribes to the notification changes of the current user, so the 
+     * notifications are retrieved from the database when the header is 
+     * created and again whenever a new one arrives.
      */
     public HeaderComponent() {
         setSpacing(true);
@@ -119,186 +115,116 @@ public class HeaderComponent extends HorizontalLayout {
         addComponent(toolbar);
 
         runnableTask = new NotificationsExtractorRunnable();
-        scheduledFuture = scheduler.scheduleWithFixedDelay(runnableTask,
-                0, 500, TimeUnit.MILLISECONDS);
+
+        final ChangeHub changeHub = MainUI.MainUIServlet.getChangeHub();
+        if (changeHub != null) {
+            subscription = changeHub.subscribe(
+                    ChangeHub.Topic.USER_NOTIFICATIONS,
+                    ((User) CurrentUserSession.getPrincipal()).getId(),
+                    UI.getCurrent(), runnableTask);
+            subscription.refresh();
+        }
     }
 
     /**
-     * Shuts down the executor service for update and retrieval of notifications.
+     * Retrieves the notifications again. Used when the retrieval is resumed 
+     * after a pause, since changes published during the pause are skipped.
+     */
+    public void refreshNotifications() {
+        if (subscription != null) {
+            subscription.refresh();
+        }
+    }
+
+    /**
+     * Stops the update and retrieval of notifications.
      */
     public void shutdownNotificationExecutor() {
-        scheduledFuture.cancel(true);
-        scheduler.shutdownNow();
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
     }
 
     /**
-     * A Runnable object for Executor service that updates and retrieves 
-     * notifications continuously. 
+     * A refresh task run by the change hub that updates and retrieves 
+     * notifications whenever they change. Only the notifications changed 
+     * since the last seen notification version of the user are fetched.
      */
     final class NotificationsExtractorRunnable extends DataProviderAbstract
-            implements Runnable {
+            implements ChangeHub.RefreshTask {
 
-        private int previousUnreadCount = 0;
+        private final Map<Integer, UserNotification> unreadNotifications
+                = new LinkedHashMap<>();
+        private int lastNotificationVersion = -1;
 
         @Override
-        public void run() {
+        public synchronized boolean refresh() {
 
-            synchronized (this) {
-                // Skip retrieval if notification button is pressed
-                if (MainUI.get().getNotificationsProvider().isPause()) {
-                    return;
-                } 
+            // Skip retrieval if notification button is pressed
+            if (MainUI.get().getNotificationsProvider().isPause()) {
+                return false;
             }
 
-            final CopyOnWriteArrayList<UserNotification> listOfUserNotifications
-                    = new CopyOnWriteArrayList<>();
             if (reserveConnectionPool()) {
                 try {
-                    try (PreparedStatement preparedStatementUnread = getConnection().prepareStatement(
-                            PreparedQueryStatement.SELECT_USER_NOTIFICATION_UNREAD
-                            .getQuery())) {
-                        preparedStatementUnread.setInt(1,
-                                ((User) CurrentUserSession.getPrincipal()).getId());
-                        ResultSet resultSetUnread = preparedStatementUnread.executeQuery();
-
-                        if (resultSetUnread.next()) {
-
-                            // Calculate the current resulting row count
-                            int numberOfResultedRows = 0;
-                            resultSetUnread.beforeFirst();
-                            while (resultSetUnread.next()) {
-                                numberOfResultedRows += 1;
-                            }
-
-                            if (numberOfResultedRows == 0
-                                    || numberOfResultedRows == previousUnreadCount) {
-                                preparedStatementUnread.close();
-                                resultSetUnread.close();
-                                releaseConnection();
-                                return;
-                            }
-
-                            // save new unread count
-                            previousUnreadCount = numberOfResultedRows;
-
-                            resultSetUnread.beforeFirst();
-                            DateTimeFormatter formatter
-                                    = DateTimeFormatter.ofPattern("dd-MMM hh:mm a");
-                            while (resultSetUnread.next()) {
-                                Timestamp timestamp = resultSetUnread.getTimestamp(4);
-                                LocalDateTime submittedDateTime = timestamp.toLocalDateTime();
-
-                                int notificationTypeID = resultSetUnread.getInt(6);
-                                UserNotificationType userNotificationType;
-
-                                switch (notificationTypeID) {
-                                    case 1:
-                                        userNotificationType
-                                                = UserNotificationType.COURSEWORK;
-                                        break;
-                                    case 2:
-                                        userNotificationType
-                                                = UserNotificationType.NOTE;
-                                        break;
-                                    default:
-                                        userNotificationType
-                                                = UserNotificationType.COMMENT;
-                                        break;
-                                }
-
-                                UserNotification userNotification
-                                        = new UserNotification(resultSetUnread.getInt(1),
-                                                resultSetUnread.getString(2),
-                                                resultSetUnread.getString(3),
-                                                submittedDateTime,
-                                                resultSetUnread.getBoolean(5),
-                                                userNotificationType,
-                                                resultSetUnread.getInt(7),
-                                                resultSetUnread.getString(8),
-                                                resultSetUnread.getInt(9),
-                                                resultSetUnread.getString(10));
-
-                                listOfUserNotifications.add(userNotification);
-
-                            }
-
-                            preparedStatementUnread.close();
-                            resultSetUnread.close();
+                    final int userId
+                            = ((User) CurrentUserSession.getPrincipal()).getId();
+
+                    // A single row lookup tells if any notification changed
+                    final int notificationVersion = queryChangeVersion(
+                            PreparedQueryStatement.SELECT_USER_NOTIFICATION_VERSION,
+                            userId);
+                    if (notificationVersion == lastNotificationVersion) {
+                        return false;
+                    }
+
+                    final List<UserNotification> listOfChangedNotifications;
+                    try (PreparedStatement preparedStatementChanged = prepareStatement(
+                            PreparedQueryStatement.SELECT_USER_NOTIFICATION_CHANGED)) {
+                        preparedStatementChanged.setInt(1, userId);
+                        preparedStatementChanged.setInt(2, lastNotificationVersion);
+                        listOfChangedNotifications = queryForList(
+                                preparedStatementChanged,
+                                new UserNotificationRowMapper());
+                    }
+
+                    // Save it for the next round
+                    lastNotificationVersion = notificationVersion;
+
+                    // The badge count is kept in the database, null if 
+                    // nothing is counted yet
+                    final Integer unreadCount = queryUnreadCount(userId,
+                            NOTIFICATIONS_COUNTER);
+
+                    // New notifications are added, read ones are dropped
+                    for (UserNotification userNotification
+                            : listOfChangedNotifications) {
+                        if (userNotification.isRead()) {
+                            unreadNotifications.remove(userNotification.getId());
                         } else {
-                            // else empty
-                            // get last 5 notifications (aggregate later on)
-
-                            // close first
-                            preparedStatementUnread.close();
-                            resultSetUnread.close();
-
-                            // Begin extraction of read notificaitons
-                            PreparedStatement preparedStatementRead
-                                    = getConnection().prepareStatement(
-                                            PreparedQueryStatement.SELECT_USER_NOTIFICATION_READ
-                                            .getQuery());
-                            preparedStatementRead.setInt(1,
-                                    ((User) CurrentUserSession.getPrincipal()).getId());
-                            ResultSet resultSetRead
-                                    = preparedStatementRead.executeQuery();
-
-                            if (!resultSetRead.next()) {
-                                preparedStatementRead.close();
-                                resultSetRead.close();
-                                releaseConnection();
-                                return;
-                            }
-
-                            resultSetRead.beforeFirst();
-                            DateTimeFormatter formatter
-                                    = DateTimeFormatter.ofPattern("dd-MMM hh:mm a");
-                            
-                            while (resultSetRead.next()) {
-                                Timestamp timestamp = resultSetRead.getTimestamp(4);
-                                LocalDateTime submittedDateTime = timestamp.toLocalDateTime();
-
-                                int notificationTypeID = resultSetRead.getInt(6);
-                                UserNotificationType userNotificationType;
-
-                                switch (notificationTypeID) {
-                                    case 1:
-                                        userNotificationType
-                                                = UserNotificationType.COURSEWORK;
-                                        break;
-                                    case 2:
-                                        userNotificationType
-                                                = UserNotificationType.NOTE;
-                                        break;
-                                    case 3:
-                                        userNotificationType
-                                                = UserNotificationType.COMMENT;
-                                        break;
-                                    default:
-                                        userNotificationType = null;
-                                        break;
-                                }
-
-                                UserNotification userNotification
-                                        = new UserNotification(resultSetRead.getInt(1),
-                                                resultSetRead.getString(2),
-                                                resultSetRead.getString(3),
-                                                submittedDateTime,
-                                                resultSetRead.getBoolean(5),
-                                                userNotificationType,
-                                                resultSetRead.getInt(7),
-                                                resultSetRead.getString(8),
-                                                resultSetRead.getInt(9),
-                                                resultSetRead.getString(10));
-
-                                listOfUserNotifications.add(userNotification);
-
-                            }
-
-                            preparedStatementRead.close();
-                            resultSetRead.close();
+                            unreadNotifications.put(userNotification.getId(),
+                                    userNotification);
+                        }
+                    }
 
+                    final CopyOnWriteArrayList<UserNotification> listOfUserNotifications
+                            = new CopyOnWriteArrayList<>(
+                                    unreadNotifications.values());
+
+                    if (listOfUserNotifications.isEmpty()) {
+                        // get last 5 notifications (aggregate later on)
+                        try (PreparedStatement preparedStatementRead
+                                = prepareStatement(
+                                        PreparedQueryStatement.SELECT_USER_NOTIFICATION_READ)) {
+                            preparedStatementRead.setInt(1, userId);
+                            listOfUserNotifications.addAll(queryForList(
+                                    preparedStatementRead,
+                                    new UserNotificationRowMapper()));
                         }
 
+                        if (listOfUserNotifications.isEmpty()) {
+                            return true;
+                        }
                     }
 
                     MainUI.get().access(new Runnable() {
@@ -306,10 +232,11 @@ public class HeaderComponent extends HorizontalLayout {
                         @Override
                         public void run() {
                             MainUI.get().getNotificationsProvider()
-                            .setListOfNotifications(listOfUserNotifications);
+                            .setListOfNotifications(listOfUserNotifications,
+                                    unreadCount);
                         }
                     });
-                    
+                    return true;
 
                 } catch (SQLException ex) {
                     Logger.getLogger(HeaderComponent.class.getName()).log(Level.SEVERE, null, ex);
@@ -317,6 +244,7 @@ public class HeaderComponent extends HorizontalLayout {
                     releaseConnection();
                 }
             }
+            return false;
         }
 
     }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.view.main;
+
+import com.github.daytron.revworks.MainUI;
+import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.service.ThumbnailService;
+import com.github.daytron.revworks.util.PageImageEncoder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.vaadin.event.LayoutEvents;
+import com.vaadin.server.StreamResource;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Image;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Panel;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A scrollable strip of page thumbnails below the coursework viewer. Clicking 
+ * a thumbnail flips the viewer straight to its page. The thumbnails come 
+ * from the {@link ThumbnailService} one batch at a time, so the strip fills 
+ * in from the first page while the user is already reading.
+ *
+ * @author Ryan Gilera
+ */
+@SuppressWarnings("serial")
+public class ThumbnailStrip extends Panel {
+
+    private final Coursework coursework;
+    private final CourseworkView courseworkView;
+    private final UI ui;
+    private final HorizontalLayout thumbnailLayout;
+    private final List<CssLayout> slots;
+    private int currentPage;
+    private volatile boolean isClosed;
+
+    /**
+     * A class constructor that takes the coursework, the viewer to flip and 
+     * the UI the thumbnails are pushed to.
+     *
+     * @param coursework the coursework shown in the viewer
+     * @param courseworkView the associated view object
+     * @param ui the UI of the view
+     */
+    public ThumbnailStrip(Coursework coursework, CourseworkView courseworkView,
+            UI ui) {
+        this.coursework = coursework;
+        this.courseworkView = courseworkView;
+        this.ui = ui;
+        this.slots = new ArrayList<>();
+        this.currentPage = 0;
+        this.isClosed = false;
+
+        setWidth("100%");
+        setHeightUndefined();
+        addStyleName("thumbnail-strip");
+
+        thumbnailLayout = new HorizontalLayout();
+        thumbnailLayout.setSpacing(true);
+        thumbnailLayout.setMargin(true);
+        setContent(thumbnailLayout);
+    }
+
+    /**
+     * Creates a slot for every page and starts loading the thumbnails.
+     *
+     * @param pageCount the number of pages of the coursework
+     */
+    public void load(int pageCount) {
+        thumbnailLayout.removeAllComponents();
+        slots.clear();
+
+        for (int page = 1; page <= pageCount; page++) {
+            CssLayout slot = createSlot(page);
+            slots.add(slot);
+            thumbnailLayout.addComponent(slot);
+        }
+        setCurrentPage(currentPage);
+
+        loadBatch(1, pageCount);
+    }
+
+    /**
+     * Highlights the thumbnail of the page shown in the viewer.
+     *
+     * @param pageNumber the one-based page number
+     */
+    public void setCurrentPage(int pageNumber) {
+        if (currentPage >= 1 && currentPage <= slots.size()) {
+            slots.get(currentPage - 1).removeStyleName("thumbnail-current");
+        }
+
+        currentPage = pageNumber;
+        if (currentPage >= 1 && currentPage <= slots.size()) {
+            slots.get(currentPage - 1).addStyleName("thumbnail-current");
+        }
+    }
+
+    /**
+     * Stops loading any further thumbnails.
+     */
+    public void close() {
+        isClosed = true;
+    }
+
+    /**
+     * Requests the thumbnails of one batch and the next batch once it 
+     * arrives.
+     *
+     * @param firstPage the first one-based page number of the batch
+     * @param pageCount the number of pages of the coursework
+     */
+    private void loadBatch(final int firstPage, final int pageCount) {
+        final ThumbnailService thumbnailService
+                = MainUI.MainUIServlet.getThumbnailService();
+        if (isClosed || firstPage > pageCount || thumbnailService == null) {
+            return;
+        }
+
+        final int lastPage = Math.min(pageCount,
+                firstPage + ThumbnailService.BATCH_SIZE - 1);
+
+        Futures.addCallback(thumbnailService.requestThumbnails(coursework,
+                firstPage, lastPage),
+                new FutureCallback<Map<Integer, byte[]>>() {
+
+                    @Override
+                    public void onSuccess(
+                            final Map<Integer, byte[]> thumbnails) {
+                        boolean isAccessed = accessStrip(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                for (Map.Entry<Integer, byte[]> entry
+                                : thumbnails.entrySet()) {
+                                    setThumbnail(entry.getKey(),
+                                            entry.getValue());
+                                }
+                            }
+                        });
+
+                        if (isAccessed) {
+                            loadBatch(lastPage + 1, pageCount);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        // The strip is only a shortcut, the pages can still 
+                        // be flipped with the arrows
+                        Logger.getLogger(ThumbnailStrip.class.getName())
+                                .log(Level.WARNING, null, t);
+                    }
+                });
+    }
+
+    /**
+     * Creates the clickable slot of a page, showing its number until the 
+     * thumbnail arrives.
+     *
+     * @param pageNumber the one-based page number
+     * @return CssLayout object
+     */
+    private CssLayout createSlot(final int pageNumber) {
+        CssLayout slot = new CssLayout();
+        slot.addStyleName("thumbnail-slot");
+        slot.setDescription("Page " + pageNumber);
+        slot.addComponent(new Label("" + pageNumber));
+        slot.addLayoutClickListener(new LayoutEvents.LayoutClickListener() {
+
+            @Override
+            public void layoutClick(LayoutEvents.LayoutClickEvent event) {
+                courseworkView.flipToPage(pageNumber);
+            }
+        });
+        return slot;
+    }
+
+    /**
+     * Replaces the page number in a slot with the thumbnail of the page.
+     *
+     * @param pageNumber the one-based page number
+     * @param thumbnail the encoded image bytes of the thumbnail
+     */
+    private void setThumbnail(int pageNumber, final byte[] thumbnail) {
+        if (pageNumber < 1 || pageNumber > slots.size()) {
+            return;
+        }
+
+        Image image = new Image(null, new StreamResource(
+                new StreamResource.StreamSource() {
+
+                    @Override
+                    public InputStream getStream() {
+                        return new ByteArrayInputStream(thumbnail);
+                    }
+                }, "thumbnail-" + coursework.getId() + "-" + pageNumber + "."
+                + PageImageEncoder.detectFormat(thumbnail)));
+        image.setHeight("96px");
+        image.setWidthUndefined();
+
+        CssLayout slot = slots.get(pageNumber - 1);
+        slot.removeAllComponents();
+        slot.addComponent(image);
+    }
+
+    /**
+     * Runs a command on this strip from a rendering thread. The change is 
+     * pushed to the browser.
+     *
+     * @param command the command to run with the session locked
+     * @return true if the command is scheduled, false if the strip is closed 
+     * or the UI is already detached
+     */
+    private boolean accessStrip(Runnable command) {
+        if (isClosed) {
+            return false;
+        }
+
+        try {
+            ui.access(command);
+            return true;
+        } catch (UIDetachedException ex) {
+            return false;
+        }
+    }
+
+}
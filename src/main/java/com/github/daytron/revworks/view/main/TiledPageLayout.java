@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Ryan Gilera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.daytron.revworks.view.main;
+
+import com.github.daytron.revworks.util.PageImageEncoder;
+import com.github.daytron.revworks.util.PdfPageProvider;
+import com.github.daytron.revworks.util.PdfTileRenderer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.vaadin.server.Sizeable;
+import com.vaadin.server.StreamResource;
+import com.vaadin.ui.AbsoluteLayout;
+import com.vaadin.ui.Image;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A zoomed page in the coursework viewer made of tiles. The layout takes 
+ * the full zoomed size of the page so the viewer panel can scroll over it, 
+ * but only the tiles in view, plus a margin of one tile, are requested from 
+ * the page provider. Panning requests the newly visible tiles.
+ *
+ * @author Ryan Gilera
+ */
+@SuppressWarnings("serial")
+public class TiledPageLayout extends AbsoluteLayout {
+
+    private final PdfPageProvider pageProvider;
+    private final int courseworkId;
+    private final int pageNumber;
+    private final PdfTileRenderer.TileGrid grid;
+    private final double cssScale;
+    private final UI ui;
+    private final Set<Integer> requestedTiles;
+    private volatile boolean isClosed;
+
+    /**
+     * A class constructor that takes the page and how it is shown.
+     *
+     * @param pageProvider the provider the tiles are requested from
+     * @param courseworkId the id of the coursework
+     * @param pageNumber the one-based page number
+     * @param grid the TileGrid of the page at the zoomed resolution
+     * @param cssWidth the width the zoomed page takes in CSS pixels
+     * @param ui the UI the tiles are pushed to
+     */
+    public TiledPageLayout(PdfPageProvider pageProvider, int courseworkId,
+            int pageNumber, PdfTileRenderer.TileGrid grid, double cssWidth,
+            UI ui) {
+        this.pageProvider = pageProvider;
+        this.courseworkId = courseworkId;
+        this.pageNumber = pageNumber;
+        this.grid = grid;
+        this.cssScale = cssWidth / grid.getWidth();
+        this.ui = ui;
+        this.requestedTiles = new HashSet<>();
+        this.isClosed = false;
+
+        setWidth((float) (grid.getWidth() * cssScale), Sizeable.Unit.PIXELS);
+        setHeight((float) (grid.getHeight() * cssScale),
+                Sizeable.Unit.PIXELS);
+    }
+
+    /**
+     * Access the page number.
+     *
+     * @return the one-based page number
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    /**
+     * Requests the tiles that are in view and not requested yet.
+     *
+     * @param scrollLeft the horizontal scroll position in CSS pixels
+     * @param scrollTop the vertical scroll position in CSS pixels
+     * @param viewWidth the width of the visible area in CSS pixels
+     * @param viewHeight the height of the visible area in CSS pixels
+     */
+    public void showVisibleTiles(double scrollLeft, double scrollTop,
+            double viewWidth, double viewHeight) {
+        final double cssTileSize = PdfTileRenderer.TILE_SIZE * cssScale;
+
+        final int firstColumn = Math.max(0,
+                (int) (scrollLeft / cssTileSize) - 1);
+        final int lastColumn = Math.min(grid.getColumns() - 1,
+                (int) ((scrollLeft + viewWidth) / cssTileSize) + 1);
+        final int firstRow = Math.max(0, (int) (scrollTop / cssTileSize) - 1);
+        final int lastRow = Math.min(grid.getRows() - 1,
+                (int) ((scrollTop + viewHeight) / cssTileSize) + 1);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                if (requestedTiles.add(row * grid.getColumns() + column)) {
+                    requestTile(column, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops adding tiles that are still being rendered.
+     */
+    public void close() {
+        isClosed = true;
+    }
+
+    /**
+     * Requests a tile and places it once it is rendered.
+     *
+     * @param column the zero-based column of the tile
+     * @param row the zero-based row of the tile
+     */
+    private void requestTile(final int column, final int row) {
+        Futures.addCallback(pageProvider.requestTile(pageNumber, grid,
+                column, row), new FutureCallback<byte[]>() {
+
+                    @Override
+                    public void onSuccess(final byte[] tileImage) {
+                        if (isClosed) {
+                            return;
+                        }
+
+                        try {
+                            ui.access(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    if (!isClosed) {
+                                        addTile(column, row, tileImage);
+                                    }
+                                }
+                            });
+                        } catch (UIDetachedException ex) {
+                            isClosed = true;
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        if (!(t instanceof CancellationException)
+                        && !isClosed) {
+                            Logger.getLogger(TiledPageLayout.class.getName())
+                                    .log(Level.WARNING, null, t);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Places a rendered tile at its position on the zoomed page.
+     *
+     * @param column the zero-based column of the tile
+     * @param row the zero-based row of the tile
+     * @param tileImage the encoded image bytes of the tile
+     */
+    private void addTile(int column, int row, final byte[] tileImage) {
+        Image tile = new Image(null, new StreamResource(
+                new StreamResource.StreamSource() {
+
+                    @Override
+                    public InputStream getStream() {
+                        return new ByteArrayInputStream(tileImage);
+                    }
+                }, "tile-" + courseworkId + "-" + pageNumber + "-"
+                + grid.getDpi() + "-" + column + "x" + row + "."
+                + PageImageEncoder.detectFormat(tileImage)));
+        tile.setWidth((float) (grid.getTileWidth(column) * cssScale),
+                Sizeable.Unit.PIXELS);
+        tile.setHeight((float) (grid.getTileHeight(row) * cssScale),
+                Sizeable.Unit.PIXELS);
+
+        addComponent(tile, String.format(Locale.ROOT,
+                "left: %.2fpx; top: %.2fpx;",
+                column * PdfTileRenderer.TILE_SIZE * cssScale,
+                row * PdfTileRenderer.TILE_SIZE * cssScale));
+    }
+
+}
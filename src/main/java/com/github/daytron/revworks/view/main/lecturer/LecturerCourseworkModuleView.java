@@ -23,6 +23,7 @@ import com.github.daytron.revworks.exception.SQLErrorQueryException;
 import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPoolException;
 import com.github.daytron.revworks.model.ClassTable;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.presenter.CourseworkPreviewColumnGenerator;
 import com.github.daytron.revworks.presenter.LocalDateTimeColumnGenerator;
 import com.github.daytron.revworks.presenter.StudentIdColumnGenerator;
 import com.github.daytron.revworks.presenter.StudentNameColumnGenerator;
@@ -296,13 +297,18 @@ public class LecturerCourseworkModuleView extends Panel implements View {
             moduleTable.setColumnHeader("dateSubmitted", "Date Submitted");
             moduleTable.setColumnHeader("readLecturer", "Read");
 
+            moduleTable.addGeneratedColumn("preview",
+                    new CourseworkPreviewColumnGenerator());
+            moduleTable.setColumnHeader("preview", "Preview");
+
             // Arrange columns order
             moduleTable.setVisibleColumns((Object[]) new String[]{"id",
-                "studentId", "studentName", "title", "dateSubmitted"});
+                "preview", "studentId", "studentName", "title",
+                "dateSubmitted"});
             // Set column alignment
             moduleTable.setColumnAlignments(new Table.Align[]{Table.ALIGN_LEFT,
                 Table.Align.CENTER, Table.Align.CENTER, Table.Align.CENTER,
-                Table.Align.CENTER});
+                Table.Align.CENTER, Table.Align.CENTER});
 
             moduleTable.setCellStyleGenerator(new Table.CellStyleGenerator() {
 
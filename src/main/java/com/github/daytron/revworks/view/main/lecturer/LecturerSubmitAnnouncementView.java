@@ -38,7 +38,6 @@ import com.vaadin.ui.TextField;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.themes.ValoTheme;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The view class for creating new announcement for lecturers.
@@ -53,7 +52,7 @@ public class LecturerSubmitAnnouncementView extends Panel implements View {
     public static final String VIEW_TITLE = "Create Announcement";
 
     private boolean isInitialised = false;
-    private CopyOnWriteArrayList<ClassTable> listOfClassTables;
+    private List<ClassTable> listOfClassTables;
     
     private Label previewContent;
 
@@ -72,7 +71,8 @@ public class LecturerSubmitAnnouncementView extends Panel implements View {
         CurrentUserSession.shutdownCommentExectorService();
         
         if (!isInitialised) {
-            this.listOfClassTables = CurrentUserSession.getCurrentClassTables();
+            this.listOfClassTables = CurrentUserSession.getCurrentClassTables()
+                    .getList();
             
             this.previewContent = new Label("&nbsp;");
             initView();
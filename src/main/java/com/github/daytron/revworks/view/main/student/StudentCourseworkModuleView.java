@@ -22,6 +22,7 @@ import com.github.daytron.revworks.event.AppEventBus;
 import com.github.daytron.revworks.exception.SQLErrorQueryException;
 import com.github.daytron.revworks.exception.SQLErrorRetrievingConnectionAndPoolException;
 import com.github.daytron.revworks.model.Coursework;
+import com.github.daytron.revworks.presenter.CourseworkPreviewColumnGenerator;
 import com.github.daytron.revworks.presenter.LecturerNameColumnGenerator;
 import com.github.daytron.revworks.presenter.LocalDateTimeColumnGenerator;
 import com.github.daytron.revworks.presenter.ModuleIDColumnGenerator;
@@ -216,13 +217,18 @@ public class StudentCourseworkModuleView extends Panel implements View {
 
         courseworksTable.setColumnHeader("readStudent", "Read");
 
+        courseworksTable.addGeneratedColumn("preview",
+                new CourseworkPreviewColumnGenerator());
+        courseworksTable.setColumnHeader("preview", "Preview");
+
         // Arrange columns order
         courseworksTable.setVisibleColumns((Object[]) new String[]{"id",
-            "title", "dateSubmitted", "moduleId", "moduleName", "lecturer"});
+            "preview", "title", "dateSubmitted", "moduleId", "moduleName",
+            "lecturer"});
         // Set column alignment
         courseworksTable.setColumnAlignments(new Table.Align[]{Table.ALIGN_LEFT,
             Table.Align.CENTER, Table.Align.CENTER, Table.Align.CENTER,
-            Table.Align.CENTER, Table.Align.CENTER});
+            Table.Align.CENTER, Table.Align.CENTER, Table.Align.CENTER});
 
         courseworksTable.setCellStyleGenerator(new Table.CellStyleGenerator() {
 
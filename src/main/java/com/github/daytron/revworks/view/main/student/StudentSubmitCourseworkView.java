@@ -42,7 +42,6 @@ import com.vaadin.ui.Upload;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.themes.ValoTheme;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A view for submitting coursework for students.
@@ -58,7 +57,7 @@ public class StudentSubmitCourseworkView extends Panel
     public static final String VIEW_TITLE = "Submit Your Coursework";
 
     private boolean isInitialised = false;
-    private CopyOnWriteArrayList<ClassTable> listOfClasses;
+    private List<ClassTable> listOfClasses;
 
     /**
      * The entry point for all derived classes of View. If not currently
@@ -75,7 +74,8 @@ public class StudentSubmitCourseworkView extends Panel
         CurrentUserSession.shutdownCommentExectorService();
 
         if (!isInitialised) {
-            this.listOfClasses = CurrentUserSession.getCurrentClassTables();
+            this.listOfClasses = CurrentUserSession.getCurrentClassTables()
+                    .getList();
             initView();
             isInitialised = true;
         }
@@ -315,7 +315,7 @@ public class StudentSubmitCourseworkView extends Panel
                 }
 
                 AppEventBus.post(new AppEvent.StudentSubmitCourseworkEvent(
-                        fileUploadReceiver.getFileUploaded(),
+                        fileUploadReceiver.getSpooledUpload(),
                         selectedClass, newFormattedTitle));
 
             }